@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.message.Message;
+import com.fridaymastermix.message.MessageWrapper;
+import com.fridaymastermix.user.User;
+import com.fridaymastermix.user.UserWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the JSON serialization of the list responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WrapperSerializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MessageWrapper messages;
+    private UserWrapper users;
+
+    @Setup
+    public void setup() {
+        var messageList = new ArrayList<Message>(size);
+        var userList = new ArrayList<User>(size);
+
+        for (var i = 0; i < size; i++) {
+            var nick = String.format("user%d", i);
+            messageList.add(new Message(String.format("message%d", i), "this is a message", nick, 1575158400, 1575158400));
+            userList.add(new User(nick, "password"));
+        }
+
+        messages = new MessageWrapper(messageList);
+        users = new UserWrapper(userList);
+    }
+
+    @Benchmark
+    public byte[] messageWrapper() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public byte[] userWrapper() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(users);
+    }
+}
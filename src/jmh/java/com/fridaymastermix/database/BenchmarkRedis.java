@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * A {@link RespStandIn} together with a {@link RedisFactory} that is connected to it.
+ */
+public class BenchmarkRedis implements AutoCloseable {
+    private final RespStandIn standIn;
+    private final RedisFactory factory;
+
+    /**
+     * Starts a stand-in and creates a connection pool to it.
+     *
+     * @throws IOException if the stand-in could not be started.
+     */
+    public BenchmarkRedis() throws IOException {
+        standIn = new RespStandIn();
+
+        factory = new RedisFactory();
+        factory.host = InetAddress.getLoopbackAddress().getHostAddress();
+        factory.port = standIn.port();
+        factory.connectTimeout = 2000;
+        factory.socketTimeout = 2000;
+        factory.minIdle = 4;
+        factory.maxIdle = 16;
+        factory.maxTotal = 64;
+        factory.maxWait = 1000;
+        factory.afterPropertiesSet();
+    }
+
+    /**
+     * Returns the factory that borrows clients connected to the stand-in.
+     *
+     * @return the factory.
+     */
+    public RedisFactory factory() {
+        return factory;
+    }
+
+    /**
+     * Closes the pool and stops the stand-in.
+     *
+     * @throws IOException if the stand-in could not be stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        factory.destroy();
+        standIn.close();
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A minimal in process redis stand-in for the benchmarks.
+ *
+ * It speaks RESP and implements the commands that the DAOs use, so that the benchmarks measure the clients, the
+ * protocol and the DAOs without depending on an installed redis. It is not a redis replacement: there is no
+ * persistence, no expiry and all commands are executed under one lock.
+ *
+ * There is no lua interpreter. The scripts of the DAOs are recognized by their SHA1 digest and run as the equivalent
+ * commands, so EVAL, EVALSHA and SCRIPT LOAD work for them and fail for any other script. Values are read and written
+ * as ISO-8859-1 so that binary values are kept byte for byte.
+ */
+public class RespStandIn implements AutoCloseable {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+    private static final Map<String, String> SCRIPTS = scripts("message-add", "message-update", "message-delete", "user-add");
+
+    private final Map<String, Object> data = new HashMap<>();
+    private final Set<String> loaded = new HashSet<>();
+    private final ServerSocket server;
+    private final Thread acceptor;
+
+    /**
+     * Starts the stand-in on a free port on the loopback interface.
+     *
+     * @throws IOException if the server socket could not be opened.
+     */
+    public RespStandIn() throws IOException {
+        server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "resp-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the stand-in listens on.
+     *
+     * @return the port.
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections. Open connections are closed by their clients.
+     *
+     * @throws IOException if the server socket could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private static Map<String, String> scripts(String... names) {
+        var scripts = new HashMap<String, String>();
+
+        for (var name: names) {
+            scripts.put(new RedisScript(name).getSha(), name);
+        }
+
+        return scripts;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                var socket = server.accept();
+                socket.setTcpNoDelay(true);
+                var connection = new Thread(() -> serve(socket), "resp-stand-in-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                // The server socket is closed.
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            var in = new BufferedInputStream(socket.getInputStream());
+            var out = new BufferedOutputStream(socket.getOutputStream());
+
+            while (true) {
+                var command = readCommand(in);
+                if (command.isEmpty()) {
+                    continue;
+                }
+
+                var name = command.get(0).toUpperCase();
+                if ("QUIT".equals(name)) {
+                    writeSimple(out, "OK");
+                    out.flush();
+                    return;
+                }
+
+                synchronized (data) {
+                    execute(name, command, out);
+                }
+
+                // Pipelined commands are answered in one write.
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client closed the connection.
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void execute(String name, List<String> args, OutputStream out) throws IOException {
+        switch (name) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                writeSimple(out, "OK");
+                break;
+            case "EXISTS":
+                var found = 0;
+                for (var key: args.subList(1, args.size())) {
+                    found += data.containsKey(key) ? 1 : 0;
+                }
+                writeInteger(out, found);
+                break;
+            case "GET":
+                var stored = data.get(args.get(1));
+                if (stored != null && !(stored instanceof String)) {
+                    writeError(out, "WRONGTYPE Operation against a key holding the wrong kind of value");
+                } else {
+                    writeBulk(out, (String) stored);
+                }
+                break;
+            case "MGET":
+                var strings = new ArrayList<Object>(args.size() - 1);
+                for (var key: args.subList(1, args.size())) {
+                    var string = data.get(key);
+                    strings.add(string instanceof String ? string : null);
+                }
+                writeReply(out, strings);
+                break;
+            case "SET":
+                data.put(args.get(1), args.get(2));
+                writeSimple(out, "OK");
+                break;
+            case "SETNX":
+                writeInteger(out, data.putIfAbsent(args.get(1), args.get(2)) == null ? 1 : 0);
+                break;
+            case "INCR":
+                writeInteger(out, incr(args.get(1)));
+                break;
+            case "SCRIPT":
+                if (!"LOAD".equalsIgnoreCase(args.get(1))) {
+                    writeError(out, "ERR the stand-in only supports SCRIPT LOAD");
+                    break;
+                }
+                var sha = sha(args.get(2));
+                if (!SCRIPTS.containsKey(sha)) {
+                    writeError(out, "ERR the stand-in only runs the scripts of the DAOs");
+                    break;
+                }
+                loaded.add(sha);
+                writeBulk(out, sha);
+                break;
+            case "EVAL":
+            case "EVALSHA":
+                var script = "EVAL".equals(name) ? sha(args.get(1)) : args.get(1).toLowerCase();
+                if (!SCRIPTS.containsKey(script)) {
+                    writeError(out, "EVAL".equals(name) ? "ERR the stand-in only runs the scripts of the DAOs" :
+                            "NOSCRIPT No matching script. Please use EVAL.");
+                    break;
+                }
+                if ("EVALSHA".equals(name) && !loaded.contains(script)) {
+                    writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+                    break;
+                }
+                loaded.add(script);
+                var count = Integer.parseInt(args.get(2));
+                var keys = args.subList(3, 3 + count);
+                var argv = args.subList(3 + count, args.size());
+                writeReply(out, run(SCRIPTS.get(script), keys, argv));
+                break;
+            case "DEL":
+                var deleted = 0;
+                for (var key: args.subList(1, args.size())) {
+                    deleted += data.remove(key) != null ? 1 : 0;
+                }
+                writeInteger(out, deleted);
+                break;
+            case "HSET":
+            case "HMSET":
+                var hash = (Map<String, String>) data.computeIfAbsent(args.get(1), key -> new LinkedHashMap<>());
+                var added = 0;
+                for (var i = 2; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                if ("HSET".equals(name)) {
+                    writeInteger(out, added);
+                } else {
+                    writeSimple(out, "OK");
+                }
+                break;
+            case "HGETALL":
+                var fields = (Map<String, String>) data.getOrDefault(args.get(1), Map.of());
+                var flat = new ArrayList<String>(fields.size() * 2);
+                fields.forEach((field, value) -> {
+                    flat.add(field);
+                    flat.add(value);
+                });
+                writeArray(out, flat);
+                break;
+            case "SADD":
+            case "SREM":
+                var set = (Set<String>) data.computeIfAbsent(args.get(1), key -> new LinkedHashSet<>());
+                var changed = 0;
+                for (var member: args.subList(2, args.size())) {
+                    changed += ("SADD".equals(name) ? set.add(member) : set.remove(member)) ? 1 : 0;
+                }
+                writeInteger(out, changed);
+                break;
+            case "SISMEMBER":
+                var members = (Set<String>) data.getOrDefault(args.get(1), Set.of());
+                writeInteger(out, members.contains(args.get(2)) ? 1 : 0);
+                break;
+            case "SMEMBERS":
+                writeArray(out, new ArrayList<>((Set<String>) data.getOrDefault(args.get(1), Set.of())));
+                break;
+            case "SCARD":
+                writeInteger(out, ((Set<String>) data.getOrDefault(args.get(1), Set.of())).size());
+                break;
+            case "ZADD":
+            case "ZREM":
+                var scores = (Map<String, Double>) data.computeIfAbsent(args.get(1), key -> new HashMap<>());
+                var updated = 0;
+                if ("ZADD".equals(name)) {
+                    for (var i = 2; i + 1 < args.size(); i += 2) {
+                        updated += scores.put(args.get(i + 1), Double.parseDouble(args.get(i))) == null ? 1 : 0;
+                    }
+                } else {
+                    for (var member: args.subList(2, args.size())) {
+                        updated += scores.remove(member) != null ? 1 : 0;
+                    }
+                }
+                writeInteger(out, updated);
+                break;
+            case "ZCARD":
+                writeInteger(out, ((Map<String, Double>) data.getOrDefault(args.get(1), Map.of())).size());
+                break;
+            case "LPUSH":
+            case "RPUSH":
+                var list = (List<String>) data.computeIfAbsent(args.get(1), key -> new ArrayList<>());
+                for (var value: args.subList(2, args.size())) {
+                    if ("LPUSH".equals(name)) {
+                        list.add(0, value);
+                    } else {
+                        list.add(value);
+                    }
+                }
+                writeInteger(out, list.size());
+                break;
+            case "LLEN":
+                writeInteger(out, ((List<String>) data.getOrDefault(args.get(1), List.of())).size());
+                break;
+            case "LRANGE":
+                var values = (List<String>) data.getOrDefault(args.get(1), List.of());
+                var start = index(Integer.parseInt(args.get(2)), values.size());
+                var stop = Math.min(index(Integer.parseInt(args.get(3)), values.size()), values.size() - 1);
+                writeArray(out, start > stop ? List.of() : values.subList(start, stop + 1));
+                break;
+            default:
+                writeError(out, String.format("ERR unknown command '%s'", name));
+        }
+    }
+
+    /**
+     * Runs one of the scripts of the DAOs as the commands it would call. Keys and arguments are zero based here while
+     * they are one based in the scripts.
+     */
+    @SuppressWarnings("unchecked")
+    private Object run(String script, List<String> keys, List<String> argv) {
+        switch (script) {
+            case "message-add":
+                if ("1".equals(argv.get(2)) && !data.containsKey(keys.get(7))) {
+                    return 0L;
+                }
+                if ("binary".equals(argv.get(3))) {
+                    data.put(keys.get(0), argv.get(4));
+                } else {
+                    var hash = (Map<String, String>) data.computeIfAbsent(keys.get(0), key -> new LinkedHashMap<>());
+                    for (var i = 4; i + 1 < argv.size(); i += 2) {
+                        hash.put(argv.get(i), argv.get(i + 1));
+                    }
+                }
+                ((Set<String>) data.computeIfAbsent(keys.get(1), key -> new LinkedHashSet<>())).add(argv.get(0));
+                ((Set<String>) data.computeIfAbsent(keys.get(2), key -> new LinkedHashSet<>())).add(argv.get(0));
+                ((Map<String, Double>) data.computeIfAbsent(keys.get(3), key -> new HashMap<>())).put(argv.get(0), Double.parseDouble(argv.get(1)));
+                ((Map<String, Double>) data.computeIfAbsent(keys.get(4), key -> new HashMap<>())).put(argv.get(0), Double.parseDouble(argv.get(1)));
+                incr(keys.get(5));
+                incr(keys.get(6));
+                return 1L;
+            case "message-update":
+                var fields = (Map<String, String>) data.get(keys.get(0));
+                if (fields == null) {
+                    return null;
+                }
+                for (var field: List.of("id", "message", "createdBy", "created", "updated")) {
+                    if (!fields.containsKey(field)) {
+                        return 0L;
+                    }
+                }
+                if (!fields.get("createdBy").equals(argv.get(2))) {
+                    return 0L;
+                }
+                var revision = Long.parseLong(fields.getOrDefault("revision", "0"));
+                if (!argv.get(3).isEmpty() && Long.parseLong(argv.get(3)) != revision) {
+                    return -1L;
+                }
+                fields.put("message", argv.get(0));
+                fields.put("updated", argv.get(1));
+                fields.put("revision", Long.toString(revision + 1));
+                incr(keys.get(1));
+                incr(keys.get(2));
+                return List.of(fields.get("createdBy"), revision + 1);
+            case "message-delete":
+                var deleted = 0L;
+                deleted += data.remove(keys.get(0)) != null ? 1 : 0;
+                deleted += data.remove(keys.get(1)) != null ? 1 : 0;
+                deleted += ((Set<String>) data.getOrDefault(keys.get(2), new HashSet<>())).remove(argv.get(0)) ? 1 : 0;
+                deleted += ((Set<String>) data.getOrDefault(keys.get(3), new HashSet<>())).remove(argv.get(0)) ? 1 : 0;
+                ((Map<String, Double>) data.getOrDefault(keys.get(4), new HashMap<>())).remove(argv.get(0));
+                ((Map<String, Double>) data.getOrDefault(keys.get(5), new HashMap<>())).remove(argv.get(0));
+                if (deleted > 0) {
+                    incr(keys.get(6));
+                    incr(keys.get(7));
+                }
+                return deleted;
+            case "user-add":
+                var user = (Map<String, String>) data.computeIfAbsent(keys.get(0), key -> new LinkedHashMap<>());
+                if (user.putIfAbsent(argv.get(0), argv.get(1)) != null) {
+                    return 0L;
+                }
+                user.put(argv.get(2), argv.get(3));
+                ((List<String>) data.computeIfAbsent(keys.get(1), key -> new ArrayList<>())).add(0, argv.get(1));
+                return 1L;
+            default:
+                throw new IllegalStateException(String.format("The script %s is not emulated", script));
+        }
+    }
+
+    private long incr(String key) {
+        var value = Long.parseLong(Objects.toString(data.get(key), "0")) + 1;
+        data.put(key, Long.toString(value));
+        return value;
+    }
+
+    private static String sha(String source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(CHARSET));
+            return String.format("%040x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    private static int index(int index, int size) {
+        return index < 0 ? Math.max(size + index, 0) : index;
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        var prefix = in.read();
+        if (prefix == -1) {
+            throw new EOFException();
+        }
+
+        if (prefix != '*') {
+            // Inline commands are not used by the clients.
+            readLine(in);
+            return List.of();
+        }
+
+        var count = Integer.parseInt(readLine(in));
+        var command = new ArrayList<String>(count);
+
+        for (var i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+
+            var length = Integer.parseInt(readLine(in));
+            var bytes = in.readNBytes(length);
+            in.skip(CRLF.length);
+            command.add(new String(bytes, CHARSET));
+        }
+
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        var line = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            line.append((char) c);
+        }
+
+        in.read();
+        return line.toString();
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write(('+' + value).getBytes(CHARSET));
+        out.write(CRLF);
+    }
+
+    private static void writeError(OutputStream out, String value) throws IOException {
+        out.write(('-' + value).getBytes(CHARSET));
+        out.write(CRLF);
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((":" + value).getBytes(CHARSET));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write("$-1".getBytes(CHARSET));
+            out.write(CRLF);
+            return;
+        }
+
+        var bytes = value.getBytes(CHARSET);
+        out.write(("$" + bytes.length).getBytes(CHARSET));
+        out.write(CRLF);
+        out.write(bytes);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes a reply of a script or a command with mixed types, as redis converts lua values: false to a nil bulk
+     * string, numbers to integers, strings to bulk strings and tables to arrays.
+     */
+    private static void writeReply(OutputStream out, Object value) throws IOException {
+        if (value instanceof Long) {
+            writeInteger(out, (Long) value);
+        } else if (value instanceof List) {
+            var values = (List<?>) value;
+            out.write(("*" + values.size()).getBytes(CHARSET));
+            out.write(CRLF);
+
+            for (var element: values) {
+                writeReply(out, element);
+            }
+        } else {
+            writeBulk(out, (String) value);
+        }
+    }
+
+    private static void writeArray(OutputStream out, List<String> values) throws IOException {
+        out.write(("*" + values.size()).getBytes(CHARSET));
+        out.write(CRLF);
+
+        for (var value: values) {
+            var bytes = value.getBytes(CHARSET);
+            out.write(("$" + bytes.length).getBytes(CHARSET));
+            out.write(CRLF);
+            out.write(bytes);
+            out.write(CRLF);
+        }
+    }
+}
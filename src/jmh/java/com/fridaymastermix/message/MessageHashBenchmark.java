@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the conversion of the redis hashes that messages are stored in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageHashBenchmark {
+
+    // Jedis returns hashes as HashMaps, not as the immutable maps created by MessageHash.of.
+    private final Map<String, String> hash = new HashMap<>(MessageHash.of(
+            "3f5d1c2e-8f0e-4b8a-9a57-7d2f3f0c9b1e",
+            "this is a message of a typical length for the message board",
+            "lalle",
+            "1575158400"));
+
+    private final Map<String, String> partial = new HashMap<>(Map.of("id", "message_id", "message", "message"));
+
+    @Benchmark
+    public Message toMessage() {
+        return MessageHash.toMessage(hash);
+    }
+
+    @Benchmark
+    public Message toMessageMissingFields() {
+        return MessageHash.toMessage(partial);
+    }
+
+    @Benchmark
+    public Map<String, String> of() {
+        return MessageHash.of("message_id", "this is a message", "lalle", "1575158400");
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.BenchmarkRedis;
+import com.fridaymastermix.database.SequentialFanOut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link RedisMessageDao} against a {@link com.fridaymastermix.database.RespStandIn}.
+ *
+ * The messages are spread over ten users. {@link #add()} grows the data set during the trial, which is why the
+ * data set is seeded again for every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedisMessageDaoBenchmark {
+    private static final int USERS = 10;
+
+    @Param({"100", "1000", "10000"})
+    int messages;
+
+    private BenchmarkRedis redis;
+    private RedisMessageDao messageDao;
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        redis = new BenchmarkRedis();
+
+        messageDao = new RedisMessageDao();
+        messageDao.redisFactory = redis.factory();
+        messageDao.fanOut = new SequentialFanOut();
+        messageDao.ids = new SnowflakeIdGenerator();
+    }
+
+    @Setup(Level.Iteration)
+    public void seed() {
+        try (var client = redis.factory().redis()) {
+            client.flushAll();
+        }
+
+        ids = new ArrayList<>(messages);
+        for (var i = 0; i < messages; i++) {
+            ids.add(messageDao.add(String.format("message number %d", i), user(i)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        redis.close();
+    }
+
+    @Benchmark
+    public Message get() {
+        return messageDao.get(ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+    }
+
+    @Benchmark
+    public String add() {
+        return messageDao.add("a new message", user(ThreadLocalRandom.current().nextInt(USERS)));
+    }
+
+    @Benchmark
+    public List<Message> all() {
+        return messageDao.all();
+    }
+
+    @Benchmark
+    public List<Message> messagesWrittenBy() {
+        return messageDao.messagesWrittenBy(user(0));
+    }
+
+    private static String user(int i) {
+        return String.format("user%d", i % USERS);
+    }
+}
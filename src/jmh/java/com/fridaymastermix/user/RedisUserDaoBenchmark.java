@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.BenchmarkRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link RedisUserDao} against a {@link com.fridaymastermix.database.RespStandIn}.
+ *
+ * The bloom filter is never loaded, so every lookup goes to redis as when the filter is not available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedisUserDaoBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int users;
+
+    private BenchmarkRedis redis;
+    private RedisUserDao userDao;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        redis = new BenchmarkRedis();
+
+        var bloomFilter = new UserBloomFilter();
+        bloomFilter.redisFactory = redis.factory();
+
+        userDao = new RedisUserDao();
+        userDao.redisFactory = redis.factory();
+        userDao.bloomFilter = bloomFilter;
+
+        try (var client = redis.factory().redis()) {
+            var pipeline = client.pipelined();
+            for (var i = 0; i < users; i++) {
+                var nick = String.format("user%d", i);
+                pipeline.hmset(String.format("user:%s", nick), Map.of("nick", nick, "password", "password"));
+                pipeline.rpush("users:all", nick);
+            }
+            pipeline.sync();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        redis.close();
+    }
+
+    @Benchmark
+    public List<User> all() {
+        return userDao.all();
+    }
+
+    @Benchmark
+    public User get() {
+        return userDao.get(String.format("user%d", ThreadLocalRandom.current().nextInt(users)));
+    }
+}
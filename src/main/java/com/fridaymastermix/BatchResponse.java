@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.HttpStatus;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Domain class used to create the response bodies of batch requests. Holds one result per item of the batch, in the
+ * order of the items.
+ */
+public class BatchResponse {
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Adds the result of an item that was created.
+     *
+     * @param id the id of the created item.
+     * @param location the location of the created item.
+     */
+    public void created(String id, URI location) {
+        results.add(new Result(HttpStatus.CREATED.value(), id, location.toString(), null));
+    }
+
+    /**
+     * Adds the result of an item that was not created.
+     *
+     * @param status the status of the item.
+     * @param message the reason the item was not created.
+     */
+    public void failed(HttpStatus status, String message) {
+        results.add(new Result(status.value(), null, null, message));
+    }
+
+    /**
+     * Tells if all items were created.
+     *
+     * @return true if all items were created.
+     */
+    @JsonIgnore
+    public boolean isAllCreated() {
+        return results.stream().allMatch(result -> result.status == HttpStatus.CREATED.value());
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * The result of one item of a batch.
+     */
+    public static class Result {
+        private final int status;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private final String id;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private final String location;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private final String message;
+
+        public Result(int status, String id, String location, String message) {
+            this.status = status;
+            this.id = id;
+            this.location = location;
+            this.message = message;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
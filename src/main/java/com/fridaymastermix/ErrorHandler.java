@@ -20,10 +20,12 @@ package com.fridaymastermix;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
 
 import java.util.stream.Collectors;
 
@@ -43,13 +45,21 @@ public class ErrorHandler {
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ResponseBody> handleValidationErrors(MethodArgumentNotValidException error) {
         var status = HttpStatus.BAD_REQUEST;
-        var errorMessage = errorMessage(error);
+        var errorMessage = errorMessage(error.getBindingResult());
 
         return new ResponseEntity<>(new ResponseBody(status.value(), errorMessage), status);
     }
 
-    private String errorMessage(MethodArgumentNotValidException error) {
-        var fieldErrors = error.getBindingResult().getFieldErrors();
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<ResponseBody> handleReactiveValidationErrors(WebExchangeBindException error) {
+        var status = HttpStatus.BAD_REQUEST;
+        var errorMessage = errorMessage(error.getBindingResult());
+
+        return new ResponseEntity<>(new ResponseBody(status.value(), errorMessage), status);
+    }
+
+    private String errorMessage(BindingResult bindingResult) {
+        var fieldErrors = bindingResult.getFieldErrors();
         var fields = fieldErrors.stream().map(FieldError::getField).collect(Collectors.toList());
 
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterThrowing;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Measures the DAO operations and counts the errors thrown by the services.
+ *
+ * The endpoints are measured by Spring as <code>http.server.requests</code>.
+ */
+@Aspect
+@Component
+public class OperationMetrics {
+
+    @Autowired
+    MeterRegistry registry;
+
+    /**
+     * Times a DAO operation, tagged with the DAO, the operation and the exception thrown by the operation if any.
+     *
+     * @param joinPoint the operation.
+     * @return the result of the operation.
+     * @throws Throwable what the operation throws.
+     */
+    @Around("execution(* com.fridaymastermix.message.MessageDao.*(..)) || " +
+            "execution(* com.fridaymastermix.user.UserDao.*(..))")
+    public Object timeDaoOperation(ProceedingJoinPoint joinPoint) throws Throwable {
+        var sample = Timer.start(registry);
+        var exception = "none";
+
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("dao.operation")
+                    .description("Latency of the DAO operations")
+                    .tag("dao", joinPoint.getTarget().getClass().getSimpleName())
+                    .tag("operation", joinPoint.getSignature().getName())
+                    .tag("exception", exception)
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Counts an error thrown by a service, tagged with the service operation and the exception type.
+     *
+     * @param joinPoint the service operation.
+     * @param error the thrown error.
+     */
+    @AfterThrowing(pointcut = "execution(public * com.fridaymastermix.message.MessageService.*(..)) || " +
+            "execution(public * com.fridaymastermix.user.UserService.*(..))", throwing = "error")
+    public void countError(JoinPoint joinPoint, Throwable error) {
+        var operation = String.format("%s.%s", joinPoint.getSignature().getDeclaringType().getSimpleName(),
+                joinPoint.getSignature().getName());
+
+        registry.counter("operation.errors",
+                "operation", operation,
+                "exception", error.getClass().getSimpleName()).increment();
+    }
+}
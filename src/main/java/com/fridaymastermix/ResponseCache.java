@@ -0,0 +1,247 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A bounded in-process cache of serialized JSON responses, so that repeated reads of a list are served as one byte
+ * copy instead of reading and serializing every item again.
+ *
+ * Responses are cached per group and query. A group is a set of responses that are changed by the same writes, e.g.
+ * the lists of the messages of one user, and is invalidated by the service that does the writes. Each group has a
+ * generation that is read before a response is loaded and stored with it, so a response that was loaded while its
+ * group was invalidated is never served. Invalidations are published on redis so that the caches of all application
+ * nodes are kept coherent.
+ *
+ * With redis replicas a response that is loaded right after an invalidation may be read from a replica that has not
+ * yet applied the write, so responses of a group that are loaded within the replica lag of its last invalidation are
+ * served but not cached.
+ */
+@Component
+public class ResponseCache implements InitializingBean, MeterBinder {
+    static final String CHANNEL = "responses:invalidations";
+
+    @Autowired(required = false)
+    RedisPubSub pubSub;
+
+    @Autowired(required = false)
+    RedisFactory redisFactory;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${responses.cache.max-size:1000}")
+    long maxSize = 1000;
+
+    @Value("${responses.cache.ttl-seconds:60}")
+    long ttlSeconds = 60;
+
+    @Value("${responses.cache.gzip:false}")
+    boolean gzip;
+
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> invalidations = new ConcurrentHashMap<>();
+    private long lagNanos;
+    private Cache<String, Entry> cache;
+
+    /**
+     * Returns the cached response or loads, serializes and caches it if it is not cached. A response that is loaded
+     * within the replica lag of the last invalidation of its group is not cached. The gzip compressed response is
+     * returned if compression is enabled and accepted by the client.
+     *
+     * @param group the group of the response.
+     * @param query what identifies the response within the group, e.g. the request parameters.
+     * @param acceptEncoding the Accept-Encoding header of the request or null.
+     * @param loader the function that loads the value to serialize on a cache miss.
+     * @return the response.
+     */
+    public ResponseEntity<byte[]> respond(String group, String query, String acceptEncoding, Supplier<?> loader) {
+        var generation = generations.computeIfAbsent(group, key -> new AtomicLong());
+        var key = String.format("%s?%s", group, query);
+        var entry = cache.getIfPresent(key);
+
+        if (entry == null || entry.generation != generation.get()) {
+            var loadedGeneration = generation.get();
+            var settled = settled(group);
+            entry = entry(loadedGeneration, serialize(loader.get()));
+
+            if (settled) {
+                cache.put(key, entry);
+            }
+        }
+
+        var response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+
+        if (entry.gzip == null) {
+            return response.body(entry.json);
+        }
+
+        response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(entry.gzip);
+        }
+
+        return response.body(entry.json);
+    }
+
+    /**
+     * Invalidates the responses of groups in the cache of this node and of all other nodes.
+     *
+     * @param groups the groups.
+     */
+    public void invalidate(String... groups) {
+        for (var group: groups) {
+            invalidated(group);
+
+            if (pubSub != null) {
+                pubSub.publish(CHANNEL, group);
+            }
+        }
+    }
+
+    /**
+     * Handles invalidations published by any node.
+     */
+    private void invalidated(String group) {
+        if (lagNanos > 0) {
+            invalidations.put(group, System.nanoTime());
+        }
+
+        if (RedisPubSub.ALL.equals(group)) {
+            generations.values().forEach(AtomicLong::incrementAndGet);
+        } else {
+            var generation = generations.get(group);
+
+            // A group without a generation has never been loaded, so there is nothing cached to invalidate.
+            if (generation != null) {
+                generation.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Checks that the replicas can be expected to have applied the writes of the last invalidation of a group, or of
+     * all groups.
+     */
+    private boolean settled(String group) {
+        if (lagNanos == 0) {
+            return true;
+        }
+
+        var now = System.nanoTime();
+        return settled(invalidations.get(group), now) && settled(invalidations.get(RedisPubSub.ALL), now);
+    }
+
+    private boolean settled(Long invalidated, long now) {
+        return invalidated == null || now - invalidated >= lagNanos;
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Entry entry(long generation, byte[] json) {
+        if (!gzip) {
+            return new Entry(generation, json, null);
+        }
+
+        var compressed = new ByteArrayOutputStream(json.length / 4 + 32);
+
+        try (var out = new GZIPOutputStream(compressed)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new Entry(generation, json, compressed.toByteArray());
+    }
+
+    /**
+     * Creates the cache and subscribes to invalidations.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        if (redisFactory != null) {
+            lagNanos = TimeUnit.MILLISECONDS.toNanos(redisFactory.replicaLagMillis());
+        }
+
+        if (pubSub != null) {
+            pubSub.subscribe(CHANNEL, this::invalidated);
+        }
+    }
+
+    /**
+     * Registers the cache meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "responses");
+    }
+
+    /**
+     * A serialized response and the generation of its group when it was loaded.
+     */
+    private static final class Entry {
+        private final long generation;
+        private final byte[] json;
+        private final byte[] gzip;
+
+        private Entry(long generation, byte[] json, byte[] gzip) {
+            this.generation = generation;
+            this.json = json;
+            this.gzip = gzip;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the servlet requests and the fanned out redis calls on virtual threads.
+ *
+ * Activated by the <code>virtual</code> profile. Virtual threads require a JDK that provides
+ * {@code Executors.newVirtualThreadPerTaskExecutor()} (21 or later). The application is still compiled for Java 11 so
+ * the executor is looked up at runtime and the application fails to start if the JDK does not provide it.
+ */
+@Configuration
+@Profile("virtual")
+public class VirtualThreadConfiguration {
+
+    /**
+     * Creates an executor that starts a new virtual thread for every task.
+     *
+     * @return the executor.
+     * @throws IllegalStateException if the JDK does not support virtual threads.
+     */
+    @Bean(name = "virtualThreads", destroyMethod = "shutdown")
+    public ExecutorService virtualThreads() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            var errorMessage = String.format("Virtual threads are not supported by Java %s", System.getProperty("java.version"));
+            throw new IllegalStateException(errorMessage, e);
+        }
+    }
+
+    /**
+     * Lets tomcat handle every request on its own virtual thread instead of on the bounded worker pool.
+     *
+     * @param virtualThreads the executor to handle the requests with.
+     * @return the customizer.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler(ExecutorService virtualThreads) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreads);
+    }
+}
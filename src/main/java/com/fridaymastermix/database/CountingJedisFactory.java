@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.commands.ProtocolCommand;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the pooled jedis clients. The clients count every command they send, also the pipelined ones, both in
+ * total and for the request that is being handled, see {@link RedisCommandCounter}.
+ */
+class CountingJedisFactory implements PooledObjectFactory<Jedis> {
+    private final String host;
+    private final int port;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final AtomicLong commands;
+
+    CountingJedisFactory(String host, int port, int connectTimeout, int socketTimeout, AtomicLong commands) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.commands = commands;
+    }
+
+    @Override
+    public PooledObject<Jedis> makeObject() {
+        var jedis = new CountingJedis(host, port, connectTimeout, socketTimeout, commands);
+        jedis.connect();
+        return new DefaultPooledObject<>(jedis);
+    }
+
+    @Override
+    public void destroyObject(PooledObject<Jedis> pooled) {
+        var jedis = pooled.getObject();
+
+        if (jedis.isConnected()) {
+            try {
+                jedis.quit();
+            } catch (Exception e) {
+                // The connection is closed below regardless.
+            }
+            jedis.disconnect();
+        }
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<Jedis> pooled) {
+        try {
+            var jedis = pooled.getObject();
+            return jedis.isConnected() && "PONG".equals(jedis.ping());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void activateObject(PooledObject<Jedis> pooled) {
+    }
+
+    @Override
+    public void passivateObject(PooledObject<Jedis> pooled) {
+    }
+
+    /**
+     * A jedis client that sends its commands with a {@link CountingClient}.
+     */
+    private static class CountingJedis extends Jedis {
+        CountingJedis(String host, int port, int connectTimeout, int socketTimeout, AtomicLong commands) {
+            super(host, port, connectTimeout, socketTimeout);
+            client = new CountingClient(host, port, commands);
+            client.setConnectionTimeout(connectTimeout);
+            client.setSoTimeout(socketTimeout);
+        }
+    }
+
+    /**
+     * A client that counts the commands it sends.
+     */
+    private static class CountingClient extends Client {
+        private final AtomicLong commands;
+
+        CountingClient(String host, int port, AtomicLong commands) {
+            super(host, port);
+            this.commands = commands;
+        }
+
+        @Override
+        public void sendCommand(ProtocolCommand cmd, byte[]... args) {
+            commands.incrementAndGet();
+            RedisCommandCounter.increment();
+            super.sendCommand(cmd, args);
+        }
+    }
+}
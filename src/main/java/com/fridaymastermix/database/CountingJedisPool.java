@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolAbstract;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * A pool of the clients created by a {@link CountingJedisFactory}. The factory is given to the pool when it is
+ * created, so that the pool does not depend on how {@link redis.clients.jedis.JedisPool} creates its clients.
+ *
+ * Like {@link redis.clients.jedis.JedisPool} the borrowed clients are returned to the pool when they are closed.
+ */
+class CountingJedisPool extends JedisPoolAbstract {
+
+    CountingJedisPool(GenericObjectPoolConfig config, CountingJedisFactory factory) {
+        super(config, factory);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The client is returned to this pool when it is closed.
+     */
+    @Override
+    public Jedis getResource() {
+        var jedis = super.getResource();
+        jedis.setDataSource(this);
+        return jedis;
+    }
+
+    /**
+     * Resets the state of a client, e.g. an unfinished transaction, and returns it to the pool. A client that can not
+     * be reset is returned as broken.
+     *
+     * @param resource the client.
+     */
+    @Override
+    protected void returnResource(Jedis resource) {
+        if (resource == null) {
+            return;
+        }
+
+        try {
+            resource.resetState();
+            returnResourceObject(resource);
+        } catch (Exception e) {
+            returnBrokenResource(resource);
+            throw new JedisException("Resource is returned to the pool as broken", e);
+        }
+    }
+
+    /**
+     * Returns a client that can not be used again, e.g. because its read was aborted, to the pool as broken so that
+     * it is closed. The client must not be closed afterwards.
+     *
+     * @param resource the client.
+     */
+    void discard(Jedis resource) {
+        returnBrokenResource(resource);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Runs independent redis calls, e.g. the fetches of the chunks of a large listing.
+ */
+public interface FanOut {
+
+    /**
+     * Applies the task to every item and returns the results in the order of the items.
+     * A runtime exception thrown by a task is rethrown to the caller.
+     *
+     * @param items the items to apply the task to.
+     * @param task the task, must borrow its own client when the tasks are run concurrently.
+     * @param <T> the type of the items.
+     * @param <R> the type of the results.
+     * @return the results in the order of the items.
+     */
+    <T, R> List<R> map(List<T> items, Function<T, R> task);
+
+    /**
+     * Tells if the tasks are run concurrently. If they are not, the caller may let the tasks share its client.
+     *
+     * @return true if the tasks are run concurrently.
+     */
+    boolean concurrent();
+}
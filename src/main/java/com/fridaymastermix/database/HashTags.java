@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+/**
+ * The hash tags that keys are placed on the shards by.
+ *
+ * The keys of a user are placed by a tag of four characters that is derived from the nick. The id of a message ends
+ * with the tag of the user that created it, so the keys of a message are placed with the keys of its author on any
+ * ring and the message can still be found by its id alone. Ids that were created without a tag are their own tag,
+ * including ids that contain the separator but do not end with a tag, such as the UUIDs of older messages.
+ */
+public final class HashTags {
+    /**
+     * Separates the tag of the author from the rest of a message id.
+     */
+    public static final char SEPARATOR = '-';
+
+    private static final int BITS = 20;
+    private static final int LENGTH = 4;
+
+    private HashTags() {
+    }
+
+    /**
+     * Returns the tag of the keys of a user.
+     *
+     * @param nick the nick of the user.
+     * @return the tag.
+     */
+    public static String user(String nick) {
+        var bits = ShardRing.hash(nick) >>> (Long.SIZE - BITS);
+        return Long.toString(bits | (1L << BITS), 32).substring(1);
+    }
+
+    /**
+     * Returns the tag of the keys of a message, which is the tag of the user that created it.
+     *
+     * @param id the id of the message.
+     * @return the tag, or the id itself if it does not end with a tag.
+     */
+    public static String message(String id) {
+        var separator = id.lastIndexOf(SEPARATOR);
+
+        if (separator < 0 || id.length() - separator - 1 != LENGTH) {
+            return id;
+        }
+
+        for (var i = separator + 1; i < id.length(); i++) {
+            var c = id.charAt(i);
+
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'v')) {
+                return id;
+            }
+        }
+
+        return id.substring(separator + 1);
+    }
+
+    /**
+     * Creates the id of a message from a unique id and the user that creates the message.
+     *
+     * @param unique an id that is unique among the messages and does not contain the separator.
+     * @param nick the nick of the user.
+     * @return the id of the message.
+     */
+    public static String id(String unique, String nick) {
+        return unique + SEPARATOR + user(nick);
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Reads from one redis node and sends the same read to a second node if the first has not answered within a delay.
+ * The first answer wins and the other read is cancelled. A read that fails before the delay is hedged at once.
+ *
+ * The first read is run on the calling thread, so a read that answers within the delay costs no more than scheduling
+ * and cancelling a timer. A hedge is run by the bounded scheduler that timed it, and a hedge that answers first aborts
+ * the first read by shutting down the input of its connection, which is then closed instead of returned to the pool.
+ * A hedge that loses is left to finish so that its client is returned to the pool in a clean state. When all threads
+ * of the scheduler are busy the hedges wait for one, so the number of hedges in flight is bounded by the threads.
+ *
+ * The delay is a percentile of the latencies of the recent reads, so only the reads that are slower than the percentile
+ * are hedged and the extra load stays bounded even when all nodes slow down. No read is hedged until enough latencies are
+ * known.
+ */
+class HedgedReads {
+    private static final int WINDOW = 1024;
+    private static final int RECALCULATE_EVERY = 64;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(WINDOW);
+    private final AtomicLong recorded = new AtomicLong();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    private volatile long delayNanos = Long.MAX_VALUE;
+
+    /**
+     * Creates the hedged reads.
+     *
+     * @param percentile the percentile, 0 to 100, of the recent latencies to wait before a read is hedged.
+     * @param minDelayNanos the shortest delay in nanoseconds before a read is hedged.
+     * @param scheduler the scheduler that times the hedges and runs them, with a bounded number of threads.
+     */
+    HedgedReads(double percentile, long minDelayNanos, ScheduledExecutorService scheduler) {
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Reads from a node on the calling thread and hedges the read to a second node if it is slow.
+     *
+     * @param first the pool of the node that is read from first.
+     * @param second the pool of the node that the hedged read is sent to.
+     * @param read the read, given a client that is closed afterwards.
+     * @param <T> the type of the result.
+     * @return the result of the read that answered first, or of the other read if the first failed.
+     * @throws redis.clients.jedis.exceptions.JedisException if the reads failed.
+     */
+    <T> T read(CountingJedisPool first, CountingJedisPool second, Function<Jedis, T> read) {
+        var hedge = new Hedge<>(second, read);
+        var delay = delayNanos;
+        ScheduledFuture<?> timer = null;
+        reads.incrementAndGet();
+
+        if (delay != Long.MAX_VALUE) {
+            try {
+                timer = scheduler.schedule(RedisCommandCounter.counting(hedge), delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // The scheduler is shut down, so the read is not hedged.
+            }
+        }
+
+        try {
+            return readFirst(first, read, hedge);
+        } catch (RuntimeException e) {
+            return hedge.instead();
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Runs the first read and returns its result, or the answer of the hedge if the hedge answered first.
+     */
+    private <T> T readFirst(CountingJedisPool pool, Function<Jedis, T> read, Hedge<T> hedge) {
+        var started = System.nanoTime();
+        var redis = pool.getResource();
+
+        if (!hedge.reading(redis)) {
+            redis.close();
+            return hedge.answer();
+        }
+
+        T result;
+
+        try {
+            result = read.apply(redis);
+        } catch (RuntimeException e) {
+            if (hedge.finish()) {
+                redis.close();
+                throw e;
+            }
+
+            pool.discard(redis);
+            return hedge.answer();
+        }
+
+        if (hedge.finish()) {
+            record(System.nanoTime() - started);
+            redis.close();
+            return result;
+        }
+
+        // The hedge answered first and shut down the input of the connection, so it can not be used again.
+        pool.discard(redis);
+        return hedge.answer();
+    }
+
+    private <T> T timed(CountingJedisPool pool, Function<Jedis, T> read) {
+        var started = System.nanoTime();
+
+        try (var redis = pool.getResource()) {
+            var result = read.apply(redis);
+            record(System.nanoTime() - started);
+            return result;
+        }
+    }
+
+    /**
+     * Records the latency of a read and recalculates the delay every {@link #RECALCULATE_EVERY} reads.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    void record(long nanos) {
+        var count = recorded.incrementAndGet();
+        latencies.set((int) ((count - 1) % WINDOW), nanos);
+
+        if (count % RECALCULATE_EVERY == 0) {
+            var size = (int) Math.min(count, WINDOW);
+            var sorted = new long[size];
+
+            for (var i = 0; i < size; i++) {
+                sorted[i] = latencies.get(i);
+            }
+
+            Arrays.sort(sorted);
+            var index = (int) Math.ceil(percentile / 100 * size) - 1;
+            delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, Math.min(size - 1, index))]);
+        }
+    }
+
+    /**
+     * Returns the time a read waits before it is hedged.
+     *
+     * @return the delay in nanoseconds, or {@link Long#MAX_VALUE} until enough latencies are known.
+     */
+    long delayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Returns the number of reads that could be hedged.
+     *
+     * @return the number of reads.
+     */
+    long reads() {
+        return reads.get();
+    }
+
+    /**
+     * Returns the number of reads that were hedged.
+     *
+     * @return the number of hedged reads.
+     */
+    long hedges() {
+        return hedges.get();
+    }
+
+    /**
+     * Returns the number of hedged reads where the hedge answered while the first read was still pending.
+     *
+     * @return the number of won hedges.
+     */
+    long wins() {
+        return wins.get();
+    }
+
+    /**
+     * Returns the number of reads where the first read failed and the answer of the hedge was returned instead.
+     *
+     * @return the number of failovers.
+     */
+    long failovers() {
+        return failovers.get();
+    }
+
+    /**
+     * The hedge of a read, which is run by the scheduler when the first read has not answered within the delay, or by
+     * the reading thread when the first read failed before that.
+     */
+    private final class Hedge<T> implements Runnable {
+        private final CountingJedisPool pool;
+        private final Function<Jedis, T> read;
+
+        private Jedis firstClient;
+        private boolean started;
+        private boolean finished;
+        private boolean answered;
+        private boolean won;
+        private T result;
+        private RuntimeException failure;
+
+        private Hedge(CountingJedisPool pool, Function<Jedis, T> read) {
+            this.pool = pool;
+            this.read = read;
+        }
+
+        /**
+         * Registers the client of the first read so that it can be aborted.
+         *
+         * @return false if the hedge has already answered and the first read should not be sent.
+         */
+        private synchronized boolean reading(Jedis redis) {
+            if (won) {
+                return false;
+            }
+
+            firstClient = redis;
+            return true;
+        }
+
+        /**
+         * Ends the first read, so that the hedge is neither sent nor allowed to abort it.
+         *
+         * @return false if the hedge answered first.
+         */
+        private synchronized boolean finish() {
+            firstClient = null;
+            finished = true;
+            return !won;
+        }
+
+        /**
+         * Returns the answer of a hedge that won.
+         */
+        private synchronized T answer() {
+            wins.incrementAndGet();
+            return result;
+        }
+
+        /**
+         * Returns the answer of the hedge after the first read failed, reading from the second node on the calling
+         * thread if the hedge has not been sent yet.
+         */
+        private T instead() {
+            synchronized (this) {
+                firstClient = null;
+                finished = true;
+
+                if (started) {
+                    return awaitAnswer();
+                }
+
+                started = true;
+            }
+
+            hedges.incrementAndGet();
+            var answer = timed(pool, read);
+            failovers.incrementAndGet();
+            return answer;
+        }
+
+        private synchronized T awaitAnswer() {
+            try {
+                while (!answered) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a hedged read");
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            if (won) {
+                wins.incrementAndGet();
+            } else {
+                failovers.incrementAndGet();
+            }
+
+            return result;
+        }
+
+        /**
+         * Sends the hedge unless the first read has ended.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (started || finished) {
+                    return;
+                }
+
+                started = true;
+            }
+
+            hedges.incrementAndGet();
+            T answer;
+
+            try {
+                answer = timed(pool, read);
+            } catch (RuntimeException e) {
+                answered(null, e);
+                return;
+            }
+
+            answered(answer, null);
+        }
+
+        private synchronized void answered(T answer, RuntimeException error) {
+            result = answer;
+            failure = error;
+            answered = true;
+
+            if (error == null && !finished) {
+                won = true;
+                abort();
+            }
+
+            notifyAll();
+        }
+
+        /**
+         * Makes the first read fail at once, if it has been sent, by shutting down the input of its connection.
+         */
+        private void abort() {
+            if (firstClient == null) {
+                return;
+            }
+
+            try {
+                firstClient.getClient().getSocket().shutdownInput();
+            } catch (IOException e) {
+                // The connection is already closed, so the read has failed already.
+            }
+        }
+    }
+}
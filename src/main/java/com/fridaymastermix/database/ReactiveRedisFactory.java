@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Factory for non-blocking redis commands, used by the reactive profile.
+ *
+ * All commands share one connection. Commands from concurrent requests are multiplexed on the connection without
+ * waiting for each other's replies, so no pool is needed.
+ */
+@Component
+@Profile("reactive")
+public class ReactiveRedisFactory implements InitializingBean, DisposableBean {
+
+    @Value("${redis.host:localhost}")
+    String host;
+
+    @Value("${redis.port:6379}")
+    int port;
+
+    @Value("${redis.timeout.socket:2000}")
+    int socketTimeout;
+
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+
+    /**
+     * Returns the reactive commands of the shared connection.
+     *
+     * @return the reactive commands.
+     */
+    public RedisReactiveCommands<String, String> redis() {
+        return connection.reactive();
+    }
+
+    /**
+     * Creates the client and connects to redis.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        var uri = RedisURI.builder()
+                .withHost(host)
+                .withPort(port)
+                .withTimeout(Duration.ofMillis(socketTimeout))
+                .build();
+
+        client = RedisClient.create(uri);
+        connection = client.connect();
+    }
+
+    /**
+     * Closes the connection and shuts the client down.
+     */
+    @Override
+    public void destroy() {
+        if (connection != null) {
+            connection.close();
+        }
+
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hash tags and shards that were recently written by this node.
+ *
+ * Replicas apply writes some time after the primary, so reads of a tag that was just written are pinned to the
+ * primary until the replicas can be expected to have caught up. A user who just wrote a message therefore reads it
+ * back, while all other reads can go to the replicas. Lists that span many tags, e.g. all messages of a shard, are
+ * pinned by the shard that was written.
+ */
+class RecentWrites {
+    private final Cache<String, Boolean> tags;
+    private final Cache<Integer, Boolean> shards;
+
+    /**
+     * Creates the marker.
+     *
+     * @param pinMillis the time in milliseconds that the reads of a written tag go to the primary.
+     * @param maxSize the max number of tags to remember. The oldest tags are forgotten first.
+     * @param ticker the source of time.
+     */
+    RecentWrites(long pinMillis, long maxSize, Ticker ticker) {
+        tags = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(pinMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        shards = Caffeine.newBuilder()
+                .expireAfterWrite(pinMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Marks a tag as written.
+     *
+     * @param tag the hash tag.
+     */
+    void wrote(String tag) {
+        tags.put(tag, Boolean.TRUE);
+    }
+
+    /**
+     * Checks if a tag was written recently.
+     *
+     * @param tag the hash tag.
+     * @return true if the reads of the tag should go to the primary.
+     */
+    boolean pinned(String tag) {
+        return tags.getIfPresent(tag) != null;
+    }
+
+    /**
+     * Marks a shard as written.
+     *
+     * @param shard the index of the shard.
+     */
+    void wrote(int shard) {
+        shards.put(shard, Boolean.TRUE);
+    }
+
+    /**
+     * Checks if a shard was written recently.
+     *
+     * @param shard the index of the shard.
+     * @return true if the lists of the shard should be read from the primary.
+     */
+    boolean pinned(int shard) {
+        return shards.getIfPresent(shard) != null;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the redis commands that are sent while a request is handled.
+ *
+ * The count is kept per thread and is inherited by threads that are started while counting, e.g. the virtual threads
+ * that fetch message chunks. Commands sent on threads that already existed, such as the workers that stream responses,
+ * are not counted for the request. Pooled threads that may be created while a request is counting must run their
+ * tasks through {@link #counting(Callable)} or {@link #counting(Runnable)}, so that a thread does not keep counting for
+ * the request it was created by.
+ */
+public final class RedisCommandCounter {
+    private static final InheritableThreadLocal<AtomicLong> COMMANDS = new InheritableThreadLocal<>();
+
+    private RedisCommandCounter() {
+    }
+
+    /**
+     * Starts counting commands on the current thread.
+     */
+    public static void start() {
+        COMMANDS.set(new AtomicLong());
+    }
+
+    /**
+     * Stops counting commands on the current thread.
+     *
+     * @return the number of commands sent since {@link #start()}.
+     */
+    public static long stop() {
+        var commands = COMMANDS.get();
+        COMMANDS.remove();
+        return commands == null ? 0 : commands.get();
+    }
+
+    /**
+     * Wraps a task so that it counts its commands for the request that the current thread is counting for, if any,
+     * whatever the thread that runs it inherited.
+     *
+     * @param task the task.
+     * @param <T> the type of the result.
+     * @return the wrapped task.
+     */
+    public static <T> Callable<T> counting(Callable<T> task) {
+        var commands = COMMANDS.get();
+
+        return () -> {
+            var previous = COMMANDS.get();
+            set(commands);
+
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task like {@link #counting(Callable)}.
+     *
+     * @param task the task.
+     * @return the wrapped task.
+     */
+    public static Runnable counting(Runnable task) {
+        var commands = COMMANDS.get();
+
+        return () -> {
+            var previous = COMMANDS.get();
+            set(commands);
+
+            try {
+                task.run();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    private static void set(AtomicLong commands) {
+        if (commands == null) {
+            COMMANDS.remove();
+        } else {
+            COMMANDS.set(commands);
+        }
+    }
+
+    /**
+     * Counts a command if the current thread is counting.
+     */
+    static void increment() {
+        var commands = COMMANDS.get();
+        if (commands != null) {
+            commands.incrementAndGet();
+        }
+    }
+}
@@ -17,23 +17,490 @@
 
 package com.fridaymastermix.database;
 
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * Factory for Jedis clients.
  *
- * Needed to enable dependency injection of Jedis.
+ * Needed to enable dependency injection of Jedis. The clients are borrowed from a bounded connection pool and are
+ * returned to the pool when they are closed.
+ *
+ * The keyspace can be sharded over several redis nodes. Every key belongs to a hash tag, e.g. the id of a message or
+ * the nick of a user, and the tag is placed on a shard with a {@link ShardRing}. Keys that are written together
+ * share a tag so that they are on the same node. Every node has its own pool of the configured size.
+ *
+ * Every shard can have replicas that reads are sent to. Reads of a tag that this node has written within the
+ * configured time go to the primary, so that the writer reads its own writes even if the replicas lag behind. Reads
+ * can be hedged, see {@link #read(String, Function)}.
  */
 @Component
-public class RedisFactory {
+@Profile("!memory & !log")
+public class RedisFactory implements InitializingBean, DisposableBean {
+
+    @Value("${redis.host:localhost}")
+    String host;
+
+    @Value("${redis.port:6379}")
+    int port;
+
+    @Value("${redis.shards:}")
+    String shards = "";
+
+    @Value("${redis.replicas:}")
+    String replicas = "";
+
+    @Value("${redis.read-your-writes.millis:2000}")
+    long pinMillis = 2000;
+
+    @Value("${redis.read-your-writes.max-size:100000}")
+    long pinMaxSize = 100000;
+
+    @Value("${redis.hedge.enabled:false}")
+    boolean hedge = false;
+
+    @Value("${redis.hedge.percentile:95}")
+    double hedgePercentile = 95;
+
+    @Value("${redis.hedge.min-delay-millis:1}")
+    long hedgeMinDelayMillis = 1;
+
+    @Value("${redis.hedge.threads:4}")
+    int hedgeThreads = 4;
+
+    @Value("${redis.timeout.connect:2000}")
+    int connectTimeout;
+
+    @Value("${redis.timeout.socket:2000}")
+    int socketTimeout;
+
+    @Value("${redis.pool.min-idle:4}")
+    int minIdle;
+
+    @Value("${redis.pool.max-idle:16}")
+    int maxIdle;
+
+    @Value("${redis.pool.max-total:64}")
+    int maxTotal;
+
+    @Value("${redis.pool.max-wait:1000}")
+    long maxWait;
+
+    private final AtomicLong borrowFailures = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    private final List<String> hosts = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private final List<CountingJedisPool> pools = new ArrayList<>();
+    private final List<List<CountingJedisPool>> replicaPools = new ArrayList<>();
+    private final List<Integer> listers = new ArrayList<>();
+
+    private ShardRing ring;
+    private RecentWrites recentWrites;
+    private ExecutorService scatter;
+    private ScheduledThreadPoolExecutor hedgeScheduler;
+    private HedgedReads hedgedReads;
 
     /**
-     * Creates and returns a jedis client with default configuration (localhost:6379)
+     * Borrows a jedis client of the first shard, which holds the data that is not sharded, e.g. the user bloom filter
+     * and the published invalidations. The client must be closed to be returned to the pool.
      *
      * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
      */
     public Jedis redis() {
-        return new Jedis();
+        return redis(0);
+    }
+
+    /**
+     * Borrows a jedis client of the shard that holds the keys of a hash tag. The client must be closed to be returned
+     * to the pool.
+     *
+     * @param tag the hash tag, see {@link HashTags}.
+     * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
+     */
+    public Jedis redis(String tag) {
+        return redis(shard(tag));
+    }
+
+    /**
+     * Borrows a jedis client of a shard. The client must be closed to be returned to the pool.
+     *
+     * @param shard the index of the shard.
+     * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
+     */
+    public Jedis redis(int shard) {
+        try {
+            return pools.get(shard).getResource();
+        } catch (JedisException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a jedis client to read the keys of a hash tag with. The client is connected to a replica of the shard of
+     * the tag, or to the primary if the tag was recently written by this node or the shard has no replicas. The client
+     * must be closed to be returned to the pool.
+     *
+     * @param tag the hash tag, see {@link HashTags}.
+     * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
+     */
+    public Jedis reader(String tag) {
+        return recentWrites.pinned(tag) ? redis(tag) : reader(shard(tag));
+    }
+
+    /**
+     * Borrows a jedis client of a random replica of a shard, or of the primary if the shard has no replicas or no
+     * client of the replica could be borrowed. The client must be closed to be returned to the pool.
+     *
+     * @param shard the index of the shard.
+     * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
+     */
+    public Jedis reader(int shard) {
+        var candidates = replicaPools.get(shard);
+
+        if (candidates.isEmpty()) {
+            return redis(shard);
+        }
+
+        try {
+            return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size())).getResource();
+        } catch (JedisException e) {
+            borrowFailures.incrementAndGet();
+            return redis(shard);
+        }
+    }
+
+    /**
+     * Borrows a jedis client to read the lists of a shard with, e.g. all messages of the shard and their version. The
+     * client is connected to the primary if the shard was recently written by this node or has no replicas, and
+     * otherwise to the replica of the shard that this node reads its lists from, which is picked at random when the
+     * factory is created. A version that is read before a list therefore comes from the same node as the list and is
+     * never newer than it. The primary is used if no client of the replica could be borrowed. The client must be
+     * closed to be returned to the pool.
+     *
+     * @param shard the index of the shard.
+     * @return A Jedis client.
+     * @throws JedisException if no client could be borrowed within the configured wait time.
+     */
+    public Jedis lister(int shard) {
+        var candidates = replicaPools.get(shard);
+
+        if (candidates.isEmpty() || recentWrites.pinned(shard)) {
+            return redis(shard);
+        }
+
+        try {
+            return candidates.get(listers.get(shard)).getResource();
+        } catch (JedisException e) {
+            borrowFailures.incrementAndGet();
+            return redis(shard);
+        }
+    }
+
+    /**
+     * Reads the keys of a hash tag with a client of {@link #reader(String)}. With hedging enabled a read of a shard
+     * with replicas that has not answered within the hedge delay is also sent to a second replica, or to the primary
+     * if the shard has a single replica, and the first answer is returned. Reads of recently written tags are only
+     * sent to the primary.
+     *
+     * @param tag the hash tag, see {@link HashTags}.
+     * @param read the read, given a client that is closed afterwards.
+     * @param <T> the type of the result.
+     * @return the result of the read.
+     * @throws JedisException if the read failed or no client could be borrowed within the configured wait time.
+     */
+    public <T> T read(String tag, Function<Jedis, T> read) {
+        var shard = shard(tag);
+        var candidates = replicaPools.get(shard);
+
+        if (hedgedReads == null || candidates.isEmpty() || recentWrites.pinned(tag)) {
+            try (var redis = reader(tag)) {
+                return read.apply(redis);
+            }
+        }
+
+        var random = ThreadLocalRandom.current();
+        var first = random.nextInt(candidates.size());
+
+        if (candidates.size() == 1) {
+            return hedgedReads.read(candidates.get(first), pools.get(shard), read);
+        }
+
+        var second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+        return hedgedReads.read(candidates.get(first), candidates.get(second), read);
+    }
+
+    /**
+     * Marks hash tags and their shards as written so that they are read from the primary for the configured time.
+     *
+     * @param tags the hash tags.
+     */
+    public void wrote(String... tags) {
+        for (var tag: tags) {
+            recentWrites.wrote(tag);
+            recentWrites.wrote(shard(tag));
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds that the replicas can be expected to lag behind their primaries, which is the
+     * time that written tags are read from the primary, or 0 if there are no replicas.
+     *
+     * @return the lag in milliseconds.
+     */
+    public long replicaLagMillis() {
+        return replicaPools.stream().allMatch(List::isEmpty) ? 0 : pinMillis;
+    }
+
+    /**
+     * Returns the index of the shard that holds the keys of a hash tag.
+     *
+     * @param tag the hash tag.
+     * @return the index of the shard.
+     */
+    public int shard(String tag) {
+        return pools.size() == 1 ? 0 : ring.shard(tag);
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards.
+     */
+    public int shards() {
+        return pools.size();
+    }
+
+    /**
+     * Applies a task to every shard and returns the results in the order of the shards. The tasks are run
+     * concurrently when there is more than one shard and must borrow their own clients with {@link #redis(int)}.
+     * A runtime exception thrown by a task is rethrown to the caller.
+     *
+     * @param task the task, given the index of the shard.
+     * @param <R> the type of the results.
+     * @return the results in the order of the shards.
+     */
+    public <R> List<R> scatter(IntFunction<R> task) {
+        var results = new ArrayList<R>(pools.size());
+
+        if (pools.size() == 1) {
+            results.add(task.apply(0));
+            return results;
+        }
+
+        var futures = new ArrayList<Future<R>>(pools.size());
+
+        try {
+            for (var shard = 0; shard < pools.size(); shard++) {
+                var index = shard;
+                futures.add(scatter.submit(RedisCommandCounter.counting(() -> task.apply(index))));
+            }
+
+            for (var future: futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the shards");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Redis call failed", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Creates a jedis client of the first shard that is not part of the pool and that never times out while waiting
+     * for data. Used for subscriptions that block their connection for as long as they are active.
+     *
+     * @return A Jedis client that must be closed by the caller.
+     */
+    public Jedis subscriber() {
+        return new Jedis(hosts.get(0), ports.get(0), connectTimeout, 0);
+    }
+
+    /**
+     * Returns the pools that the clients are borrowed from, the primaries of the shards and their replicas.
+     *
+     * @return the pools.
+     */
+    List<CountingJedisPool> pools() {
+        var all = new ArrayList<>(pools);
+        replicaPools.forEach(all::addAll);
+        return all;
+    }
+
+    /**
+     * Returns the number of times a client could not be borrowed from the pool.
+     *
+     * @return the number of failed borrows.
+     */
+    long borrowFailures() {
+        return borrowFailures.get();
+    }
+
+    /**
+     * Returns the hedged reads, or null if hedging is disabled or there are no replicas.
+     *
+     * @return the hedged reads.
+     */
+    HedgedReads hedgedReads() {
+        return hedgedReads;
+    }
+
+    /**
+     * Returns the number of commands sent by the pooled clients.
+     *
+     * @return the number of commands.
+     */
+    long commands() {
+        return commands.get();
+    }
+
+    /**
+     * Creates the connection pools from the configured properties, one per shard and replica. The shards are the
+     * configured list of host:port pairs, or the configured host and port if no shards are configured. The replicas
+     * are one group of host:port pairs per shard, with the groups separated by semicolons. The pooled clients count
+     * the commands they send.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        var names = new ArrayList<String>();
+
+        for (var shard: shards.split(",")) {
+            if (!shard.isBlank()) {
+                names.add(shard.trim());
+            }
+        }
+
+        if (names.isEmpty()) {
+            names.add(String.format("%s:%d", host, port));
+        }
+
+        var config = new JedisPoolConfig();
+        config.setMinIdle(minIdle);
+        config.setMaxIdle(maxIdle);
+        config.setMaxTotal(maxTotal);
+        config.setMaxWaitMillis(maxWait);
+        config.setBlockWhenExhausted(true);
+        config.setJmxEnabled(false);
+
+        for (var name: names) {
+            var separator = separator(name);
+            hosts.add(name.substring(0, separator));
+            ports.add(Integer.parseInt(name.substring(separator + 1)));
+            pools.add(pool(config, name));
+            replicaPools.add(new ArrayList<>());
+        }
+
+        if (!replicas.isBlank()) {
+            var groups = replicas.split(";", -1);
+
+            if (groups.length != names.size()) {
+                throw new IllegalStateException(String.format("The redis replicas have %d groups but there are %d shards", groups.length, names.size()));
+            }
+
+            for (var shard = 0; shard < groups.length; shard++) {
+                for (var replica: groups[shard].split(",")) {
+                    if (!replica.isBlank()) {
+                        replicaPools.get(shard).add(pool(config, replica.trim()));
+                    }
+                }
+            }
+        }
+
+        for (var group: replicaPools) {
+            listers.add(group.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(group.size()));
+        }
+
+        ring = new ShardRing(names);
+        recentWrites = new RecentWrites(pinMillis, pinMaxSize, Ticker.systemTicker());
+
+        if (names.size() > 1) {
+            scatter = Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(runnable, "redis-scatter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        if (hedge && replicaPools.stream().anyMatch(group -> !group.isEmpty())) {
+            hedgeScheduler = new ScheduledThreadPoolExecutor(hedgeThreads, runnable -> {
+                var thread = new Thread(runnable, "redis-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            hedgeScheduler.setRemoveOnCancelPolicy(true);
+            hedgedReads = new HedgedReads(hedgePercentile, TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis), hedgeScheduler);
+        }
+    }
+
+    /**
+     * Creates a pool of clients of a redis node that count the commands they send.
+     */
+    private CountingJedisPool pool(JedisPoolConfig config, String name) {
+        var separator = separator(name);
+        var nodeHost = name.substring(0, separator);
+        var nodePort = Integer.parseInt(name.substring(separator + 1));
+
+        var factory = new CountingJedisFactory(nodeHost, nodePort, connectTimeout, socketTimeout, commands);
+        return new CountingJedisPool(config, factory);
+    }
+
+    private static int separator(String name) {
+        var separator = name.lastIndexOf(':');
+
+        if (separator < 1) {
+            throw new IllegalStateException(String.format("The redis node %s is not host:port", name));
+        }
+
+        return separator;
+    }
+
+    /**
+     * Closes the pools and all idle connections.
+     */
+    @Override
+    public void destroy() {
+        if (scatter != null) {
+            scatter.shutdownNow();
+        }
+
+        if (hedgeScheduler != null) {
+            hedgeScheduler.shutdownNow();
+        }
+
+        pools().forEach(CountingJedisPool::close);
     }
 }
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Exposes the state of the redis connection pools and the number of sent commands as metrics. The pools of all
+ * shards and replicas are reported together. The hedged reads are reported when hedging is enabled.
+ */
+@Component
+@Profile("!memory & !log")
+public class RedisPoolMetrics implements MeterBinder {
+
+    @Autowired
+    RedisFactory redisFactory;
+
+    /**
+     * Registers the pool meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("redis.pool.active", redisFactory, factory -> sum(factory, CountingJedisPool::getNumActive))
+                .description("Connections currently borrowed from the pool")
+                .register(registry);
+
+        Gauge.builder("redis.pool.idle", redisFactory, factory -> sum(factory, CountingJedisPool::getNumIdle))
+                .description("Idle connections in the pool")
+                .register(registry);
+
+        Gauge.builder("redis.pool.waiters", redisFactory, factory -> sum(factory, CountingJedisPool::getNumWaiters))
+                .description("Threads waiting for a connection")
+                .register(registry);
+
+        TimeGauge.builder("redis.pool.wait.mean", redisFactory, TimeUnit.MILLISECONDS,
+                factory -> sum(factory, CountingJedisPool::getMeanBorrowWaitTimeMillis) / factory.pools().size())
+                .description("Mean time spent waiting for a connection")
+                .register(registry);
+
+        TimeGauge.builder("redis.pool.wait.max", redisFactory, TimeUnit.MILLISECONDS,
+                factory -> factory.pools().stream().mapToLong(CountingJedisPool::getMaxBorrowWaitTimeMillis).max().orElse(0))
+                .description("Max time spent waiting for a connection")
+                .register(registry);
+
+        FunctionCounter.builder("redis.pool.borrow.failures", redisFactory, RedisFactory::borrowFailures)
+                .description("Connections that could not be borrowed from the pool")
+                .register(registry);
+
+        FunctionCounter.builder("redis.commands", redisFactory, RedisFactory::commands)
+                .description("Commands sent by the pooled connections")
+                .register(registry);
+
+        var hedgedReads = redisFactory.hedgedReads();
+
+        if (hedgedReads != null) {
+            bindHedges(registry, hedgedReads);
+        }
+    }
+
+    private static void bindHedges(MeterRegistry registry, HedgedReads hedgedReads) {
+        FunctionCounter.builder("redis.hedge.reads", hedgedReads, HedgedReads::reads)
+                .description("Reads that could be hedged")
+                .register(registry);
+
+        FunctionCounter.builder("redis.hedge.sent", hedgedReads, HedgedReads::hedges)
+                .description("Reads that were hedged to a second node")
+                .register(registry);
+
+        FunctionCounter.builder("redis.hedge.won", hedgedReads, HedgedReads::wins)
+                .description("Hedged reads where the hedge answered before the first read")
+                .register(registry);
+
+        FunctionCounter.builder("redis.hedge.failovers", hedgedReads, HedgedReads::failovers)
+                .description("Reads where the first read failed and the hedge answered instead")
+                .register(registry);
+
+        Gauge.builder("redis.hedge.ratio", hedgedReads, hedged -> ratio(hedged.hedges(), hedged.reads()))
+                .description("Share of the reads that were hedged")
+                .register(registry);
+
+        Gauge.builder("redis.hedge.win.ratio", hedgedReads, hedged -> ratio(hedged.wins(), hedged.hedges()))
+                .description("Share of the hedged reads where the hedge answered first")
+                .register(registry);
+
+        TimeGauge.builder("redis.hedge.delay", hedgedReads, TimeUnit.NANOSECONDS,
+                hedged -> hedged.delayNanos() == Long.MAX_VALUE ? 0 : hedged.delayNanos())
+                .description("Time a read waits before it is hedged")
+                .register(registry);
+    }
+
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0 : (double) part / total;
+    }
+
+    private static double sum(RedisFactory factory, ToDoubleFunction<CountingJedisPool> value) {
+        return factory.pools().stream().mapToDouble(value).sum();
+    }
+}
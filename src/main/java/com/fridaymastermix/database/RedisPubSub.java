@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Publishes and subscribes to redis channels.
+ *
+ * All subscriptions share one dedicated connection that is handled by a background thread. The connection is
+ * re-established if it is lost. Messages that are published while the connection is down are lost, so every listener
+ * is passed {@link #ALL} when the subscription has been re-established.
+ *
+ * The subscription is started before the other listeners of the ready event run and they are held back until it is
+ * confirmed, so that a listener with a higher order than {@link #STARTUP_ORDER} that loads its state from redis does
+ * not miss the messages published after it. If the subscription is not confirmed in time the listeners are passed
+ * {@link #ALL} once it is.
+ */
+@Component
+@Profile("!memory & !log")
+public class RedisPubSub implements DisposableBean {
+    /**
+     * Passed to listeners when messages may have been missed.
+     */
+    public static final String ALL = "*";
+
+    /**
+     * The order of the ready event listener that starts the subscription.
+     */
+    public static final int STARTUP_ORDER = 0;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisPubSub.class);
+    private static final long RECONNECT_DELAY = 1000;
+    private static final long CONFIRM_TIMEOUT = 5000;
+
+    @Autowired
+    RedisFactory redisFactory;
+
+    private final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch confirmed = new CountDownLatch(1);
+    private volatile boolean late;
+    private volatile boolean running;
+    private volatile JedisPubSub subscription;
+    private Thread thread;
+
+    /**
+     * Publishes a message to a channel.
+     *
+     * @param channel the channel.
+     * @param message the message.
+     */
+    public void publish(String channel, String message) {
+        try (var redis = redisFactory.redis()) {
+            redis.publish(channel, message);
+        }
+    }
+
+    /**
+     * Registers a listener for a channel. Listeners must be registered before the application is ready.
+     *
+     * @param channel the channel.
+     * @param listener the listener that is passed the messages of the channel.
+     */
+    public void subscribe(String channel, Consumer<String> listener) {
+        listeners.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Starts the subscription thread when the application is ready and waits until the subscription is confirmed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(STARTUP_ORDER)
+    public synchronized void start() {
+        if (running || listeners.isEmpty()) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(this::run, "redis-pubsub");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            if (!confirmed.await(CONFIRM_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("The redis subscription was not confirmed within {} ms", CONFIRM_TIMEOUT);
+                late = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            late = true;
+        }
+    }
+
+    private void run() {
+        var channels = listeners.keySet().toArray(new String[0]);
+
+        while (running) {
+            try (var redis = redisFactory.subscriber()) {
+                subscription = new JedisPubSub() {
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        dispatch(channel, message);
+                    }
+
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        if (subscribed.contains(channel) || late) {
+                            dispatch(channel, ALL);
+                        }
+                        subscribed.add(channel);
+
+                        if (subscribedChannels == channels.length) {
+                            late = false;
+                            confirmed.countDown();
+                        }
+                    }
+                };
+
+                redis.subscribe(subscription, channels);
+            } catch (JedisException e) {
+                if (running) {
+                    LOG.warn("Lost the redis subscription, reconnecting in {} ms", RECONNECT_DELAY, e);
+                    sleep();
+                }
+            }
+        }
+    }
+
+    private void dispatch(String channel, String message) {
+        for (var listener: listeners.getOrDefault(channel, List.of())) {
+            try {
+                listener.accept(message);
+            } catch (RuntimeException e) {
+                LOG.warn("Listener for channel {} failed", channel, e);
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * Stops the subscription thread.
+     */
+    @Override
+    public synchronized void destroy() {
+        running = false;
+
+        var current = subscription;
+        if (current != null && current.isSubscribed()) {
+            current.unsubscribe();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import reactor.core.publisher.Flux;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lua script that runs on redis as one atomic command.
+ *
+ * The script is read from <code>/scripts/&lt;name&gt;.lua</code> on the classpath and its SHA1 digest is computed
+ * locally, so it is called with EVALSHA without first asking redis for the digest. If redis does not have the script,
+ * e.g. after a restart or a SCRIPT FLUSH, it is loaded and the call is made again. Keys and arguments are passed as
+ * bytes so that binary values can be written by scripts. Scripts can also be run on the reactive commands of lettuce,
+ * which pass the keys and arguments as strings.
+ */
+public class RedisScript {
+    private final String name;
+    private final byte[] source;
+    private final byte[] sha;
+
+    /**
+     * Reads a script from the classpath.
+     *
+     * @param name the name of the script without the .lua extension.
+     */
+    public RedisScript(String name) {
+        this.name = name;
+
+        try (var in = RedisScript.class.getResourceAsStream(String.format("/scripts/%s.lua", name))) {
+            if (in == null) {
+                throw new IllegalStateException(String.format("The lua script %s could not be found", name));
+            }
+
+            source = in.readAllBytes();
+            var digest = MessageDigest.getInstance("SHA-1").digest(source);
+            sha = String.format("%040x", new BigInteger(1, digest)).getBytes(StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("The lua script %s could not be read", name), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    /**
+     * Returns the name of the script.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the SHA1 digest that redis knows the script by.
+     *
+     * @return the digest in hex.
+     */
+    public String getSha() {
+        return new String(sha, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Loads the script on redis so that the first call does not need to send it.
+     *
+     * @param redis the connection.
+     */
+    public void load(Jedis redis) {
+        redis.scriptLoad(source);
+    }
+
+    /**
+     * Runs the script. The script is loaded and run again if redis does not have it.
+     *
+     * @param redis the connection.
+     * @param keys the keys the script reads and writes.
+     * @param args the arguments of the script.
+     * @return the reply of the script, e.g. a Long for an integer reply or a byte[] for a string reply.
+     */
+    public Object eval(Jedis redis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return redis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            load(redis);
+            return redis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * Runs the script without blocking. The script is loaded and run again if redis does not have it.
+     *
+     * @param redis the reactive commands.
+     * @param type the type of the reply of the script.
+     * @param keys the keys the script reads and writes.
+     * @param args the arguments of the script.
+     * @param <T> the type of the reply.
+     * @return the reply of the script, where the elements of a multi bulk reply are emitted one by one.
+     */
+    public <T> Flux<T> eval(RedisReactiveCommands<String, String> redis, ScriptOutputType type, String[] keys, String... args) {
+        var digest = getSha();
+
+        return redis.<T>evalsha(digest, type, keys, args)
+                .onErrorResume(RedisNoScriptException.class, e -> redis.scriptLoad(new String(source, StandardCharsets.UTF_8))
+                        .thenMany(redis.<T>evalsha(digest, type, keys, args)));
+    }
+
+    /**
+     * Queues a run of the script on a pipeline. A pipeline can not be retried when redis does not have the script, so
+     * the first run in each pipeline should send the whole script, which also loads it for the runs after it.
+     *
+     * @param pipeline the pipeline.
+     * @param keys the keys the script reads and writes.
+     * @param args the arguments of the script.
+     * @param send true to send the whole script instead of the digest.
+     * @return the response of the script.
+     */
+    public Response<Object> eval(Pipeline pipeline, List<byte[]> keys, List<byte[]> args, boolean send) {
+        return send ? pipeline.eval(source, keys, args) : pipeline.evalsha(sha, keys, args);
+    }
+
+    /**
+     * Converts keys or arguments to the bytes that are passed to a script. Byte arrays are passed as they are and
+     * other values as their UTF-8 encoded string.
+     *
+     * @param values the values.
+     * @return the values as bytes.
+     */
+    public static List<byte[]> bytes(Object... values) {
+        var bytes = new ArrayList<byte[]>(values.length);
+
+        for (var value: values) {
+            bytes.add(value instanceof byte[] ? (byte[]) value : String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return bytes;
+    }
+}
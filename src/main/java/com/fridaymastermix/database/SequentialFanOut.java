@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A {@link FanOut} that runs the tasks one after the other on the calling thread.
+ */
+@Component
+@Profile("!virtual")
+public class SequentialFanOut implements FanOut {
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        var results = new ArrayList<R>(items.size());
+        for (var item: items) {
+            results.add(task.apply(item));
+        }
+        return results;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean concurrent() {
+        return false;
+    }
+}
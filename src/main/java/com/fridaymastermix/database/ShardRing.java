@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring that spreads hash tags over shards.
+ *
+ * Every shard is placed on the ring at a number of points derived from its name, and a tag belongs to the first shard
+ * at or after the hash of the tag. Since the points only depend on the names, adding or removing a shard only moves
+ * the tags of the points next to its own, and the order the shards are listed in does not matter.
+ */
+class ShardRing {
+    static final int POINTS = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    /**
+     * Creates the ring.
+     *
+     * @param names the names of the shards, e.g. host:port, in the order of their indexes.
+     */
+    ShardRing(List<String> names) {
+        for (var shard = 0; shard < names.size(); shard++) {
+            for (var point = 0; point < POINTS; point++) {
+                ring.put(hash(String.format("%s#%d", names.get(shard), point)), shard);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the shard that a hash tag belongs to.
+     *
+     * @param tag the hash tag.
+     * @return the index of the shard.
+     */
+    int shard(String tag) {
+        var entry = ring.ceilingEntry(hash(tag));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer to spread the bits.
+     */
+    static long hash(String value) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b: value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * A {@link FanOut} that runs every task on its own virtual thread.
+ *
+ * The number of tasks that run at the same time is capped by {@link #maxInFlight} so that a large listing, or many
+ * concurrent listings, wait for a permit instead of timing out while waiting for a pooled client. The cap should be
+ * lower than the pool size since the callers usually hold a client of their own while they wait for the tasks.
+ */
+@Component
+@Profile("virtual")
+public class VirtualThreadFanOut implements FanOut, InitializingBean, MeterBinder {
+
+    @Autowired
+    @Qualifier("virtualThreads")
+    ExecutorService executor;
+
+    @Value("${redis.fan-out.max-in-flight:32}")
+    int maxInFlight = 32;
+
+    private Semaphore permits;
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        var futures = new ArrayList<Future<R>>(items.size());
+
+        try {
+            for (var item: items) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return task.apply(item);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            var results = new ArrayList<R>(items.size());
+            for (var future: futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for redis calls");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Redis call failed", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean concurrent() {
+        return true;
+    }
+
+    /**
+     * Creates the permits from the configured cap.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        permits = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * Registers the number of redis calls that are currently running and waiting.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("redis.fan-out.in-flight", this, fanOut -> fanOut.maxInFlight - fanOut.permits.availablePermits())
+                .description("Fanned out redis calls that are currently running")
+                .register(registry);
+
+        Gauge.builder("redis.fan-out.waiting", this, fanOut -> fanOut.permits.getQueueLength())
+                .description("Fanned out redis calls that wait for a permit")
+                .register(registry);
+    }
+}
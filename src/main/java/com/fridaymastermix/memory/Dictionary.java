@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.memory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Encodes strings as dense ints, starting at 0 and in the order the strings are first seen.
+ *
+ * Every distinct string is stored once, so data structures can refer to it with a four byte int instead of a string
+ * of its own. Strings are never removed.
+ */
+public class Dictionary {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<AtomicReferenceArray<String>> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private volatile int size;
+
+    /**
+     * Returns the code of a string, assigning the next free code if the string has not been seen before.
+     *
+     * @param value the string.
+     * @return the code.
+     */
+    public int encode(String value) {
+        var code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+
+            var next = size;
+            if (next == Integer.MAX_VALUE) {
+                throw new IllegalStateException("The dictionary is full");
+            }
+
+            page(next).set(next & (PAGE_SIZE - 1), value);
+            codes.put(value, next);
+            size = next + 1;
+            return next;
+        }
+    }
+
+    /**
+     * Returns the code of a string without assigning one.
+     *
+     * @param value the string.
+     * @return the code or -1 if the string is null or has not been seen.
+     */
+    public int lookup(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        var code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    /**
+     * Returns the string of a code.
+     *
+     * @param code the code.
+     * @return the string.
+     * @throws IndexOutOfBoundsException if the code has not been assigned.
+     */
+    public String decode(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException(String.format("Code %d is not assigned", code));
+        }
+        return pages.get(code >>> PAGE_BITS).get(code & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Returns the number of assigned codes.
+     *
+     * @return the number of codes.
+     */
+    public int size() {
+        return size;
+    }
+
+    private AtomicReferenceArray<String> page(int code) {
+        var index = code >>> PAGE_BITS;
+        var page = pages.get(index);
+
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            pages.set(index, page);
+        }
+
+        return page;
+    }
+}
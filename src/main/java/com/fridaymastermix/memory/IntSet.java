@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.memory;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of ints backed by one int array.
+ *
+ * Adding values in increasing order appends to the array, which is the common case when the values are allocated from
+ * a counter. The set is not thread safe.
+ */
+public class IntSet {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value the value.
+     * @return true if the value was added, false if it was already in the set.
+     */
+    public boolean add(int value) {
+        if (size > 0 && values[size - 1] < value) {
+            ensureCapacity();
+            values[size++] = value;
+            return true;
+        }
+
+        var index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+
+        var insertAt = -index - 1;
+        ensureCapacity();
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        values[insertAt] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value the value.
+     * @return true if the value was removed, false if it was not in the set.
+     */
+    public boolean remove(int value) {
+        var index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Checks if a value is in the set.
+     *
+     * @param value the value.
+     * @return true if the value is in the set.
+     */
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return the number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value at a position in the sorted set.
+     *
+     * @param index the position, 0 is the smallest value.
+     * @return the value.
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index %d is out of bounds for size %d", index, size));
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns the position of the largest value that is smaller than the provided value.
+     *
+     * @param value the value.
+     * @return the position or -1 if all values are larger than or equal to the provided value.
+     */
+    public int lower(int value) {
+        var index = Arrays.binarySearch(values, 0, size, value);
+        return index >= 0 ? index - 1 : -index - 2;
+    }
+
+    private void ensureCapacity() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+        }
+    }
+}
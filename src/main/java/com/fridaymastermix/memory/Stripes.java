@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.memory;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read write locks that keys are spread over, so that operations on different keys rarely wait for
+ * each other while the number of locks stays bounded.
+ */
+public class Stripes {
+    private final ReentrantReadWriteLock[] locks;
+
+    /**
+     * Creates the locks.
+     *
+     * @param count the number of locks, rounded up to a power of two.
+     */
+    public Stripes(int count) {
+        var size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        locks = new ReentrantReadWriteLock[size];
+
+        for (var i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Returns the lock of a key.
+     *
+     * @param key the key.
+     * @return the lock.
+     */
+    public ReentrantReadWriteLock of(int key) {
+        return locks[index(key)];
+    }
+
+    /**
+     * Returns the index of the lock of a key, for callers that keep data of their own for every stripe.
+     *
+     * @param key the key.
+     * @return the index, from 0 to {@link #size()} - 1.
+     */
+    public int index(int key) {
+        return mix(key) & (locks.length - 1);
+    }
+
+    /**
+     * Returns the lock at an index.
+     *
+     * @param index the index.
+     * @return the lock.
+     */
+    public ReentrantReadWriteLock at(int index) {
+        return locks[index];
+    }
+
+    /**
+     * Returns the number of locks.
+     *
+     * @return the number of locks.
+     */
+    public int size() {
+        return locks.length;
+    }
+
+    /**
+     * Takes the read lock of every stripe, always in the same order.
+     */
+    public void readLockAll() {
+        for (var lock: locks) {
+            lock.readLock().lock();
+        }
+    }
+
+    /**
+     * Releases the read locks taken by {@link #readLockAll()}.
+     */
+    public void readUnlockAll() {
+        for (var i = locks.length - 1; i >= 0; i--) {
+            locks[i].readLock().unlock();
+        }
+    }
+
+    private static int mix(int key) {
+        var h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
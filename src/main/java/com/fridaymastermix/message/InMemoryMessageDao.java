@@ -0,0 +1,520 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.memory.Dictionary;
+import com.fridaymastermix.memory.IntSet;
+import com.fridaymastermix.memory.Stripes;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * An implementation of the {@link MessageDao} that keeps the messages on the heap of this node.
+ *
+ * Every message gets a slot from a counter and the id of the message is the slot in base 36. The fields of the
+ * messages are kept in parallel arrays, split in pages so that the arrays never have to be copied to grow: the
+ * content as UTF-8 bytes, the author as a code from a {@link Dictionary} and the timestamps as primitive longs. The
+ * messages of each author are indexed with an {@link IntSet} of slots.
+ *
+ * Writes lock the stripe of the author of the message. Listings of all messages take the read lock of every stripe.
+ * The slots of deleted messages are not reused. The messages are lost when the node stops.
+ */
+@Component
+@Qualifier("memory")
+@Profile("memory")
+public class InMemoryMessageDao implements MessageDao {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+    private static final int STRIPES = 64;
+    private static final int SCAN_BATCH = 500;
+    private static final long ANY_REVISION = -1;
+
+    private final Dictionary authors = new Dictionary();
+    private final Stripes stripes = new Stripes(STRIPES);
+    private final ConcurrentHashMap<Integer, IntSet> writtenBy = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Page> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicInteger slots = new AtomicInteger();
+    private final MessageVersions versions = new MessageVersions();
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Message get(String id) {
+        var slot = slot(id);
+        var author = author(slot);
+
+        if (author < 0) {
+            return Message.NONEXISTING;
+        }
+
+        var lock = stripes.of(author).readLock();
+        lock.lock();
+        try {
+            return read(slot, author);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean exists(String message, String forUser) {
+        var slot = slot(message);
+        var author = authors.lookup(forUser);
+
+        if (author < 0 || author(slot) != author) {
+            return false;
+        }
+
+        var lock = stripes.of(author).readLock();
+        lock.lock();
+        try {
+            return page(slot).texts[slot & PAGE_MASK] != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public List<Message> messagesWrittenBy(String user) {
+        var author = authors.lookup(user);
+        var messages = new ArrayList<Message>();
+
+        if (author < 0) {
+            return messages;
+        }
+
+        var lock = stripes.of(author).readLock();
+        lock.lock();
+        try {
+            var written = writtenBy.get(author);
+            for (var i = 0; written != null && i < written.size(); i++) {
+                messages.add(read(written.get(i), author));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return messages;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public List<Message> all() {
+        var messages = new ArrayList<Message>();
+
+        stripes.readLockAll();
+        try {
+            var allocated = slots.get();
+            for (var slot = 0; slot < allocated; slot++) {
+                addIfValid(slot, messages);
+            }
+        } finally {
+            stripes.readUnlockAll();
+        }
+
+        return messages;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Messages are ordered by slot, which is the order they were added in.
+     */
+    @Override
+    public MessagePage page(String user, String cursor, int limit) throws InvalidCursorException {
+        var before = cursor == null ? Integer.MAX_VALUE : decodeCursor(cursor);
+        var messages = new ArrayList<Message>(limit + 1);
+
+        if (user == null) {
+            stripes.readLockAll();
+            try {
+                for (var slot = Math.min(before, slots.get()) - 1; slot >= 0 && messages.size() <= limit; slot--) {
+                    addIfValid(slot, messages);
+                }
+            } finally {
+                stripes.readUnlockAll();
+            }
+        } else {
+            var author = authors.lookup(user);
+
+            if (author >= 0) {
+                var lock = stripes.of(author).readLock();
+                lock.lock();
+                try {
+                    var written = writtenBy.get(author);
+                    var i = written == null ? -1 : written.lower(before);
+                    for (; i >= 0 && messages.size() <= limit; i--) {
+                        messages.add(read(written.get(i), author));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        String next = null;
+        if (messages.size() > limit) {
+            messages.remove(limit);
+            next = encodeCursor(slot(messages.get(limit - 1).getId()));
+        }
+
+        return new MessagePage(messages, next);
+    }
+
+    /**
+     * Encodes the slot of the last message on a page as an opaque cursor.
+     */
+    private String encodeCursor(int slot) {
+        var position = Integer.toString(slot);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor created by {@link #encodeCursor(int)}.
+     */
+    private int decodeCursor(String cursor) throws InvalidCursorException {
+        try {
+            var position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var slot = Integer.parseInt(position);
+
+            if (slot < 0) {
+                throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
+            }
+
+            return slot;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public String version(String user) {
+        return versions.get(user);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The locks are only held while a batch is read and not while the consumer handles it.
+     */
+    @Override
+    public void scan(String user, Consumer<List<Message>> consumer) {
+        if (user == null) {
+            for (var start = 0; start < slots.get(); start += SCAN_BATCH) {
+                var batch = new ArrayList<Message>(SCAN_BATCH);
+
+                stripes.readLockAll();
+                try {
+                    var end = Math.min(start + SCAN_BATCH, slots.get());
+                    for (var slot = start; slot < end; slot++) {
+                        addIfValid(slot, batch);
+                    }
+                } finally {
+                    stripes.readUnlockAll();
+                }
+
+                if (!batch.isEmpty()) {
+                    consumer.accept(batch);
+                }
+            }
+            return;
+        }
+
+        var author = authors.lookup(user);
+        if (author < 0) {
+            return;
+        }
+
+        var after = -1;
+        while (true) {
+            var batch = new ArrayList<Message>(SCAN_BATCH);
+            var lock = stripes.of(author).readLock();
+
+            lock.lock();
+            try {
+                var written = writtenBy.get(author);
+                var i = written == null ? 0 : written.lower(after + 1) + 1;
+                for (; written != null && i < written.size() && batch.size() < SCAN_BATCH; i++) {
+                    after = written.get(i);
+                    batch.add(read(after, author));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (batch.isEmpty()) {
+                return;
+            }
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public String add(String message, String user) {
+        var author = authors.encode(user);
+        var slot = allocate();
+        var page = page(slot);
+        var index = slot & PAGE_MASK;
+        var now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+        var lock = stripes.of(author).writeLock();
+        lock.lock();
+        try {
+            page.texts[index] = message.getBytes(StandardCharsets.UTF_8);
+            page.created[index] = now;
+            page.updated[index] = now;
+            page.revisions[index] = 1;
+            page.authors.set(index, author + 1);
+            writtenBy.computeIfAbsent(author, key -> new IntSet()).add(slot);
+        } finally {
+            lock.unlock();
+        }
+
+        versions.bump(user);
+        return Integer.toString(slot, Character.MAX_RADIX);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long update(String id, String createdBy, String message) throws MessageNotFoundException {
+        return tryUpdate(id, createdBy, message, ANY_REVISION);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The revision is checked while the stripe of the author is locked.
+     */
+    @Override
+    public long update(String id, String createdBy, String message, long revision) throws MessageNotFoundException, MessageConflictException {
+        var updated = tryUpdate(id, createdBy, message, revision);
+
+        if (updated < 0) {
+            throw new MessageConflictException(String.format("Message with id %s is no longer at revision %d and was not updated.", id, revision));
+        }
+
+        return updated;
+    }
+
+    /**
+     * Updates a message if it has the revision, or whatever revision it has if the revision is {@link #ANY_REVISION}.
+     *
+     * @return the new revision or -1 if the message has another revision.
+     */
+    private long tryUpdate(String id, String createdBy, String message, long revision) throws MessageNotFoundException {
+        var slot = slot(id);
+        var author = author(slot);
+        var errorMessage = String.format("Message with id %s could not be found and can not be updated.", id);
+
+        if (author < 0 || author != authors.lookup(createdBy)) {
+            throw new MessageNotFoundException(errorMessage);
+        }
+
+        var page = page(slot);
+        var index = slot & PAGE_MASK;
+
+        long updated;
+        var lock = stripes.of(author).writeLock();
+        lock.lock();
+        try {
+            if (page.texts[index] == null) {
+                throw new MessageNotFoundException(errorMessage);
+            }
+
+            if (revision != ANY_REVISION && page.revisions[index] != revision) {
+                return -1;
+            }
+
+            page.texts[index] = message.getBytes(StandardCharsets.UTF_8);
+            page.updated[index] = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            updated = ++page.revisions[index];
+        } finally {
+            lock.unlock();
+        }
+
+        versions.bump(authors.decode(author));
+        return updated;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean delete(String message, String forUser) {
+        var slot = slot(message);
+        var author = authors.lookup(forUser);
+
+        if (author < 0 || author(slot) != author) {
+            return false;
+        }
+
+        var page = page(slot);
+        var index = slot & PAGE_MASK;
+
+        var lock = stripes.of(author).writeLock();
+        lock.lock();
+        try {
+            if (page.texts[index] == null) {
+                return false;
+            }
+
+            page.texts[index] = null;
+            writtenBy.get(author).remove(slot);
+        } finally {
+            lock.unlock();
+        }
+
+        versions.bump(forUser);
+        return true;
+    }
+
+    /**
+     * Reads the message in a slot. The stripe of the author must be locked.
+     */
+    private Message read(int slot, int author) {
+        var page = page(slot);
+        var index = slot & PAGE_MASK;
+        var text = page.texts[index];
+
+        if (text == null) {
+            return Message.NONEXISTING;
+        }
+
+        return new Message(
+                Integer.toString(slot, Character.MAX_RADIX),
+                new String(text, StandardCharsets.UTF_8),
+                authors.decode(author),
+                page.created[index],
+                page.updated[index],
+                page.revisions[index]);
+    }
+
+    /**
+     * Adds the message in a slot if the slot holds a message. The stripe of the author must be locked.
+     */
+    private void addIfValid(int slot, List<Message> messages) {
+        var author = author(slot);
+
+        if (author >= 0) {
+            var message = read(slot, author);
+            if (MessageHash.valid(message)) {
+                messages.add(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of a message id.
+     *
+     * @return the slot or -1 if the id is not the id of an allocated slot.
+     */
+    private int slot(String id) {
+        if (id == null) {
+            return -1;
+        }
+
+        try {
+            var slot = Integer.parseInt(id, Character.MAX_RADIX);
+            return slot >= 0 && slot < slots.get() ? slot : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the code of the author of the message in a slot.
+     *
+     * @return the code or -1 if no message has been written to the slot.
+     */
+    private int author(int slot) {
+        if (slot < 0) {
+            return -1;
+        }
+
+        var page = page(slot);
+        return page == null ? -1 : page.authors.get(slot & PAGE_MASK) - 1;
+    }
+
+    private Page page(int slot) {
+        return pages.get(slot >>> PAGE_BITS);
+    }
+
+    /**
+     * Allocates the next slot and the page of the slot if it is the first slot of the page.
+     */
+    private int allocate() {
+        int slot;
+
+        do {
+            slot = slots.get();
+            if (slot == Integer.MAX_VALUE) {
+                throw new IllegalStateException("The message store is full");
+            }
+        } while (!slots.compareAndSet(slot, slot + 1));
+
+        var index = slot >>> PAGE_BITS;
+        if (pages.get(index) == null) {
+            pages.compareAndSet(index, null, new Page());
+        }
+
+        return slot;
+    }
+
+    /**
+     * The fields of {@link #PAGE_SIZE} consecutive slots. The author is written last and published with a volatile
+     * write, so a slot with an author has all its fields written.
+     */
+    private static final class Page {
+        final AtomicIntegerArray authors = new AtomicIntegerArray(PAGE_SIZE);
+        final byte[][] texts = new byte[PAGE_SIZE][];
+        final long[] created = new long[PAGE_SIZE];
+        final long[] updated = new long[PAGE_SIZE];
+        final long[] revisions = new long[PAGE_SIZE];
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.HashTags;
+import com.fridaymastermix.database.ReactiveRedisFactory;
+import com.fridaymastermix.database.RedisScript;
+import io.lettuce.core.ScriptOutputType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of the {@link ReactiveMessageDao} that uses the non-blocking lettuce client.
+ * The data is stored in the same keys as {@link RedisMessageDao} stores it, and messages are written with the same
+ * scripts, so writes are atomic and change the versions of the lists on both stacks.
+ */
+@Component
+@Profile("reactive")
+public class LettuceMessageDao implements ReactiveMessageDao {
+    private static final int CONCURRENCY = 256;
+
+    private static final RedisScript ADD = new RedisScript("message-add");
+    private static final RedisScript UPDATE = new RedisScript("message-update");
+    private static final RedisScript DELETE = new RedisScript("message-delete");
+
+    @Autowired
+    ReactiveRedisFactory redisFactory;
+
+    @Autowired
+    IdGenerator ids;
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<Message> get(String id) {
+        return redisFactory.redis().hgetall(MessageKeys.message(id)).map(MessageHash::toMessage);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<Boolean> exists(String message, String forUser) {
+        return redisFactory.redis().sismember(MessageKeys.writtenBy(forUser), message);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Flux<Message> messagesWrittenBy(String user) {
+        return hydrate(redisFactory.redis().smembers(MessageKeys.writtenBy(user)));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Flux<Message> all() {
+        return hydrate(redisFactory.redis().smembers(MessageKeys.ALL));
+    }
+
+    /**
+     * Fetches the messages of the ids. The fetches are sent on the shared connection without waiting for the replies
+     * of the previous fetches.
+     */
+    private Flux<Message> hydrate(Flux<String> ids) {
+        return ids.flatMap(this::get, CONCURRENCY).filter(MessageHash::valid);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The id is tagged with the author like the ids of {@link RedisMessageDao}, and the message is written, listed and
+     * the versions of its lists are changed in one atomic step with the same script.
+     */
+    @Override
+    public Mono<String> add(String message, String user) {
+        var id = HashTags.id(ids.next(), user);
+        var now = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+
+        var keys = new String[] {
+                MessageKeys.message(id),
+                MessageKeys.writtenBy(user),
+                MessageKeys.ALL,
+                MessageKeys.timeline(null),
+                MessageKeys.timeline(user),
+                MessageKeys.version(null),
+                MessageKeys.version(user),
+                MessageKeys.user(user)
+        };
+
+        // Reactive mode only reads hashes, so the message is always written as a hash.
+        var args = new ArrayList<>(List.of(id, now, "0", "hash"));
+        MessageHash.of(id, message, user, now).forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+
+        return ADD.eval(redisFactory.redis(), ScriptOutputType.INTEGER, keys, args.toArray(String[]::new))
+                .then()
+                .thenReturn(id);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<Long> update(String id, String createdBy, String message) {
+        return update(id, createdBy, message, "");
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<Long> update(String id, String createdBy, String message, long revision) {
+        return update(id, createdBy, message, Long.toString(revision));
+    }
+
+    /**
+     * Updates a message with the same script as {@link RedisMessageDao} uses, which checks the revision, writes the
+     * message and changes the versions of its lists in one atomic step.
+     *
+     * @param expected the revision the message must have or an empty string for any revision.
+     */
+    private Mono<Long> update(String id, String createdBy, String message, String expected) {
+        var now = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        var keys = new String[] {MessageKeys.message(id), MessageKeys.version(null), MessageKeys.version(createdBy)};
+
+        return UPDATE.<Object>eval(redisFactory.redis(), ScriptOutputType.MULTI, keys, message, now, createdBy, expected)
+                .collectList()
+                .flatMap(reply -> {
+                    if (reply.size() == 2) {
+                        return Mono.just((Long) reply.get(1));
+                    } else if (reply.equals(List.of(-1L))) {
+                        var errorMessage = String.format("Message with id %s is no longer at revision %s and was not updated.", id, expected);
+                        return Mono.<Long>error(new MessageConflictException(errorMessage));
+                    }
+
+                    var errorMessage = String.format("Message with id %s could not be found and can not be updated.", id);
+                    return Mono.<Long>error(new MessageNotFoundException(errorMessage));
+                });
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The message is deleted and the versions of its lists are changed with the same script as
+     * {@link RedisMessageDao} uses.
+     */
+    @Override
+    public Mono<Boolean> delete(String message, String forUser) {
+        var keys = new String[] {
+                MessageKeys.message(message),
+                new String(MessageKeys.binary(message), StandardCharsets.UTF_8),
+                MessageKeys.writtenBy(forUser),
+                MessageKeys.ALL,
+                MessageKeys.timeline(null),
+                MessageKeys.timeline(forUser),
+                MessageKeys.version(null),
+                MessageKeys.version(forUser)
+        };
+
+        return DELETE.<Long>eval(redisFactory.redis(), ScriptOutputType.INTEGER, keys, message)
+                .next()
+                .map(deleted -> deleted > 0);
+    }
+}
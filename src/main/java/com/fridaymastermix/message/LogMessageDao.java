@@ -0,0 +1,374 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.memory.Stripes;
+import com.fridaymastermix.segment.SegmentLog;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * An implementation of the {@link MessageDao} that stores the messages in a {@link SegmentLog} on the local disk.
+ *
+ * The timelines of all messages and of the messages of each user are kept in memory and are rebuilt from the log
+ * when the application starts. Updates and deletes of a message are serialized by a lock striped on the message id.
+ */
+@Component
+@Qualifier("log")
+@Profile("log")
+public class LogMessageDao implements MessageDao, InitializingBean, DisposableBean {
+    private static final int STRIPES = 64;
+    private static final int SCAN_BATCH = 500;
+    private static final long ANY_REVISION = -1;
+
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong((Entry entry) -> entry.created)
+            .thenComparing(entry -> entry.id)
+            .reversed();
+
+    @Autowired
+    IdGenerator ids;
+
+    @Value("${log.directory:data}")
+    String directory = "data";
+
+    @Value("${log.segment-size:67108864}")
+    int segmentSize = 67108864;
+
+    @Value("${log.sync-writes:false}")
+    boolean syncWrites;
+
+    @Value("${log.compaction.interval-seconds:60}")
+    long compactionIntervalSeconds = 60;
+
+    @Value("${log.compaction.garbage-ratio:0.5}")
+    double compactionGarbageRatio = 0.5;
+
+    private final Stripes stripes = new Stripes(STRIPES);
+    private final NavigableSet<Entry> timeline = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    private final ConcurrentHashMap<String, NavigableSet<Entry>> timelines = new ConcurrentHashMap<>();
+    private final MessageVersions versions = new MessageVersions();
+
+    private SegmentLog log;
+
+    /**
+     * @inheritDoc
+     *
+     * The revision of a message is the sequence number of its latest record in the log. The stripe of the message is
+     * read locked so that the record and its sequence number are read from the same write.
+     */
+    @Override
+    public Message get(String id) {
+        var lock = stripes.of(id.hashCode()).readLock();
+        lock.lock();
+        try {
+            var value = log.get(id);
+            return value == null ? Message.NONEXISTING : MessageRecord.toMessage(id, value, log.sequence(id));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean exists(String message, String forUser) {
+        var value = log.get(message);
+        return value != null && MessageRecord.createdBy(value).equals(forUser);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public List<Message> messagesWrittenBy(String user) {
+        var entries = timelines.get(user);
+        return entries == null ? new ArrayList<>() : read(entries, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public List<Message> all() {
+        return read(timeline, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public MessagePage page(String user, String cursor, int limit) throws InvalidCursorException {
+        NavigableSet<Entry> entries = user == null ? timeline : timelines.get(user);
+
+        if (entries == null) {
+            return new MessagePage(new ArrayList<>(), null);
+        }
+
+        if (cursor != null) {
+            entries = entries.tailSet(decodeCursor(cursor), false);
+        }
+
+        var messages = read(entries, limit + 1);
+        String next = null;
+
+        if (messages.size() > limit) {
+            messages.remove(limit);
+            var last = messages.get(limit - 1);
+            next = encodeCursor(new Entry(last.getCreated(), last.getId()));
+        }
+
+        return new MessagePage(messages, next);
+    }
+
+    /**
+     * Encodes the position of a timeline entry as an opaque cursor.
+     */
+    private String encodeCursor(Entry entry) {
+        var position = String.format("%d:%s", entry.created, entry.id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor created by {@link #encodeCursor(Entry)}.
+     */
+    private Entry decodeCursor(String cursor) throws InvalidCursorException {
+        try {
+            var position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var separator = position.indexOf(':');
+
+            if (separator < 1 || separator == position.length() - 1) {
+                throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
+            }
+
+            return new Entry(Long.parseLong(position.substring(0, separator)), position.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public String version(String user) {
+        return versions.get(user);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Messages that are added or removed during the scan may or may not be passed to the consumer.
+     */
+    @Override
+    public void scan(String user, Consumer<List<Message>> consumer) {
+        NavigableSet<Entry> entries = user == null ? timeline : timelines.get(user);
+
+        if (entries == null) {
+            return;
+        }
+
+        var batch = new ArrayList<Message>(SCAN_BATCH);
+        for (var entry: entries) {
+            var message = get(entry.id);
+
+            if (MessageHash.valid(message)) {
+                batch.add(message);
+            }
+
+            if (batch.size() == SCAN_BATCH) {
+                consumer.accept(batch);
+                batch = new ArrayList<>(SCAN_BATCH);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public String add(String message, String user) {
+        var id = ids.next();
+        var now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+        log.put(id, SegmentLog.PUT, MessageRecord.of(message, user, now, now));
+        index(id, user, now);
+        versions.bump(user);
+        return id;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long update(String id, String createdBy, String message) throws MessageNotFoundException {
+        return tryUpdate(id, createdBy, message, ANY_REVISION);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The revision is checked while the stripe of the message is locked.
+     */
+    @Override
+    public long update(String id, String createdBy, String message, long revision) throws MessageNotFoundException, MessageConflictException {
+        var updated = tryUpdate(id, createdBy, message, revision);
+
+        if (updated < 0) {
+            throw new MessageConflictException(String.format("Message with id %s is no longer at revision %d and was not updated.", id, revision));
+        }
+
+        return updated;
+    }
+
+    /**
+     * Updates a message if it has the revision, or whatever revision it has if the revision is {@link #ANY_REVISION}.
+     *
+     * @return the new revision or -1 if the message has another revision.
+     */
+    private long tryUpdate(String id, String createdBy, String message, long revision) throws MessageNotFoundException {
+        var lock = stripes.of(id.hashCode()).writeLock();
+        lock.lock();
+        try {
+            var value = log.get(id);
+
+            if (value == null || !MessageRecord.createdBy(value).equals(createdBy)) {
+                throw new MessageNotFoundException(String.format("Message with id %s could not be found and can not be updated.", id));
+            }
+
+            if (revision != ANY_REVISION && log.sequence(id) != revision) {
+                return -1;
+            }
+
+            var now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            var record = MessageRecord.of(message, MessageRecord.createdBy(value), MessageRecord.created(value), now);
+            log.put(id, SegmentLog.UPDATE, record);
+            versions.bump(MessageRecord.createdBy(value));
+            return log.sequence(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean delete(String message, String forUser) {
+        var lock = stripes.of(message.hashCode()).writeLock();
+        lock.lock();
+        try {
+            var value = log.get(message);
+
+            if (value == null || !MessageRecord.createdBy(value).equals(forUser)) {
+                return false;
+            }
+
+            var entry = new Entry(MessageRecord.created(value), message);
+            log.delete(message);
+            timeline.remove(entry);
+            var own = timelines.get(forUser);
+            if (own != null) {
+                own.remove(entry);
+            }
+            versions.bump(forUser);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the log, rebuilds the timelines and starts the background compaction.
+     *
+     * @throws IOException if the log could not be opened.
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        log = new SegmentLog(Path.of(directory, "messages"), segmentSize, syncWrites);
+        log.open();
+        log.forEach((id, value) -> index(id, MessageRecord.createdBy(value), MessageRecord.created(value)));
+        log.startCompaction(compactionIntervalSeconds, compactionGarbageRatio);
+    }
+
+    /**
+     * Stops the compaction and writes the log to the disk.
+     */
+    @Override
+    public void destroy() {
+        log.close();
+    }
+
+    private void index(String id, String user, long created) {
+        var entry = new Entry(created, id);
+        timeline.add(entry);
+        timelines.computeIfAbsent(user, key -> new ConcurrentSkipListSet<>(NEWEST_FIRST)).add(entry);
+    }
+
+    private List<Message> read(Iterable<Entry> entries, int limit) {
+        var messages = new ArrayList<Message>();
+
+        for (var entry: entries) {
+            if (messages.size() >= limit) {
+                break;
+            }
+
+            var message = get(entry.id);
+            if (MessageHash.valid(message)) {
+                messages.add(message);
+            }
+        }
+
+        return messages;
+    }
+
+    /**
+     * A position in a timeline.
+     */
+    private static final class Entry {
+        final long created;
+        final String id;
+
+        Entry(long created, String id) {
+            this.created = created;
+            this.id = id;
+        }
+    }
+}
@@ -46,6 +46,7 @@ public class Message {
     private String createdBy;
     private long created;
     private long updated;
+    private long revision;
 
     public Message(String id, String message) {
         this(id, message, null, System.currentTimeMillis() / 1000, System.currentTimeMillis() / 1000);
@@ -53,11 +54,16 @@ public class Message {
 
     @JsonCreator
     public Message(String id, String message, String createdBy, long created, long updated) {
+        this(id, message, createdBy, created, updated, 0);
+    }
+
+    public Message(String id, String message, String createdBy, long created, long updated, long revision) {
         this.id = id;
         this.message = message;
         this.createdBy = createdBy;
         this.created = created;
         this.updated = updated;
+        this.revision = revision;
     }
 
     public String getId() {
@@ -80,6 +86,10 @@ public class Message {
         return updated;
     }
 
+    public long getRevision() {
+        return revision;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
@@ -87,6 +97,7 @@ public class Message {
                 ", message='" + message + '\'' +
                 ", created=" + created +
                 ", updated=" + updated +
+                ", revision=" + revision +
                 '}';
     }
 
@@ -101,6 +112,7 @@ public class Message {
         return new EqualsBuilder()
                 .append(created, m.created)
                 .append(updated, m.updated)
+                .append(revision, m.revision)
                 .append(id, m.id)
                 .append(createdBy, m.createdBy)
                 .append(message, m.message)
@@ -115,6 +127,7 @@ public class Message {
                 .append(createdBy)
                 .append(created)
                 .append(updated)
+                .append(revision)
                 .toHashCode();
     }
 }
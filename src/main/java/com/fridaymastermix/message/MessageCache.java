@@ -0,0 +1,213 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A bounded in-process cache of messages.
+ *
+ * Entries are evicted when the cache is full or when they have been cached for longer than the configured time.
+ * Invalidations are published on redis so that the caches of all application nodes are kept coherent.
+ *
+ * With redis replicas an invalidation may reach a node before the replicas have applied the write, so a message that is
+ * loaded within the replica lag of its invalidation may be stale and is returned but not cached.
+ */
+@Component
+public class MessageCache implements InitializingBean, MeterBinder {
+    static final String CHANNEL = "messages:invalidations";
+
+    @Autowired(required = false)
+    RedisPubSub pubSub;
+
+    @Autowired(required = false)
+    RedisFactory redisFactory;
+
+    @Value("${messages.cache.max-size:10000}")
+    long maxSize = 10000;
+
+    @Value("${messages.cache.ttl-seconds:60}")
+    long ttlSeconds = 60;
+
+    private Cache<String, Message> cache;
+    private Cache<String, Boolean> settling;
+
+    /**
+     * Returns the cached message or loads it if it is not cached.
+     * Messages that can not be found are not cached, so adding a message does not need to invalidate anything.
+     * Messages that are loaded within the replica lag of their invalidation are not cached either.
+     *
+     * @param id the id of the message.
+     * @param loader the function that loads the message on a cache miss.
+     * @return the message or the non cacheable result of the loader, e.g. {@link Message#NONEXISTING}.
+     */
+    public Message get(String id, Function<String, Message> loader) {
+        var uncacheable = new Message[1];
+
+        var message = cache.get(id, key -> {
+            var loaded = loader.apply(key);
+
+            if (loaded == Message.NONEXISTING || loaded == Message.ERROR || settling(key)) {
+                uncacheable[0] = loaded;
+                return null;
+            }
+
+            return loaded;
+        });
+
+        return message != null ? message : uncacheable[0];
+    }
+
+    /**
+     * Returns the cached messages and loads the ones that are not cached with one call to the loader. Messages that are
+     * loaded within the replica lag of their invalidation are returned but not cached.
+     *
+     * @param ids the ids of the messages.
+     * @param loader the function that loads the messages that are not cached and returns the ones that can be found.
+     * @return the messages that are cached or could be loaded, by id.
+     */
+    public Map<String, Message> getAll(Collection<String> ids, Function<Collection<String>, List<Message>> loader) {
+        var uncacheable = new HashMap<String, Message>();
+
+        var messages = cache.getAll(ids, missing -> {
+            var keys = new ArrayList<String>();
+            missing.forEach(keys::add);
+
+            var loaded = new HashMap<String, Message>();
+            for (var message: loader.apply(keys)) {
+                if (settling(message.getId())) {
+                    uncacheable.put(message.getId(), message);
+                } else {
+                    loaded.put(message.getId(), message);
+                }
+            }
+            return loaded;
+        });
+
+        if (uncacheable.isEmpty()) {
+            return messages;
+        }
+
+        var all = new HashMap<>(messages);
+        all.putAll(uncacheable);
+        return all;
+    }
+
+    /**
+     * Removes a message from the cache of this node and of all other nodes.
+     *
+     * @param id the id of the message.
+     */
+    public void invalidate(String id) {
+        markSettling(id);
+        cache.invalidate(id);
+
+        if (pubSub != null) {
+            pubSub.publish(CHANNEL, id);
+        }
+    }
+
+    /**
+     * Handles invalidations published by any node.
+     */
+    private void invalidated(String id) {
+        markSettling(id);
+
+        if (RedisPubSub.ALL.equals(id)) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Marks a message, or all messages, as invalidated so that it is not cached until the replicas can be expected to
+     * have applied the write.
+     */
+    private void markSettling(String id) {
+        if (settling != null) {
+            settling.put(id, Boolean.TRUE);
+        }
+    }
+
+    private boolean settling(String id) {
+        return settling != null && (settling.getIfPresent(id) != null || settling.getIfPresent(RedisPubSub.ALL) != null);
+    }
+
+    /**
+     * Creates the caches and subscribes to invalidations.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        var lagMillis = redisFactory == null ? 0 : redisFactory.replicaLagMillis();
+
+        if (lagMillis > 0) {
+            settling = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(lagMillis, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+
+        if (pubSub != null) {
+            pubSub.subscribe(CHANNEL, this::invalidated);
+        }
+    }
+
+    /**
+     * Registers the cache meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "messages");
+
+        Gauge.builder("messages.cache.hit.ratio", cache, messages -> messages.stats().hitRate())
+                .description("Share of message lookups that were served from the cache")
+                .register(registry);
+
+        Gauge.builder("messages.cache.miss.ratio", cache, messages -> messages.stats().missRate())
+                .description("Share of message lookups that had to go to the data store")
+                .register(registry);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts messages to and from the compact binary values they are stored as in redis when the binary encoding is
+ * enabled.
+ *
+ * Layout of version 1: version (byte), created (varint), updated minus created (zigzag varint, as the clocks of two
+ * nodes may disagree), length of the author (varint), author (UTF-8), length of the content (varint), content
+ * (UTF-8). The id of the message is the key of the value and is not repeated in it.
+ *
+ * Layout of version 2: the layout of version 1 followed by the revision of the message (varint). Values of version 1
+ * are decoded as revision 0.
+ */
+final class MessageCodec {
+    static final byte VERSION = 2;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param message the content of the message.
+     * @param user the user that created the message.
+     * @param created the time the message was created in seconds since the epoch.
+     * @param updated the time the message was updated in seconds since the epoch.
+     * @param revision the revision of the message.
+     * @return the value.
+     */
+    static byte[] encode(String message, String user, long created, long updated, long revision) {
+        var author = user.getBytes(StandardCharsets.UTF_8);
+        var content = message.getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayOutputStream(author.length + content.length + 16);
+
+        out.write(VERSION);
+        writeVarint(out, created);
+        writeVarint(out, zigzag(updated - created));
+        writeVarint(out, author.length);
+        out.write(author, 0, author.length);
+        writeVarint(out, content.length);
+        out.write(content, 0, content.length);
+        writeVarint(out, revision);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param id the id of the message.
+     * @param value the value or null if there is no value.
+     * @return the message, {@link Message#NONEXISTING} if the value is null or {@link Message#ERROR} if the value
+     * has an unknown version or is truncated.
+     */
+    static Message decode(String id, byte[] value) {
+        if (value == null || value.length == 0) {
+            return Message.NONEXISTING;
+        }
+
+        if (value[0] != 1 && value[0] != VERSION) {
+            return Message.ERROR;
+        }
+
+        try {
+            var reader = new Reader(value);
+            var created = reader.varint();
+            var delta = reader.varint();
+            var updated = created + ((delta >>> 1) ^ -(delta & 1));
+            var author = reader.string();
+            var content = reader.string();
+            var revision = value[0] == VERSION ? reader.varint() : 0;
+            return new Message(id, content, author, created, updated, revision);
+        } catch (IndexOutOfBoundsException e) {
+            return Message.ERROR;
+        }
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint, seven bits per byte with the high bit set on all but the last byte.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException(String.format("Can not encode negative value %d", value));
+        }
+
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so that values close to zero encode to few bytes.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reads the fields of a value after its version byte.
+     */
+    private static final class Reader {
+        private final byte[] value;
+        private int position = 1;
+
+        private Reader(byte[] value) {
+            this.value = value;
+        }
+
+        private long varint() {
+            long result = 0;
+
+            for (var shift = 0; shift < 64; shift += 7) {
+                var b = value[position++];
+                result |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+
+            throw new IndexOutOfBoundsException("Varint is too long");
+        }
+
+        private String string() {
+            var length = (int) varint();
+
+            if (length < 0 || position + length > value.length) {
+                throw new IndexOutOfBoundsException(String.format("String of length %d does not fit", length));
+            }
+
+            var string = new String(value, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+    }
+}
@@ -17,9 +17,14 @@
 
 package com.fridaymastermix.message;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.BatchResponse;
 import com.fridaymastermix.ResponseBody;
+import com.fridaymastermix.ResponseCache;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -32,18 +37,28 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Handles requests for messages.
  */
 @RestController
+@Profile("!reactive")
 @RequestMapping(value = "messages", produces = MediaType.APPLICATION_JSON_VALUE)
 @SuppressWarnings("UnusedReturnValue")
 public class MessageController {
@@ -51,23 +66,190 @@ public class MessageController {
     @Autowired
     MessageService messages;
 
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    ResponseCache responses;
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 1000;
+
     /**
      * Returns a list of all messages or a list of messages for a provided user.
+     * The messages are paged, newest first, if a limit or a cursor is provided.
+     * The ETag of the response is the version of the list, so a client that sends it back in If-None-Match gets a
+     * 304 without the messages being read as long as no message in the list has been changed. Other requests are
+     * served from the {@link ResponseCache}.
+     *
      * @param user the user. Optional.
+     * @param limit the max number of messages to return. Optional.
+     * @param cursor the cursor of the page to return, as returned in the next field of the previous page. Optional.
+     * @param request the request used to check the conditional headers.
      *
-     * @return a list of messages.
+     * @return the serialized list of messages or null if the list has not been modified.
      */
     @GetMapping
-    public MessageWrapper getMessages(@RequestParam(value = "user", required = false) String user) {
-        List<Message> messageList;
+    public ResponseEntity<byte[]> getMessages(@RequestParam(value = "user", required = false) String user,
+                                      @RequestParam(value = "limit", required = false) Integer limit,
+                                      @RequestParam(value = "cursor", required = false) String cursor,
+                                      WebRequest request) {
+        // The version is read before the messages so that a change in between makes the ETag outdated, not wrong.
+        var listedUser = StringUtils.isNotBlank(user) ? user : null;
+        var version = messages.version(listedUser);
 
-        if (StringUtils.isNotBlank(user)) {
-             messageList = messages.writtenBy(user);
-        } else {
-            messageList = messages.all();
+        if (request.checkNotModified(String.format("\"%s\"", version))) {
+            return null;
+        }
+
+        // Lists are cached per version, so a list is never served with the ETag of a version newer than the list.
+        var query = String.format("limit=%s&cursor=%s&version=%s", limit, cursor, version);
+        var acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+
+        return responses.respond(MessageService.listing(listedUser), query, acceptEncoding, () -> {
+            if (limit != null || cursor != null) {
+                return new MessageWrapper(page(user, limit, cursor));
+            }
+
+            List<Message> messageList;
+
+            if (listedUser != null) {
+                messageList = messages.writtenBy(listedUser);
+            } else {
+                messageList = messages.all();
+            }
+
+            return new MessageWrapper(messageList);
+        });
+    }
+
+    private MessagePage page(String user, Integer limit, String cursor) {
+        var pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            var errorMessage = String.format("limit must be between 1 and %d", MAX_PAGE_SIZE);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errorMessage);
+        }
+
+        try {
+            return messages.page(StringUtils.isNotBlank(user) ? user : null, StringUtils.trimToNull(cursor), pageSize);
+        } catch (InvalidCursorException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the messages with the provided ids, e.g. <code>GET /messages?ids=a,b,c</code>. The messages that are not
+     * cached are fetched with one pipelined batch. The ids that can not be found are listed in the missing field.
+     *
+     * @param ids the ids of the messages.
+     * @return the messages that were found, in the order of the ids, and the ids that were not.
+     */
+    @GetMapping(params = "ids")
+    public MessageWrapper getMessagesById(@RequestParam("ids") List<String> ids) {
+        var unique = ids.stream().map(String::trim).filter(StringUtils::isNotEmpty).distinct().collect(Collectors.toList());
+
+        if (unique.isEmpty() || unique.size() > MAX_BATCH_SIZE) {
+            var errorMessage = String.format("ids must have between 1 and %d ids", MAX_BATCH_SIZE);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errorMessage);
+        }
+
+        var found = messages.describeAll(unique);
+        var messageList = new ArrayList<Message>(found.size());
+        var missing = new ArrayList<String>();
+
+        for (var id: unique) {
+            var message = found.get(id);
+
+            if (message != null) {
+                messageList.add(message);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        return new MessageWrapper(messageList, missing);
+    }
+
+    /**
+     * Streams all messages, or the messages of a provided user, as newline delimited JSON.
+     * Each message is written as soon as it has been fetched, so the memory used does not depend on the number of
+     * messages.
+     *
+     * @param user the user. Optional.
+     * @return a response entity that streams the messages.
+     */
+    @GetMapping(produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamMessages(@RequestParam(value = "user", required = false) String user) {
+        var writer = objectMapper.writerFor(Message.class);
+
+        StreamingResponseBody body = outputStream -> write(user, outputStream, batch -> {
+            for (var message: batch) {
+                outputStream.write(writer.writeValueAsBytes(message));
+                outputStream.write('\n');
+            }
+        });
+
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Streams all messages, or the messages of a provided user, in the same JSON format as
+     * {@link #getMessages(String, Integer, String, WebRequest)}. Selected with the stream=true request parameter.
+     *
+     * @param user the user. Optional.
+     * @return a response entity that streams the messages.
+     */
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamMessageArray(@RequestParam(value = "user", required = false) String user) {
+        StreamingResponseBody body = outputStream -> {
+            try (var generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("messages");
+
+                write(user, outputStream, batch -> {
+                    for (var message: batch) {
+                        generator.writeObject(message);
+                    }
+                    generator.flush();
+                });
+
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Scans the messages and hands each batch to the writer. The output stream is flushed after every batch so that
+     * the client gets the messages as they are fetched.
+     */
+    private void write(String user, OutputStream outputStream, BatchWriter writer) throws IOException {
+        try {
+            messages.scan(StringUtils.isNotBlank(user) ? user : null, batch -> {
+                try {
+                    writer.write(batch);
+                    outputStream.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        return new MessageWrapper(messageList);
+    /**
+     * Writes a batch of messages to a response.
+     */
+    private interface BatchWriter {
+        void write(List<Message> batch) throws IOException;
     }
 
     /**
@@ -103,13 +285,72 @@ public class MessageController {
     }
 
     /**
-     * Handles GET requests for messages.
+     * Handles POST requests for batches of messages. Each message is created for its createdBy user, or for the user
+     * request parameter if it has none. The users of the whole batch are checked at once and the messages are written
+     * with a few pipelined round trips.
+     *
+     * @param batch the messages to create.
+     * @param user the user to create messages without a createdBy user for. Optional.
+     * @param request the servlet request used for creating the locations.
+     * @return a response entity with the result of each message, 201 if all messages were created and 207 otherwise.
+     */
+    @PostMapping("batch")
+    public ResponseEntity<BatchResponse> postMessageBatch(@RequestBody List<Message> batch,
+                                                          @RequestParam(value = "user", required = false) String user,
+                                                          HttpServletRequest request) {
+        if (batch.isEmpty() || batch.size() > MAX_BATCH_SIZE) {
+            var errorMessage = String.format("A batch must have between 1 and %d messages", MAX_BATCH_SIZE);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, errorMessage);
+        }
+
+        // Invalid messages are kept as nulls so that the results can be reported in the order of the batch.
+        var items = new ArrayList<Message>(batch.size());
+        var valid = new ArrayList<Message>(batch.size());
+
+        for (var message: batch) {
+            var createdBy = StringUtils.isNotBlank(message.getCreatedBy()) ? message.getCreatedBy() : user;
+
+            if (StringUtils.isBlank(message.getMessage()) || StringUtils.isBlank(createdBy)) {
+                items.add(null);
+            } else {
+                var item = new Message(null, message.getMessage(), createdBy, 0, 0);
+                items.add(item);
+                valid.add(item);
+            }
+        }
+
+        var ids = messages.createAll(valid).iterator();
+        var uriBuilder = UriComponentsBuilder.fromUriString(request.getRequestURI().replaceFirst("/batch/?$", "")).path("/{id}");
+        var response = new BatchResponse();
+
+        for (var item: items) {
+            if (item == null) {
+                response.failed(HttpStatus.BAD_REQUEST, "A message and a user are required");
+                continue;
+            }
+
+            var id = ids.next();
+
+            if (id == null) {
+                var errorMessage = String.format("user %s was not found. Message will not be created", item.getCreatedBy());
+                response.failed(HttpStatus.NOT_ACCEPTABLE, errorMessage);
+            } else {
+                response.created(id, uriBuilder.build(id));
+            }
+        }
+
+        return new ResponseEntity<>(response, response.isAllCreated() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+    }
+
+    /**
+     * Handles GET requests for messages. The response has an ETag and a Last-Modified header, and a request with a
+     * matching If-None-Match or If-Modified-Since header gets a 304 without the message being serialized.
      *
      * @param message the id of the message to GET.
      * @return the message or an error.
      */
     @GetMapping("{message}")
-    public Message getMessage(@PathVariable String message) {
+    public ResponseEntity<Message> getMessage(@PathVariable String message) {
         var toReturn = messages.describe(message);
 
         if (toReturn == Message.NONEXISTING) {
@@ -117,20 +358,26 @@ public class MessageController {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, errorMessage);
         }
 
-        return messages.describe(message);
+        return ResponseEntity.ok()
+                .eTag(etag(toReturn.getRevision()))
+                .lastModified(TimeUnit.SECONDS.toMillis(toReturn.getUpdated()))
+                .body(toReturn);
     }
 
     /**
-     * Handles PUT requests for messages.
+     * Handles PUT requests for messages. With an <code>If-Match</code> header the message is only updated if it is
+     * still at the revision of the tag, which is the tag that GET returned for the message.
      *
      * @param messageId the id of the message to update.
      * @param message the message to update to.
+     * @param ifMatch the tag the message must match or null to update it regardless.
      * @param request the request used to create a path in the error response.
      * @return a response entity that contains the information about the response or error.
      */
     @PutMapping("{message}")
     public ResponseEntity<ResponseBody> putMessage(@PathVariable("message") String messageId,
                                                    @RequestBody Message message,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
                                                    HttpServletRequest request) {
         var messageWithId = new Message(messageId, message.getMessage());
 
@@ -138,19 +385,66 @@ public class MessageController {
         var uriBuilder = UriComponentsBuilder.fromUriString(requestUri);
         var path = uriBuilder.build("");
 
+        var headers = new HttpHeaders();
+
         try {
-            messages.update(messageWithId);
+            var revision = revision(ifMatch);
+
+            if (revision == null) {
+                messages.update(messageWithId);
+            } else {
+                headers.setETag(etag(messages.update(messageWithId, revision)));
+            }
         } catch (MessageNotFoundException e) {
             var statusCode = HttpStatus.NOT_FOUND;
             var error = "Not Found";
             var errorMessage = e.getMessage();
 
             return new ResponseEntity<>(new ResponseBody(statusCode.value(), error, errorMessage, path.toString()), HttpStatus.NOT_FOUND);
+        } catch (MessageConflictException e) {
+            var statusCode = HttpStatus.PRECONDITION_FAILED;
+            var error = "Precondition Failed";
+            var errorMessage = e.getMessage();
+
+            return new ResponseEntity<>(new ResponseBody(statusCode.value(), error, errorMessage, path.toString()), statusCode);
         }
 
         var statusCode = HttpStatus.OK;
         var responseMessage = "Updated";
-        return new ResponseEntity<>(new ResponseBody(statusCode.value(), responseMessage), statusCode);
+        return new ResponseEntity<>(new ResponseBody(statusCode.value(), responseMessage), headers, statusCode);
+    }
+
+    /**
+     * Returns the entity tag of a revision of a message.
+     */
+    static String etag(long revision) {
+        return String.format("\"%d\"", revision);
+    }
+
+    /**
+     * Parses the revision of an <code>If-Match</code> header. If-Match uses the strong comparison, so a weak tag never
+     * matches.
+     *
+     * @return the revision or null if there is no header or it matches any revision.
+     * @throws MessageConflictException if the header is not a strong tag of a message revision, so no revision can
+     * match it.
+     */
+    static Long revision(String ifMatch) throws MessageConflictException {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        var tag = ifMatch.trim();
+
+        if (tag.startsWith("W/")) {
+            throw new MessageConflictException(String.format("%s is a weak tag, which never matches in If-Match.", ifMatch));
+        }
+
+        try {
+            return Long.parseLong(StringUtils.strip(tag, "\""));
+        } catch (NumberFormatException e) {
+            throw new MessageConflictException(String.format("%s is not the tag of a message revision.", ifMatch));
+        }
     }
 
     /**
@@ -17,7 +17,13 @@
 
 package com.fridaymastermix.message;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Interface for Data Access Objects that manipulates message data.
@@ -30,6 +36,27 @@ public interface MessageDao {
      */
     Message get(String id);
 
+    /**
+     * Returns the messages with the provided ids that can be found. Implementations that talk to a remote data store
+     * should fetch all messages in as few round trips as possible.
+     *
+     * @param ids the ids of the messages.
+     * @return the messages that could be found, in the order of the ids.
+     */
+    default List<Message> getAll(Collection<String> ids) {
+        var messages = new ArrayList<Message>(ids.size());
+
+        for (var id: ids) {
+            var message = get(id);
+
+            if (message != Message.NONEXISTING && message != Message.ERROR) {
+                messages.add(message);
+            }
+        }
+
+        return messages;
+    }
+
     /**
      * Checks if the message exists or not.
      *
@@ -53,6 +80,36 @@ public interface MessageDao {
      */
     List<Message> all();
 
+    /**
+     * Returns a page of messages ordered from newest to oldest.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @param cursor the cursor returned with the previous page or null for the first page.
+     * @param limit the max number of messages on the page.
+     * @return the page.
+     * @throws InvalidCursorException if the cursor can not be understood.
+     */
+    MessagePage page(String user, String cursor, int limit) throws InvalidCursorException;
+
+    /**
+     * Returns the version of the list of all messages, or of the messages written by a user. The version changes
+     * when a message in the list is added, updated or deleted, so a list that was read with the same version has
+     * not changed since.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @return the version.
+     */
+    String version(String user);
+
+    /**
+     * Passes all messages, or all messages written by a user, to the consumer in batches.
+     * Only one batch is held in memory at a time.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @param consumer the consumer of the batches.
+     */
+    void scan(String user, Consumer<List<Message>> consumer);
+
     /**
      * Adds a message.
      *
@@ -62,14 +119,83 @@ public interface MessageDao {
      */
     String add(String message, String user);
 
+    /**
+     * Adds a message if the user exists. Users that are ruled out by the check without I/O are rejected first.
+     * Implementations that can check the user in the same atomic write as the message should do so instead of asking
+     * the check that may need I/O.
+     *
+     * @param message the message to add.
+     * @param user the user that adds the message.
+     * @param userMightExist checks without I/O if the user might exist.
+     * @param userExists checks if the user exists.
+     * @return the newly created id of the message or null if the user does not exist.
+     */
+    default String addIfUserExists(String message, String user, Predicate<String> userMightExist, Predicate<String> userExists) {
+        return userMightExist.test(user) && userExists.test(user) ? add(message, user) : null;
+    }
+
+    /**
+     * Adds messages. Implementations that talk to a remote data store should write the messages in as few round trips
+     * as possible.
+     *
+     * @param messages the messages to add, with the content and the user that adds the message set.
+     * @return the newly created ids of the messages, in the order of the messages.
+     */
+    default List<String> addAll(List<Message> messages) {
+        var ids = new ArrayList<String>(messages.size());
+
+        for (var message: messages) {
+            ids.add(add(message.getMessage(), message.getCreatedBy()));
+        }
+
+        return ids;
+    }
+
     /**
      * Updates the content of a message.
      *
      * @param id the id of the message to update.
+     * @param createdBy the user that created the message.
      * @param message the content to update to.
-     * @throws MessageNotFoundException if there is no message to update.
+     * @return the new revision of the message.
+     * @throws MessageNotFoundException if there is no message to update or it was created by another user.
      */
-    void update(String id, String message) throws MessageNotFoundException;
+    long update(String id, String createdBy, String message) throws MessageNotFoundException;
+
+    /**
+     * Updates the content of a message if it has not been written since it was read. The revision is checked and the
+     * message is written in one atomic step.
+     *
+     * @param id the id of the message to update.
+     * @param createdBy the user that created the message.
+     * @param message the content to update to.
+     * @param revision the revision of the message when it was read.
+     * @return the new revision of the message.
+     * @throws MessageNotFoundException if there is no message to update or it was created by another user.
+     * @throws MessageConflictException if the message has another revision.
+     */
+    long update(String id, String createdBy, String message, long revision) throws MessageNotFoundException, MessageConflictException;
+
+    /**
+     * Updates the content of messages. Implementations that talk to a remote data store should write all messages in
+     * as few round trips as possible.
+     *
+     * @param messages the messages to update, with their id, the user that created them and the content to update to.
+     * @return the new revisions by message id. Messages that could not be found and were not updated are left out.
+     */
+    default Map<String, Long> updateAll(List<Message> messages) {
+        var revisions = new HashMap<String, Long>();
+
+        for (var message: messages) {
+            try {
+                revisions.put(message.getId(), update(message.getId(), message.getCreatedBy(), message.getMessage()));
+            } catch (MessageNotFoundException e) {
+                // Left out of the revisions.
+            }
+        }
+
+        return revisions;
+    }
 
     /**
      * Deletes a message.
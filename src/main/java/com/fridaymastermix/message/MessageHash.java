@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.util.Map;
+
+/**
+ * Converts messages to and from the redis hashes they are stored in.
+ */
+final class MessageHash {
+    private static final String[] MESSAGE_KEYS = {"id", "message", "createdBy", "created", "updated"};
+
+    private MessageHash() {
+    }
+
+    /**
+     * Creates the hash of a new message.
+     *
+     * @param id the id of the message.
+     * @param message the content of the message.
+     * @param user the user that created the message.
+     * @param epoch the time the message was created in seconds since the epoch.
+     * @return the hash.
+     */
+    static Map<String, String> of(String id, String message, String user, String epoch) {
+        return Map.of(
+                "id", id,
+                "message", message,
+                "createdBy", user,
+                "created", epoch,
+                "updated", epoch,
+                "revision", "1");
+    }
+
+    /**
+     * Creates the hash of a message that is rewritten from another encoding.
+     *
+     * @param id the id of the message.
+     * @param message the content of the message.
+     * @param user the user that created the message.
+     * @param created the time the message was created in seconds since the epoch.
+     * @param updated the time the message was updated in seconds since the epoch.
+     * @param revision the revision of the message.
+     * @return the hash.
+     */
+    static Map<String, String> of(String id, String message, String user, long created, long updated, long revision) {
+        return Map.of(
+                "id", id,
+                "message", message,
+                "createdBy", user,
+                "created", Long.toString(created),
+                "updated", Long.toString(updated),
+                "revision", Long.toString(revision));
+    }
+
+    /**
+     * Checks if any of the message fields are missing in the hash.
+     *
+     * @param hash the hash.
+     * @return true if a field is missing.
+     */
+    static boolean notValid(Map<String, String> hash) {
+        for (var key: MESSAGE_KEYS) {
+            if (!hash.containsKey(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Converts a hash to a message.
+     *
+     * @param hash the hash.
+     * @return the message, {@link Message#NONEXISTING} if the hash is empty or {@link Message#ERROR} if the hash is
+     * missing fields. Hashes without a revision were written before revisions were introduced and have revision 0.
+     */
+    static Message toMessage(Map<String, String> hash) {
+        if (hash.isEmpty()) {
+            return Message.NONEXISTING;
+        } else if (notValid(hash)) {
+            return Message.ERROR;
+        } else {
+            return new Message(
+                    hash.get("id"),
+                    hash.get("message"),
+                    hash.get("createdBy"),
+                    Long.parseLong(hash.get("created")),
+                    Long.parseLong(hash.get("updated")),
+                    Long.parseLong(hash.getOrDefault("revision", "0")));
+        }
+    }
+
+    /**
+     * Checks that a message is neither {@link Message#NONEXISTING} nor {@link Message#ERROR}.
+     *
+     * @param message the message.
+     * @return true if the message is a real message.
+     */
+    static boolean valid(Message message) {
+        return ((message != Message.NONEXISTING) && (message != Message.ERROR));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Names of the redis keys that hold message data.
+ */
+final class MessageKeys {
+    static final String ALL = "messages:all";
+
+    /**
+     * The key of the time the data of a redis node was first versioned, which prefixes the versions so that they are
+     * not reused after the data is flushed or lost.
+     */
+    static final String EPOCH = "messages:epoch";
+
+    private MessageKeys() {
+    }
+
+    /**
+     * Returns the key of the hash that holds a message.
+     *
+     * @param id the id of the message.
+     * @return the key.
+     */
+    static String message(String id) {
+        return String.format("message:%s", id);
+    }
+
+    /**
+     * Returns the key of the binary value that holds a message when the binary encoding is used.
+     *
+     * @param id the id of the message.
+     * @return the key.
+     */
+    static byte[] binary(String id) {
+        return String.format("msg:%s", id).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the key of the set that holds the ids of the messages written by a user.
+     *
+     * @param user the user.
+     * @return the key.
+     */
+    static String writtenBy(String user) {
+        return String.format("user:%s:messages", user);
+    }
+
+    /**
+     * Returns the key of the set of message ids that is listed for a user, or for all users if the user is null.
+     *
+     * @param user the user or null.
+     * @return the key.
+     */
+    static String listing(String user) {
+        return user == null ? ALL : writtenBy(user);
+    }
+
+    /**
+     * Returns the key of the counter that is the version of the messages of a user, or of all users if the user is
+     * null.
+     *
+     * @param user the user or null.
+     * @return the key.
+     */
+    static String version(String user) {
+        return user == null ? "messages:version" : String.format("user:%s:messages:version", user);
+    }
+
+    /**
+     * Returns the key of the hash that holds a user, which is checked when a message is created.
+     *
+     * @param user the user.
+     * @return the key.
+     */
+    static String user(String user) {
+        return String.format("user:%s", user);
+    }
+
+    /**
+     * Returns the key of the sorted set that orders the messages of a user, or of all users if the user is null,
+     * by the time they were created.
+     *
+     * @param user the user or null.
+     * @return the key.
+     */
+    static String timeline(String user) {
+        return user == null ? "messages:timeline" : String.format("user:%s:timeline", user);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.RedisFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Converts the messages that are stored as hashes to the binary encoding of {@link MessageCodec} while the
+ * application is running.
+ *
+ * The ids in the set of all messages are walked with SSCAN. Each batch is converted optimistically: the hashes are
+ * watched, read in one pipeline and replaced in one transaction. If a message is changed by another client in the
+ * meantime the transaction is discarded and the messages of the batch are converted one at a time instead. Messages
+ * that are already converted or deleted are skipped, so the migration can be run again at any time. It should only be
+ * run once every node uses the binary encoding, otherwise nodes that still write hashes will keep creating them.
+ */
+@Component
+@Profile("!memory & !log")
+public class MessageMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageMigration.class);
+
+    private static final int ATTEMPTS = 3;
+
+    @Autowired
+    RedisFactory redisFactory;
+
+    @Value("${redis.pipeline.chunk-size:500}")
+    int chunkSize = 500;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private volatile String error;
+
+    /**
+     * Starts a migration on a background thread unless one is already running.
+     *
+     * @return true if a migration was started.
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        converted.set(0);
+        skipped.set(0);
+        conflicts.set(0);
+        error = null;
+
+        var thread = new Thread(() -> {
+            try {
+                migrate();
+            } catch (JedisException e) {
+                LOG.warn("The message migration failed", e);
+                error = e.getMessage();
+            } finally {
+                running.set(false);
+            }
+        }, "message-migration");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Reports the progress of the current or the last migration.
+     *
+     * @return the description of the migration.
+     */
+    public Map<String, Object> describe() {
+        var description = new LinkedHashMap<String, Object>();
+        description.put("running", running.get());
+        description.put("converted", converted.get());
+        description.put("skipped", skipped.get());
+        description.put("conflicts", conflicts.get());
+        description.put("error", error);
+        return description;
+    }
+
+    /**
+     * Converts all messages, one shard and one batch of {@link #chunkSize} ids at a time. A connection is only borrowed
+     * while a batch is converted.
+     */
+    void migrate() {
+        LOG.info("Converting message hashes to the binary encoding");
+        var params = new ScanParams().count(chunkSize);
+
+        for (var shard = 0; shard < redisFactory.shards(); shard++) {
+            var cursor = ScanParams.SCAN_POINTER_START;
+
+            do {
+                try (var redis = redisFactory.redis(shard)) {
+                    var scan = redis.sscan(MessageKeys.ALL, cursor, params);
+                    convert(redis, scan.getResult(), ATTEMPTS);
+                    cursor = scan.getCursor();
+                }
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+
+        LOG.info("Converted {} messages, skipped {}", converted.get(), skipped.get());
+    }
+
+    /**
+     * Converts a batch of messages in one transaction.
+     *
+     * @param redis the connection.
+     * @param ids the ids of the messages.
+     * @param attempts the number of times a single message is attempted before it is left as a hash.
+     */
+    void convert(Jedis redis, List<String> ids, int attempts) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        var keys = ids.stream().map(MessageKeys::message).toArray(String[]::new);
+        redis.watch(keys);
+
+        var pipeline = redis.pipelined();
+        var responses = ids.stream().
+                map(id -> pipeline.hgetAll(MessageKeys.message(id))).
+                collect(Collectors.toList());
+        pipeline.sync();
+
+        var messages = new ArrayList<Message>(ids.size());
+        for (var i = 0; i < ids.size(); i++) {
+            var hash = responses.get(i).get();
+
+            if (!MessageHash.notValid(hash)) {
+                messages.add(MessageHash.toMessage(hash));
+            }
+        }
+
+        if (messages.isEmpty()) {
+            redis.unwatch();
+            skipped.addAndGet(ids.size());
+            return;
+        }
+
+        var transaction = redis.multi();
+        for (var message: messages) {
+            var value = MessageCodec.encode(message.getMessage(), message.getCreatedBy(), message.getCreated(), message.getUpdated(), message.getRevision());
+            transaction.set(MessageKeys.binary(message.getId()), value);
+            transaction.del(MessageKeys.message(message.getId()));
+        }
+
+        var result = transaction.exec();
+
+        if (result != null && !result.isEmpty()) {
+            converted.addAndGet(messages.size());
+            skipped.addAndGet(ids.size() - messages.size());
+        } else if (ids.size() > 1) {
+            for (var id: ids) {
+                convert(redis, List.of(id), attempts);
+            }
+        } else if (attempts > 1) {
+            convert(redis, ids, attempts - 1);
+        } else {
+            LOG.warn("Message {} kept changing and was not converted", ids.get(0));
+            conflicts.incrementAndGet();
+        }
+    }
+}
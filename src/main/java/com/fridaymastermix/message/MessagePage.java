@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.util.List;
+
+/**
+ * A page of messages and the cursor that points to the next page.
+ */
+public class MessagePage {
+
+    private List<Message> messages;
+    private String next;
+
+    /**
+     * Constructor.
+     *
+     * @param messages the messages on the page.
+     * @param next the cursor of the next page or null if this is the last page.
+     */
+    public MessagePage(List<Message> messages, String next) {
+        this.messages = messages;
+        this.next = next;
+    }
+
+    /**
+     * Returns the messages on the page.
+     *
+     * @return the messages on the page.
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return the cursor of the next page or null if this is the last page.
+     */
+    public String getNext() {
+        return next;
+    }
+}
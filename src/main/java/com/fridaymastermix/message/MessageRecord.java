@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts messages to and from the values they are stored as in a {@link com.fridaymastermix.segment.SegmentLog}.
+ *
+ * Layout: created (long), updated (long), length of the author (short), author (UTF-8), content (UTF-8, the rest).
+ * The id of the message is the key of the value.
+ */
+final class MessageRecord {
+    private static final int CREATED = 0;
+    private static final int UPDATED = 8;
+    private static final int AUTHOR_LENGTH = 16;
+    private static final int AUTHOR = 18;
+
+    private MessageRecord() {
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param message the content of the message.
+     * @param user the user that created the message.
+     * @param created the time the message was created in seconds since the epoch.
+     * @param updated the time the message was updated in seconds since the epoch.
+     * @return the value.
+     */
+    static byte[] of(String message, String user, long created, long updated) {
+        var author = user.getBytes(StandardCharsets.UTF_8);
+        var content = message.getBytes(StandardCharsets.UTF_8);
+
+        return ByteBuffer.allocate(AUTHOR + author.length + content.length)
+                .putLong(created)
+                .putLong(updated)
+                .putShort((short) author.length)
+                .put(author)
+                .put(content)
+                .array();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param id the id of the message.
+     * @param value the value.
+     * @param revision the revision of the message.
+     * @return the message.
+     */
+    static Message toMessage(String id, ByteBuffer value, long revision) {
+        var authorLength = Short.toUnsignedInt(value.getShort(AUTHOR_LENGTH));
+        return new Message(
+                id,
+                string(value, AUTHOR + authorLength, value.limit() - AUTHOR - authorLength),
+                string(value, AUTHOR, authorLength),
+                value.getLong(CREATED),
+                value.getLong(UPDATED),
+                revision);
+    }
+
+    /**
+     * Decodes the user that created a message.
+     *
+     * @param value the value.
+     * @return the user.
+     */
+    static String createdBy(ByteBuffer value) {
+        return string(value, AUTHOR, Short.toUnsignedInt(value.getShort(AUTHOR_LENGTH)));
+    }
+
+    /**
+     * Decodes the time a message was created.
+     *
+     * @param value the value.
+     * @return the time in seconds since the epoch.
+     */
+    static long created(ByteBuffer value) {
+        return value.getLong(CREATED);
+    }
+
+    private static String string(ByteBuffer value, int offset, int length) {
+        var bytes = new byte[length];
+        value.duplicate().position(offset).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -17,13 +17,19 @@
 
 package com.fridaymastermix.message;
 
-import com.fridaymastermix.user.User;
-import com.fridaymastermix.user.UserDao;
+import com.fridaymastermix.ResponseCache;
+import com.fridaymastermix.user.KnownUsers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Service that coordinates message requests.
@@ -33,22 +39,59 @@ import java.util.List;
 @Qualifier("database")
 public class MessageService {
     @Autowired
-    @Qualifier("redis")
     MessageDao messageDao;
 
     @Autowired
-    @Qualifier("redis")
-    UserDao userDao;
+    KnownUsers knownUsers;
+
+    @Autowired
+    MessageCache cache;
+
+    @Autowired
+    ResponseCache responses;
+
+    @Autowired
+    MessageWriteBehind writeBehind;
 
     /**
-     * Describes a message.
+     * Returns the {@link ResponseCache} group of the message lists of a user, or of all users if the user is null.
+     *
+     * @param user the user or null.
+     * @return the group.
+     */
+    static String listing(String user) {
+        return user == null ? "messages" : String.format("messages:%s", user);
+    }
+
+    /**
+     * Describes a message. The message is read through the message cache and an edit of the message that is buffered
+     * by the {@link MessageWriteBehind} is applied to it.
      * If no message can be found an {@link Message#NONEXISTING} message will be returned.
      *
      * @param messageWithId the id of the message to describe.
      * @return the message.
      */
     public Message describe(String messageWithId) {
-        return messageDao.get(messageWithId);
+        return writeBehind.overlay(cache.get(messageWithId, messageDao::get));
+    }
+
+    /**
+     * Describes messages. The messages are read through the message cache and the ones that are not cached are
+     * fetched with one call to the Data Access Object.
+     *
+     * @param ids the ids of the messages to describe.
+     * @return the messages that could be found by id.
+     */
+    public Map<String, Message> describeAll(Collection<String> ids) {
+        var messages = cache.getAll(ids, messageDao::getAll);
+
+        if (!writeBehind.enabled()) {
+            return messages;
+        }
+
+        var latest = new LinkedHashMap<String, Message>();
+        messages.forEach((id, message) -> latest.put(id, writeBehind.overlay(message)));
+        return latest;
     }
 
     /**
@@ -72,7 +115,41 @@ public class MessageService {
     }
 
     /**
-     * Creates a message for the user and returns the new message id.
+     * Returns a page of messages ordered from newest to oldest.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @param cursor the cursor of the page or null for the first page.
+     * @param limit the max number of messages on the page.
+     * @return the page.
+     * @throws InvalidCursorException if the cursor can not be understood.
+     */
+    public MessagePage page(String user, String cursor, int limit) throws InvalidCursorException {
+        return messageDao.page(user, cursor, limit);
+    }
+
+    /**
+     * Returns the version of the list of all messages, or of the messages written by a user.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @return the version.
+     */
+    public String version(String user) {
+        return messageDao.version(user);
+    }
+
+    /**
+     * Passes all messages, or all messages by the user, to the consumer in batches.
+     *
+     * @param user the user that wrote the messages or null for messages by all users.
+     * @param consumer the consumer of the batches.
+     */
+    public void scan(String user, Consumer<List<Message>> consumer) {
+        messageDao.scan(user, consumer);
+    }
+
+    /**
+     * Creates a message for the user and returns the new message id. The Data Access Object checks the user together
+     * with the write when it can and asks the cache of known users otherwise.
      *
      * @param message the message to create.
      * @param user the user to create the message for.
@@ -82,21 +159,116 @@ public class MessageService {
      * is protected since an unauthorized user would not be able to create a message.
      */
     public String create(String message, String user) throws UserNotFoundException {
-        if (userDao.get(user) != User.NONEXISTING) {
-            return messageDao.add(message, user);
-        } else {
+        var id = messageDao.addIfUserExists(message, user, knownUsers::mightExist, knownUsers::exists);
+
+        if (id == null) {
             throw new UserNotFoundException(String.format("user %s was not found. Message will not be created", user));
         }
+
+        responses.invalidate(listing(null), listing(user));
+        return id;
     }
 
     /**
-     * Updates a message.
+     * Creates messages for the users they are created by. The users of all messages are checked with one lookup and
+     * the messages of existing users are added with one call to the Data Access Object.
+     *
+     * @param messages the messages, with the content and the user that creates the message set.
+     * @return the new message ids in the order of the messages, with null for the messages whose user does not exist.
+     */
+    public List<String> createAll(List<Message> messages) {
+        var users = messages.stream().map(Message::getCreatedBy).collect(Collectors.toSet());
+        var existing = knownUsers.existing(users);
+
+        var accepted = messages.stream().
+                filter(message -> existing.contains(message.getCreatedBy())).
+                collect(Collectors.toList());
+        var added = messageDao.addAll(accepted).iterator();
+
+        var ids = new ArrayList<String>(messages.size());
+        for (var message: messages) {
+            ids.add(existing.contains(message.getCreatedBy()) ? added.next() : null);
+        }
+
+        if (!accepted.isEmpty()) {
+            var groups = new ArrayList<String>();
+            groups.add(listing(null));
+            accepted.stream().map(Message::getCreatedBy).distinct().forEach(user -> groups.add(listing(user)));
+            responses.invalidate(groups.toArray(new String[0]));
+        }
+
+        return ids;
+    }
+
+    /**
+     * Updates a message. When write-behind is enabled the edit is buffered and written together with other edits
+     * within the write-behind window.
      *
      * @param message contains the id and the message to update.
      * @throws MessageNotFoundException if the message could not be found in the system.
      */
     public void update(Message message) throws MessageNotFoundException {
-        messageDao.update(message.getId(), message.getMessage());
+        var existing = existing(message.getId());
+
+        if (writeBehind.enabled()) {
+            writeBehind.update(existing, message.getMessage());
+            return;
+        }
+
+        messageDao.update(message.getId(), existing.getCreatedBy(), message.getMessage());
+        invalidate(message.getId(), existing);
+    }
+
+    /**
+     * Updates a message if it has not been written since it was read at a revision. A message that is not updated is
+     * dropped from the message cache as well, since the cached copy may be the reason the revision is outdated.
+     * Buffered edits of the message are written first, since the revision is checked by the Data Access Object, and a
+     * revision that was read from a buffered edit is checked as the revision the edit was written as.
+     *
+     * @param message contains the id and the message to update.
+     * @param revision the revision of the message when it was read.
+     * @return the new revision of the message.
+     * @throws MessageNotFoundException if the message could not be found in the system.
+     * @throws MessageConflictException if the message has another revision.
+     */
+    public long update(Message message, long revision) throws MessageNotFoundException, MessageConflictException {
+        var expected = writeBehind.flush(message.getId(), revision);
+        var existing = existing(message.getId());
+
+        long updated;
+        try {
+            updated = messageDao.update(message.getId(), existing.getCreatedBy(), message.getMessage(), expected);
+        } catch (MessageConflictException e) {
+            cache.invalidate(message.getId());
+            throw e;
+        }
+
+        invalidate(message.getId(), existing);
+        return updated;
+    }
+
+    /**
+     * Describes a message that is about to be updated. The user that created a message never changes, so a cached
+     * copy is enough to tell the Data Access Object who created it.
+     */
+    private Message existing(String id) throws MessageNotFoundException {
+        var existing = describe(id);
+
+        if (existing == null || !MessageHash.valid(existing)) {
+            throw new MessageNotFoundException(String.format("Message with id %s could not be found and can not be updated.", id));
+        }
+
+        return existing;
+    }
+
+    private void invalidate(String id, Message existing) {
+        cache.invalidate(id);
+
+        if (existing != null && MessageHash.valid(existing)) {
+            responses.invalidate(listing(null), listing(existing.getCreatedBy()));
+        } else {
+            responses.invalidate(listing(null));
+        }
     }
 
     /**
@@ -109,7 +281,15 @@ public class MessageService {
      */
     public boolean delete(String message, String forUser) {
         if (messageDao.exists(message, forUser)) {
-            return messageDao.delete(message, forUser);
+            writeBehind.discard(message);
+            var deleted = messageDao.delete(message, forUser);
+            cache.invalidate(message);
+
+            if (deleted) {
+                responses.invalidate(listing(null), listing(forUser));
+            }
+
+            return deleted;
         } else {
             return false;
         }
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the message lists for DAOs that keep them in process. A version is the time the process started
+ * followed by a counter, so that versions from before a restart are never reused.
+ */
+final class MessageVersions {
+    private final String started = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final AtomicLong all = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> users = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the version of the list of all messages or of the messages written by a user.
+     *
+     * @param user the user or null for the list of all messages.
+     * @return the version.
+     */
+    String get(String user) {
+        var counter = user == null ? all : users.get(user);
+        return String.format("%s-%d", started, counter == null ? 0 : counter.get());
+    }
+
+    /**
+     * Changes the versions of the list of all messages and of the messages written by a user. Called after a message
+     * of the user has been changed.
+     *
+     * @param user the user that wrote the message.
+     */
+    void bump(String user) {
+        all.incrementAndGet();
+        users.computeIfAbsent(user, key -> new AtomicLong()).incrementAndGet();
+    }
+}
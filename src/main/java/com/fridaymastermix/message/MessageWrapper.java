@@ -17,6 +17,8 @@
 
 package com.fridaymastermix.message;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -26,6 +28,12 @@ public class MessageWrapper {
 
     private List<Message> messages;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String next;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> missing;
+
     /**
      * Constructor.
      *
@@ -35,6 +43,27 @@ public class MessageWrapper {
         this.messages = messages;
     }
 
+    /**
+     * Constructor for messages that were asked for by id.
+     *
+     * @param messages the messages that were found.
+     * @param missing the ids of the messages that could not be found.
+     */
+    public MessageWrapper(List<Message> messages, List<String> missing) {
+        this.messages = messages;
+        this.missing = missing;
+    }
+
+    /**
+     * Constructor for a page of messages.
+     *
+     * @param page the page to wrap.
+     */
+    public MessageWrapper(MessagePage page) {
+        this.messages = page.getMessages();
+        this.next = page.getNext();
+    }
+
     /**
      * Returns the list of messages.
      *
@@ -43,4 +72,22 @@ public class MessageWrapper {
     public List<Message> getMessages() {
         return messages;
     }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return the cursor of the next page or null if there are no more messages or the messages are not paged.
+     */
+    public String getNext() {
+        return next;
+    }
+
+    /**
+     * Returns the ids of the messages that were asked for but could not be found.
+     *
+     * @return the ids or null if the messages were not asked for by id.
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
 }
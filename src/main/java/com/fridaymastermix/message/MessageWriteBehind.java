@@ -0,0 +1,374 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.ResponseCache;
+import com.fridaymastermix.memory.Stripes;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in write-behind buffer of message edits.
+ *
+ * Edits are kept in memory for up to the configured window and edits to the same message within the window are
+ * coalesced, so that only the latest content is written. The buffer is split in stripes with a lock each and every
+ * stripe is flushed with one batch update of the {@link MessageDao}. Edits stay in the buffer until they have been
+ * written so that reads on this node can overlay them, and the buffer is flushed when the application shuts down.
+ *
+ * A buffered edit is shown with the revision it was made on plus one, which is not always the revision it gets when
+ * it is written. The revisions that edits were written as are therefore remembered for a while, so that a client that
+ * read a buffered edit can still update it conditionally.
+ */
+@Component
+public class MessageWriteBehind implements InitializingBean, DisposableBean, MeterBinder {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageWriteBehind.class);
+    private static final long WRITTEN_SIZE = 10_000;
+    private static final long WRITTEN_TTL_MINUTES = 10;
+
+    @Autowired
+    MessageDao messageDao;
+
+    @Autowired
+    MessageCache cache;
+
+    @Autowired
+    ResponseCache responses;
+
+    @Value("${messages.write-behind.enabled:false}")
+    boolean enabled = false;
+
+    @Value("${messages.write-behind.window-millis:100}")
+    long windowMillis = 100;
+
+    @Value("${messages.write-behind.stripes:16}")
+    int stripeCount = 16;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final Cache<String, long[]> written = Caffeine.newBuilder()
+            .maximumSize(WRITTEN_SIZE)
+            .expireAfterWrite(WRITTEN_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    private Stripes locks;
+    private Stripe[] stripes;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Checks if edits should be buffered.
+     *
+     * @return true if write-behind is enabled.
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffers an edit of a message. An edit that is already buffered for the message is replaced.
+     *
+     * @param existing the message as it was read before the edit.
+     * @param message the content to update to.
+     */
+    public void update(Message existing, String message) {
+        var index = locks.index(existing.getId().hashCode());
+        var updated = System.currentTimeMillis() / 1000;
+        var lock = locks.at(index).writeLock();
+
+        lock.lock();
+        try {
+            var edits = stripes[index].edits;
+            var previous = edits.get(existing.getId());
+            var revision = previous == null ? existing.getRevision() + 1 : previous.revision;
+            edits.put(existing.getId(), new Edit(message, existing.getCreatedBy(), existing.getCreated(), updated, revision));
+
+            if (previous != null) {
+                coalesced.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the message with the buffered edit applied, or the message itself if it has no buffered edit.
+     *
+     * @param message the message as it was read from the cache or the Data Access Object.
+     * @return the latest version of the message.
+     */
+    public Message overlay(Message message) {
+        if (stripes == null || message == null || !MessageHash.valid(message)) {
+            return message;
+        }
+
+        var index = locks.index(message.getId().hashCode());
+        var lock = locks.at(index).readLock();
+        Edit edit;
+
+        lock.lock();
+        try {
+            edit = stripes[index].edits.get(message.getId());
+        } finally {
+            lock.unlock();
+        }
+
+        if (edit == null) {
+            return message;
+        }
+
+        return new Message(message.getId(), edit.message, message.getCreatedBy(), message.getCreated(), edit.updated, edit.revision);
+    }
+
+    /**
+     * Drops the buffered edit of a message, for example because the message is deleted.
+     *
+     * @param id the id of the message.
+     */
+    public void discard(String id) {
+        if (stripes == null) {
+            return;
+        }
+
+        var index = locks.index(id.hashCode());
+        var lock = locks.at(index).writeLock();
+
+        lock.lock();
+        try {
+            stripes[index].edits.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered edits of the stripe of a message before the message is updated conditionally, and returns
+     * the revision to check. A revision that was shown for a buffered edit of the message is replaced by the revision
+     * the edit was written as.
+     *
+     * @param id the id of the message.
+     * @param revision the revision of the message when it was read.
+     * @return the revision of the message in the Data Access Object when it was read.
+     */
+    public long flush(String id, long revision) {
+        if (stripes == null) {
+            return revision;
+        }
+
+        flush(locks.index(id.hashCode()));
+
+        var revisions = written.getIfPresent(id);
+        return revisions != null && revisions[0] == revision ? revisions[1] : revision;
+    }
+
+    /**
+     * Writes all buffered edits.
+     */
+    public void flush() {
+        if (stripes != null) {
+            for (var i = 0; i < stripes.length; i++) {
+                flush(i);
+            }
+        }
+    }
+
+    /**
+     * Writes the edits of a stripe with one batch update. The flush lock of the stripe makes sure that an older batch
+     * is never written after a newer one. Edits are removed when they have been written unless they were replaced by
+     * newer edits in the meantime, and the revisions they were written as are remembered before they are removed.
+     */
+    private void flush(int index) {
+        var stripe = stripes[index];
+        var lock = locks.at(index).writeLock();
+
+        synchronized (stripe.flushLock) {
+            Map<String, Edit> batch;
+
+            lock.lock();
+            try {
+                if (stripe.edits.isEmpty()) {
+                    return;
+                }
+
+                batch = new HashMap<>(stripe.edits);
+            } finally {
+                lock.unlock();
+            }
+
+            var updates = new ArrayList<Message>(batch.size());
+            batch.forEach((id, edit) -> updates.add(new Message(id, edit.message, edit.createdBy, edit.created, edit.updated, edit.revision)));
+
+            var revisions = messageDao.updateAll(updates);
+
+            if (revisions.size() < batch.size()) {
+                LOG.info("Buffered edits of {} messages were dropped since the messages no longer exist", batch.size() - revisions.size());
+            }
+
+            revisions.forEach((id, revision) -> written.put(id, new long[] {batch.get(id).revision, revision}));
+
+            lock.lock();
+            try {
+                batch.forEach(stripe.edits::remove);
+            } finally {
+                lock.unlock();
+            }
+
+            var groups = new LinkedHashSet<String>();
+            groups.add(MessageService.listing(null));
+
+            batch.forEach((id, edit) -> {
+                cache.invalidate(id);
+                groups.add(MessageService.listing(edit.createdBy));
+            });
+
+            responses.invalidate(groups.toArray(new String[0]));
+        }
+    }
+
+    private int pending() {
+        var pending = 0;
+
+        for (var i = 0; i < stripes.length; i++) {
+            var lock = locks.at(i).readLock();
+
+            lock.lock();
+            try {
+                pending += stripes[i].edits.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return pending;
+    }
+
+    /**
+     * Creates the stripes and schedules the flushes if write-behind is enabled.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+
+        locks = new Stripes(stripeCount);
+        stripes = new Stripe[locks.size()];
+
+        for (var i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "message-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOG.warn("Flush of buffered message edits failed and will be attempted again", e);
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scheduled flushes and writes the edits that are still buffered.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+
+        flusher.shutdown();
+        flusher.awaitTermination(windowMillis * 10, TimeUnit.MILLISECONDS);
+
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Buffered edits of {} messages could not be written on shutdown", pending(), e);
+        }
+    }
+
+    /**
+     * Registers the write-behind meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+
+        Gauge.builder("messages.write-behind.pending", this, MessageWriteBehind::pending)
+                .description("Number of message edits that are buffered and not yet written")
+                .register(registry);
+
+        FunctionCounter.builder("messages.write-behind.coalesced", coalesced, AtomicLong::get)
+                .description("Number of message edits that replaced a buffered edit and were never written")
+                .register(registry);
+    }
+
+    /**
+     * The buffered edits of a share of the messages. The lock of the stripe guards the edits and the flush lock is
+     * held while the edits are written.
+     */
+    private static class Stripe {
+        private final Map<String, Edit> edits = new HashMap<>();
+        private final Object flushLock = new Object();
+    }
+
+    /**
+     * A buffered edit.
+     */
+    private static class Edit {
+        private final String message;
+        private final String createdBy;
+        private final long created;
+        private final long updated;
+        private final long revision;
+
+        private Edit(String message, String createdBy, long created, long updated, long revision) {
+            this.message = message;
+            this.createdBy = createdBy;
+            this.created = created;
+            this.updated = updated;
+            this.revision = revision;
+        }
+    }
+}
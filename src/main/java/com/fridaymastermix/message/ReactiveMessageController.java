@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Handles requests for messages without blocking, used by the reactive profile.
+ * The API is the same as the API of {@link MessageController}, except that listings are neither paged nor streamed.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping(value = "messages", produces = MediaType.APPLICATION_JSON_VALUE)
+@SuppressWarnings("UnusedReturnValue")
+public class ReactiveMessageController {
+
+    @Autowired
+    ReactiveMessageService messages;
+
+    /**
+     * Returns a list of all messages or a list of messages for a provided user.
+     * @param user the user. Optional.
+     *
+     * @return a list of messages.
+     */
+    @GetMapping
+    public Mono<MessageWrapper> getMessages(@RequestParam(value = "user", required = false) String user) {
+        Flux<Message> messageList;
+
+        if (StringUtils.isNotBlank(user)) {
+            messageList = messages.writtenBy(user);
+        } else {
+            messageList = messages.all();
+        }
+
+        return messageList.collectList().map(MessageWrapper::new);
+    }
+
+    /**
+     * Handles POST requests for messages.
+     *
+     * @param message the message to create.
+     * @param user the user to create the message for.
+     * @param request the request used for creating the location header.
+     * @return a response entity that contains information about the created message or an error.
+     */
+    @PostMapping
+    public Mono<ResponseEntity<ResponseBody>> postMessages(@RequestBody @Validated Message message,
+                                                           @RequestParam String user,
+                                                           ServerHttpRequest request) {
+        var requestUri = request.getPath().value();
+
+        return messages.create(message.getMessage(), user)
+                .map(messageId -> {
+                    var uriBuilder = UriComponentsBuilder.fromUriString(requestUri);
+                    uriBuilder.path("/{id}");
+                    var headers = new HttpHeaders();
+                    headers.setLocation(uriBuilder.build(messageId));
+
+                    var status = HttpStatus.CREATED;
+                    return new ResponseEntity<>(new ResponseBody(status.value(), "Created"), headers, status);
+                })
+                .onErrorResume(UserNotFoundException.class, e -> {
+                    var status = HttpStatus.NOT_ACCEPTABLE;
+                    var error = "Not Acceptable";
+                    var errorMessage = e.getMessage();
+                    var path = UriComponentsBuilder.fromUriString(requestUri).build("");
+                    return Mono.just(new ResponseEntity<>(new ResponseBody(status.value(), error, errorMessage, path.toString()), status));
+                });
+    }
+
+    /**
+     * Handles GET requests for messages.
+     *
+     * @param message the id of the message to GET.
+     * @return the message or an error.
+     */
+    @GetMapping("{message}")
+    public Mono<Message> getMessage(@PathVariable String message) {
+        return messages.describe(message).flatMap(toReturn -> {
+            if (toReturn == Message.NONEXISTING) {
+                var errorMessage = String.format("Could not find message with id %s", message);
+                return Mono.<Message>error(new ResponseStatusException(HttpStatus.NOT_FOUND, errorMessage));
+            }
+
+            return Mono.just(toReturn);
+        });
+    }
+
+    /**
+     * Handles PUT requests for messages. With an <code>If-Match</code> header the message is only updated if it is
+     * still at the revision of the tag, like {@link MessageController#putMessage}.
+     *
+     * @param messageId the id of the message to update.
+     * @param message the message to update to.
+     * @param ifMatch the tag the message must match or null to update it regardless.
+     * @param request the request used to create a path in the error response.
+     * @return a response entity that contains the information about the response or error.
+     */
+    @PutMapping("{message}")
+    public Mono<ResponseEntity<ResponseBody>> putMessage(@PathVariable("message") String messageId,
+                                                         @RequestBody Message message,
+                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                         ServerHttpRequest request) {
+        var messageWithId = new Message(messageId, message.getMessage());
+        var path = UriComponentsBuilder.fromUriString(request.getPath().value()).build("");
+
+        Long revision;
+        try {
+            revision = MessageController.revision(ifMatch);
+        } catch (MessageConflictException e) {
+            return Mono.just(preconditionFailed(e, path.toString()));
+        }
+
+        var update = revision == null ? messages.update(messageWithId) : messages.update(messageWithId, revision);
+
+        return update
+                .map(updated -> {
+                    var headers = new HttpHeaders();
+
+                    if (revision != null) {
+                        headers.setETag(MessageController.etag(updated));
+                    }
+
+                    var statusCode = HttpStatus.OK;
+                    var responseMessage = "Updated";
+                    return new ResponseEntity<>(new ResponseBody(statusCode.value(), responseMessage), headers, statusCode);
+                })
+                .onErrorResume(MessageNotFoundException.class, e -> {
+                    var statusCode = HttpStatus.NOT_FOUND;
+                    var error = "Not Found";
+                    var errorMessage = e.getMessage();
+
+                    return Mono.just(new ResponseEntity<>(new ResponseBody(statusCode.value(), error, errorMessage, path.toString()), statusCode));
+                })
+                .onErrorResume(MessageConflictException.class, e -> Mono.just(preconditionFailed(e, path.toString())));
+    }
+
+    private static ResponseEntity<ResponseBody> preconditionFailed(MessageConflictException e, String path) {
+        var statusCode = HttpStatus.PRECONDITION_FAILED;
+        var error = "Precondition Failed";
+        var errorMessage = e.getMessage();
+
+        return new ResponseEntity<>(new ResponseBody(statusCode.value(), error, errorMessage, path), statusCode);
+    }
+
+    /**
+     * Handle delete requests for messages.
+     *
+     * @param message the id of the message to delete.
+     * @param forUser the user to delete the message for.
+     * @return a response entity that contains information about the result of the delete.
+     */
+    @DeleteMapping(value = "{message}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<ResponseBody>> deleteMessage(@PathVariable String message, @RequestParam("user") String forUser) {
+        return messages.delete(message, forUser).map(success -> {
+            if (success) {
+                var status = HttpStatus.OK;
+                return new ResponseEntity<>(new ResponseBody(status.value(), "Deleted"), status);
+            } else {
+                var status = HttpStatus.NOT_FOUND;
+                var responseMessage = String.format("Could not find item with id: %s for user %s", message, forUser);
+                return new ResponseEntity<>(new ResponseBody(status.value(), responseMessage), status);
+            }
+        });
+    }
+}
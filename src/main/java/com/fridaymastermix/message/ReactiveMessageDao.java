@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Interface for non-blocking Data Access Objects that manipulates message data.
+ * The methods mirror {@link MessageDao}.
+ */
+public interface ReactiveMessageDao {
+    /**
+     * Returns the message with the provided id or {@link Message#NONEXISTING} if the message can not be found.
+     * @param id the id of the message.
+     * @return the message or {@link Message#NONEXISTING}.
+     */
+    Mono<Message> get(String id);
+
+    /**
+     * Checks if the message exists or not.
+     *
+     * @param message the id of the message.
+     * @param forUser the user that created the message.
+     * @return true if the message exists, false otherwise.
+     */
+    Mono<Boolean> exists(String message, String forUser);
+
+    /**
+     * Returns all messages written by the user.
+     * @param user the user.
+     * @return all messages written by the user.
+     */
+    Flux<Message> messagesWrittenBy(String user);
+
+    /**
+     * Returns all messages.
+     *
+     * @return all messages.
+     */
+    Flux<Message> all();
+
+    /**
+     * Adds a message.
+     *
+     * @param message the message to add.
+     * @param user the user that adds the message.
+     * @return the newly created id of the message.
+     */
+    Mono<String> add(String message, String user);
+
+    /**
+     * Updates the content of a message.
+     *
+     * @param id the id of the message to update.
+     * @param createdBy the user that created the message.
+     * @param message the content to update to.
+     * @return the new revision of the message or signals {@link MessageNotFoundException} if there is no message to
+     * update or it was created by another user.
+     */
+    Mono<Long> update(String id, String createdBy, String message);
+
+    /**
+     * Updates the content of a message if it has not been written since it was read. The revision is checked and the
+     * message is written in one atomic step.
+     *
+     * @param id the id of the message to update.
+     * @param createdBy the user that created the message.
+     * @param message the content to update to.
+     * @param revision the revision of the message when it was read.
+     * @return the new revision of the message, or signals {@link MessageNotFoundException} if there is no message to
+     * update or it was created by another user and {@link MessageConflictException} if the message has another
+     * revision.
+     */
+    Mono<Long> update(String id, String createdBy, String message, long revision);
+
+    /**
+     * Deletes a message.
+     *
+     * @param message the id of the message.
+     * @param forUser the user that created the message.
+     * @return true if the message was deleted, false otherwise.
+     */
+    Mono<Boolean> delete(String message, String forUser);
+}
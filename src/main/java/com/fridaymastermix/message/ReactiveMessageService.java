@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.user.ReactiveUserDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Service that coordinates non-blocking message requests, used by the reactive profile.
+ *
+ * Messages are not read through the {@link MessageCache} since its loader is blocking, but updates and deletes still
+ * invalidate the caches of the nodes that run the servlet stack.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveMessageService {
+    @Autowired
+    ReactiveMessageDao messageDao;
+
+    @Autowired
+    ReactiveUserDao userDao;
+
+    @Autowired
+    MessageCache cache;
+
+    /**
+     * Describes a message.
+     * If no message can be found an {@link Message#NONEXISTING} message will be returned.
+     *
+     * @param messageWithId the id of the message to describe.
+     * @return the message.
+     */
+    public Mono<Message> describe(String messageWithId) {
+        return messageDao.get(messageWithId);
+    }
+
+    /**
+     * Returns all messages by the user.
+     *
+     * @param user the user.
+     * @return the messages.
+     */
+    public Flux<Message> writtenBy(String user) {
+        return messageDao.messagesWrittenBy(user);
+    }
+
+    /**
+     * Returns all known messages.
+     *
+     * @return all messages.
+     */
+    public Flux<Message> all() {
+        return messageDao.all();
+    }
+
+    /**
+     * Creates a message for the user and returns the new message id.
+     *
+     * @param message the message to create.
+     * @param user the user to create the message for.
+     * @return the id of the newly created message or {@link UserNotFoundException} if the user does not exist.
+     */
+    public Mono<String> create(String message, String user) {
+        return userDao.exists(user).flatMap(exists -> {
+            if (exists) {
+                return messageDao.add(message, user);
+            } else {
+                var errorMessage = String.format("user %s was not found. Message will not be created", user);
+                return Mono.<String>error(new UserNotFoundException(errorMessage));
+            }
+        });
+    }
+
+    /**
+     * Updates a message.
+     *
+     * @param message contains the id and the message to update.
+     * @return the new revision of the message or signals {@link MessageNotFoundException} if the message could not be
+     * found.
+     */
+    public Mono<Long> update(Message message) {
+        return existing(message.getId())
+                .flatMap(existing -> messageDao.update(message.getId(), existing.getCreatedBy(), message.getMessage()))
+                .flatMap(revision -> invalidate(message.getId()).thenReturn(revision));
+    }
+
+    /**
+     * Updates a message if it has not been written since it was read at a revision. A message that is not updated is
+     * dropped from the message cache as well, since the cached copy may be the reason the revision is outdated.
+     *
+     * @param message contains the id and the message to update.
+     * @param revision the revision of the message when it was read.
+     * @return the new revision of the message, or signals {@link MessageNotFoundException} if the message could not be
+     * found and {@link MessageConflictException} if the message has another revision.
+     */
+    public Mono<Long> update(Message message, long revision) {
+        return existing(message.getId())
+                .flatMap(existing -> messageDao.update(message.getId(), existing.getCreatedBy(), message.getMessage(), revision))
+                .onErrorResume(MessageConflictException.class, e -> invalidate(message.getId()).then(Mono.<Long>error(e)))
+                .flatMap(updated -> invalidate(message.getId()).thenReturn(updated));
+    }
+
+    /**
+     * Describes a message that is about to be updated, to tell the Data Access Object who created it.
+     */
+    private Mono<Message> existing(String id) {
+        return messageDao.get(id).flatMap(existing -> {
+            if (!MessageHash.valid(existing)) {
+                var errorMessage = String.format("Message with id %s could not be found and can not be updated.", id);
+                return Mono.<Message>error(new MessageNotFoundException(errorMessage));
+            }
+
+            return Mono.just(existing);
+        });
+    }
+
+    /**
+     * Deletes a message for a user.
+     *
+     * @param message the id of the message to delete.
+     * @param forUser the user to delete the message for.
+     *
+     * @return true if the message was deleted, false otherwise.
+     */
+    public Mono<Boolean> delete(String message, String forUser) {
+        return messageDao.exists(message, forUser).flatMap(exists -> {
+            if (exists) {
+                return messageDao.delete(message, forUser).flatMap(deleted -> invalidate(message).thenReturn(deleted));
+            } else {
+                return Mono.just(false);
+            }
+        });
+    }
+
+    /**
+     * Invalidates the cached message on a worker thread since the invalidation is published with a blocking client.
+     */
+    private Mono<Void> invalidate(String id) {
+        return Mono.fromRunnable(() -> cache.invalidate(id)).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+}
@@ -17,140 +17,728 @@
 
 package com.fridaymastermix.message;
 
+import com.fridaymastermix.database.FanOut;
+import com.fridaymastermix.database.HashTags;
 import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * An implementation fo the {@link MessageDao} that uses redis to store the data.
  */
 @Component
 @Qualifier("redis")
+@Profile("!memory & !log")
 public class RedisMessageDao implements MessageDao {
-    private static final String PREFIX_MESSAGES = "messages";
-    private static final String PREFIX_MESSAGE = "message";
-    private static final String PREFIX_USER = "user";
-    private static final String[] MESSAGE_KEYS = {"id", "message", "createdBy", "created", "updated"};
+    private static final Logger LOG = LoggerFactory.getLogger(RedisMessageDao.class);
+
+    private static final int ATTEMPTS = 3;
+    private static final long ANY_REVISION = -1;
+
+    private static final Comparator<Tuple> NEWEST_FIRST =
+            Comparator.comparingDouble(Tuple::getScore).thenComparing(Tuple::getElement).reversed();
+
+    private static final RedisScript ADD = new RedisScript("message-add");
+    private static final RedisScript UPDATE = new RedisScript("message-update");
+    private static final RedisScript DELETE = new RedisScript("message-delete");
 
     @Autowired
     RedisFactory redisFactory;
 
+    @Autowired
+    FanOut fanOut;
+
+    @Autowired
+    IdGenerator ids;
+
+    @Value("${redis.pipeline.chunk-size:500}")
+    int chunkSize = 500;
+
+    @Value("${messages.encoding:hash}")
+    String encoding = "hash";
+
     /**
      * @inheritDoc
+     *
+     * The message is read from a replica unless it was written recently by this node, and the read is hedged if
+     * hedging is enabled.
      */
     @Override
     public Message get(String id) {
-        try (var redis = redisFactory.redis()) {
-            String key = String.format("%s:%s", PREFIX_MESSAGE, id);
-            var hash = redis.hgetAll(key);
-            return toMessage(hash);
+        return redisFactory.read(HashTags.message(id), redis -> {
+            var message = read(redis, id, binary());
+            return message == Message.NONEXISTING ? read(redis, id, !binary()) : message;
+        });
+    }
+
+    /**
+     * Reads a message stored in one of the encodings.
+     */
+    private Message read(Jedis redis, String id, boolean binaryEncoded) {
+        return binaryEncoded ?
+                MessageCodec.decode(id, redis.get(MessageKeys.binary(id))) :
+                MessageHash.toMessage(redis.hgetAll(MessageKeys.message(id)));
+    }
+
+    /**
+     * Checks if new messages are stored with {@link MessageCodec} instead of as hashes.
+     */
+    private boolean binary() {
+        return "binary".equals(encoding);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The messages are fetched like the messages of a listing, pipelined in chunks of {@link #chunkSize} ids. When the
+     * keyspace is sharded the ids are grouped by shard and the shards are fetched concurrently.
+     */
+    @Override
+    public List<Message> getAll(Collection<String> ids) {
+        if (redisFactory.shards() == 1) {
+            return hydrate(() -> redisFactory.redis(0), ids);
         }
+
+        var byShard = new HashMap<Integer, List<String>>();
+        ids.forEach(id -> byShard.computeIfAbsent(redisFactory.shard(HashTags.message(id)), shard -> new ArrayList<>()).add(id));
+
+        var found = new HashMap<String, Message>();
+        redisFactory.scatter(shard -> {
+            if (!byShard.containsKey(shard)) {
+                return List.<Message>of();
+            }
+
+            return hydrate(() -> redisFactory.redis(shard), byShard.get(shard));
+        }).forEach(messages -> messages.forEach(message -> found.put(message.getId(), message)));
+
+        return ids.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     /**
      * @inheritDoc
+     *
+     * The messages of the user are read from a replica unless the user wrote a message recently on this node, and the
+     * read is hedged if hedging is enabled.
+     */
+    @Override
+    public boolean exists(String message, String user) {
+        return redisFactory.read(HashTags.user(user), redis -> redis.sismember(MessageKeys.writtenBy(user), message));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The messages are read from the node that the lists of the shard of the user are read from, see
+     * {@link RedisFactory#lister(int)}, which is the primary if a message was written on the shard recently by this node.
+     */
+    @Override
+    public List<Message> messagesWrittenBy(String user) {
+        var shard = redisFactory.shard(HashTags.user(user));
+        return list(() -> redisFactory.lister(shard), redis -> redis.smembers(MessageKeys.writtenBy(user)));
+    }
+
+    /**
+     * Fetches the messages with the provided ids like {@link #list(Supplier, Function)}.
+     *
+     * @param clients the source of the clients, which must all be connected to the shard of the ids.
+     * @param ids the ids of the messages to fetch.
+     * @return the messages that could be found and parsed.
+     */
+    private List<Message> hydrate(Supplier<Jedis> clients, Collection<String> ids) {
+        return list(clients, redis -> ids);
+    }
+
+    /**
+     * Reads the ids of a listing and fetches their messages. The fetches are pipelined in chunks of {@link #chunkSize}
+     * ids so that the number of round trips is the number of ids divided by the chunk size. If the {@link FanOut} is
+     * concurrent and there is more than one chunk, the client that read the ids is returned before each chunk is
+     * fetched on its own client, so that a listing never holds a client while it waits for another one. Otherwise many
+     * concurrent listings could hold every client of the pool while their chunks wait.
+     *
+     * @param clients the source of the clients, e.g. the replicas, which must all be connected to the shard of the ids.
+     * @param index reads the ids of the messages to fetch.
+     * @return the messages that could be found and parsed.
      */
-    private boolean notValid(Map<String, String> hash) {
-        for (var key: MESSAGE_KEYS) {
-            if (!hash.containsKey(key)) {
-                return true;
+    private List<Message> list(Supplier<Jedis> clients, Function<Jedis, Collection<String>> index) {
+        Collection<String> ids;
+
+        try (var redis = clients.get()) {
+            ids = index.apply(redis);
+
+            if (!fanOut.concurrent() || ids.size() <= chunkSize) {
+                return fetch(redis, ids);
             }
         }
 
-        return false;
+        var chunks = new ArrayList<List<String>>();
+        var chunk = new ArrayList<String>(chunkSize);
+
+        for (var id: ids) {
+            chunk.add(id);
+
+            if (chunk.size() >= chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        var fetched = fanOut.map(chunks, chunkIds -> {
+            try (var client = clients.get()) {
+                return fetch(client, chunkIds);
+            }
+        });
+
+        var messages = new ArrayList<Message>(ids.size());
+        fetched.forEach(messages::addAll);
+        return messages;
     }
 
     /**
-     * @inheritDoc
+     * Fetches the messages with the provided ids on one connection, pipelined in chunks of {@link #chunkSize} ids.
+     * The messages are first fetched in the configured encoding and the ones that are missing are then fetched in the
+     * other encoding, so that messages written before the encoding was changed or before they were migrated can be
+     * read. The messages are returned in the order of the ids.
      */
-    private Message toMessage(Map<String, String> hash) {
-        if (hash.isEmpty()) {
-            return Message.NONEXISTING;
-        } else if (notValid(hash)) {
-            return Message.ERROR;
-        } else {
-            return new Message(
-                    hash.get("id"),
-                    hash.get("message"),
-                    hash.get("createdBy"),
-                    Integer.parseInt(hash.get("created")),
-                    Integer.parseInt(hash.get("updated")));
+    private List<Message> fetch(Jedis redis, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
         }
+
+        var ordered = new ArrayList<>(ids);
+        var found = new Message[ordered.size()];
+        var all = IntStream.range(0, ordered.size()).boxed().collect(Collectors.toList());
+
+        var missing = fetch(redis, ordered, all, binary(), found);
+        fetch(redis, ordered, missing, !binary(), found);
+
+        var messages = new ArrayList<Message>(ordered.size());
+        for (var message: found) {
+            if (message != null && MessageHash.valid(message)) {
+                messages.add(message);
+            }
+        }
+
+        return messages;
     }
 
-    public boolean exists(String message, String user) {
-        try (var redis = redisFactory.redis()) {
-            var key = String.format("%s:%s:%s", PREFIX_USER, user, PREFIX_MESSAGES);
-            return redis.sismember(key, message);
+    /**
+     * Fetches the messages at the provided positions of the ids in one encoding.
+     *
+     * @return the positions of the messages that do not exist in the encoding.
+     */
+    private List<Integer> fetch(Jedis redis, List<String> ids, List<Integer> positions, boolean binaryEncoded, Message[] found) {
+        var missing = new ArrayList<Integer>();
+
+        if (positions.isEmpty()) {
+            return missing;
+        }
+
+        var pipeline = redis.pipelined();
+        var chunk = new ArrayList<Integer>(Math.min(chunkSize, positions.size()));
+        var responses = new ArrayList<Response<?>>(Math.min(chunkSize, positions.size()));
+
+        for (var position: positions) {
+            var id = ids.get(position);
+            chunk.add(position);
+            responses.add(binaryEncoded ?
+                    pipeline.get(MessageKeys.binary(id)) :
+                    pipeline.hgetAll(MessageKeys.message(id)));
+
+            if (chunk.size() >= chunkSize) {
+                pipeline.sync();
+                collect(ids, chunk, responses, binaryEncoded, found, missing);
+                chunk.clear();
+                responses.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            pipeline.sync();
+            collect(ids, chunk, responses, binaryEncoded, found, missing);
+        }
+
+        return missing;
+    }
+
+    /**
+     * Parses the synced responses into their positions and records the positions of the messages that do not exist.
+     */
+    @SuppressWarnings("unchecked")
+    private void collect(List<String> ids, List<Integer> positions, List<Response<?>> responses, boolean binaryEncoded,
+                         Message[] found, List<Integer> missing) {
+        for (var i = 0; i < positions.size(); i++) {
+            var position = positions.get(i);
+            var value = responses.get(i).get();
+            var message = binaryEncoded ?
+                    MessageCodec.decode(ids.get(position), (byte[]) value) :
+                    MessageHash.toMessage((Map<String, String>) value);
+
+            if (message == Message.NONEXISTING) {
+                missing.add(position);
+            } else {
+                found[position] = message;
+            }
         }
     }
 
     /**
      * @inheritDoc
+     *
+     * Every shard lists its own messages, so the messages are gathered from all shards concurrently and merged. The
+     * messages of a shard are read from the node that its lists are read from, see {@link RedisFactory#lister(int)}.
      */
     @Override
-    public List<Message> messagesWrittenBy(String user) {
-        try (var redis = redisFactory.redis()) {
-            String key = String.format("%s:%s:%s", PREFIX_USER, user, PREFIX_MESSAGES);
-            var messageKeys = redis.smembers(key);
-            return messageKeys.parallelStream().
-                    map(this::get).
-                    filter(this::invalidMessage).
-                    collect(Collectors.toList());
+    public List<Message> all() {
+        var messages = new ArrayList<Message>();
+
+        redisFactory.scatter(shard -> list(() -> redisFactory.lister(shard), redis -> redis.smembers(MessageKeys.ALL)))
+                .forEach(messages::addAll);
+
+        return messages;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The timeline of a user is on the shard of the user. The timeline of all users is split over the shards, so the
+     * entries after the cursor are gathered from all shards concurrently and merged.
+     */
+    @Override
+    public MessagePage page(String user, String cursor, int limit) throws InvalidCursorException {
+        var key = MessageKeys.timeline(user);
+        var position = cursor == null ? null : decodeCursor(cursor);
+
+        if (user != null || redisFactory.shards() == 1) {
+            var shard = user == null ? 0 : redisFactory.shard(HashTags.user(user));
+            List<Tuple> entries;
+
+            try (var redis = redisFactory.redis(shard)) {
+                entries = entries(redis, key, position, limit + 1);
+            }
+
+            return page(entries, limit, ids -> hydrate(() -> redisFactory.redis(shard), ids));
+        }
+
+        var entries = new ArrayList<Tuple>();
+        redisFactory.scatter(shard -> {
+            try (var redis = redisFactory.redis(shard)) {
+                return entries(redis, key, position, limit + 1);
+            }
+        }).forEach(entries::addAll);
+
+        entries.sort(NEWEST_FIRST);
+        return page(entries, limit, this::getAll);
+    }
+
+    /**
+     * Creates a page of the first entries and a cursor to the rest if there are more entries than the limit.
+     */
+    private MessagePage page(List<Tuple> entries, int limit, Function<List<String>, List<Message>> hydrate) {
+        var onPage = entries.stream().limit(limit).collect(Collectors.toList());
+        String next = null;
+
+        if (entries.size() > limit) {
+            next = encodeCursor(onPage.get(onPage.size() - 1));
+        }
+
+        var ids = onPage.stream().map(Tuple::getElement).collect(Collectors.toList());
+        return new MessagePage(hydrate.apply(ids), next);
+    }
+
+    /**
+     * Returns up to count timeline entries after a position, or the first entries if the position is null.
+     * If the message at the position is not in the timeline, because it has been deleted or is on another shard, the
+     * entries continue from its score. Entries with the same score are skipped up to the id of the message, since
+     * redis orders them by id.
+     */
+    private List<Tuple> entries(Jedis redis, String key, Tuple position, int count) {
+        if (position == null) {
+            return new ArrayList<>(redis.zrevrangeWithScores(key, 0, count - 1));
+        }
+
+        var rank = redis.zrevrank(key, position.getElement());
+
+        if (rank != null) {
+            return new ArrayList<>(redis.zrevrangeWithScores(key, rank + 1, rank + count));
+        }
+
+        var max = Long.toString((long) position.getScore());
+        var entries = new ArrayList<Tuple>(count);
+        var offset = 0;
+
+        while (entries.size() < count) {
+            var batch = redis.zrevrangeByScoreWithScores(key, max, "-inf", offset, count);
+
+            for (var entry: batch) {
+                var after = entry.getScore() < position.getScore() || entry.getElement().compareTo(position.getElement()) < 0;
+
+                if (after && entries.size() < count) {
+                    entries.add(entry);
+                }
+            }
+
+            if (batch.size() < count) {
+                break;
+            }
+
+            offset += batch.size();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Encodes the position of a timeline entry as an opaque cursor.
+     */
+    private String encodeCursor(Tuple entry) {
+        var position = String.format("%d:%s", (long) entry.getScore(), entry.getElement());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor created by {@link #encodeCursor(Tuple)}.
+     */
+    private Tuple decodeCursor(String cursor) throws InvalidCursorException {
+        try {
+            var position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var separator = position.indexOf(':');
+
+            if (separator < 1 || separator == position.length() - 1) {
+                throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
+            }
+
+            var score = Long.parseLong(position.substring(0, separator));
+            return new Tuple(position.substring(separator + 1), (double) score);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(String.format("Cursor %s is not valid", cursor));
         }
     }
 
     /**
      * @inheritDoc
+     *
+     * The counters in redis start again from zero when the data is flushed or lost, so a version is prefixed with the
+     * epoch of the node, the time the node was first asked for a version, which is set again when it is lost. The
+     * version of the messages of all users is the epochs of the shards followed by the sum of their counters, which
+     * changes whenever the version of one of the shards does. A version is read from the same node as the lists of
+     * its shard, see {@link RedisFactory#lister(int)}, so a list that is read after the version is at least as new as
+     * the version.
+     */
+    @Override
+    public String version(String user) {
+        if (user != null) {
+            var shard = redisFactory.shard(HashTags.user(user));
+
+            try (var redis = redisFactory.lister(shard)) {
+                var version = version(redis, shard, user);
+                return String.format("%s-%s", version[0], version[1]);
+            }
+        }
+
+        var versions = redisFactory.scatter(shard -> {
+            try (var redis = redisFactory.lister(shard)) {
+                return version(redis, shard, null);
+            }
+        });
+
+        var epochs = versions.stream().map(version -> version[0]).collect(Collectors.joining("."));
+        var sum = versions.stream().mapToLong(version -> Long.parseLong(version[1])).sum();
+        return String.format("%s-%d", epochs, sum);
+    }
+
+    /**
+     * Reads the epoch of a node and the counter of a version with one round trip, and sets the epoch on the primary of
+     * the shard if it is missing, since the client may be connected to a replica.
+     *
+     * @return the epoch and the counter.
      */
-    private boolean invalidMessage(Message message) {
-        return ((message != Message.NONEXISTING) && (message != Message.ERROR));
+    private String[] version(Jedis redis, int shard, String user) {
+        var values = redis.mget(MessageKeys.EPOCH, MessageKeys.version(user));
+        var epoch = values.get(0);
+        var counter = values.get(1) == null ? "0" : values.get(1);
+
+        if (epoch == null) {
+            var now = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+            try (var primary = redisFactory.redis(shard)) {
+                epoch = primary.setnx(MessageKeys.EPOCH, now) == 1 ? now : primary.get(MessageKeys.EPOCH);
+            }
+        }
+
+        return new String[] {epoch, counter};
     }
 
     /**
      * @inheritDoc
+     *
+     * The timeline is walked newest first, {@link #chunkSize} entries at a time from the last entry of the previous
+     * batch like the pages of {@link #page(String, String, int)}, and each batch is hydrated with one pipeline. Unlike
+     * SSCAN, which returns an entry again when the set is rehashed during the scan, the timeline passes every message
+     * at most once. A connection is only borrowed while a batch is fetched and not while the consumer handles it. A
+     * message that is added or removed during the scan may or may not be passed to the consumer. The messages of all
+     * users are scanned one shard at a time.
      */
     @Override
-    public List<Message> all() {
-        try (var redis = redisFactory.redis()) {
-            var keys = redis.smembers(String.format("%s:all", PREFIX_MESSAGES));
-            return keys.parallelStream().
-                    map(this::get).
-                    filter(this::invalidMessage).
-                    collect(Collectors.toList());
+    public void scan(String user, Consumer<List<Message>> consumer) {
+        if (user != null) {
+            scan(redisFactory.shard(HashTags.user(user)), MessageKeys.timeline(user), consumer);
+            return;
+        }
+
+        for (var shard = 0; shard < redisFactory.shards(); shard++) {
+            scan(shard, MessageKeys.timeline(null), consumer);
+        }
+    }
+
+    private void scan(int shard, String key, Consumer<List<Message>> consumer) {
+        Tuple position = null;
+        List<Tuple> entries;
+
+        do {
+            try (var redis = redisFactory.redis(shard)) {
+                entries = entries(redis, key, position, chunkSize);
+            }
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            var ids = entries.stream().map(Tuple::getElement).collect(Collectors.toList());
+            var messages = hydrate(() -> redisFactory.redis(shard), ids);
+            position = entries.get(entries.size() - 1);
+
+            if (!messages.isEmpty()) {
+                consumer.accept(messages);
+            }
+        } while (entries.size() == chunkSize);
+    }
+
+    /**
+     * Passes the messages of a set to the consumer in batches that are walked with SSCAN, which may pass a message
+     * more than once.
+     */
+    private void scanSet(int shard, String key, Consumer<List<Message>> consumer) {
+        var params = new ScanParams().count(chunkSize);
+        var scanCursor = ScanParams.SCAN_POINTER_START;
+
+        do {
+            ScanResult<String> scan;
+
+            try (var redis = redisFactory.redis(shard)) {
+                scan = redis.sscan(key, scanCursor, params);
+            }
+
+            var messages = hydrate(() -> redisFactory.redis(shard), scan.getResult());
+            scanCursor = scan.getCursor();
+
+            if (!messages.isEmpty()) {
+                consumer.accept(messages);
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(scanCursor));
+    }
+
+    /**
+     * Adds messages that are missing in the timeline indexes, e.g. messages created before the indexes existed.
+     * The messages are scanned in chunks so that the whole message set is never held in memory. Every shard indexes
+     * its own messages, since the timeline of a user is on the same shard as the messages of the user.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void indexTimeline() {
+        for (var shard = 0; shard < redisFactory.shards(); shard++) {
+            indexTimeline(shard);
+        }
+    }
+
+    private void indexTimeline(int shard) {
+        try {
+            try (var redis = redisFactory.redis(shard)) {
+                if (redis.zcard(MessageKeys.timeline(null)) >= redis.scard(MessageKeys.ALL)) {
+                    return;
+                }
+            }
+
+            LOG.info("Building the message timeline index of shard {}", shard);
+            scanSet(shard, MessageKeys.ALL, messages -> {
+                try (var redis = redisFactory.redis(shard)) {
+                    var pipeline = redis.pipelined();
+                    for (var message: messages) {
+                        pipeline.zadd(MessageKeys.timeline(null), message.getCreated(), message.getId());
+                        pipeline.zadd(MessageKeys.timeline(message.getCreatedBy()), message.getCreated(), message.getId());
+                    }
+                    pipeline.sync();
+                }
+            });
+        } catch (JedisException e) {
+            LOG.warn("Could not build the message timeline index", e);
+        }
+    }
+
+    /**
+     * Loads the scripts on redis so that the first writes do not need to send them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadScripts() {
+        for (var shard = 0; shard < redisFactory.shards(); shard++) {
+            try (var redis = redisFactory.redis(shard)) {
+                ADD.load(redis);
+                UPDATE.load(redis);
+                DELETE.load(redis);
+            } catch (JedisException e) {
+                LOG.warn("Could not load the message scripts", e);
+            }
         }
     }
 
     /**
      * @inheritDoc
+     *
+     * The message is written and listed with one script on the shard of the user.
      */
     @Override
     public String add(String message, String user) {
-        try (var redis = redisFactory.redis()) {
-            String id = UUID.randomUUID().toString();
+        var tag = HashTags.user(user);
 
-            var now = epochString();
+        try (var redis = redisFactory.redis(tag)) {
+            var id = HashTags.id(ids.next(), user);
+            ADD.eval(redis, addKeys(id, user), addArgs(id, message, user, epochString(), false));
+            redisFactory.wrote(tag);
+            return id;
+        }
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Users that are ruled out without I/O, by the Bloom filter of users or the cache of unknown users, are rejected
+     * without a round trip. Other users are checked in the same script that writes and lists the message, so the
+     * message is added with one atomic round trip and the check that may need I/O is not asked.
+     */
+    @Override
+    public String addIfUserExists(String message, String user, Predicate<String> userMightExist, Predicate<String> userExists) {
+        if (!userMightExist.test(user)) {
+            return null;
+        }
+
+        var tag = HashTags.user(user);
+
+        try (var redis = redisFactory.redis(tag)) {
+            var id = HashTags.id(ids.next(), user);
+            var added = ADD.eval(redis, addKeys(id, user), addArgs(id, message, user, epochString(), true));
 
-            Map<String, String> messageHash = Map.of(
-                    "id", id,
-                    "message", message,
-                    "createdBy", user,
-                    "created", now,
-                    "updated", now);
-            redis.hset(String.format("%s:%s", PREFIX_MESSAGE, id), messageHash);
-            redis.sadd(String.format("%s:%s:%s", PREFIX_USER, user, PREFIX_MESSAGES), id);
-            redis.sadd(String.format("%s:%s", PREFIX_MESSAGES, "all"), id);
+            if (!Long.valueOf(1).equals(added)) {
+                return null;
+            }
+
+            redisFactory.wrote(tag);
             return id;
         }
     }
 
+    /**
+     * @inheritDoc
+     *
+     * Every message is added with the same script as a single message, pipelined and synced every {@link #chunkSize}
+     * messages, so a batch takes a few round trips on one connection per shard.
+     */
+    @Override
+    public List<String> addAll(List<Message> messages) {
+        var added = new ArrayList<String>(messages.size());
+        var byShard = new LinkedHashMap<Integer, List<Integer>>();
+
+        for (var i = 0; i < messages.size(); i++) {
+            var user = messages.get(i).getCreatedBy();
+            added.add(HashTags.id(ids.next(), user));
+            byShard.computeIfAbsent(redisFactory.shard(HashTags.user(user)), shard -> new ArrayList<>()).add(i);
+        }
+
+        var now = epochString();
+
+        byShard.forEach((shard, positions) -> {
+            try (var redis = redisFactory.redis(shard)) {
+                var pipeline = redis.pipelined();
+
+                for (var i = 0; i < positions.size(); i++) {
+                    var message = messages.get(positions.get(i));
+                    var id = added.get(positions.get(i));
+                    var user = message.getCreatedBy();
+
+                    var first = i % chunkSize == 0;
+                    ADD.eval(pipeline, addKeys(id, user), addArgs(id, message.getMessage(), user, now, false), first);
+
+                    if ((i + 1) % chunkSize == 0) {
+                        pipeline.sync();
+                    }
+                }
+
+                pipeline.sync();
+            }
+        });
+
+        redisFactory.wrote(messages.stream().map(message -> HashTags.user(message.getCreatedBy())).distinct().toArray(String[]::new));
+        return added;
+    }
+
+    private List<byte[]> addKeys(String id, String user) {
+        return RedisScript.bytes(
+                binary() ? MessageKeys.binary(id) : MessageKeys.message(id),
+                MessageKeys.writtenBy(user),
+                MessageKeys.ALL,
+                MessageKeys.timeline(null),
+                MessageKeys.timeline(user),
+                MessageKeys.version(null),
+                MessageKeys.version(user),
+                MessageKeys.user(user));
+    }
+
+    private List<byte[]> addArgs(String id, String message, String user, String now, boolean userMustExist) {
+        var args = RedisScript.bytes(id, now, userMustExist ? 1 : 0, encoding);
+
+        if (binary()) {
+            var created = Long.parseLong(now);
+            args.add(MessageCodec.encode(message, user, created, created, 1));
+        } else {
+            MessageHash.of(id, message, user, now).forEach((field, value) -> args.addAll(RedisScript.bytes(field, value)));
+        }
+
+        return args;
+    }
+
     private String epochString() {
         var now = System.currentTimeMillis();
         long epoch = TimeUnit.MILLISECONDS.toSeconds(now);
@@ -159,38 +747,217 @@ public class RedisMessageDao implements MessageDao {
 
     /**
      * @inheritDoc
+     *
+     * A message that is stored as a hash when hashes are the configured encoding is updated with one script. Other
+     * messages are re-encoded in the configured encoding, which is done with a transaction since the binary encoding
+     * can only be written by the application.
      */
     @Override
-    public void update(String id, String message) throws MessageNotFoundException {
-        try (var redis = redisFactory.redis()) {
-            String key = String.format("%s:%s", PREFIX_MESSAGE, id);
-            var messageHash = redis.hgetAll(key);
+    public long update(String id, String createdBy, String message) throws MessageNotFoundException {
+        return tryUpdate(id, createdBy, message, ANY_REVISION);
+    }
 
-            if (notValid(messageHash)) {
-                throw new MessageNotFoundException(String.format("Message with id %s could not be found and can not be updated.", id));
+    /**
+     * @inheritDoc
+     *
+     * The revision is checked by the script that updates a hash, or while the message is watched by the transaction
+     * that rewrites it.
+     */
+    @Override
+    public long update(String id, String createdBy, String message, long revision) throws MessageNotFoundException, MessageConflictException {
+        var updated = tryUpdate(id, createdBy, message, revision);
+
+        if (updated < 0) {
+            throw new MessageConflictException(String.format("Message with id %s is no longer at revision %d and was not updated.", id, revision));
+        }
+
+        return updated;
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Messages that are stored as hashes are updated with the update script, pipelined in chunks of {@link #chunkSize}
+     * messages. Messages that the script can not update, and all messages when binary is the configured encoding, are
+     * rewritten one at a time. The messages of every shard are updated on their own connection.
+     */
+    @Override
+    public Map<String, Long> updateAll(List<Message> messages) {
+        var byShard = new LinkedHashMap<Integer, List<Message>>();
+        messages.forEach(message ->
+                byShard.computeIfAbsent(redisFactory.shard(HashTags.message(message.getId())), shard -> new ArrayList<>()).add(message));
+
+        var revisions = new HashMap<String, Long>();
+        byShard.forEach((shard, updates) -> {
+            try (var redis = redisFactory.redis(shard)) {
+                updateAll(redis, updates, revisions);
+            }
+        });
+
+        return revisions;
+    }
+
+    private void updateAll(Jedis redis, List<Message> messages, Map<String, Long> revisions) {
+        var rewrites = new ArrayList<Message>();
+
+        if (binary()) {
+            rewrites.addAll(messages);
+        } else {
+            var now = epochString();
+            var pipeline = redis.pipelined();
+            var responses = new ArrayList<Response<Object>>(messages.size());
+
+            for (var message: messages) {
+                var keys = updateKeys(message.getId(), message.getCreatedBy());
+                var args = RedisScript.bytes(message.getMessage(), now, message.getCreatedBy(), "");
+                var first = responses.size() % chunkSize == 0;
+                responses.add(UPDATE.eval(pipeline, keys, args, first));
+
+                if (responses.size() % chunkSize == 0) {
+                    pipeline.sync();
+                }
             }
 
-            redis.hmset(key, Map.of("message", message));
-            redis.hmset(key, Map.of("updated", epochString()));
+            pipeline.sync();
+
+            for (var i = 0; i < messages.size(); i++) {
+                var message = messages.get(i);
+                var result = responses.get(i).get();
+
+                if (result == null) {
+                    rewrites.add(message);
+                } else if (result instanceof List) {
+                    redisFactory.wrote(HashTags.message(message.getId()), HashTags.user(message.getCreatedBy()));
+                    revisions.put(message.getId(), (Long) ((List<?>) result).get(1));
+                }
+            }
         }
+
+        for (var message: rewrites) {
+            try {
+                revisions.put(message.getId(), rewrite(redis, message.getId(), message.getCreatedBy(), message.getMessage(), ANY_REVISION, ATTEMPTS));
+            } catch (MessageNotFoundException e) {
+                // Left out of the revisions.
+            }
+        }
+    }
+
+    /**
+     * Updates a message if it has the revision, or whatever revision it has if the revision is {@link #ANY_REVISION}.
+     *
+     * @return the new revision or -1 if the message has another revision.
+     */
+    private long tryUpdate(String id, String createdBy, String message, long revision) throws MessageNotFoundException {
+        try (var redis = redisFactory.redis(HashTags.message(id))) {
+            if (!binary()) {
+                var expected = revision == ANY_REVISION ? "" : Long.toString(revision);
+                var args = RedisScript.bytes(message, epochString(), createdBy, expected);
+                var result = UPDATE.eval(redis, updateKeys(id, createdBy), args);
+
+                if (result instanceof List) {
+                    redisFactory.wrote(HashTags.message(id), HashTags.user(createdBy));
+                    return (Long) ((List<?>) result).get(1);
+                } else if (Long.valueOf(-1).equals(result)) {
+                    return -1;
+                } else if (result != null) {
+                    throw notFound(id);
+                }
+            }
+
+            return rewrite(redis, id, createdBy, message, revision, ATTEMPTS);
+        }
+    }
+
+    private static List<byte[]> updateKeys(String id, String createdBy) {
+        return RedisScript.bytes(MessageKeys.message(id), MessageKeys.version(null), MessageKeys.version(createdBy));
+    }
+
+    /**
+     * Rewrites a message in the configured encoding in a transaction that is discarded and attempted again if the
+     * message is changed by another client in the meantime.
+     *
+     * @return the new revision or -1 if the message has another revision than the expected one.
+     */
+    private long rewrite(Jedis redis, String id, String createdBy, String message, long revision, int attempts) throws MessageNotFoundException {
+        var key = MessageKeys.message(id);
+        redis.watch(key);
+        redis.watch(MessageKeys.binary(id));
+
+        var existing = read(redis, id, true);
+
+        if (existing == Message.NONEXISTING) {
+            existing = read(redis, id, false);
+        }
+
+        if (!MessageHash.valid(existing) || !existing.getCreatedBy().equals(createdBy)) {
+            redis.unwatch();
+            throw notFound(id);
+        }
+
+        if (revision != ANY_REVISION && existing.getRevision() != revision) {
+            redis.unwatch();
+            return -1;
+        }
+
+        var updated = Long.parseLong(epochString());
+        var next = existing.getRevision() + 1;
+        var transaction = redis.multi();
+
+        if (binary()) {
+            transaction.set(MessageKeys.binary(id), MessageCodec.encode(message, existing.getCreatedBy(), existing.getCreated(), updated, next));
+            transaction.del(key);
+        } else {
+            transaction.hset(key, MessageHash.of(id, message, existing.getCreatedBy(), existing.getCreated(), updated, next));
+            transaction.del(MessageKeys.binary(id));
+        }
+
+        transaction.incr(MessageKeys.version(null));
+        transaction.incr(MessageKeys.version(existing.getCreatedBy()));
+
+        var result = transaction.exec();
+
+        if (result == null || result.isEmpty()) {
+            if (attempts <= 1) {
+                throw new JedisException(String.format("Message %s kept changing and could not be updated", id));
+            }
+
+            return rewrite(redis, id, createdBy, message, revision, attempts - 1);
+        }
+
+        redisFactory.wrote(HashTags.message(id), HashTags.user(existing.getCreatedBy()));
+        return next;
+    }
+
+    private MessageNotFoundException notFound(String id) {
+        return new MessageNotFoundException(String.format("Message with id %s could not be found and can not be updated.", id));
     }
 
     /**
      * @inheritDoc
+     *
+     * The message is deleted in both encodings and removed from the sets and timelines with one script on the shard of
+     * the message.
      */
     @Override
     public boolean delete(String message, String forUser) {
-        try (var redis = redisFactory.redis()) {
-            String messageKey = String.format("%s:%s", PREFIX_MESSAGE, message);
-            var numberOfDeletedKeys = redis.del(messageKey);
+        try (var redis = redisFactory.redis(HashTags.message(message))) {
+            var keys = RedisScript.bytes(
+                    MessageKeys.message(message),
+                    MessageKeys.binary(message),
+                    MessageKeys.writtenBy(forUser),
+                    MessageKeys.ALL,
+                    MessageKeys.timeline(null),
+                    MessageKeys.timeline(forUser),
+                    MessageKeys.version(null),
+                    MessageKeys.version(forUser));
 
-            var userMessagesKey = String.format("%s:%s:%s", PREFIX_USER, forUser, PREFIX_MESSAGES);
-            var numberOfDeletedUserEntries = redis.srem(userMessagesKey, message);
+            var deleted = (Long) DELETE.eval(redis, keys, RedisScript.bytes(message));
 
-            var allMessagesKey = String.format("%s:%s", PREFIX_MESSAGE, "all");
-            var numberOfDeletedEntries = redis.srem(allMessagesKey, message);
+            if (deleted > 0) {
+                redisFactory.wrote(HashTags.message(message), HashTags.user(forUser));
+            }
 
-            return (numberOfDeletedKeys + numberOfDeletedUserEntries + numberOfDeletedEntries) > 0;
+            return deleted > 0;
         }
     }
 }
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link IdGenerator} that creates 64 bit ids from the time in milliseconds since 2019 (42 bits), a sequence
+ * number (12 bits) and the id of the node (10 bits), in that order. The ids are written as 13 characters of Crockford
+ * base 32 so that they sort lexicographically in the same order as numerically.
+ *
+ * The time and sequence are one counter that is advanced with a compare and swap, to the current time or by one if
+ * that is not later than the last id. More than 4096 ids in a millisecond or a clock that goes backwards therefore
+ * borrow from the coming milliseconds instead of blocking or creating duplicates.
+ *
+ * The ids are only unique if every node that shares a redis has its own node id. Two nodes with the same id would
+ * overwrite each other's messages, so the node id must be configured when the data is stored in redis. The default
+ * configuration takes it from the <code>MESSAGES_IDS_NODE</code> environment variable, which is 0 if it is not set,
+ * so a single node starts without it. The memory and log profiles keep their data in the process and pick a random
+ * node id if none is configured.
+ */
+@Component
+public class SnowflakeIdGenerator implements IdGenerator, InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    static final long EPOCH = 1546300800000L;
+    static final int MAX_NODE = 1023;
+    static final int LENGTH = 13;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    @Value("${messages.ids.node:-1}")
+    int node = -1;
+
+    @Autowired
+    Environment environment;
+
+    LongSupplier clock = System::currentTimeMillis;
+
+    private final AtomicLong last = new AtomicLong();
+    private long nodeBits;
+
+    /**
+     * Picks a random node id if none is configured and the data is kept in the process.
+     *
+     * @throws IllegalStateException if the node id is out of range, or is not configured and the data is stored in
+     * redis.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (node > MAX_NODE) {
+            throw new IllegalStateException(String.format("The node id %d is larger than %d", node, MAX_NODE));
+        }
+
+        if (node < 0 && environment.acceptsProfiles(Profiles.of("!memory & !log"))) {
+            throw new IllegalStateException(String.format("messages.ids.node must be set to an id from 0 to %d that "
+                    + "is unique among the nodes that share a redis", MAX_NODE));
+        }
+
+        if (node < 0) {
+            node = ThreadLocalRandom.current().nextInt(MAX_NODE + 1);
+            LOG.info("Using the random node id {} for message ids", node);
+        }
+
+        nodeBits = node;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public String next() {
+        var now = (clock.getAsLong() - EPOCH) << SEQUENCE_BITS;
+        var state = last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+        return encode((state << NODE_BITS) | nodeBits);
+    }
+
+    /**
+     * Writes a value as base 32 with a fixed number of characters, most significant first.
+     */
+    static String encode(long value) {
+        var chars = new char[LENGTH];
+
+        for (var i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+
+        return new String(chars);
+    }
+}
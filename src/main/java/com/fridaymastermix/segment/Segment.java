@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.segment;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One memory mapped segment file of a {@link SegmentLog}.
+ *
+ * The whole file is mapped when the segment is opened. Records are only appended by the log, under its append lock,
+ * while the segment is the active segment. Readers read from their own duplicate of the mapped buffer.
+ */
+class Segment {
+    private final int id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final AtomicLong live = new AtomicLong();
+    private volatile int position;
+
+    private Segment(int id, Path path, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a segment file, creating it with the provided size if it does not exist.
+     *
+     * @param id the id of the segment.
+     * @param path the file of the segment.
+     * @param size the size of new segment files.
+     * @return the segment, positioned at the start of the file.
+     * @throws IOException if the file could not be opened or mapped.
+     */
+    static Segment open(int id, Path path, int size) throws IOException {
+        try (var file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() < size) {
+                file.setLength(size);
+            }
+
+            var buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            // The mapping stays valid after the file is closed.
+            return new Segment(id, path, buffer);
+        }
+    }
+
+    int id() {
+        return id;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the offset where the next record is appended.
+     */
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Returns a buffer over the whole segment that the caller may position freely.
+     */
+    ByteBuffer view() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Returns the bytes of the segment that are referenced by the index.
+     */
+    AtomicLong live() {
+        return live;
+    }
+
+    /**
+     * Returns the share of the appended bytes that are no longer referenced by the index.
+     */
+    double garbageRatio() {
+        var used = position;
+        return used == 0 ? 0 : 1 - ((double) live.get() / used);
+    }
+
+    /**
+     * Writes the mapped changes to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Deletes the file of the segment. The mapping is released when the segment is garbage collected, so readers that
+     * still hold a view of the segment can finish.
+     *
+     * @throws IOException if the file could not be deleted.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
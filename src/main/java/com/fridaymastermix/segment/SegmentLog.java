@@ -0,0 +1,537 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.segment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A key value store in append-only, memory mapped segment files.
+ *
+ * Every write appends a record to the active segment: a put record with the new value or a tombstone for a delete.
+ * An in-memory index maps every key to the location of its latest record and is rebuilt by replaying the segments
+ * when the log is opened. Reads look up the location and return a view of the value in the mapped file, without
+ * copying it.
+ *
+ * Segments that are mostly garbage are compacted in the background by appending their live records again and
+ * deleting the segment. Records keep the sequence number of the original write, so the latest write of a key wins
+ * when the segments are replayed, regardless of where compaction has moved the records.
+ *
+ * Record layout:
+ * <pre>
+ * int   length of the record after this field, 0 marks the end of the segment
+ * int   CRC32 of the record after this field
+ * long  sequence number
+ * byte  type
+ * short key length
+ * byte[] key (UTF-8)
+ * byte[] value
+ * </pre>
+ */
+public class SegmentLog implements AutoCloseable {
+    /**
+     * A record with the value of a new key.
+     */
+    public static final byte PUT = 1;
+
+    /**
+     * A record with the new value of an existing key.
+     */
+    public static final byte UPDATE = 2;
+
+    /**
+     * A record that marks a key as deleted.
+     */
+    public static final byte DELETE = 3;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentLog.class);
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.log");
+    private static final int HEADER = 4 + 4 + 8 + 1 + 2;
+    private static final int CRC_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int TYPE_OFFSET = 16;
+    private static final int KEY_LENGTH_OFFSET = 17;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncWrites;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Object appendLock = new Object();
+
+    private volatile Segment active;
+    private ScheduledExecutorService compactor;
+
+    /**
+     * Constructor. The log must be opened before it is used.
+     *
+     * @param directory the directory of the segment files.
+     * @param segmentSize the size of the segment files in bytes, also the max size of a record.
+     * @param syncWrites true if every write should be forced to the disk before it returns.
+     */
+    public SegmentLog(Path directory, int segmentSize, boolean syncWrites) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Opens the segments in the directory and rebuilds the index by replaying them. A record that is torn or corrupt
+     * ends its segment, the rest of that segment is cleared.
+     *
+     * @throws IOException if the segments could not be opened.
+     */
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+
+        try (var files = Files.list(directory)) {
+            for (var file: (Iterable<Path>) files::iterator) {
+                var matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    var id = Integer.parseInt(matcher.group(1));
+                    segments.put(id, Segment.open(id, file, segmentSize));
+                }
+            }
+        }
+
+        var sequences = new HashMap<String, Long>();
+        for (var segment: segments.values()) {
+            replay(segment, sequences);
+        }
+
+        index.forEach((key, location) -> {
+            var segment = segments.get(segment(location));
+            segment.live().addAndGet(recordSize(segment.view(), offset(location)));
+        });
+
+        active = segments.isEmpty() ? roll(0) : segments.lastEntry().getValue();
+        LOG.info("Opened {} segments with {} keys in {}", segments.size(), index.size(), directory);
+    }
+
+    /**
+     * Replays the records of a segment into the index. Keys whose latest record is a tombstone are removed.
+     */
+    private void replay(Segment segment, HashMap<String, Long> sequences) {
+        var view = segment.view();
+        var offset = 0;
+
+        while (offset + HEADER <= view.capacity()) {
+            var length = view.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+
+            if (length < HEADER - 4 || offset + 4 + length > view.capacity() || !validCrc(view, offset, length)) {
+                LOG.warn("Corrupt record at offset {} in segment {}, the rest of the segment is dropped",
+                        offset, segment.id());
+                clear(view, offset);
+                break;
+            }
+
+            var recordSequence = view.getLong(offset + SEQUENCE_OFFSET);
+            var key = key(view, offset);
+            var latest = sequences.get(key);
+
+            if (latest == null || recordSequence > latest) {
+                sequences.put(key, recordSequence);
+                if (view.get(offset + TYPE_OFFSET) == DELETE) {
+                    index.remove(key);
+                } else {
+                    index.put(key, location(segment.id(), offset));
+                }
+            }
+
+            sequence.accumulateAndGet(recordSequence, Math::max);
+            offset += 4 + length;
+        }
+
+        segment.position(offset);
+    }
+
+    /**
+     * Returns a read-only view of the latest value of a key. The view is backed by the mapped segment file.
+     *
+     * @param key the key.
+     * @return the value or null if the key does not exist.
+     */
+    public ByteBuffer get(String key) {
+        while (true) {
+            var location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+
+            var segment = segments.get(segment(location));
+            if (segment == null) {
+                // The segment was compacted after the lookup, the record has been moved.
+                continue;
+            }
+
+            var view = segment.view();
+            var offset = offset(location);
+            var start = offset + HEADER + Short.toUnsignedInt(view.getShort(offset + KEY_LENGTH_OFFSET));
+            var end = offset + 4 + view.getInt(offset);
+            return view.position(start).limit(end).slice().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the latest record of a key. Sequence numbers increase with every record that is
+     * appended and are kept when compaction moves a record, so the number changes every time the key is written.
+     *
+     * @param key the key.
+     * @return the sequence number or -1 if the key does not exist.
+     */
+    public long sequence(String key) {
+        while (true) {
+            var location = index.get(key);
+            if (location == null) {
+                return -1;
+            }
+
+            var segment = segments.get(segment(location));
+            if (segment == null) {
+                // The segment was compacted after the lookup, the record has been moved.
+                continue;
+            }
+
+            return segment.view().getLong(offset(location) + SEQUENCE_OFFSET);
+        }
+    }
+
+    /**
+     * Checks if a key exists.
+     *
+     * @param key the key.
+     * @return true if the key exists.
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Appends a value for a key.
+     *
+     * @param key the key.
+     * @param type {@link #PUT} or {@link #UPDATE}.
+     * @param value the value.
+     */
+    public void put(String key, byte type, byte[] value) {
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        synchronized (appendLock) {
+            var location = append(sequence.incrementAndGet(), type, keyBytes, value);
+            var size = HEADER + keyBytes.length + value.length;
+            segments.get(segment(location)).live().addAndGet(size);
+            released(index.put(key, location));
+        }
+    }
+
+    /**
+     * Appends a tombstone for a key.
+     *
+     * @param key the key.
+     * @return true if the key existed.
+     */
+    public boolean delete(String key) {
+        synchronized (appendLock) {
+            var previous = index.get(key);
+            if (previous == null) {
+                return false;
+            }
+
+            append(sequence.incrementAndGet(), DELETE, key.getBytes(StandardCharsets.UTF_8), new byte[0]);
+            index.remove(key);
+            released(previous);
+            return true;
+        }
+    }
+
+    /**
+     * Passes every key and a view of its latest value to the consumer.
+     *
+     * @param consumer the consumer.
+     */
+    public void forEach(BiConsumer<String, ByteBuffer> consumer) {
+        for (var key: index.keySet()) {
+            var value = get(key);
+            if (value != null) {
+                consumer.accept(key, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return the number of keys.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return the number of segments.
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Compacts the sealed segments whose share of garbage is at least the provided ratio, oldest first.
+     *
+     * @param garbageRatio the min share of garbage of a segment to compact it.
+     * @return the number of compacted segments.
+     * @throws IOException if a compacted segment file could not be deleted.
+     */
+    public int compact(double garbageRatio) throws IOException {
+        var compacted = 0;
+
+        for (var segment: segments.values()) {
+            if (segment == active || segment.garbageRatio() < garbageRatio) {
+                continue;
+            }
+
+            compact(segment);
+            compacted++;
+        }
+
+        return compacted;
+    }
+
+    /**
+     * Appends the live records of a segment again and deletes the segment. Tombstones are kept until they are in the
+     * oldest segment, since older records of their keys may still be replayed until then. The segments that received
+     * the records are forced to the disk before the segment is deleted, so that the records are not lost if the
+     * deletion reaches the disk first.
+     */
+    private void compact(Segment segment) throws IOException {
+        var view = segment.view();
+        var offset = 0;
+        var targets = new LinkedHashSet<Segment>();
+
+        while (offset < segment.position()) {
+            var length = view.getInt(offset);
+            var key = key(view, offset);
+            var location = location(segment.id(), offset);
+            var type = view.get(offset + TYPE_OFFSET);
+
+            synchronized (appendLock) {
+                var live = type != DELETE && Long.valueOf(location).equals(index.get(key));
+                var keepTombstone = type == DELETE && segments.firstKey() != segment.id() && !index.containsKey(key);
+
+                if (live || keepTombstone) {
+                    var record = view.duplicate().position(offset).limit(offset + 4 + length).slice();
+                    var moved = appendRecord(record);
+                    targets.add(segments.get(segment(moved)));
+
+                    if (live) {
+                        segments.get(segment(moved)).live().addAndGet(4 + length);
+                        index.put(key, moved);
+                    }
+                }
+            }
+
+            offset += 4 + length;
+        }
+
+        synchronized (appendLock) {
+            targets.forEach(Segment::force);
+        }
+
+        segments.remove(segment.id());
+        segment.delete();
+        LOG.debug("Compacted segment {}", segment.id());
+    }
+
+    /**
+     * Compacts segments in the background.
+     *
+     * @param intervalSeconds the time between compactions.
+     * @param garbageRatio the min share of garbage of a segment to compact it.
+     */
+    public void startCompaction(long intervalSeconds, double garbageRatio) {
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, String.format("segment-compaction-%s", directory.getFileName()));
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact(garbageRatio);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Compaction of {} failed", directory, e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the compaction and writes all segments to the disk.
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+
+        synchronized (appendLock) {
+            segments.values().forEach(Segment::force);
+        }
+    }
+
+    /**
+     * Appends a new record. Must be called with the append lock held.
+     *
+     * @return the location of the record.
+     */
+    private long append(long recordSequence, byte type, byte[] key, byte[] value) {
+        var size = HEADER + key.length + value.length;
+        var record = ByteBuffer.allocate(size);
+        record.putInt(size - 4);
+        record.putInt(0);
+        record.putLong(recordSequence);
+        record.put(type);
+        record.putShort((short) key.length);
+        record.put(key);
+        record.put(value);
+        record.flip();
+
+        var crc = new CRC32();
+        crc.update(record.duplicate().position(SEQUENCE_OFFSET));
+        record.putInt(CRC_OFFSET, (int) crc.getValue());
+
+        return appendRecord(record);
+    }
+
+    /**
+     * Copies a complete record to the end of the active segment. The length is written last so that a record is
+     * either complete or not seen when the segment is read. Must be called with the append lock held.
+     *
+     * @return the location of the record.
+     */
+    private long appendRecord(ByteBuffer record) {
+        var size = record.remaining();
+        if (size > segmentSize) {
+            throw new IllegalArgumentException(String.format("A record of %d bytes does not fit in a segment", size));
+        }
+
+        var segment = active;
+        if (segment.position() + size > segment.capacity()) {
+            segment.force();
+            segment = roll(segment.id() + 1);
+        }
+
+        var offset = segment.position();
+        var target = segment.view();
+        target.position(offset + 4);
+        target.put(record.duplicate().position(record.position() + 4));
+        target.putInt(offset, record.getInt(record.position()));
+        segment.position(offset + size);
+
+        if (syncWrites) {
+            segment.force();
+        }
+
+        return location(segment.id(), offset);
+    }
+
+    /**
+     * Creates and activates a new segment.
+     */
+    private Segment roll(int id) {
+        try {
+            var path = directory.resolve(String.format("segment-%010d.log", id));
+            var segment = Segment.open(id, path, segmentSize);
+            segments.put(id, segment);
+            active = segment;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a new segment", e);
+        }
+    }
+
+    /**
+     * Accounts for a record that is no longer referenced by the index.
+     */
+    private void released(Long location) {
+        if (location != null) {
+            var segment = segments.get(segment(location));
+            if (segment != null) {
+                segment.live().addAndGet(-recordSize(segment.view(), offset(location)));
+            }
+        }
+    }
+
+    private static boolean validCrc(ByteBuffer view, int offset, int length) {
+        var crc = new CRC32();
+        crc.update(view.duplicate().position(offset + SEQUENCE_OFFSET).limit(offset + 4 + length));
+        return (int) crc.getValue() == view.getInt(offset + CRC_OFFSET);
+    }
+
+    private static void clear(ByteBuffer view, int offset) {
+        for (var i = offset; i < view.capacity(); i++) {
+            view.put(i, (byte) 0);
+        }
+    }
+
+    private static String key(ByteBuffer view, int offset) {
+        var length = Short.toUnsignedInt(view.getShort(offset + KEY_LENGTH_OFFSET));
+        var bytes = new byte[length];
+        view.duplicate().position(offset + HEADER).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int recordSize(ByteBuffer view, int offset) {
+        return 4 + view.getInt(offset);
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.memory.Dictionary;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An implementation of the {@link UserDao} that keeps the users on the heap of this node.
+ *
+ * The nicks are kept in a {@link Dictionary}, which also gives the order the users were added in. The users are lost
+ * when the node stops.
+ */
+@Component
+@Qualifier("memory")
+@Profile("memory")
+public class InMemoryUserDao implements UserDao {
+    private final ConcurrentHashMap<String, String> passwords = new ConcurrentHashMap<>();
+    private final Dictionary nicks = new Dictionary();
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void add(User user) throws UserAlreadyExistsException {
+        if (passwords.putIfAbsent(user.getUser(), user.getPassword()) != null) {
+            var errorMessage = String.format("A user with nick %s already exist", user.getUser());
+            throw new UserAlreadyExistsException(errorMessage);
+        }
+
+        nicks.encode(user.getUser());
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The users are returned newest first, as by the redis implementation.
+     */
+    @Override
+    public List<User> all() {
+        var size = nicks.size();
+        var users = new ArrayList<User>(size);
+
+        for (var code = size - 1; code >= 0; code--) {
+            var nick = nicks.decode(code);
+            users.add(new User(nick, passwords.get(nick)));
+        }
+
+        return users;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public User get(String user) {
+        if (user == null) {
+            return User.NONEXISTING;
+        }
+
+        var password = passwords.get(user);
+        return password != null ? new User(user, password) : User.NONEXISTING;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean exists(String user) {
+        return user != null && passwords.containsKey(user);
+    }
+}
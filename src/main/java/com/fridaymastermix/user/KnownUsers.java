@@ -0,0 +1,197 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.RedisPubSub;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers if users exist from in-process caches.
+ *
+ * Users can not be deleted, so a user that is known to exist is cached for as long as there is room in the cache.
+ * Users that do not exist are cached for a short time since they may be created on any node. Nodes publish the users
+ * they create on redis so that the other nodes can drop them from their caches of unknown users right away.
+ */
+@Component
+public class KnownUsers implements InitializingBean, MeterBinder {
+    static final String CHANNEL = "users:created";
+
+    @Autowired
+    UserDao users;
+
+    @Autowired(required = false)
+    RedisPubSub pubSub;
+
+    @Value("${users.cache.known.max-size:100000}")
+    long knownMaxSize = 100000;
+
+    @Value("${users.cache.unknown.max-size:10000}")
+    long unknownMaxSize = 10000;
+
+    @Value("${users.cache.unknown.ttl-seconds:5}")
+    long unknownTtlSeconds = 5;
+
+    private Cache<String, Boolean> known;
+    private Cache<String, Boolean> unknown;
+
+    /**
+     * Checks if a user exists. The data store is only asked if the user is in neither of the caches.
+     *
+     * @param user the name of the user.
+     * @return true if the user exists, false otherwise.
+     */
+    public boolean exists(String user) {
+        if (known.getIfPresent(user) != null) {
+            return true;
+        }
+
+        if (unknown.getIfPresent(user) != null) {
+            return false;
+        }
+
+        if (users.exists(user)) {
+            known.put(user, Boolean.TRUE);
+            return true;
+        } else {
+            unknown.put(user, Boolean.TRUE);
+            return false;
+        }
+    }
+
+    /**
+     * Checks without asking the data store if a user might exist. A user that is cached as unknown or ruled out by the
+     * data store without I/O does not exist.
+     *
+     * @param user the name of the user.
+     * @return false if the user does not exist, true if the user might exist.
+     */
+    public boolean mightExist(String user) {
+        if (known.getIfPresent(user) != null) {
+            return true;
+        }
+
+        return unknown.getIfPresent(user) == null && users.mightExist(user);
+    }
+
+    /**
+     * Checks which of the users exist. The users that are in neither of the caches are checked with one call to the
+     * data store.
+     *
+     * @param users the names of the users.
+     * @return the names of the users that exist.
+     */
+    public Set<String> existing(Collection<String> users) {
+        var existing = new HashSet<String>();
+        var unresolved = new HashSet<String>();
+
+        for (var user: users) {
+            if (known.getIfPresent(user) != null) {
+                existing.add(user);
+            } else if (unknown.getIfPresent(user) == null) {
+                unresolved.add(user);
+            }
+        }
+
+        if (unresolved.isEmpty()) {
+            return existing;
+        }
+
+        var found = this.users.existing(unresolved);
+
+        for (var user: unresolved) {
+            if (found.contains(user)) {
+                known.put(user, Boolean.TRUE);
+                existing.add(user);
+            } else {
+                unknown.put(user, Boolean.TRUE);
+            }
+        }
+
+        return existing;
+    }
+
+    /**
+     * Marks a user as existing on this node and on all other nodes.
+     *
+     * @param user the name of the user that has been created.
+     */
+    public void created(String user) {
+        added(user);
+
+        if (pubSub != null) {
+            pubSub.publish(CHANNEL, user);
+        }
+    }
+
+    /**
+     * Handles users created on any node.
+     */
+    private void added(String user) {
+        if (RedisPubSub.ALL.equals(user)) {
+            unknown.invalidateAll();
+        } else {
+            unknown.invalidate(user);
+            known.put(user, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Creates the caches and subscribes to created users.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        known = Caffeine.newBuilder()
+                .maximumSize(knownMaxSize)
+                .recordStats()
+                .build();
+
+        unknown = Caffeine.newBuilder()
+                .maximumSize(unknownMaxSize)
+                .expireAfterWrite(unknownTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        if (pubSub != null) {
+            pubSub.subscribe(CHANNEL, this::added);
+        }
+    }
+
+    /**
+     * Registers the cache meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, known, "users.known");
+        CaffeineCacheMetrics.monitor(registry, unknown, "users.unknown");
+    }
+}
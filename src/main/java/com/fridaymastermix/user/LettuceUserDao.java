@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.ReactiveRedisFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+
+/**
+ * An implementation of the {@link ReactiveUserDao} that uses the non-blocking lettuce client.
+ * The data is stored in the same keys as {@link RedisUserDao} stores it.
+ */
+@Component
+@Profile("reactive")
+public class LettuceUserDao implements ReactiveUserDao {
+    private static final int CONCURRENCY = 256;
+
+    private static String USERS_KEY = "users:all";
+    private static String USER_PREFIX = "user";
+
+    private static String USER_NICK_KEY = "nick";
+    private static String USER_PASSWORD_KEY = "password";
+
+    @Autowired
+    ReactiveRedisFactory redisFactory;
+
+    @Autowired
+    UserBloomFilter bloomFilter;
+
+    /**
+     * @inheritDoc
+     *
+     * The user is added to the bloom filter on a worker thread since the filter is persisted with a blocking client.
+     */
+    @Override
+    public Mono<Void> add(User user) {
+        var redis = redisFactory.redis();
+        var userKey = String.format("%s:%s", USER_PREFIX, user.getUser());
+
+        return redis.exists(userKey).flatMap(count -> {
+            if (count > 0) {
+                var errorMessage = String.format("A user with nick %s already exist", user.getUser());
+                return Mono.<Void>error(new UserAlreadyExistsException(errorMessage));
+            }
+
+            var hash = Map.of(USER_NICK_KEY, user.getUser(), USER_PASSWORD_KEY, user.getPassword());
+            return redis.hmset(userKey, hash)
+                    .then(redis.lpush(USERS_KEY, user.getUser()))
+                    .then(Mono.fromRunnable(() -> bloomFilter.add(user.getUser())).subscribeOn(Schedulers.boundedElastic()))
+                    .then();
+        });
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Flux<User> all() {
+        return redisFactory.redis().lrange(USERS_KEY, 0, -1)
+                .flatMapSequential(this::get, CONCURRENCY)
+                .filter(user -> user != User.NONEXISTING);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<User> get(String user) {
+        if (!bloomFilter.mightContain(user)) {
+            return Mono.just(User.NONEXISTING);
+        }
+
+        return redisFactory.redis().hgetall(String.format("%s:%s", USER_PREFIX, user)).map(hash -> {
+            if (!hash.isEmpty()) {
+                return new User(hash.get(USER_NICK_KEY), hash.get(USER_PASSWORD_KEY));
+            } else {
+                return User.NONEXISTING;
+            }
+        });
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Mono<Boolean> exists(String user) {
+        if (!bloomFilter.mightContain(user)) {
+            return Mono.just(false);
+        }
+
+        return redisFactory.redis().exists(String.format("%s:%s", USER_PREFIX, user)).map(count -> count > 0);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.memory.Dictionary;
+import com.fridaymastermix.segment.SegmentLog;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An implementation of the {@link UserDao} that stores the users in a {@link SegmentLog} on the local disk.
+ *
+ * The value of a user is the time the user was created in milliseconds followed by the password. The order the users
+ * were created in is kept in a {@link Dictionary} that is rebuilt when the application starts.
+ */
+@Component
+@Qualifier("log")
+@Profile("log")
+public class LogUserDao implements UserDao, InitializingBean, DisposableBean {
+
+    @Value("${log.directory:data}")
+    String directory = "data";
+
+    @Value("${log.segment-size:67108864}")
+    int segmentSize = 67108864;
+
+    @Value("${log.sync-writes:false}")
+    boolean syncWrites;
+
+    @Value("${log.compaction.interval-seconds:60}")
+    long compactionIntervalSeconds = 60;
+
+    @Value("${log.compaction.garbage-ratio:0.5}")
+    double compactionGarbageRatio = 0.5;
+
+    private final Dictionary nicks = new Dictionary();
+
+    private SegmentLog log;
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public synchronized void add(User user) throws UserAlreadyExistsException {
+        if (log.contains(user.getUser())) {
+            var errorMessage = String.format("A user with nick %s already exist", user.getUser());
+            throw new UserAlreadyExistsException(errorMessage);
+        }
+
+        var password = user.getPassword().getBytes(StandardCharsets.UTF_8);
+        var value = ByteBuffer.allocate(Long.BYTES + password.length)
+                .putLong(System.currentTimeMillis())
+                .put(password)
+                .array();
+
+        log.put(user.getUser(), SegmentLog.PUT, value);
+        nicks.encode(user.getUser());
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The users are returned newest first, as by the redis implementation.
+     */
+    @Override
+    public List<User> all() {
+        var size = nicks.size();
+        var users = new ArrayList<User>(size);
+
+        for (var code = size - 1; code >= 0; code--) {
+            var user = get(nicks.decode(code));
+
+            if (user != User.NONEXISTING) {
+                users.add(user);
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public User get(String user) {
+        var value = user == null ? null : log.get(user);
+
+        if (value == null) {
+            return User.NONEXISTING;
+        }
+
+        var password = new byte[value.remaining() - Long.BYTES];
+        value.duplicate().position(Long.BYTES).get(password);
+        return new User(user, new String(password, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean exists(String user) {
+        return user != null && log.contains(user);
+    }
+
+    /**
+     * Opens the log, rebuilds the order of the users and starts the background compaction.
+     *
+     * @throws IOException if the log could not be opened.
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        log = new SegmentLog(Path.of(directory, "users"), segmentSize, syncWrites);
+        log.open();
+
+        var created = new ArrayList<Map.Entry<String, Long>>(log.size());
+        log.forEach((nick, value) -> created.add(Map.entry(nick, value.getLong(0))));
+        created.sort(Map.Entry.comparingByValue());
+        created.forEach(entry -> nicks.encode(entry.getKey()));
+
+        log.startCompaction(compactionIntervalSeconds, compactionGarbageRatio);
+    }
+
+    /**
+     * Stops the compaction and writes the log to the disk.
+     */
+    @Override
+    public void destroy() {
+        log.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.ResponseBody;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+/**
+ * Class that handles user requests without blocking, used by the reactive profile.
+ * The API is the same as the API of {@link UserController}.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping(value = "users", produces = MediaType.APPLICATION_JSON_VALUE)
+@SuppressWarnings("UnusedReturnValue")
+public class ReactiveUserController {
+    @Autowired
+    ReactiveUserService users;
+
+    /**
+     * Handles requests for listing all users.
+     *
+     * @return a list of all users.
+     */
+    @GetMapping
+    public Mono<UserWrapper> listUsers() {
+        return users.all().collectList().map(UserWrapper::new);
+    }
+
+    /**
+     * Handles requests to create a user.
+     *
+     * @param user the user name.
+     * @param request the request used to extract request information.
+     * @return a response entity that contains information about the response or error.
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<ResponseBody>> postUser(@RequestBody @Validated User user, ServerHttpRequest request) {
+        var uriBuilder = UriComponentsBuilder.fromUriString(request.getPath().value());
+        uriBuilder.path("/{id}");
+
+        var headers = new HttpHeaders();
+        headers.setLocation(uriBuilder.build(user.getUser()));
+
+        return users.create(user)
+                .then(Mono.fromSupplier(() -> {
+                    var status = HttpStatus.CREATED;
+                    var message = "Created";
+                    return new ResponseEntity<>(new ResponseBody(status.value(), message), headers, status);
+                }))
+                .onErrorResume(UserAlreadyExistsException.class, e -> {
+                    headers.setContentType(MediaType.APPLICATION_JSON);
+
+                    var status = HttpStatus.SEE_OTHER;
+                    var message = String.format("User with user name %s does already exist. Try another user name", user.getUser());
+
+                    return Mono.just(new ResponseEntity<>(new ResponseBody(status.value(), message), headers, status));
+                });
+    }
+
+    /**
+     * Handles GET requests for users.
+     * @param user the user to get.
+     *
+     * @return The user or an error.
+     */
+    @GetMapping("{user}")
+    public Mono<User> getUser(@PathVariable String user) {
+        return users.describe(user).flatMap(description -> {
+            if (description == User.NONEXISTING) {
+                var status = HttpStatus.NOT_FOUND;
+                var message = String.format("user with id: %s could not be found.", user);
+                return Mono.<User>error(new ResponseStatusException(status, message));
+            }
+
+            return Mono.just(description);
+        });
+    }
+}
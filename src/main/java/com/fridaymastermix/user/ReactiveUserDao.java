@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Interface for non-blocking Data Access Objects that handles user data.
+ * The methods mirror {@link UserDao}.
+ */
+public interface ReactiveUserDao {
+
+    /**
+     * Adds a user to the data store.
+     *
+     * @param user the user to add.
+     * @return completes when the user has been added or signals {@link UserAlreadyExistsException} if the user
+     * already exists.
+     */
+    Mono<Void> add(User user);
+
+    /**
+     * Returns all users.
+     *
+     * @return all users.
+     */
+    Flux<User> all();
+
+    /**
+     * Returns a user.
+     *
+     * @param user the name of the user.
+     * @return the user or {@link User#NONEXISTING} if the user does not exist.
+     */
+    Mono<User> get(String user);
+
+    /**
+     * Checks if a user exists without reading the user.
+     *
+     * @param user the name of the user.
+     * @return true if the user exists, false otherwise.
+     */
+    Mono<Boolean> exists(String user);
+}
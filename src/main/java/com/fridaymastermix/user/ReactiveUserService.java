@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A service that coordinates non-blocking requests for users.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveUserService {
+
+    @Autowired
+    ReactiveUserDao users;
+
+    @Autowired
+    KnownUsers knownUsers;
+
+    /**
+     * Tells the Data Access Object to create a user.
+     *
+     * @param user the user.
+     * @return completes when the user has been created or signals {@link UserAlreadyExistsException} if the user
+     * already exists.
+     */
+    public Mono<Void> create(User user) {
+        return users.add(user)
+                .then(Mono.fromRunnable(() -> knownUsers.created(user.getUser())).subscribeOn(Schedulers.boundedElastic()))
+                .then();
+    }
+
+    /**
+     * Asks the Data Access Object for all users.
+     * @return all users.
+     */
+    public Flux<User> all() {
+        return users.all();
+    }
+
+    /**
+     * Asks the Data Access Object for the user.
+     * @param user the user.
+     * @return the user.
+     */
+    public Mono<User> describe(String user) {
+        return users.get(user);
+    }
+}
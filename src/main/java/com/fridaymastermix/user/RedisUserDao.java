@@ -17,21 +17,41 @@
 
 package com.fridaymastermix.user;
 
+import com.fridaymastermix.database.HashTags;
 import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * An implementation of the {@link UserDao} that users redis to store the data.
+ * Users that are not in the {@link UserBloomFilter} are known not to exist and are never looked up.
+ * A user is stored on the shard of its nick, together with the messages of the user.
  */
 @Component
 @Qualifier("redis")
+@Profile("!memory & !log")
 public class RedisUserDao implements UserDao {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisUserDao.class);
+
+    private static final RedisScript ADD = new RedisScript("user-add");
 
     private static String USERS_PREFIX = "users";
     private static String USER_PREFIX = "user";
@@ -42,49 +62,204 @@ public class RedisUserDao implements UserDao {
     @Autowired
     RedisFactory redisFactory;
 
+    @Autowired
+    UserBloomFilter bloomFilter;
+
+    /**
+     * Loads the script on redis so that the first user that is added does not need to send it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadScripts() {
+        for (var shard = 0; shard < redisFactory.shards(); shard++) {
+            try (var redis = redisFactory.redis(shard)) {
+                ADD.load(redis);
+            } catch (JedisException e) {
+                LOG.warn("Could not load the user scripts", e);
+            }
+        }
+    }
+
     /**
      * @inheritDoc
+     *
+     * The user is claimed and written with one script.
      */
     @Override
     public void add(User user) throws UserAlreadyExistsException {
-        try (var redis = redisFactory.redis()) {
-            var userKey = String.format("%s:%s", USER_PREFIX, user.getUser());
+        try (var redis = redisFactory.redis(HashTags.user(user.getUser()))) {
+            var added = ADD.eval(redis, addKeys(user), addArgs(user));
 
-            if (redis.exists(userKey)) {
+            if (!Long.valueOf(1).equals(added)) {
                 var errorMessage = String.format("A user with nick %s already exist", user.getUser());
                 throw new UserAlreadyExistsException(errorMessage);
             }
+        }
+
+        redisFactory.wrote(HashTags.user(user.getUser()));
+        bloomFilter.add(user.getUser());
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Every user is added with the same script as a single user in one pipeline per shard, so that a user that already
+     * exists or appears twice in the batch is only added once.
+     */
+    @Override
+    public List<Boolean> addAll(List<User> users) {
+        var added = new ArrayList<Boolean>(Collections.nCopies(users.size(), false));
+        var byShard = new LinkedHashMap<Integer, List<Integer>>();
+
+        for (var i = 0; i < users.size(); i++) {
+            byShard.computeIfAbsent(redisFactory.shard(HashTags.user(users.get(i).getUser())), shard -> new ArrayList<>()).add(i);
+        }
+
+        byShard.forEach((shard, positions) -> {
+            try (var redis = redisFactory.redis(shard)) {
+                var pipeline = redis.pipelined();
+                var responses = new ArrayList<Response<Object>>(positions.size());
 
-            redis.hmset(userKey, Map.of(USER_NICK_KEY, user.getUser(), USER_PASSWORD_KEY, user.getPassword()));
+                for (var position: positions) {
+                    var user = users.get(position);
+                    responses.add(ADD.eval(pipeline, addKeys(user), addArgs(user), responses.isEmpty()));
+                }
 
-            var usersKey = String.format("%s:%s", USERS_PREFIX, "all");
-            redis.lpush(usersKey, user.getUser());
+                pipeline.sync();
+
+                for (var i = 0; i < positions.size(); i++) {
+                    added.set(positions.get(i), Long.valueOf(1).equals(responses.get(i).get()));
+                }
+            }
+        });
+
+        for (var i = 0; i < users.size(); i++) {
+            if (added.get(i)) {
+                redisFactory.wrote(HashTags.user(users.get(i).getUser()));
+                bloomFilter.add(users.get(i).getUser());
+            }
         }
+
+        return added;
+    }
+
+    private static List<byte[]> addKeys(User user) {
+        return RedisScript.bytes(String.format("%s:%s", USER_PREFIX, user.getUser()), String.format("%s:%s", USERS_PREFIX, "all"));
+    }
+
+    private static List<byte[]> addArgs(User user) {
+        return RedisScript.bytes(USER_NICK_KEY, user.getUser(), USER_PASSWORD_KEY, user.getPassword());
     }
 
     /**
      * @inheritDoc
+     *
+     * Every shard lists its own users, so the users are gathered from all shards concurrently. The list and the users of
+     * a shard are read from the node that its lists are read from, see {@link RedisFactory#lister(int)}, with one
+     * pipeline, so a listed user is read from the same node as the list.
      */
     @Override
     public List<User> all() {
-        try (var redis = redisFactory.redis()) {
-            var userKeys = redis.lrange(String.format("%s:%s", USERS_PREFIX, "all"), 0, -1);
-            return userKeys.stream().map(this::get).filter(user -> user != User.NONEXISTING).collect(Collectors.toList());
-        }
+        var users = new ArrayList<User>();
+
+        redisFactory.scatter(shard -> {
+            try (var redis = redisFactory.lister(shard)) {
+                var nicks = redis.lrange(String.format("%s:%s", USERS_PREFIX, "all"), 0, -1);
+
+                if (nicks.isEmpty()) {
+                    return List.<User>of();
+                }
+
+                var pipeline = redis.pipelined();
+                var hashes = nicks.stream().
+                        map(nick -> pipeline.hgetAll(String.format("%s:%s", USER_PREFIX, nick))).
+                        collect(Collectors.toList());
+                pipeline.sync();
+
+                return hashes.stream().
+                        map(Response::get).
+                        filter(hash -> !hash.isEmpty()).
+                        map(hash -> new User(hash.get(USER_NICK_KEY), hash.get(USER_PASSWORD_KEY))).
+                        collect(Collectors.toList());
+            }
+        }).forEach(users::addAll);
+
+        return users;
     }
 
     /**
      * @inheritDoc
+     *
+     * The user is read from a replica unless it was added recently by this node, and the read is hedged if hedging is
+     * enabled.
      */
     @Override
     public User get(String user) {
-        try (var redis = redisFactory.redis()) {
-            var hash = redis.hgetAll(String.format("%s:%s", USER_PREFIX, user));
-            if (!hash.isEmpty()) {
-                return new User(hash.get(USER_NICK_KEY), hash.get(USER_PASSWORD_KEY));
-            } else {
-                return User.NONEXISTING;
-            }
+        if (!bloomFilter.mightContain(user)) {
+            return User.NONEXISTING;
+        }
+
+        var hash = redisFactory.read(HashTags.user(user), redis -> redis.hgetAll(String.format("%s:%s", USER_PREFIX, user)));
+        if (!hash.isEmpty()) {
+            return new User(hash.get(USER_NICK_KEY), hash.get(USER_PASSWORD_KEY));
+        } else {
+            return User.NONEXISTING;
         }
     }
+
+    /**
+     * @inheritDoc
+     *
+     * Users that are not in the Bloom filter of users do not exist.
+     */
+    @Override
+    public boolean mightExist(String user) {
+        return bloomFilter.mightContain(user);
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * The user is read from a replica unless it was added recently by this node, and the read is hedged if hedging is
+     * enabled.
+     */
+    @Override
+    public boolean exists(String user) {
+        if (!bloomFilter.mightContain(user)) {
+            return false;
+        }
+
+        return redisFactory.read(HashTags.user(user), redis -> redis.exists(String.format("%s:%s", USER_PREFIX, user)));
+    }
+
+    /**
+     * @inheritDoc
+     *
+     * Users that are not in the bloom filter are left out and the others are checked with one pipeline per shard.
+     */
+    @Override
+    public Set<String> existing(Collection<String> users) {
+        var byShard = users.stream().
+                filter(bloomFilter::mightContain).
+                distinct().
+                collect(Collectors.groupingBy(user -> redisFactory.shard(HashTags.user(user))));
+        var existing = new HashSet<String>();
+
+        byShard.forEach((shard, candidates) -> {
+            try (var redis = redisFactory.redis(shard)) {
+                var pipeline = redis.pipelined();
+                var responses = candidates.stream().
+                        map(user -> pipeline.exists(String.format("%s:%s", USER_PREFIX, user))).
+                        collect(Collectors.toList());
+                pipeline.sync();
+
+                for (var i = 0; i < candidates.size(); i++) {
+                    if (responses.get(i).get()) {
+                        existing.add(candidates.get(i));
+                    }
+                }
+            }
+        });
+
+        return existing;
+    }
 }
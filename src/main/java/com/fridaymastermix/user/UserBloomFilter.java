@@ -0,0 +1,392 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of the nicks of all registered users.
+ *
+ * The filter answers if a user might exist without any I/O. A nick that is not in the filter is known not to exist,
+ * while a nick that is in the filter exists with a probability given by the configured false positive rate.
+ *
+ * The filter is held in process and persisted in redis as a bitmap, so that nodes can load it on startup instead of
+ * reading every user. Users that are created on other nodes are added from the users:created channel. Until the filter
+ * has been loaded every nick is reported as possibly existing.
+ */
+@Component
+@Profile("!memory & !log")
+public class UserBloomFilter implements InitializingBean, MeterBinder {
+    static final String KEY = "users:bloom";
+    static final String CONFIG_KEY = "users:bloom:config";
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserBloomFilter.class);
+    private static final String USERS_KEY = "users:all";
+    private static final int CHUNK_SIZE = 1000;
+    private static final long MAX_BITS = 1L << 32;
+
+    @Autowired
+    RedisFactory redisFactory;
+
+    @Autowired
+    RedisPubSub pubSub;
+
+    @Value("${users.bloom.expected-users:1000000}")
+    long expectedUsers = 1000000;
+
+    @Value("${users.bloom.false-positive-rate:0.01}")
+    double falsePositiveRate = 0.01;
+
+    private long size;
+    private int hashFunctions;
+    private volatile Bits bits;
+    private volatile boolean ready;
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Checks if a user might exist.
+     *
+     * @param user the nick of the user.
+     * @return false if the user does not exist, true if the user might exist.
+     */
+    public boolean mightContain(String user) {
+        if (!ready) {
+            return true;
+        }
+
+        var current = bits;
+        for (var index: indexes(user)) {
+            if (!current.get(index)) {
+                rejections.incrementAndGet();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds a user to the filter of this node and to the filter persisted in redis.
+     *
+     * @param user the nick of the user.
+     */
+    public void add(String user) {
+        var indexes = indexes(user);
+        set(bits, indexes);
+
+        try (var redis = redisFactory.redis()) {
+            var pipeline = redis.pipelined();
+            for (var index: indexes) {
+                pipeline.setbit(KEY, index, true);
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Handles users created on any node.
+     */
+    private void added(String user) {
+        if (RedisPubSub.ALL.equals(user)) {
+            load();
+        } else {
+            set(bits, indexes(user));
+        }
+    }
+
+    /**
+     * Loads the filter from redis. The filter is rebuilt from the list of all users if it has not been persisted or
+     * if it was persisted with another size or number of hash functions. The filter is loaded after the subscription to
+     * created users is confirmed, so that a user created by another node after the filter was read is not missed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(RedisPubSub.STARTUP_ORDER + 1)
+    public void load() {
+        try {
+            try (var redis = redisFactory.redis()) {
+                var config = redis.hgetAll(CONFIG_KEY);
+
+                if (Long.toString(size).equals(config.get("size")) &&
+                        Integer.toString(hashFunctions).equals(config.get("hashes"))) {
+                    bits = Bits.fromRedis(redis.get(KEY.getBytes(StandardCharsets.UTF_8)), size);
+                    ready = true;
+                    return;
+                }
+            }
+
+            rebuild();
+        } catch (JedisException e) {
+            LOG.warn("Could not load the user bloom filter. All users will be looked up.", e);
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the lists of all users of every shard and replaces the filter persisted in redis.
+     * Users that are created while the filter is rebuilt are added once the new filter has been persisted.
+     */
+    public synchronized void rebuild() {
+        LOG.info("Building the user bloom filter with {} bits and {} hash functions", size, hashFunctions);
+        var fresh = new Bits(size);
+
+        var usersBefore = new long[redisFactory.shards()];
+
+        for (var shard = 0; shard < usersBefore.length; shard++) {
+            try (var redis = redisFactory.redis(shard)) {
+                usersBefore[shard] = redis.llen(USERS_KEY);
+
+                for (long start = 0; start < usersBefore[shard]; start += CHUNK_SIZE) {
+                    for (var user: redis.lrange(USERS_KEY, start, start + CHUNK_SIZE - 1)) {
+                        set(fresh, indexes(user));
+                    }
+                }
+            }
+        }
+
+        try (var redis = redisFactory.redis()) {
+            var transaction = redis.multi();
+            transaction.set(KEY.getBytes(StandardCharsets.UTF_8), fresh.toRedis());
+            transaction.del(CONFIG_KEY);
+            transaction.hmset(CONFIG_KEY, Map.of("size", Long.toString(size), "hashes", Integer.toString(hashFunctions)));
+            transaction.exec();
+        }
+
+        bits = fresh;
+        ready = true;
+
+        // Users are pushed to the head of the lists, so users created during the rebuild are first in the lists.
+        for (var shard = 0; shard < usersBefore.length; shard++) {
+            try (var redis = redisFactory.redis(shard)) {
+                var created = redis.llen(USERS_KEY) - usersBefore[shard];
+                if (created > 0) {
+                    for (var user: redis.lrange(USERS_KEY, 0, created - 1)) {
+                        add(user);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the bit indexes of a user, derived from one 64 bit hash with double hashing.
+     */
+    long[] indexes(String user) {
+        var hash = hash(user.getBytes(StandardCharsets.UTF_8));
+        var first = (int) hash;
+        var second = (int) (hash >>> 32);
+
+        var indexes = new long[hashFunctions];
+        for (int i = 0; i < hashFunctions; i++) {
+            var combined = first + (long) i * second;
+            indexes[i] = Math.floorMod(combined, size);
+        }
+
+        return indexes;
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer to spread the bits.
+     */
+    private static long hash(byte[] bytes) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b: bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static void set(Bits target, long[] indexes) {
+        if (target == null) {
+            return;
+        }
+
+        for (var index: indexes) {
+            target.set(index);
+        }
+    }
+
+    /**
+     * Returns the share of bits that are set, raised to the number of hash functions.
+     *
+     * @return the estimated false positive rate of the filter as it is filled now.
+     */
+    public double estimatedFalsePositiveRate() {
+        var current = bits;
+        if (current == null) {
+            return 0;
+        }
+        return Math.pow((double) current.cardinality() / size, hashFunctions);
+    }
+
+    /**
+     * Returns a description of the filter.
+     *
+     * @return the configuration and state of the filter.
+     */
+    public Map<String, Object> describe() {
+        return Map.of(
+                "ready", ready,
+                "bits", size,
+                "bytes", size / 8,
+                "hashFunctions", hashFunctions,
+                "expectedUsers", expectedUsers,
+                "falsePositiveRate", falsePositiveRate,
+                "estimatedFalsePositiveRate", estimatedFalsePositiveRate(),
+                "rejections", rejections.get());
+    }
+
+    /**
+     * Sizes the filter from the expected number of users and the false positive rate.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        var ln2 = Math.log(2);
+        var optimalSize = (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (ln2 * ln2));
+        size = Math.min(Math.max(optimalSize, Long.SIZE), MAX_BITS);
+        hashFunctions = Math.max(1, (int) Math.round((double) size / expectedUsers * ln2));
+        bits = new Bits(size);
+
+        if (pubSub != null) {
+            pubSub.subscribe(KnownUsers.CHANNEL, this::added);
+        }
+    }
+
+    /**
+     * Marks the filter as loaded. Used when the filter is filled without redis.
+     */
+    void ready() {
+        ready = true;
+    }
+
+    /**
+     * Registers the filter meters.
+     *
+     * @param registry the registry to register the meters in.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.bloom.bytes", this, filter -> filter.size / 8)
+                .description("Memory used by the bits of the user bloom filter")
+                .register(registry);
+
+        Gauge.builder("users.bloom.hash.functions", this, filter -> filter.hashFunctions)
+                .register(registry);
+
+        Gauge.builder("users.bloom.false.positive.rate", this, UserBloomFilter::estimatedFalsePositiveRate)
+                .description("Estimated false positive rate of the user bloom filter")
+                .register(registry);
+
+        FunctionCounter.builder("users.bloom.rejections", rejections, AtomicLong::get)
+                .description("Lookups of users that were rejected by the bloom filter")
+                .register(registry);
+    }
+
+    /**
+     * The bits of a filter.
+     */
+    static class Bits {
+        private final AtomicLongArray words;
+        private final AtomicLong cardinality = new AtomicLong();
+
+        Bits(long size) {
+            words = new AtomicLongArray((int) ((size + Long.SIZE - 1) / Long.SIZE));
+        }
+
+        boolean get(long index) {
+            return (words.get((int) (index / Long.SIZE)) & (1L << (index % Long.SIZE))) != 0;
+        }
+
+        void set(long index) {
+            var word = (int) (index / Long.SIZE);
+            var mask = 1L << (index % Long.SIZE);
+
+            while (true) {
+                var current = words.get(word);
+                if ((current & mask) != 0) {
+                    return;
+                }
+                if (words.compareAndSet(word, current, current | mask)) {
+                    cardinality.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        long cardinality() {
+            return cardinality.get();
+        }
+
+        /**
+         * Converts the bits to the layout of a redis bitmap where bit 0 is the most significant bit of the first byte.
+         */
+        byte[] toRedis() {
+            var bytes = new byte[words.length() * Long.BYTES];
+            for (long index = 0; index < (long) bytes.length * Byte.SIZE; index++) {
+                if (get(index)) {
+                    bytes[(int) (index / Byte.SIZE)] |= 0x80 >>> (index % Byte.SIZE);
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Creates bits from a redis bitmap.
+         */
+        static Bits fromRedis(byte[] bytes, long size) {
+            var bits = new Bits(size);
+            if (bytes == null) {
+                return bits;
+            }
+
+            var length = Math.min((long) bytes.length * Byte.SIZE, size);
+            for (long index = 0; index < length; index++) {
+                if ((bytes[(int) (index / Byte.SIZE)] & (0x80 >>> (index % Byte.SIZE))) != 0) {
+                    bits.set(index);
+                }
+            }
+            return bits;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint that reports and rebuilds the user bloom filter.
+ */
+@Component
+@Profile("!memory & !log")
+@Endpoint(id = "userbloom")
+public class UserBloomFilterEndpoint {
+
+    @Autowired
+    UserBloomFilter filter;
+
+    /**
+     * Reports the configuration and state of the filter.
+     *
+     * @return the description of the filter.
+     */
+    @ReadOperation
+    public Map<String, Object> describe() {
+        return filter.describe();
+    }
+
+    /**
+     * Rebuilds the filter from the list of all users.
+     *
+     * @return the description of the rebuilt filter.
+     */
+    @WriteOperation
+    public Map<String, Object> rebuild() {
+        filter.rebuild();
+        return filter.describe();
+    }
+}
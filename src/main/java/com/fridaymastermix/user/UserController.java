@@ -17,8 +17,12 @@
 
 package com.fridaymastermix.user;
 
+import com.fridaymastermix.BatchResponse;
 import com.fridaymastermix.ResponseBody;
+import com.fridaymastermix.ResponseCache;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -28,32 +32,41 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Class that handles user requests.
  */
 @RestController
+@Profile("!reactive")
 @RequestMapping(value = "users", produces = MediaType.APPLICATION_JSON_VALUE)
 @SuppressWarnings("UnusedReturnValue")
 public class UserController {
     @Autowired
     UserService users;
 
+    @Autowired
+    ResponseCache responses;
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
     /**
-     * Handles requests for listing all users.
+     * Handles requests for listing all users. The serialized list is cached until a user is created.
      *
+     * @param acceptEncoding the Accept-Encoding header of the request. Optional.
      * @return a list of all users.
      */
     @GetMapping
-    public UserWrapper listUsers() {
-        var userList = users.all();
-        return new UserWrapper(userList);
+    public ResponseEntity<byte[]> listUsers(@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return responses.respond(UserService.LISTING, "", acceptEncoding, () -> new UserWrapper(users.all()));
     }
 
     /**
@@ -88,6 +101,42 @@ public class UserController {
         return new ResponseEntity<>(new ResponseBody(status.value(), message), headers, status);
     }
 
+    /**
+     * Handles requests to create a batch of users. The users are written with a few pipelined round trips.
+     *
+     * @param batch the users to create.
+     * @param request the servlet request used to create the locations.
+     * @return a response entity with the result of each user, 201 if all users were created and 207 otherwise.
+     */
+    @PostMapping(value = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BatchResponse> postUserBatch(@RequestBody List<User> batch, HttpServletRequest request) {
+        if (batch.isEmpty() || batch.size() > MAX_BATCH_SIZE) {
+            var message = String.format("A batch must have between 1 and %d users", MAX_BATCH_SIZE);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+        }
+
+        var valid = batch.stream().
+                filter(user -> StringUtils.isNotBlank(user.getUser()) && StringUtils.isNotBlank(user.getPassword())).
+                collect(Collectors.toList());
+        var created = users.createAll(valid).iterator();
+
+        var uriBuilder = UriComponentsBuilder.fromUriString(request.getRequestURI().replaceFirst("/batch/?$", "")).path("/{id}");
+        var response = new BatchResponse();
+
+        for (var user: batch) {
+            if (StringUtils.isBlank(user.getUser()) || StringUtils.isBlank(user.getPassword())) {
+                response.failed(HttpStatus.BAD_REQUEST, "A user name and a password are required");
+            } else if (created.next()) {
+                response.created(user.getUser(), uriBuilder.build(user.getUser()));
+            } else {
+                var message = String.format("User with user name %s does already exist. Try another user name", user.getUser());
+                response.failed(HttpStatus.SEE_OTHER, message);
+            }
+        }
+
+        return new ResponseEntity<>(response, response.isAllCreated() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+    }
+
     /**
      * Handles GET requests for users.
      * @param user the user to get.
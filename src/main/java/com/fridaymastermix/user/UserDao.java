@@ -17,7 +17,11 @@
 
 package com.fridaymastermix.user;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Interface for Data Access Objects that handles user data.
@@ -32,6 +36,28 @@ public interface UserDao {
      */
     void add(User user) throws UserAlreadyExistsException;
 
+    /**
+     * Adds users to the data store. Implementations that talk to a remote data store should write the users in as
+     * few round trips as possible.
+     *
+     * @param users the users to add.
+     * @return for each user, in the order of the users, true if it was added or false if it already existed.
+     */
+    default List<Boolean> addAll(List<User> users) {
+        var added = new ArrayList<Boolean>(users.size());
+
+        for (var user: users) {
+            try {
+                add(user);
+                added.add(true);
+            } catch (UserAlreadyExistsException e) {
+                added.add(false);
+            }
+        }
+
+        return added;
+    }
+
     /**
      * Returns a list of all users.
      *
@@ -46,4 +72,42 @@ public interface UserDao {
      * @return the user or {@link User#NONEXISTING} if the user does not exist.
      */
     User get(String user);
+
+    /**
+     * Checks if a user exists without reading the user.
+     *
+     * @param user the name of the user.
+     * @return true if the user exists, false otherwise.
+     */
+    boolean exists(String user);
+
+    /**
+     * Checks without any I/O if a user might exist. Implementations that can rule out users without I/O, e.g. with a
+     * Bloom filter, should do so.
+     *
+     * @param user the name of the user.
+     * @return false if the user does not exist, true if the user might exist.
+     */
+    default boolean mightExist(String user) {
+        return true;
+    }
+
+    /**
+     * Checks which of the users exist. Implementations that talk to a remote data store should check all users in as
+     * few round trips as possible.
+     *
+     * @param users the names of the users.
+     * @return the names of the users that exist.
+     */
+    default Set<String> existing(Collection<String> users) {
+        var existing = new HashSet<String>();
+
+        for (var user: users) {
+            if (exists(user)) {
+                existing.add(user);
+            }
+        }
+
+        return existing;
+    }
 }
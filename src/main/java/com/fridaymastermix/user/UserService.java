@@ -17,6 +17,7 @@
 
 package com.fridaymastermix.user;
 
+import com.fridaymastermix.ResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
@@ -29,11 +30,17 @@ import java.util.List;
 @Service
 @Qualifier("database")
 public class UserService {
+    static final String LISTING = "users";
 
     @Autowired
-    @Qualifier("redis")
     UserDao users;
 
+    @Autowired
+    KnownUsers knownUsers;
+
+    @Autowired
+    ResponseCache responses;
+
     /**
      * Tells the Data Access Object to create a user.
      *
@@ -42,6 +49,30 @@ public class UserService {
      */
     public void create(User user) throws UserAlreadyExistsException {
         users.add(user);
+        knownUsers.created(user.getUser());
+        responses.invalidate(LISTING);
+    }
+
+    /**
+     * Tells the Data Access Object to create users.
+     *
+     * @param users the users.
+     * @return for each user, in the order of the users, true if it was created or false if it already existed.
+     */
+    public List<Boolean> createAll(List<User> users) {
+        var created = this.users.addAll(users);
+
+        for (var i = 0; i < users.size(); i++) {
+            if (created.get(i)) {
+                knownUsers.created(users.get(i).getUser());
+            }
+        }
+
+        if (created.contains(true)) {
+            responses.invalidate(LISTING);
+        }
+
+        return created;
     }
 
     /**
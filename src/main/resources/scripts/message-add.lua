@@ -0,0 +1,27 @@
+-- Adds a message and lists it in the sets and timelines of all messages and of the user that created it.
+--
+-- KEYS: the message, the messages of the user, all messages, the timeline of all messages, the timeline of the user,
+--       the version of all messages, the version of the messages of the user, the user
+-- ARGV: the id, the time the message was created, 1 if the user must exist, the encoding and then either the binary
+--       message or the fields and values of the message hash
+--
+-- Returns 1 if the message was added or 0 if the user does not exist.
+
+if ARGV[3] == '1' and redis.call('EXISTS', KEYS[8]) == 0 then
+    return 0
+end
+
+if ARGV[4] == 'binary' then
+    redis.call('SET', KEYS[1], ARGV[5])
+else
+    redis.call('HSET', KEYS[1], unpack(ARGV, 5))
+end
+
+redis.call('SADD', KEYS[2], ARGV[1])
+redis.call('SADD', KEYS[3], ARGV[1])
+redis.call('ZADD', KEYS[4], ARGV[2], ARGV[1])
+redis.call('ZADD', KEYS[5], ARGV[2], ARGV[1])
+redis.call('INCR', KEYS[6])
+redis.call('INCR', KEYS[7])
+
+return 1
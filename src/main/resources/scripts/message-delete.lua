@@ -0,0 +1,22 @@
+-- Deletes a message in both encodings and removes it from the sets and timelines it is listed in. The versions of the
+-- lists are changed if anything was deleted.
+--
+-- KEYS: the message hash, the binary message, the messages of the user, all messages, the timeline of all messages,
+--       the timeline of the user, the version of all messages, the version of the messages of the user
+-- ARGV: the id
+--
+-- Returns the number of keys and set entries that were deleted.
+
+local deleted = redis.call('DEL', KEYS[1], KEYS[2])
+deleted = deleted + redis.call('SREM', KEYS[3], ARGV[1])
+deleted = deleted + redis.call('SREM', KEYS[4], ARGV[1])
+
+redis.call('ZREM', KEYS[5], ARGV[1])
+redis.call('ZREM', KEYS[6], ARGV[1])
+
+if deleted > 0 then
+    redis.call('INCR', KEYS[7])
+    redis.call('INCR', KEYS[8])
+end
+
+return deleted
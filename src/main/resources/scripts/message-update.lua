@@ -0,0 +1,36 @@
+-- Updates the content of a message that is stored as a hash, increases its revision and changes the versions of the
+-- lists it is in. Hashes without a revision have revision 0.
+--
+-- KEYS: the message hash, the version of all messages, the version of the messages of the user that created it
+-- ARGV: the content, the time of the update, the user that created the message, the revision the message must have or
+--       an empty string for any revision
+--
+-- Returns the user that created the message and the new revision, false if there is no hash, 0 if the hash is missing
+-- fields or was created by another user or -1 if the message has another revision.
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return false
+end
+
+local fields = redis.call('HMGET', KEYS[1], 'id', 'message', 'createdBy', 'created', 'updated', 'revision')
+
+for i = 1, 5 do
+    if not fields[i] then
+        return 0
+    end
+end
+
+if fields[3] ~= ARGV[3] then
+    return 0
+end
+
+if ARGV[4] ~= '' and tonumber(ARGV[4]) ~= tonumber(fields[6] or '0') then
+    return -1
+end
+
+redis.call('HSET', KEYS[1], 'message', ARGV[1], 'updated', ARGV[2])
+local revision = redis.call('HINCRBY', KEYS[1], 'revision', 1)
+redis.call('INCR', KEYS[2])
+redis.call('INCR', KEYS[3])
+
+return {fields[3], revision}
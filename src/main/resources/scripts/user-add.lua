@@ -0,0 +1,15 @@
+-- Adds a user unless a user with the same nick exists.
+--
+-- KEYS: the user, all users
+-- ARGV: the nick field, the nick, the password field, the password
+--
+-- Returns 1 if the user was added or 0 if it already exists.
+
+if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then
+    return 0
+end
+
+redis.call('HSET', KEYS[1], ARGV[3], ARGV[4])
+redis.call('LPUSH', KEYS[2], ARGV[2])
+
+return 1
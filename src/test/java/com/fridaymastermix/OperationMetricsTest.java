@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import com.fridaymastermix.user.UserAlreadyExistsException;
+import com.fridaymastermix.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OperationMetricsTest {
+
+    private OperationMetrics metrics;
+    private SimpleMeterRegistry registry;
+    private ProceedingJoinPoint joinPoint;
+
+    @Before
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        metrics = new OperationMetrics();
+        metrics.registry = registry;
+
+        var signature = mock(Signature.class);
+        when(signature.getName()).thenReturn("create");
+        when(signature.getDeclaringType()).thenReturn(UserService.class);
+
+        joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getTarget()).thenReturn("target");
+    }
+
+    @After
+    public void teardown() {
+        metrics = null;
+        registry = null;
+        joinPoint = null;
+    }
+
+    @Test
+    public void timeDaoOperation() throws Throwable {
+        when(joinPoint.proceed()).thenReturn("result");
+
+        var result = metrics.timeDaoOperation(joinPoint);
+
+        assertEquals("result", result);
+        var timer = registry.get("dao.operation")
+                .tag("dao", "String")
+                .tag("operation", "create")
+                .tag("exception", "none")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void timeFailedDaoOperation() throws Throwable {
+        when(joinPoint.proceed()).thenThrow(new UserAlreadyExistsException("exists"));
+
+        try {
+            metrics.timeDaoOperation(joinPoint);
+            fail("UserAlreadyExistsException was not thrown");
+        } catch (UserAlreadyExistsException e) {
+            var timer = registry.get("dao.operation").tag("exception", "UserAlreadyExistsException").timer();
+            assertEquals(1, timer.count());
+        }
+    }
+
+    @Test
+    public void countError() {
+        metrics.countError(joinPoint, new UserAlreadyExistsException("exists"));
+        metrics.countError(joinPoint, new UserAlreadyExistsException("exists"));
+
+        var counter = registry.get("operation.errors")
+                .tag("operation", "UserService.create")
+                .tag("exception", "UserAlreadyExistsException")
+                .counter();
+        assertEquals(2.0, counter.count(), 0.0);
+    }
+}
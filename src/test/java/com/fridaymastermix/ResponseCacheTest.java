@@ -0,0 +1,186 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentCaptor.forClass;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheTest {
+
+    private ResponseCache responses;
+    private RedisPubSub pubSub;
+    private AtomicInteger loads;
+
+    @Before
+    public void setup() {
+        pubSub = mock(RedisPubSub.class);
+        loads = new AtomicInteger();
+
+        responses = new ResponseCache();
+        responses.pubSub = pubSub;
+        responses.objectMapper = new ObjectMapper();
+        responses.afterPropertiesSet();
+    }
+
+    /**
+     * Creates the cache again as on a node with redis replicas that lag a minute behind.
+     */
+    private void replicasLag() {
+        var redisFactory = mock(RedisFactory.class);
+        when(redisFactory.replicaLagMillis()).thenReturn(60_000L);
+        pubSub = mock(RedisPubSub.class);
+
+        responses = new ResponseCache();
+        responses.pubSub = pubSub;
+        responses.redisFactory = redisFactory;
+        responses.objectMapper = new ObjectMapper();
+        responses.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        responses = null;
+        pubSub = null;
+        loads = null;
+    }
+
+    private List<String> load() {
+        loads.incrementAndGet();
+        return List.of("a", "b");
+    }
+
+    @Test
+    public void respond() {
+        var response = responses.respond("group", "query", null, this::load);
+
+        assertArrayEquals("[\"a\",\"b\"]".getBytes(), response.getBody());
+        assertEquals("application/json", response.getHeaders().getContentType().toString());
+    }
+
+    @Test
+    public void responsesAreCachedPerQuery() {
+        responses.respond("group", "query", null, this::load);
+        responses.respond("group", "query", null, this::load);
+        responses.respond("group", "other", null, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidate() {
+        responses.respond("group", "query", null, this::load);
+        responses.respond("other", "query", null, this::load);
+
+        responses.invalidate("group");
+        responses.respond("group", "query", null, this::load);
+        responses.respond("other", "query", null, this::load);
+
+        assertEquals(3, loads.get());
+        verify(pubSub).publish(ResponseCache.CHANNEL, "group");
+    }
+
+    @Test
+    public void invalidatedWhileLoading() {
+        responses.respond("group", "query", null, () -> {
+            responses.invalidate("group");
+            return load();
+        });
+        responses.respond("group", "query", null, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invalidatedByOtherNodes() {
+        Class<Consumer<String>> type = (Class<Consumer<String>>) (Class<?>) Consumer.class;
+        var listener = forClass(type);
+        verify(pubSub).subscribe(eq(ResponseCache.CHANNEL), listener.capture());
+        responses.respond("group", "query", null, this::load);
+
+        listener.getValue().accept(RedisPubSub.ALL);
+        responses.respond("group", "query", null, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void responsesLoadedWithinReplicaLagAreNotCached() {
+        replicasLag();
+        responses.respond("group", "query", null, this::load);
+        responses.respond("other", "query", null, this::load);
+
+        responses.invalidate("group");
+        responses.respond("group", "query", null, this::load);
+        responses.respond("group", "query", null, this::load);
+        responses.respond("other", "query", null, this::load);
+
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void responsesLoadedWithinReplicaLagOfInvalidationOfAllGroupsAreNotCached() {
+        replicasLag();
+        Class<Consumer<String>> type = (Class<Consumer<String>>) (Class<?>) Consumer.class;
+        var listener = forClass(type);
+        verify(pubSub).subscribe(eq(ResponseCache.CHANNEL), listener.capture());
+
+        listener.getValue().accept(RedisPubSub.ALL);
+        responses.respond("group", "query", null, this::load);
+        responses.respond("group", "query", null, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        responses.gzip = true;
+
+        var compressed = responses.respond("group", "query", "gzip, deflate", this::load);
+        var plain = responses.respond("group", "query", null, this::load);
+
+        assertEquals("gzip", compressed.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertNull(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(compressed.getBody()))) {
+            assertArrayEquals(plain.getBody(), in.readAllBytes());
+        }
+        assertEquals(1, loads.get());
+    }
+}
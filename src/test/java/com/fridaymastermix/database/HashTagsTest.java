@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashTagsTest {
+
+    @Test
+    public void userTag() {
+        var tag = HashTags.user("lalle");
+
+        assertEquals(4, tag.length());
+        assertEquals(tag, HashTags.user("lalle"));
+    }
+
+    @Test
+    public void userTagsAreSpread() {
+        var tags = new HashSet<String>();
+
+        for (var i = 0; i < 1000; i++) {
+            tags.add(HashTags.user(String.format("user%d", i)));
+        }
+
+        assertTrue(String.format("%d distinct tags", tags.size()), tags.size() > 990);
+    }
+
+    @Test
+    public void messageHasTagOfAuthor() {
+        var id = HashTags.id("0HGQ8Z5B4C000", "lalle");
+
+        assertEquals("0HGQ8Z5B4C000-" + HashTags.user("lalle"), id);
+        assertEquals(HashTags.user("lalle"), HashTags.message(id));
+    }
+
+    @Test
+    public void messageWithoutTagIsItsOwnTag() {
+        assertEquals("0HGQ8Z5B4C000", HashTags.message("0HGQ8Z5B4C000"));
+    }
+
+    @Test
+    public void messageWithUuidIsItsOwnTag() {
+        var id = "3f0e5a2c-8b1d-4c6e-9f7a-2d4b6c8e0a1f";
+
+        assertEquals(id, HashTags.message(id));
+    }
+
+    @Test
+    public void messageWithSuffixThatIsNoTagIsItsOwnTag() {
+        assertEquals("0HGQ8Z5B4C000-ABCD", HashTags.message("0HGQ8Z5B4C000-ABCD"));
+        assertEquals("0HGQ8Z5B4C000-wxyz", HashTags.message("0HGQ8Z5B4C000-wxyz"));
+    }
+
+    @Test
+    public void messageIsOnShardOfAuthorOnAnyRing() {
+        var rings = List.of(
+                new ShardRing(List.of("localhost:6379", "localhost:6380")),
+                new ShardRing(List.of("localhost:6379", "localhost:6380", "localhost:6381")));
+
+        for (var ring: rings) {
+            for (var i = 0; i < 100; i++) {
+                var user = String.format("user%d", i);
+                var id = HashTags.id(String.format("%013d", i), user);
+                assertEquals(ring.shard(HashTags.user(user)), ring.shard(HashTags.message(id)));
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HedgedReadsTest {
+
+    private ScheduledExecutorService scheduler;
+    private Socket socket;
+    private Jedis slow;
+    private Jedis fast;
+    private CountingJedisPool slowPool;
+    private CountingJedisPool fastPool;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() throws Exception {
+        scheduler = Executors.newScheduledThreadPool(1);
+        socket = mock(Socket.class);
+        slow = mock(Jedis.class);
+        fast = mock(Jedis.class);
+        slowPool = mock(CountingJedisPool.class);
+        fastPool = mock(CountingJedisPool.class);
+        release = new CountDownLatch(1);
+
+        when(slowPool.getResource()).thenReturn(slow);
+        when(fastPool.getResource()).thenReturn(fast);
+
+        var client = mock(Client.class);
+        when(slow.getClient()).thenReturn(client);
+        when(client.getSocket()).thenReturn(socket);
+        doAnswer(invocation -> {
+            release.countDown();
+            return null;
+        }).when(socket).shutdownInput();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdownNow();
+
+        scheduler = null;
+        socket = null;
+        slow = null;
+        fast = null;
+        slowPool = null;
+        fastPool = null;
+        release = null;
+    }
+
+    @Test
+    public void delayIsPercentileOfRecentLatencies() {
+        var hedgedReads = new HedgedReads(95, 0, scheduler);
+
+        for (var i = 1; i <= 128; i++) {
+            hedgedReads.record(i);
+        }
+
+        assertEquals(122, hedgedReads.delayNanos());
+    }
+
+    @Test
+    public void delayIsAtLeastMinDelay() {
+        var hedgedReads = new HedgedReads(95, 1000, scheduler);
+
+        for (var i = 1; i <= 64; i++) {
+            hedgedReads.record(i);
+        }
+
+        assertEquals(1000, hedgedReads.delayNanos());
+    }
+
+    @Test
+    public void readsAreNotHedgedBeforeLatenciesAreKnown() {
+        var hedgedReads = new HedgedReads(95, 0, scheduler);
+
+        var result = hedgedReads.read(fastPool, slowPool, this::answer);
+
+        assertEquals("fast", result);
+        assertEquals(1, hedgedReads.reads());
+        assertEquals(0, hedgedReads.hedges());
+        assertEquals(Long.MAX_VALUE, hedgedReads.delayNanos());
+    }
+
+    @Test
+    public void firstReadRunsOnCallingThread() {
+        var hedgedReads = new HedgedReads(50, TimeUnit.SECONDS.toNanos(10), scheduler);
+
+        for (var i = 0; i < 64; i++) {
+            hedgedReads.record(0);
+        }
+
+        var result = hedgedReads.read(fastPool, slowPool, redis -> Thread.currentThread());
+
+        assertSame(Thread.currentThread(), result);
+        assertEquals(0, hedgedReads.hedges());
+        verify(fast).close();
+    }
+
+    @Test
+    public void slowReadIsHedged() throws Exception {
+        var hedgedReads = new HedgedReads(50, TimeUnit.MILLISECONDS.toNanos(1), scheduler);
+
+        for (var i = 0; i < 64; i++) {
+            hedgedReads.record(0);
+        }
+
+        var result = hedgedReads.read(slowPool, fastPool, this::answer);
+
+        assertEquals("fast", result);
+        assertEquals(1, hedgedReads.hedges());
+        assertEquals(1, hedgedReads.wins());
+        verify(socket).shutdownInput();
+        verify(slowPool).discard(slow);
+        verify(slow, never()).close();
+    }
+
+    @Test
+    public void failedReadIsHedgedAtOnce() {
+        var hedgedReads = new HedgedReads(95, 0, scheduler);
+        when(slowPool.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+
+        var result = hedgedReads.read(slowPool, fastPool, this::answer);
+
+        assertEquals("fast", result);
+        assertEquals(1, hedgedReads.hedges());
+        assertEquals(0, hedgedReads.wins());
+        assertEquals(1, hedgedReads.failovers());
+    }
+
+    @Test(expected = JedisConnectionException.class)
+    public void failureIsThrownWhenBothReadsFail() {
+        var hedgedReads = new HedgedReads(95, 0, scheduler);
+        when(slowPool.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+        when(fastPool.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+
+        hedgedReads.read(slowPool, fastPool, this::answer);
+        fail("JedisConnectionException was not thrown");
+    }
+
+    private String answer(Jedis redis) {
+        if (redis == slow) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new JedisConnectionException("Unexpected end of stream.");
+        }
+        return "fast";
+    }
+}
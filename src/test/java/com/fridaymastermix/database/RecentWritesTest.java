@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentWritesTest {
+
+    private AtomicLong nanos;
+    private RecentWrites recentWrites;
+
+    @Before
+    public void setup() {
+        nanos = new AtomicLong();
+        recentWrites = new RecentWrites(2000, 100, nanos::get);
+    }
+
+    @After
+    public void tearDown() {
+        nanos = null;
+        recentWrites = null;
+    }
+
+    @Test
+    public void writtenTagIsPinned() {
+        recentWrites.wrote("lalle");
+
+        assertTrue(recentWrites.pinned("lalle"));
+        assertFalse(recentWrites.pinned("kalle"));
+    }
+
+    @Test
+    public void pinExpires() {
+        recentWrites.wrote("lalle");
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1999));
+        assertTrue(recentWrites.pinned("lalle"));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertFalse(recentWrites.pinned("lalle"));
+    }
+
+    @Test
+    public void writingAgainExtendsPin() {
+        recentWrites.wrote("lalle");
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        recentWrites.wrote("lalle");
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+
+        assertTrue(recentWrites.pinned("lalle"));
+    }
+
+    @Test
+    public void writtenShardIsPinned() {
+        recentWrites.wrote(1);
+
+        assertTrue(recentWrites.pinned(1));
+        assertFalse(recentWrites.pinned(0));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(2000));
+        assertFalse(recentWrites.pinned(1));
+    }
+}
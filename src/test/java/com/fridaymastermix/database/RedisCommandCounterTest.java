@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedisCommandCounterTest {
+
+    @After
+    public void teardown() {
+        RedisCommandCounter.stop();
+    }
+
+    @Test
+    public void countsWhileStarted() {
+        RedisCommandCounter.start();
+        RedisCommandCounter.increment();
+        RedisCommandCounter.increment();
+
+        assertEquals(2, RedisCommandCounter.stop());
+    }
+
+    @Test
+    public void doesNotCountWhenNotStarted() {
+        RedisCommandCounter.increment();
+
+        assertEquals(0, RedisCommandCounter.stop());
+    }
+
+    @Test
+    public void countsOnThreadsStartedWhileCounting() throws InterruptedException {
+        RedisCommandCounter.start();
+        var thread = new Thread(RedisCommandCounter::increment);
+        thread.start();
+        thread.join();
+
+        assertEquals(1, RedisCommandCounter.stop());
+    }
+
+    @Test
+    public void pooledThreadsCountForTheRequestThatSubmittedTheTask() throws InterruptedException, ExecutionException {
+        var pool = Executors.newSingleThreadExecutor();
+
+        try {
+            RedisCommandCounter.start();
+            pool.submit(RedisCommandCounter.counting(() -> RedisCommandCounter.increment())).get();
+            assertEquals(1, RedisCommandCounter.stop());
+
+            pool.submit(RedisCommandCounter.counting(() -> RedisCommandCounter.increment())).get();
+
+            RedisCommandCounter.start();
+            pool.submit(RedisCommandCounter.counting(() -> RedisCommandCounter.increment())).get();
+            pool.submit(RedisCommandCounter::increment).get();
+            assertEquals(1, RedisCommandCounter.stop());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package com.fridaymastermix.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisScriptTest {
+
+    private RedisScript script;
+    private Jedis redis;
+
+    @Before
+    public void setup() {
+        script = new RedisScript("user-add");
+        redis = mock(Jedis.class);
+    }
+
+    @After
+    public void teardown() {
+        script = null;
+        redis = null;
+    }
+
+    private static byte[] sha(RedisScript script) {
+        return script.getSha().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void shaIsHexSha1() {
+        assertEquals(40, script.getSha().length());
+        assertEquals(script.getSha(), new RedisScript("user-add").getSha());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingScript() {
+        new RedisScript("does-not-exist");
+    }
+
+    @Test
+    public void evalUsesSha() {
+        var keys = RedisScript.bytes("user:lalle", "users:all");
+        var args = RedisScript.bytes("nick", "lalle", "password", "password");
+        when(redis.evalsha(eq(sha(script)), eq(keys), eq(args))).thenReturn(1L);
+
+        assertEquals(1L, script.eval(redis, keys, args));
+        verify(redis, never()).scriptLoad(any(byte[].class));
+    }
+
+    @Test
+    public void evalLoadsScriptOnNoScript() {
+        var keys = RedisScript.bytes("user:lalle", "users:all");
+        var args = RedisScript.bytes("nick", "lalle", "password", "password");
+        when(redis.evalsha(eq(sha(script)), eq(keys), eq(args))).
+                thenThrow(new JedisNoScriptException("NOSCRIPT No matching script")).
+                thenReturn(1L);
+
+        assertEquals(1L, script.eval(redis, keys, args));
+        verify(redis).scriptLoad(any(byte[].class));
+        verify(redis, times(2)).evalsha(eq(sha(script)), eq(keys), eq(args));
+    }
+
+    @Test
+    public void evalOnPipelineSendsScriptWhenAsked() {
+        var pipeline = mock(Pipeline.class);
+        var keys = RedisScript.bytes("user:lalle", "users:all");
+        var args = RedisScript.bytes("nick", "lalle", "password", "password");
+
+        script.eval(pipeline, keys, args, true);
+        script.eval(pipeline, keys, args, false);
+
+        verify(pipeline).eval(any(byte[].class), eq(keys), eq(args));
+        verify(pipeline).evalsha(eq(sha(script)), eq(keys), eq(args));
+    }
+
+    @Test
+    public void bytes() {
+        var binary = new byte[] {1, 2, 3};
+
+        var result = RedisScript.bytes("text", 1, binary);
+
+        assertArrayEquals("text".getBytes(StandardCharsets.UTF_8), result.get(0));
+        assertArrayEquals("1".getBytes(StandardCharsets.UTF_8), result.get(1));
+        assertArrayEquals(binary, result.get(2));
+    }
+}
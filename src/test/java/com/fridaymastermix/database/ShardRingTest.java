@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRingTest {
+
+    private static final int TAGS = 30000;
+
+    @Test
+    public void singleShard() {
+        var ring = new ShardRing(List.of("localhost:6379"));
+
+        for (var i = 0; i < 100; i++) {
+            assertEquals(0, ring.shard(Integer.toString(i)));
+        }
+    }
+
+    @Test
+    public void tagsAreSpreadEvenly() {
+        var ring = new ShardRing(List.of("localhost:6379", "localhost:6380", "localhost:6381"));
+        var counts = new int[3];
+
+        for (var i = 0; i < TAGS; i++) {
+            counts[ring.shard(String.format("user%d", i))]++;
+        }
+
+        for (var count: counts) {
+            assertTrue(String.format("%d of %d tags on one shard", count, TAGS), count > TAGS / 4 && count < TAGS / 2);
+        }
+    }
+
+    @Test
+    public void orderOfShardsDoesNotMatter() {
+        var ring = new ShardRing(List.of("localhost:6379", "localhost:6380"));
+        var reversed = new ShardRing(List.of("localhost:6380", "localhost:6379"));
+
+        for (var i = 0; i < 1000; i++) {
+            var tag = String.format("user%d", i);
+            assertEquals(ring.shard(tag), 1 - reversed.shard(tag));
+        }
+    }
+
+    @Test
+    public void addingShardOnlyMovesTagsToIt() {
+        var ring = new ShardRing(List.of("localhost:6379", "localhost:6380", "localhost:6381"));
+        var grown = new ShardRing(List.of("localhost:6379", "localhost:6380", "localhost:6381", "localhost:6382"));
+        var moved = 0;
+
+        for (var i = 0; i < TAGS; i++) {
+            var tag = String.format("user%d", i);
+            var before = ring.shard(tag);
+            var after = grown.shard(tag);
+
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+
+        assertTrue(String.format("%d of %d tags moved", moved, TAGS), moved < TAGS / 3);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualThreadFanOutTest {
+
+    private VirtualThreadFanOut fanOut;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        fanOut = new VirtualThreadFanOut();
+        fanOut.executor = executor;
+        fanOut.maxInFlight = 2;
+        fanOut.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+        fanOut = null;
+        executor = null;
+    }
+
+    @Test
+    public void mapKeepsOrder() {
+        var result = fanOut.map(List.of(3, 1, 2), item -> {
+            sleep(item * 10);
+            return item * 2;
+        });
+
+        assertEquals(List.of(6, 2, 4), result);
+    }
+
+    @Test
+    public void mapIsCapped() {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+
+        fanOut.map(List.of(1, 2, 3, 4, 5, 6), item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(20);
+            running.decrementAndGet();
+            return item;
+        });
+
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void mapRethrowsTaskException() {
+        try {
+            fanOut.map(List.of(1, 2), item -> {
+                if (item == 2) {
+                    throw new IllegalArgumentException("failed");
+                }
+                return item;
+            });
+            fail("IllegalArgumentException was not thrown");
+        } catch (IllegalArgumentException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
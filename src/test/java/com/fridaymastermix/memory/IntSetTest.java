@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntSetTest {
+
+    private IntSet set;
+
+    @Before
+    public void setup() {
+        set = new IntSet();
+    }
+
+    @After
+    public void teardown() {
+        set = null;
+    }
+
+    @Test
+    public void addKeepsOrder() {
+        set.add(5);
+        set.add(1);
+        set.add(9);
+        set.add(3);
+
+        assertEquals(4, set.size());
+        assertEquals(1, set.get(0));
+        assertEquals(3, set.get(1));
+        assertEquals(5, set.get(2));
+        assertEquals(9, set.get(3));
+    }
+
+    @Test
+    public void addExisting() {
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void addGrows() {
+        for (var i = 0; i < 1000; i++) {
+            set.add(i);
+        }
+
+        assertEquals(1000, set.size());
+        assertTrue(set.contains(999));
+    }
+
+    @Test
+    public void remove() {
+        set.add(1);
+        set.add(2);
+        set.add(3);
+
+        assertTrue(set.remove(2));
+        assertFalse(set.remove(2));
+        assertFalse(set.contains(2));
+        assertEquals(2, set.size());
+        assertEquals(3, set.get(1));
+    }
+
+    @Test
+    public void lower() {
+        set.add(10);
+        set.add(20);
+        set.add(30);
+
+        assertEquals(-1, set.lower(10));
+        assertEquals(0, set.lower(11));
+        assertEquals(1, set.lower(30));
+        assertEquals(2, set.lower(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        set.add(1);
+        set.get(1);
+    }
+}
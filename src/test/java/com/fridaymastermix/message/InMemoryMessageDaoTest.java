@@ -0,0 +1,240 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InMemoryMessageDaoTest {
+
+    private InMemoryMessageDao messageDao;
+
+    @Before
+    public void setup() {
+        messageDao = new InMemoryMessageDao();
+    }
+
+    @After
+    public void teardown() {
+        messageDao = null;
+    }
+
+    @Test
+    public void addAndGet() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        var result = messageDao.get(id);
+
+        assertEquals(id, result.getId());
+        assertEquals("this is a message", result.getMessage());
+        assertEquals("lalle", result.getCreatedBy());
+        assertEquals(result.getCreated(), result.getUpdated());
+    }
+
+    @Test
+    public void versionChangesWithTheList() throws MessageNotFoundException {
+        var empty = messageDao.version(null);
+        var id = messageDao.add("this is a message", "lalle");
+        var added = messageDao.version(null);
+        var kalle = messageDao.version("kalle");
+
+        messageDao.update(id, "lalle", "this is an updated message");
+        var updated = messageDao.version("lalle");
+        messageDao.delete(id, "lalle");
+
+        assertNotEquals(empty, added);
+        assertNotEquals(updated, messageDao.version("lalle"));
+        assertEquals(kalle, messageDao.version("kalle"));
+    }
+
+    @Test
+    public void getMessageDoesNotExist() {
+        assertEquals(Message.NONEXISTING, messageDao.get("message_id"));
+        assertEquals(Message.NONEXISTING, messageDao.get("0"));
+        assertEquals(Message.NONEXISTING, messageDao.get(null));
+    }
+
+    @Test
+    public void exists() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        assertTrue(messageDao.exists(id, "lalle"));
+        assertFalse(messageDao.exists(id, "kalle"));
+        assertFalse(messageDao.exists("message_id", "lalle"));
+    }
+
+    @Test
+    public void messagesWrittenBy() {
+        messageDao.add("first", "lalle");
+        messageDao.add("second", "kalle");
+        messageDao.add("third", "lalle");
+
+        var result = messageDao.messagesWrittenBy("lalle");
+
+        assertEquals(2, result.size());
+        assertEquals("first", result.get(0).getMessage());
+        assertEquals("third", result.get(1).getMessage());
+        assertTrue(messageDao.messagesWrittenBy("nobody").isEmpty());
+    }
+
+    @Test
+    public void all() {
+        messageDao.add("first", "lalle");
+        messageDao.add("second", "kalle");
+
+        assertEquals(2, messageDao.all().size());
+    }
+
+    @Test
+    public void update() throws MessageNotFoundException {
+        var id = messageDao.add("this is a message", "lalle");
+
+        messageDao.update(id, "lalle", "this is an updated message");
+
+        assertEquals("this is an updated message", messageDao.get(id).getMessage());
+    }
+
+    @Test
+    public void updateIfRevision() throws MessageNotFoundException, MessageConflictException {
+        var id = messageDao.add("this is a message", "lalle");
+        var revision = messageDao.get(id).getRevision();
+
+        var updated = messageDao.update(id, "lalle", "this is an updated message", revision);
+
+        assertTrue(updated > revision);
+        assertEquals(updated, messageDao.get(id).getRevision());
+        assertEquals("this is an updated message", messageDao.get(id).getMessage());
+    }
+
+    @Test
+    public void updateIfRevisionConflict() throws MessageNotFoundException {
+        var id = messageDao.add("this is a message", "lalle");
+        var revision = messageDao.get(id).getRevision();
+        messageDao.update(id, "lalle", "this is an updated message");
+
+        try {
+            messageDao.update(id, "lalle", "this is a lost update", revision);
+            fail("MessageConflictException was not thrown");
+        } catch (MessageConflictException e) {
+            assertEquals("this is an updated message", messageDao.get(id).getMessage());
+        }
+    }
+
+    @Test
+    public void updateOfAnotherUser() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        try {
+            messageDao.update(id, "kalle", "this is an updated message");
+            fail("MessageNotFoundException was not thrown");
+        } catch (MessageNotFoundException e) {
+            assertEquals("this is a message", messageDao.get(id).getMessage());
+        }
+    }
+
+    @Test
+    public void updateItemNotFound() {
+        try {
+            messageDao.update("message_id", "lalle", "this is a message");
+            fail("MessageNotFoundException was not thrown");
+        } catch (MessageNotFoundException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void delete() {
+        var id = messageDao.add("this is a message", "lalle");
+        messageDao.add("another message", "lalle");
+
+        assertFalse(messageDao.delete(id, "kalle"));
+        assertTrue(messageDao.delete(id, "lalle"));
+        assertFalse(messageDao.delete(id, "lalle"));
+
+        assertEquals(Message.NONEXISTING, messageDao.get(id));
+        assertEquals(1, messageDao.messagesWrittenBy("lalle").size());
+        assertEquals(1, messageDao.all().size());
+    }
+
+    @Test
+    public void page() throws InvalidCursorException {
+        for (var i = 0; i < 5; i++) {
+            messageDao.add(String.format("message %d", i), i % 2 == 0 ? "lalle" : "kalle");
+        }
+
+        var first = messageDao.page(null, null, 2);
+        assertEquals("message 4", first.getMessages().get(0).getMessage());
+        assertEquals("message 3", first.getMessages().get(1).getMessage());
+
+        var second = messageDao.page(null, first.getNext(), 2);
+        assertEquals("message 2", second.getMessages().get(0).getMessage());
+
+        var last = messageDao.page(null, second.getNext(), 2);
+        assertEquals(1, last.getMessages().size());
+        assertNull(last.getNext());
+    }
+
+    @Test
+    public void pageByUser() throws InvalidCursorException {
+        for (var i = 0; i < 5; i++) {
+            messageDao.add(String.format("message %d", i), i % 2 == 0 ? "lalle" : "kalle");
+        }
+
+        var first = messageDao.page("lalle", null, 2);
+        assertEquals("message 4", first.getMessages().get(0).getMessage());
+        assertEquals("message 2", first.getMessages().get(1).getMessage());
+
+        var second = messageDao.page("lalle", first.getNext(), 2);
+        assertEquals(1, second.getMessages().size());
+        assertEquals("message 0", second.getMessages().get(0).getMessage());
+        assertNull(second.getNext());
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void pageInvalidCursor() throws InvalidCursorException {
+        messageDao.page(null, "not a cursor", 2);
+    }
+
+    @Test
+    public void scan() {
+        for (var i = 0; i < 1200; i++) {
+            messageDao.add("message", i % 2 == 0 ? "lalle" : "kalle");
+        }
+
+        var batches = new ArrayList<List<Message>>();
+        messageDao.scan(null, batches::add);
+        assertEquals(3, batches.size());
+        assertEquals(1200, batches.stream().mapToInt(List::size).sum());
+
+        var userBatches = new ArrayList<List<Message>>();
+        messageDao.scan("lalle", userBatches::add);
+        assertEquals(2, userBatches.size());
+        assertEquals(600, userBatches.stream().mapToInt(List::size).sum());
+    }
+}
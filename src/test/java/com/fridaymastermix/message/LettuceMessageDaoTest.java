@@ -0,0 +1,178 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.HashTags;
+import com.fridaymastermix.database.ReactiveRedisFactory;
+import com.fridaymastermix.database.RedisScript;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LettuceMessageDaoTest {
+
+    private static final RedisScript ADD = new RedisScript("message-add");
+    private static final RedisScript UPDATE = new RedisScript("message-update");
+    private static final RedisScript DELETE = new RedisScript("message-delete");
+
+    private static final Map<String, String> MESSAGE_HASH = Map.of(
+            "id", "message_id",
+            "message", "this is a message",
+            "createdBy", "lalle",
+            "created", "1",
+            "updated", "1");
+
+    private LettuceMessageDao messageDao;
+    private RedisReactiveCommands<String, String> redis;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        redis = mock(RedisReactiveCommands.class);
+        var factory = mock(ReactiveRedisFactory.class);
+        when(factory.redis()).thenReturn(redis);
+
+        messageDao = new LettuceMessageDao();
+        messageDao.redisFactory = factory;
+        messageDao.ids = new SnowflakeIdGenerator();
+    }
+
+    @After
+    public void teardown() {
+        messageDao = null;
+        redis = null;
+    }
+
+    @Test
+    public void get() {
+        when(redis.hgetall("message:message_id")).thenReturn(Mono.just(MESSAGE_HASH));
+
+        var result = messageDao.get("message_id").block();
+
+        assertEquals(new Message("message_id", "this is a message", "lalle", 1, 1), result);
+    }
+
+    @Test
+    public void getMessageDoesNotExist() {
+        when(redis.hgetall("message:message_id")).thenReturn(Mono.just(Map.of()));
+
+        var result = messageDao.get("message_id").block();
+
+        assertEquals(Message.NONEXISTING, result);
+    }
+
+    @Test
+    public void all() {
+        when(redis.smembers("messages:all")).thenReturn(Flux.just("message_id", "message_id_2"));
+        when(redis.hgetall("message:message_id")).thenReturn(Mono.just(MESSAGE_HASH));
+        when(redis.hgetall("message:message_id_2")).thenReturn(Mono.just(Map.of()));
+
+        var result = messageDao.all().collectList().block();
+
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    public void addUsesScriptAndTagsId() {
+        var keys = ArgumentCaptor.forClass(String[].class);
+        when(redis.<Object>evalsha(eq(ADD.getSha()), eq(ScriptOutputType.INTEGER), keys.capture(), any())).thenReturn(Flux.<Object>just(1L));
+
+        var result = messageDao.add("this is a message", "lalle").block();
+
+        assertNotNull(result);
+        assertEquals(HashTags.user("lalle"), HashTags.message(result));
+        assertEquals("message:" + result, keys.getValue()[0]);
+        assertEquals("user:lalle:messages", keys.getValue()[1]);
+        assertEquals(MessageKeys.version(null), keys.getValue()[5]);
+        assertEquals(MessageKeys.version("lalle"), keys.getValue()[6]);
+    }
+
+    @Test
+    public void updateReturnsNewRevision() {
+        var keys = new String[] {"message:message_id", MessageKeys.version(null), MessageKeys.version("lalle")};
+        when(redis.<Object>evalsha(eq(UPDATE.getSha()), eq(ScriptOutputType.MULTI), eq(keys), any())).thenReturn(Flux.<Object>just("lalle", 2L));
+
+        var result = messageDao.update("message_id", "lalle", "this is a new message").block();
+
+        assertEquals(Long.valueOf(2), result);
+    }
+
+    @Test
+    public void updateItemNotFound() {
+        when(redis.<Object>evalsha(eq(UPDATE.getSha()), eq(ScriptOutputType.MULTI), any(String[].class), any())).thenReturn(Flux.<Object>just(0L));
+
+        try {
+            messageDao.update("message_id", "lalle", "this is a message").block();
+            fail("MessageNotFoundException was not signaled");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof MessageNotFoundException);
+        }
+    }
+
+    @Test
+    public void updateAtAnotherRevision() {
+        when(redis.<Object>evalsha(eq(UPDATE.getSha()), eq(ScriptOutputType.MULTI), any(String[].class), any())).thenReturn(Flux.<Object>just(-1L));
+
+        try {
+            messageDao.update("message_id", "lalle", "this is a message", 1).block();
+            fail("MessageConflictException was not signaled");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof MessageConflictException);
+        }
+    }
+
+    @Test
+    public void updateLoadsMissingScript() {
+        when(redis.<Object>evalsha(eq(UPDATE.getSha()), eq(ScriptOutputType.MULTI), any(String[].class), any()))
+                .thenReturn(Flux.error(new RedisNoScriptException("NOSCRIPT No matching script")), Flux.<Object>just("lalle", 2L));
+        when(redis.scriptLoad(anyString())).thenReturn(Mono.just(UPDATE.getSha()));
+
+        var result = messageDao.update("message_id", "lalle", "this is a new message").block();
+
+        assertEquals(Long.valueOf(2), result);
+        verify(redis).scriptLoad(anyString());
+    }
+
+    @Test
+    public void deleteUsesScript() {
+        when(redis.<Object>evalsha(eq(DELETE.getSha()), eq(ScriptOutputType.INTEGER), any(String[].class), any())).thenReturn(Flux.<Object>just(3L));
+
+        var result = messageDao.delete("message_id", "lalle").block();
+
+        assertTrue(result);
+    }
+}
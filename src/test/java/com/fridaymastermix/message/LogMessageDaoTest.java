@@ -0,0 +1,191 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogMessageDaoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogMessageDao messageDao;
+
+    @Before
+    public void setup() throws IOException {
+        messageDao = open();
+    }
+
+    @After
+    public void teardown() {
+        messageDao.destroy();
+        messageDao = null;
+    }
+
+    private LogMessageDao open() throws IOException {
+        var dao = new LogMessageDao();
+        dao.ids = new SnowflakeIdGenerator();
+        dao.directory = folder.getRoot().getPath();
+        dao.segmentSize = 1 << 16;
+        dao.afterPropertiesSet();
+        return dao;
+    }
+
+    @Test
+    public void addAndGet() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        var result = messageDao.get(id);
+
+        assertEquals(id, result.getId());
+        assertEquals("this is a message", result.getMessage());
+        assertEquals("lalle", result.getCreatedBy());
+        assertTrue(messageDao.exists(id, "lalle"));
+        assertFalse(messageDao.exists(id, "kalle"));
+    }
+
+    @Test
+    public void getMessageDoesNotExist() {
+        assertEquals(Message.NONEXISTING, messageDao.get("message_id"));
+    }
+
+    @Test
+    public void update() throws MessageNotFoundException {
+        var id = messageDao.add("this is a message", "lalle");
+
+        messageDao.update(id, "lalle", "this is an updated message");
+
+        var result = messageDao.get(id);
+        assertEquals("this is an updated message", result.getMessage());
+        assertEquals("lalle", result.getCreatedBy());
+    }
+
+    @Test
+    public void updateIfRevision() throws MessageNotFoundException, MessageConflictException {
+        var id = messageDao.add("this is a message", "lalle");
+        var revision = messageDao.get(id).getRevision();
+
+        var updated = messageDao.update(id, "lalle", "this is an updated message", revision);
+
+        assertTrue(updated > revision);
+        assertEquals(updated, messageDao.get(id).getRevision());
+        assertEquals("this is an updated message", messageDao.get(id).getMessage());
+    }
+
+    @Test
+    public void updateAllReturnsRevisions() {
+        var id = messageDao.add("this is a message", "lalle");
+        messageDao.add("this is another message", "lalle");
+
+        var result = messageDao.updateAll(List.of(new Message(id, "this is an updated message", "lalle", 1, 1),
+                new Message("message_id", "this is a message", "lalle", 1, 1)));
+
+        assertEquals(Map.of(id, messageDao.get(id).getRevision()), result);
+    }
+
+    @Test
+    public void updateIfRevisionConflict() throws MessageNotFoundException {
+        var id = messageDao.add("this is a message", "lalle");
+        var revision = messageDao.get(id).getRevision();
+        messageDao.update(id, "lalle", "this is an updated message");
+
+        try {
+            messageDao.update(id, "lalle", "this is a lost update", revision);
+            fail("MessageConflictException was not thrown");
+        } catch (MessageConflictException e) {
+            assertEquals("this is an updated message", messageDao.get(id).getMessage());
+        }
+    }
+
+    @Test
+    public void updateOfAnotherUser() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        try {
+            messageDao.update(id, "kalle", "this is an updated message");
+            fail("MessageNotFoundException was not thrown");
+        } catch (MessageNotFoundException e) {
+            assertEquals("this is a message", messageDao.get(id).getMessage());
+        }
+    }
+
+    @Test
+    public void updateItemNotFound() {
+        try {
+            messageDao.update("message_id", "lalle", "this is a message");
+            fail("MessageNotFoundException was not thrown");
+        } catch (MessageNotFoundException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void delete() {
+        var id = messageDao.add("this is a message", "lalle");
+
+        assertFalse(messageDao.delete(id, "kalle"));
+        assertTrue(messageDao.delete(id, "lalle"));
+
+        assertEquals(Message.NONEXISTING, messageDao.get(id));
+        assertTrue(messageDao.all().isEmpty());
+        assertTrue(messageDao.messagesWrittenBy("lalle").isEmpty());
+    }
+
+    @Test
+    public void page() throws InvalidCursorException {
+        for (var i = 0; i < 3; i++) {
+            messageDao.add(String.format("message %d", i), "lalle");
+        }
+
+        var first = messageDao.page("lalle", null, 2);
+        assertEquals(2, first.getMessages().size());
+
+        var second = messageDao.page("lalle", first.getNext(), 2);
+        assertEquals(1, second.getMessages().size());
+        assertNull(second.getNext());
+    }
+
+    @Test
+    public void reopen() throws IOException, MessageNotFoundException {
+        var kept = messageDao.add("this is a message", "lalle");
+        var deleted = messageDao.add("this is another message", "lalle");
+        messageDao.update(kept, "lalle", "this is an updated message");
+        messageDao.delete(deleted, "lalle");
+        messageDao.destroy();
+
+        messageDao = open();
+
+        assertEquals("this is an updated message", messageDao.get(kept).getMessage());
+        assertEquals(Message.NONEXISTING, messageDao.get(deleted));
+        assertEquals(1, messageDao.messagesWrittenBy("lalle").size());
+    }
+}
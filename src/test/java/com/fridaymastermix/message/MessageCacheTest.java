@@ -0,0 +1,190 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageCacheTest {
+    private static final Message MESSAGE = new Message("message_id", "this is a message", "lalle", 1, 1);
+
+    private MessageCache cache;
+    private RedisPubSub pubSub;
+    private Function<String, Message> loader;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        pubSub = mock(RedisPubSub.class);
+        loader = mock(Function.class);
+
+        cache = new MessageCache();
+        cache.pubSub = pubSub;
+        cache.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        cache = null;
+        pubSub = null;
+        loader = null;
+    }
+
+    @Test
+    public void getLoadsOnce() {
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+
+        cache.get("message_id", loader);
+        var result = cache.get("message_id", loader);
+
+        assertEquals(MESSAGE, result);
+        verify(loader, times(1)).apply("message_id");
+    }
+
+    @Test
+    public void getDoesNotCacheMissingMessages() {
+        when(loader.apply("message_id")).thenReturn(Message.NONEXISTING);
+
+        cache.get("message_id", loader);
+        var result = cache.get("message_id", loader);
+
+        assertSame(Message.NONEXISTING, result);
+        verify(loader, times(2)).apply("message_id");
+    }
+
+    @Test
+    public void invalidate() {
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+
+        cache.get("message_id", loader);
+        cache.invalidate("message_id");
+        cache.get("message_id", loader);
+
+        verify(loader, times(2)).apply("message_id");
+        verify(pubSub).publish("messages:invalidations", "message_id");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invalidatedByOtherNode() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(pubSub).subscribe(eq("messages:invalidations"), listener.capture());
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+
+        cache.get("message_id", loader);
+        listener.getValue().accept("message_id");
+        cache.get("message_id", loader);
+
+        verify(loader, times(2)).apply("message_id");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invalidatedAfterReconnect() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(pubSub).subscribe(eq("messages:invalidations"), listener.capture());
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+
+        cache.get("message_id", loader);
+        listener.getValue().accept(RedisPubSub.ALL);
+        cache.get("message_id", loader);
+
+        verify(loader, times(2)).apply("message_id");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getAllLoadsMissesOnce() {
+        Function<Collection<String>, List<Message>> bulkLoader = mock(Function.class);
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+        when(bulkLoader.apply(List.of("missing"))).thenReturn(List.of());
+
+        cache.get("message_id", loader);
+        var result = cache.getAll(List.of("message_id", "missing"), bulkLoader);
+
+        assertEquals(Map.of("message_id", MESSAGE), result);
+        verify(bulkLoader).apply(List.of("missing"));
+    }
+
+    /**
+     * Creates the cache again as on a node with redis replicas that lag a minute behind.
+     */
+    private void replicasLag() {
+        var redisFactory = mock(RedisFactory.class);
+        when(redisFactory.replicaLagMillis()).thenReturn(60_000L);
+        pubSub = mock(RedisPubSub.class);
+
+        cache = new MessageCache();
+        cache.pubSub = pubSub;
+        cache.redisFactory = redisFactory;
+        cache.afterPropertiesSet();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void messageLoadedWithinReplicaLagOfInvalidationIsNotCached() {
+        replicasLag();
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(pubSub).subscribe(eq("messages:invalidations"), listener.capture());
+        when(loader.apply("message_id")).thenReturn(MESSAGE);
+        when(loader.apply("other_id")).thenReturn(MESSAGE);
+
+        listener.getValue().accept("message_id");
+        var result = cache.get("message_id", loader);
+        cache.get("message_id", loader);
+        cache.get("other_id", loader);
+        cache.get("other_id", loader);
+
+        assertEquals(MESSAGE, result);
+        verify(loader, times(2)).apply("message_id");
+        verify(loader, times(1)).apply("other_id");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getAllReturnsButDoesNotCacheMessagesWithinReplicaLag() {
+        replicasLag();
+        Function<Collection<String>, List<Message>> bulkLoader = mock(Function.class);
+        when(bulkLoader.apply(List.of("message_id"))).thenReturn(List.of(MESSAGE));
+
+        cache.invalidate("message_id");
+        var result = cache.getAll(List.of("message_id"), bulkLoader);
+        cache.getAll(List.of("message_id"), bulkLoader);
+
+        assertEquals(Map.of("message_id", MESSAGE), result);
+        verify(bulkLoader, times(2)).apply(List.of("message_id"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageCodecTest {
+
+    @Test
+    public void roundTrip() {
+        var value = MessageCodec.encode("this is a message ✓", "lalle", 1571414400, 1571414460, 7);
+
+        var result = MessageCodec.decode("message_id", value);
+
+        assertEquals(new Message("message_id", "this is a message ✓", "lalle", 1571414400, 1571414460, 7), result);
+    }
+
+    @Test
+    public void timestampsAfter2038() {
+        var created = 4102444800L;
+        var result = MessageCodec.decode("message_id", MessageCodec.encode("a message", "lalle", created, created + 1, 0));
+
+        assertEquals(created, result.getCreated());
+        assertEquals(created + 1, result.getUpdated());
+    }
+
+    @Test
+    public void updatedBeforeCreated() {
+        var result = MessageCodec.decode("message_id", MessageCodec.encode("a message", "lalle", 100, 98, 0));
+
+        assertEquals(98, result.getUpdated());
+    }
+
+    @Test
+    public void compactLayout() {
+        var value = MessageCodec.encode("a message", "lalle", 1571414400, 1571414400, 0);
+
+        // version, five byte created, one byte delta, length and author, length and content, one byte revision
+        assertEquals(1 + 5 + 1 + 1 + 5 + 1 + 9 + 1, value.length);
+    }
+
+    @Test
+    public void missingValue() {
+        assertSame(Message.NONEXISTING, MessageCodec.decode("message_id", null));
+    }
+
+    @Test
+    public void unknownVersion() {
+        var value = MessageCodec.encode("a message", "lalle", 1, 1, 0);
+        value[0] = 3;
+
+        assertSame(Message.ERROR, MessageCodec.decode("message_id", value));
+    }
+
+    @Test
+    public void version1HasRevision0() {
+        var value = MessageCodec.encode("a message", "lalle", 1, 1, 0);
+        var version1 = Arrays.copyOf(value, value.length - 1);
+        version1[0] = 1;
+
+        var result = MessageCodec.decode("message_id", version1);
+
+        assertEquals(new Message("message_id", "a message", "lalle", 1, 1), result);
+    }
+
+    @Test
+    public void truncatedValue() {
+        var value = MessageCodec.encode("a message", "lalle", 1, 1, 0);
+
+        assertSame(Message.ERROR, MessageCodec.decode("message_id", Arrays.copyOf(value, value.length - 1)));
+    }
+}
@@ -17,16 +17,44 @@
 
 package com.fridaymastermix.message;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.ResponseCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,6 +70,9 @@ public class MessageControllerTest {
 
         messageController = new MessageController();
         messageController.messages = messageService;
+        messageController.objectMapper = new ObjectMapper();
+
+        messageController.responses = serializing(messageController.objectMapper);
     }
 
     @After
@@ -51,6 +82,190 @@ public class MessageControllerTest {
         messageController = null;
     }
 
+    @Test
+    public void getMessages() throws InvalidCursorException, IOException {
+        var message = new Message("message_id", "this is a message");
+        when(messageService.all()).thenReturn(List.of(message));
+
+        var result = json(messageController.getMessages(null, null, null, webRequest(null)));
+
+        assertEquals(1, result.get("messages").size());
+        assertEquals("message_id", result.get("messages").get(0).get("id").asText());
+        assertNull(result.get("next"));
+        verify(messageService, never()).page(null, null, 50);
+    }
+
+    @Test
+    public void getMessagesPage() throws InvalidCursorException, IOException {
+        var message = new Message("message_id", "this is a message");
+        when(messageService.page("lalle", "cursor", 10)).thenReturn(new MessagePage(List.of(message), "next"));
+
+        var result = json(messageController.getMessages("lalle", 10, "cursor", webRequest(null)));
+
+        assertEquals("message_id", result.get("messages").get(0).get("id").asText());
+        assertEquals("next", result.get("next").asText());
+    }
+
+    @Test
+    public void getMessagesDefaultPageSize() throws InvalidCursorException {
+        when(messageService.page(null, "cursor", 50)).thenReturn(new MessagePage(List.of(), null));
+
+        messageController.getMessages(null, null, "cursor", webRequest(null));
+
+        verify(messageService).page(null, "cursor", 50);
+    }
+
+    @Test
+    public void getMessagesInvalidLimit() {
+        try {
+            messageController.getMessages(null, 0, null, webRequest(null));
+            fail("ResponseStatusException was not thrown");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void getMessagesInvalidCursor() throws InvalidCursorException {
+        when(messageService.page(null, "cursor", 50)).thenThrow(new InvalidCursorException("DANGER !!!!!! TERROR HORROR"));
+
+        try {
+            messageController.getMessages(null, null, "cursor", webRequest(null));
+            fail("ResponseStatusException was not thrown");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void getMessagesHasVersionETag() {
+        when(messageService.version("lalle")).thenReturn("7");
+        when(messageService.writtenBy("lalle")).thenReturn(List.of());
+        var webRequest = webRequest(null);
+
+        var result = messageController.getMessages("lalle", null, null, webRequest);
+
+        assertNotNull(result);
+        assertEquals("\"7\"", ((MockHttpServletResponse) webRequest.getResponse()).getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void getMessagesNotModified() {
+        when(messageService.version(null)).thenReturn("7");
+        var webRequest = webRequest("\"7\"");
+
+        var result = messageController.getMessages(null, null, null, webRequest);
+
+        assertNull(result);
+        assertEquals(HttpStatus.NOT_MODIFIED.value(), ((MockHttpServletResponse) webRequest.getResponse()).getStatus());
+        verify(messageService, never()).all();
+    }
+
+    @Test
+    public void getMessage() {
+        var message = new Message("message_id", "this is a message", "lalle", 1, 2);
+        when(messageService.describe("message_id")).thenReturn(message);
+
+        var result = messageController.getMessage("message_id");
+
+        assertEquals(message, result.getBody());
+        assertEquals(2000, result.getHeaders().getLastModified());
+        assertNotNull(result.getHeaders().getETag());
+        verify(messageService).describe("message_id");
+    }
+
+    @Test
+    public void getMessageETagChangesWithRevision() {
+        when(messageService.describe("message_id")).thenReturn(new Message("message_id", "this is a message", "lalle", 1, 2, 1));
+        var first = messageController.getMessage("message_id").getHeaders().getETag();
+        when(messageService.describe("message_id")).thenReturn(new Message("message_id", "this is a new message", "lalle", 1, 2, 2));
+        var second = messageController.getMessage("message_id").getHeaders().getETag();
+
+        assertNotEquals(first, second);
+        assertEquals("\"2\"", second);
+    }
+
+    @Test
+    public void getMessageNotFound() {
+        when(messageService.describe("message_id")).thenReturn(Message.NONEXISTING);
+
+        try {
+            messageController.getMessage("message_id");
+            fail("ResponseStatusException was not thrown");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.NOT_FOUND, e.getStatus());
+        }
+    }
+
+    /**
+     * Returns a response cache that serializes every response without caching it.
+     */
+    @SuppressWarnings("unchecked")
+    private static ResponseCache serializing(ObjectMapper objectMapper) {
+        var responses = mock(ResponseCache.class);
+        when(responses.respond(any(), any(), any(), any())).thenAnswer(invocation -> {
+            var loader = (Supplier<Object>) invocation.getArgument(3);
+            return ResponseEntity.ok(objectMapper.writeValueAsBytes(loader.get()));
+        });
+        return responses;
+    }
+
+    private JsonNode json(ResponseEntity<byte[]> response) throws IOException {
+        return messageController.objectMapper.readTree(response.getBody());
+    }
+
+    private static ServletWebRequest webRequest(String ifNoneMatch) {
+        var request = new MockHttpServletRequest("GET", "/messages");
+
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void streamMessages() throws IOException {
+        var first = new Message("message_id", "this is a message", "lalle", 1, 1);
+        var second = new Message("message_id_2", "this is another message", "lalle", 2, 2);
+        doAnswer(invocation -> {
+            Consumer<List<Message>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(first));
+            consumer.accept(List.of(second));
+            return null;
+        }).when(messageService).scan(eq("lalle"), any(Consumer.class));
+
+        var response = messageController.streamMessages("lalle");
+        var output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+
+        var lines = output.toString("UTF-8").split("\n");
+        var mapper = new ObjectMapper();
+        assertEquals(2, lines.length);
+        assertEquals("message_id", mapper.readTree(lines[0]).get("id").asText());
+        assertEquals("message_id_2", mapper.readTree(lines[1]).get("id").asText());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void streamMessageArray() throws IOException {
+        var message = new Message("message_id", "this is a message", "lalle", 1, 1);
+        doAnswer(invocation -> {
+            Consumer<List<Message>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(message, message));
+            return null;
+        }).when(messageService).scan(eq(null), any(Consumer.class));
+
+        var response = messageController.streamMessageArray(null);
+        var output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+
+        var json = new ObjectMapper().readTree(output.toByteArray());
+        assertEquals(2, json.get("messages").size());
+        assertEquals("this is a message", json.get("messages").get(0).get("message").asText());
+    }
+
     @Test
     public void postMessage() throws UserNotFoundException {
         when(request.getRequestURI()).thenReturn("http://example.org/messages?user=lalle");
@@ -61,6 +276,41 @@ public class MessageControllerTest {
         verify(messageService).create("this is a message", "lalle");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void postMessageBatch() {
+        when(request.getRequestURI()).thenReturn("/messages/batch");
+        when(messageService.createAll(any(List.class))).thenReturn(Arrays.asList("id_1", null));
+
+        var response = messageController.postMessageBatch(List.of(
+                new Message(null, "first", null, 0, 0),
+                new Message(null, "", null, 0, 0),
+                new Message(null, "third", "kalle", 0, 0)), "lalle", request);
+
+        var results = response.getBody().getResults();
+        assertEquals(HttpStatus.MULTI_STATUS, response.getStatusCode());
+        assertEquals(201, results.get(0).getStatus());
+        assertEquals("id_1", results.get(0).getId());
+        assertEquals("/messages/id_1", results.get(0).getLocation());
+        assertEquals(400, results.get(1).getStatus());
+        assertEquals(406, results.get(2).getStatus());
+        verify(messageService).createAll(List.of(
+                new Message(null, "first", "lalle", 0, 0),
+                new Message(null, "third", "kalle", 0, 0)));
+    }
+
+    @Test
+    public void postMessageBatchTooLarge() {
+        var batch = Collections.nCopies(1001, new Message(null, "a message", "lalle", 0, 0));
+
+        try {
+            messageController.postMessageBatch(batch, null, request);
+            fail("ResponseStatusException was not thrown");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+    }
+
     @Test
     public void deleteMessage() {
         when(messageService.delete("message_id", "lalle")).thenReturn(true);
@@ -84,21 +334,102 @@ public class MessageControllerTest {
         var message = new Message("message_id", "this is a message");
         when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
 
-        var result = messageController.putMessage( "message_id", message, request);
+        var result = messageController.putMessage( "message_id", message, null, request);
         var expected = HttpStatus.OK;
         assertEquals(expected, result.getStatusCode());
         verify(messageService).update(message);
     }
 
+    @Test
+    public void updateMessageIfMatch() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("message_id", "this is a message");
+        when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
+        when(messageService.update(message, 3)).thenReturn(4L);
+
+        var result = messageController.putMessage("message_id", message, "\"3\"", request);
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("\"4\"", result.getHeaders().getETag());
+        verify(messageService, never()).update(message);
+    }
+
+    @Test
+    public void updateMessageIfMatchAny() throws MessageNotFoundException {
+        var message = new Message("message_id", "this is a message");
+        when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
+
+        var result = messageController.putMessage("message_id", message, "*", request);
+
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        verify(messageService).update(message);
+    }
+
+    @Test
+    public void updateMessageConflict() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("message_id", "this is a message");
+        when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
+        when(messageService.update(message, 3)).thenThrow(new MessageConflictException("changed"));
+
+        var result = messageController.putMessage("message_id", message, "\"3\"", request);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, result.getStatusCode());
+    }
+
+    @Test
+    public void updateMessageIfMatchWeakTag() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("message_id", "this is a message");
+        when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
+
+        var result = messageController.putMessage("message_id", message, "W/\"3\"", request);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, result.getStatusCode());
+        verify(messageService, never()).update(any(Message.class), anyLong());
+    }
+
+    @Test
+    public void updateMessageIfMatchNotARevision() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("message_id", "this is a message");
+        when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
+
+        var result = messageController.putMessage("message_id", message, "\"abc\"", request);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, result.getStatusCode());
+        verify(messageService, never()).update(any(Message.class), anyLong());
+    }
+
     @Test
     public void updateMessageNonExistingMessage() throws MessageNotFoundException {
         var message = new Message("message_id", "this is a message");
         when(request.getRequestURI()).thenReturn("http://example.org/messages/message_id");
         doThrow(new MessageNotFoundException("DANGER !!!!!! TERROR HORROR")).when(messageService).update(message);
 
-        var result = messageController.putMessage("message_id", message, request);
+        var result = messageController.putMessage("message_id", message, null, request);
         var expected = HttpStatus.NOT_FOUND;
         assertEquals(expected, result.getStatusCode());
 
     }
+
+    @Test
+    public void getMessagesById() {
+        var message = new Message("message_id", "this is a message");
+        when(messageService.describeAll(List.of("message_id", "missing"))).thenReturn(Map.of("message_id", message));
+
+        var result = messageController.getMessagesById(List.of("message_id", " missing", "message_id"));
+
+        assertEquals(List.of(message), result.getMessages());
+        assertEquals(List.of("missing"), result.getMissing());
+    }
+
+    @Test
+    public void getMessagesByIdTooManyIds() {
+        var ids = IntStream.range(0, 1001).mapToObj(i -> "message_id_" + i).collect(Collectors.toList());
+
+        try {
+            messageController.getMessagesById(ids);
+            fail("ResponseStatusException was not thrown");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+        verify(messageService, never()).describeAll(any());
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.RedisFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Transaction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageMigrationTest {
+
+    private static final Map<String, String> MESSAGE_HASH = Map.of(
+            "id", "message_id",
+            "message", "this is a message",
+            "createdBy", "lalle",
+            "created", "1",
+            "updated", "2");
+
+    private MessageMigration migration;
+    private Jedis redis;
+    private Pipeline pipeline;
+    private Transaction transaction;
+
+    @Before
+    public void setup() {
+        migration = new MessageMigration();
+        redis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
+        transaction = mock(Transaction.class);
+
+        var factory = mock(RedisFactory.class);
+        migration.redisFactory = factory;
+        when(factory.redis()).thenReturn(redis);
+        when(factory.redis(anyInt())).thenReturn(redis);
+        when(factory.shards()).thenReturn(1);
+        when(redis.pipelined()).thenReturn(pipeline);
+        when(redis.multi()).thenReturn(transaction);
+    }
+
+    @After
+    public void teardown() {
+        migration = null;
+        redis = null;
+        pipeline = null;
+        transaction = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<Map<String, String>> response(Map<String, String> hash) {
+        Response<Map<String, String>> response = mock(Response.class);
+        when(response.get()).thenReturn(hash);
+        return response;
+    }
+
+    private static byte[] key(String id) {
+        return String.format("msg:%s", id).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void migrate() {
+        when(redis.sscan(eq("messages:all"), eq("0"), any(ScanParams.class))).thenReturn(new ScanResult<>("0", List.of("message_id", "message_id_2")));
+        var hash = response(MESSAGE_HASH);
+        var converted = response(Map.of());
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_2")).thenReturn(converted);
+        when(transaction.exec()).thenReturn(List.of("OK", 1L));
+
+        migration.migrate();
+
+        verify(redis).watch("message:message_id", "message:message_id_2");
+        verify(transaction).set(key("message_id"), MessageCodec.encode("this is a message", "lalle", 1, 2, 0));
+        verify(transaction).del("message:message_id");
+        assertEquals(1L, migration.describe().get("converted"));
+        assertEquals(1L, migration.describe().get("skipped"));
+    }
+
+    @Test
+    public void migrateNothingToConvert() {
+        when(redis.sscan(eq("messages:all"), eq("0"), any(ScanParams.class))).thenReturn(new ScanResult<>("0", List.of("message_id")));
+        var converted = response(Map.of());
+        when(pipeline.hgetAll("message:message_id")).thenReturn(converted);
+
+        migration.migrate();
+
+        verify(redis).unwatch();
+        verify(redis, never()).multi();
+        assertEquals(1L, migration.describe().get("skipped"));
+    }
+
+    @Test
+    public void convertRetriesConflicts() {
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(anyString())).thenReturn(hash);
+        when(transaction.exec()).thenReturn(null);
+
+        migration.convert(redis, List.of("message_id"), 3);
+
+        verify(transaction, times(3)).exec();
+        assertEquals(0L, migration.describe().get("converted"));
+        assertEquals(1L, migration.describe().get("conflicts"));
+    }
+}
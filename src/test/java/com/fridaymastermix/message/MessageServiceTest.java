@@ -17,17 +17,32 @@
 
 package com.fridaymastermix.message;
 
-import com.fridaymastermix.user.UserDao;
+import com.fridaymastermix.ResponseCache;
+import com.fridaymastermix.database.RedisPubSub;
+import com.fridaymastermix.user.KnownUsers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,22 +50,36 @@ public class MessageServiceTest {
 
     private MessageService messageService;
     private MessageDao messageDao;
-    private UserDao userDao;
+    private KnownUsers knownUsers;
+    private RedisPubSub pubSub;
+    private ResponseCache responses;
 
     @Before
     public void setup() {
         messageService = new MessageService();
         messageDao = mock(MessageDao.class);
-        userDao = mock(UserDao.class);
+        knownUsers = mock(KnownUsers.class);
+        pubSub = mock(RedisPubSub.class);
+
+        var cache = new MessageCache();
+        cache.pubSub = pubSub;
+        cache.afterPropertiesSet();
 
         messageService.messageDao = messageDao;
-        messageService.userDao = userDao;
+        messageService.knownUsers = knownUsers;
+        messageService.cache = cache;
+
+        responses = mock(ResponseCache.class);
+        messageService.responses = responses;
+        messageService.writeBehind = new MessageWriteBehind();
     }
 
     @After
     public void teardown() {
         messageService = null;
         messageDao = null;
+        pubSub = null;
+        responses = null;
     }
 
     @Test
@@ -59,6 +88,18 @@ public class MessageServiceTest {
         verify(messageDao).get("bestOfIds");
     }
 
+    @Test
+    public void describeIsCached() {
+        var message = new Message("bestOfIds", "this is a message", "lalle", 1, 1);
+        when(messageDao.get("bestOfIds")).thenReturn(message);
+
+        messageService.describe("bestOfIds");
+        var result = messageService.describe("bestOfIds");
+
+        assertEquals(message, result);
+        verify(messageDao, times(1)).get("bestOfIds");
+    }
+
     @Test
     public void describeNoMatch() {
         messageService.describe("bestOfIds");
@@ -89,26 +130,201 @@ public class MessageServiceTest {
         verify(messageDao).all();
     }
 
+    @Test
+    public void page() throws InvalidCursorException {
+        messageService.page("lalle", "cursor", 10);
+        verify(messageDao).page("lalle", "cursor", 10);
+    }
+
     @Test
     public void create() throws UserNotFoundException {
+        when(messageDao.addIfUserExists(eq("this is a message"), eq("lalle"), any(), any())).thenReturn("id");
+
+        var result = messageService.create("this is a message", "lalle");
+
+        assertEquals("id", result);
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void createChecksUserWithKnownUsers() throws UserNotFoundException {
+        when(knownUsers.mightExist("lalle")).thenReturn(true);
+        when(knownUsers.exists("lalle")).thenReturn(true);
+        when(messageDao.addIfUserExists(eq("this is a message"), eq("lalle"), any(), any())).thenAnswer(invocation ->
+                ((Predicate<String>) invocation.getArgument(2)).test("lalle") &&
+                        ((Predicate<String>) invocation.getArgument(3)).test("lalle") ? "id" : null);
+
         messageService.create("this is a message", "lalle");
-        verify(userDao).get("lalle");
-        verify(messageDao).add("this is a message", "lalle");
+
+        verify(knownUsers).mightExist("lalle");
+        verify(knownUsers).exists("lalle");
+    }
+
+    @Test
+    public void createAll() {
+        var first = new Message(null, "first", "lalle", 0, 0);
+        var second = new Message(null, "second", "kalle", 0, 0);
+        var third = new Message(null, "third", "lalle", 0, 0);
+        when(knownUsers.existing(Set.of("lalle", "kalle"))).thenReturn(Set.of("lalle"));
+        when(messageDao.addAll(List.of(first, third))).thenReturn(List.of("id_1", "id_3"));
+
+        var result = messageService.createAll(List.of(first, second, third));
+
+        assertEquals(Arrays.asList("id_1", null, "id_3"), result);
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test
+    public void createAllUnknownUsers() {
+        var message = new Message(null, "first", "lalle", 0, 0);
+        when(knownUsers.existing(Set.of("lalle"))).thenReturn(Set.of());
+        when(messageDao.addAll(List.of())).thenReturn(List.of());
+
+        var result = messageService.createAll(List.of(message));
+
+        assertEquals(Collections.singletonList(null), result);
+        verify(responses, never()).invalidate(any());
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void createUnknownUser() throws UserNotFoundException {
+        when(messageDao.addIfUserExists(eq("this is a message"), eq("lalle"), any(), any())).thenReturn(null);
+
+        messageService.create("this is a message", "lalle");
+        fail("UserNotFoundException was not thrown");
     }
 
     @Test
     public void update() throws MessageNotFoundException {
         var message = new Message("an id", "this is a test", "lalle", 0, 1);
+        when(messageDao.get("an id")).thenReturn(message);
+
         messageService.update(message);
-        verify(messageDao).update(message.getId(), message.getMessage());
+        verify(messageDao).update(message.getId(), "lalle", message.getMessage());
+        verify(pubSub).publish("messages:invalidations", "an id");
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test
+    public void updateIsBufferedWithWriteBehind() throws MessageNotFoundException, InterruptedException {
+        var writeBehind = writeBehind();
+        when(messageDao.get("an id")).thenReturn(new Message("an id", "this is a test", "lalle", 0, 1, 1));
+
+        messageService.update(new Message("an id", "first edit"));
+        messageService.update(new Message("an id", "second edit"));
+        var result = messageService.describe("an id");
+
+        assertEquals("second edit", result.getMessage());
+        assertEquals(2, result.getRevision());
+        verify(messageDao, never()).update(anyString(), anyString(), anyString());
+
+        writeBehind.destroy();
+        verify(messageDao).updateAll(argThat(messages -> messages.size() == 1 &&
+                messages.get(0).getMessage().equals("second edit") && messages.get(0).getCreatedBy().equals("lalle")));
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test(expected = MessageNotFoundException.class)
+    public void updateNonExistingMessageWithWriteBehind() throws MessageNotFoundException, InterruptedException {
+        var writeBehind = writeBehind();
+        when(messageDao.get("an id")).thenReturn(Message.NONEXISTING);
+
+        try {
+            messageService.update(new Message("an id", "this is a test"));
+            fail("MessageNotFoundException was not thrown");
+        } finally {
+            writeBehind.destroy();
+        }
+    }
+
+    private MessageWriteBehind writeBehind() {
+        var writeBehind = new MessageWriteBehind();
+        writeBehind.messageDao = messageDao;
+        writeBehind.cache = messageService.cache;
+        writeBehind.responses = responses;
+        writeBehind.enabled = true;
+        writeBehind.windowMillis = 60000;
+        writeBehind.afterPropertiesSet();
+
+        messageService.writeBehind = writeBehind;
+        return writeBehind;
+    }
+
+    @Test
+    public void updateIfRevision() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("an id", "this is a test", "lalle", 0, 1, 3);
+        when(messageDao.get("an id")).thenReturn(message);
+        when(messageDao.update("an id", "lalle", "this is a test", 3)).thenReturn(4L);
+
+        var result = messageService.update(message, 3);
+
+        assertEquals(4, result);
+        verify(pubSub).publish("messages:invalidations", "an id");
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test
+    public void updateIfRevisionOfBufferedEdit() throws MessageNotFoundException, MessageConflictException, InterruptedException {
+        var writeBehind = writeBehind();
+        when(messageDao.get("an id")).thenReturn(new Message("an id", "this is a test", "lalle", 0, 1, 1));
+        when(messageDao.updateAll(anyList())).thenReturn(Map.of("an id", 5L));
+        when(messageDao.update("an id", "lalle", "second edit", 5)).thenReturn(6L);
+
+        messageService.update(new Message("an id", "first edit"));
+        var revision = messageService.describe("an id").getRevision();
+        var result = messageService.update(new Message("an id", "second edit"), revision);
+
+        assertEquals(6, result);
+        writeBehind.destroy();
+    }
+
+    @Test
+    public void updateConflictDropsCachedMessage() throws MessageNotFoundException, MessageConflictException {
+        var message = new Message("an id", "this is a test", "lalle", 0, 1, 3);
+        when(messageDao.get("an id")).thenReturn(message);
+        when(messageDao.update("an id", "lalle", "this is a test", 2)).thenThrow(new MessageConflictException("changed"));
+
+        try {
+            messageService.update(message, 2);
+            fail("MessageConflictException was not thrown");
+        } catch (MessageConflictException e) {
+            verify(pubSub).publish("messages:invalidations", "an id");
+            verify(responses, never()).invalidate(any());
+        }
+    }
+
+    @Test
+    public void delete() {
+        when(messageDao.exists("an id", "lalle")).thenReturn(true);
+        when(messageDao.delete("an id", "lalle")).thenReturn(true);
+
+        var result = messageService.delete("an id", "lalle");
+
+        assertTrue(result);
+        verify(pubSub).publish("messages:invalidations", "an id");
+        verify(responses).invalidate("messages", "messages:lalle");
     }
 
     @Test(expected = MessageNotFoundException.class)
     public void updateNonExistingMessage() throws MessageNotFoundException {
         var message = new Message("an id", "this is a test", "lalle", 0, 1);
-        doThrow(new MessageNotFoundException("DANGER !!!!!! TERROR HORROR")).when(messageDao).update(message.getId(), message.getMessage());
+        when(messageDao.get("an id")).thenReturn(message);
+        doThrow(new MessageNotFoundException("DANGER !!!!!! TERROR HORROR")).when(messageDao).update(message.getId(), "lalle", message.getMessage());
 
         messageService.update(message);
         fail("MessageNotFoundException was not thrown");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void describeAll() {
+        var message = new Message("bestOfIds", "this is a message", "lalle", 1, 1);
+        when(messageDao.getAll(List.of("bestOfIds", "missing"))).thenReturn(List.of(message));
+
+        var result = messageService.describeAll(List.of("bestOfIds", "missing"));
+
+        assertEquals(1, result.size());
+        assertEquals(message, result.get("bestOfIds"));
+        verify(messageDao, never()).get(any(String.class));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.ResponseCache;
+import com.fridaymastermix.database.RedisPubSub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageWriteBehindTest {
+
+    private static final Message MESSAGE = new Message("an id", "this is a message", "lalle", 1, 1, 1);
+
+    private MessageWriteBehind writeBehind;
+    private MessageDao messageDao;
+    private RedisPubSub pubSub;
+    private ResponseCache responses;
+
+    @Before
+    public void setup() {
+        messageDao = mock(MessageDao.class);
+        pubSub = mock(RedisPubSub.class);
+        responses = mock(ResponseCache.class);
+
+        var cache = new MessageCache();
+        cache.pubSub = pubSub;
+        cache.afterPropertiesSet();
+
+        writeBehind = new MessageWriteBehind();
+        writeBehind.messageDao = messageDao;
+        writeBehind.cache = cache;
+        writeBehind.responses = responses;
+        writeBehind.enabled = true;
+        writeBehind.windowMillis = 60000;
+        writeBehind.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() throws InterruptedException {
+        writeBehind.destroy();
+        writeBehind = null;
+        messageDao = null;
+        pubSub = null;
+        responses = null;
+    }
+
+    private static List<Message> edit(String message) {
+        return argThat(messages -> messages.size() == 1 && messages.get(0).getId().equals("an id") &&
+                messages.get(0).getMessage().equals(message) && messages.get(0).getCreatedBy().equals("lalle"));
+    }
+
+    @Test
+    public void editsAreCoalesced() {
+        writeBehind.update(MESSAGE, "first edit");
+        writeBehind.update(MESSAGE, "second edit");
+        writeBehind.update(MESSAGE, "third edit");
+
+        writeBehind.flush();
+
+        verify(messageDao, times(1)).updateAll(edit("third edit"));
+        verify(pubSub).publish("messages:invalidations", "an id");
+        verify(responses).invalidate("messages", "messages:lalle");
+    }
+
+    @Test
+    public void overlay() {
+        writeBehind.update(MESSAGE, "first edit");
+        writeBehind.update(MESSAGE, "second edit");
+
+        var result = writeBehind.overlay(MESSAGE);
+
+        assertEquals("second edit", result.getMessage());
+        assertEquals("lalle", result.getCreatedBy());
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getRevision());
+    }
+
+    @Test
+    public void overlayWithoutEdit() {
+        assertSame(MESSAGE, writeBehind.overlay(MESSAGE));
+        assertSame(Message.NONEXISTING, writeBehind.overlay(Message.NONEXISTING));
+    }
+
+    @Test
+    public void flushedEditsAreRemoved() {
+        writeBehind.update(MESSAGE, "an edit");
+
+        writeBehind.flush();
+        writeBehind.flush();
+
+        verify(messageDao, times(1)).updateAll(anyList());
+        assertSame(MESSAGE, writeBehind.overlay(MESSAGE));
+    }
+
+    @Test
+    public void failedFlushKeepsEdits() {
+        when(messageDao.updateAll(anyList())).thenThrow(new IllegalStateException("unavailable")).thenReturn(Map.of());
+        writeBehind.update(MESSAGE, "an edit");
+
+        try {
+            writeBehind.flush();
+            fail("IllegalStateException was not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("an edit", writeBehind.overlay(MESSAGE).getMessage());
+        }
+
+        writeBehind.flush();
+        verify(messageDao, times(2)).updateAll(edit("an edit"));
+    }
+
+    @Test
+    public void flushReplacesRevisionOfBufferedEdit() {
+        when(messageDao.updateAll(anyList())).thenReturn(Map.of("an id", 7L));
+        writeBehind.update(MESSAGE, "an edit");
+
+        assertEquals(7, writeBehind.flush("an id", 2));
+        assertEquals(3, writeBehind.flush("an id", 3));
+    }
+
+    @Test
+    public void revisionOfWrittenEditIsRemembered() {
+        when(messageDao.updateAll(anyList())).thenReturn(Map.of("an id", 7L));
+        writeBehind.update(MESSAGE, "an edit");
+
+        writeBehind.flush();
+
+        assertEquals(7, writeBehind.flush("an id", 2));
+        verify(messageDao, times(1)).updateAll(anyList());
+    }
+
+    @Test
+    public void discard() {
+        writeBehind.update(MESSAGE, "an edit");
+
+        writeBehind.discard("an id");
+        writeBehind.flush();
+
+        verify(messageDao, never()).updateAll(anyList());
+        assertSame(MESSAGE, writeBehind.overlay(MESSAGE));
+    }
+
+    @Test
+    public void destroyFlushesEdits() throws InterruptedException {
+        writeBehind.update(MESSAGE, "an edit");
+
+        writeBehind.destroy();
+
+        verify(messageDao).updateAll(edit("an edit"));
+    }
+
+    @Test
+    public void disabled() throws InterruptedException {
+        writeBehind.destroy();
+        writeBehind = new MessageWriteBehind();
+        writeBehind.afterPropertiesSet();
+
+        writeBehind.flush();
+        writeBehind.discard("an id");
+
+        assertSame(MESSAGE, writeBehind.overlay(MESSAGE));
+    }
+}
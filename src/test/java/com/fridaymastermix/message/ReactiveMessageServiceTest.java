@@ -0,0 +1,156 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import com.fridaymastermix.database.RedisPubSub;
+import com.fridaymastermix.user.ReactiveUserDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReactiveMessageServiceTest {
+
+    private ReactiveMessageService messageService;
+    private ReactiveMessageDao messageDao;
+    private ReactiveUserDao userDao;
+    private RedisPubSub pubSub;
+
+    @Before
+    public void setup() {
+        messageDao = mock(ReactiveMessageDao.class);
+        userDao = mock(ReactiveUserDao.class);
+        pubSub = mock(RedisPubSub.class);
+
+        var cache = new MessageCache();
+        cache.pubSub = pubSub;
+        cache.afterPropertiesSet();
+
+        messageService = new ReactiveMessageService();
+        messageService.messageDao = messageDao;
+        messageService.userDao = userDao;
+        messageService.cache = cache;
+    }
+
+    @After
+    public void teardown() {
+        messageService = null;
+        messageDao = null;
+        userDao = null;
+        pubSub = null;
+    }
+
+    @Test
+    public void create() {
+        when(userDao.exists("lalle")).thenReturn(Mono.just(true));
+        when(messageDao.add("this is a message", "lalle")).thenReturn(Mono.just("message_id"));
+
+        var result = messageService.create("this is a message", "lalle").block();
+
+        assertEquals("message_id", result);
+    }
+
+    @Test
+    public void createUnknownUser() {
+        when(userDao.exists("lalle")).thenReturn(Mono.just(false));
+
+        try {
+            messageService.create("this is a message", "lalle").block();
+            fail("UserNotFoundException was not signaled");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof UserNotFoundException);
+        }
+
+        verify(messageDao, never()).add("this is a message", "lalle");
+    }
+
+    @Test
+    public void update() {
+        var message = new Message("message_id", "this is a message");
+        when(messageDao.get("message_id")).thenReturn(Mono.just(new Message("message_id", "old", "lalle", 1, 1)));
+        when(messageDao.update("message_id", "lalle", "this is a message")).thenReturn(Mono.just(2L));
+
+        var result = messageService.update(message).block();
+
+        assertEquals(Long.valueOf(2), result);
+        verify(pubSub).publish("messages:invalidations", "message_id");
+    }
+
+    @Test
+    public void updateMissingMessage() {
+        var message = new Message("message_id", "this is a message");
+        when(messageDao.get("message_id")).thenReturn(Mono.just(Message.NONEXISTING));
+
+        try {
+            messageService.update(message).block();
+            fail("MessageNotFoundException was not signaled");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof MessageNotFoundException);
+        }
+
+        verify(messageDao, never()).update(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void updateAtAnotherRevisionInvalidates() {
+        var message = new Message("message_id", "this is a message");
+        when(messageDao.get("message_id")).thenReturn(Mono.just(new Message("message_id", "old", "lalle", 1, 1)));
+        when(messageDao.update("message_id", "lalle", "this is a message", 1))
+                .thenReturn(Mono.error(new MessageConflictException("conflict")));
+
+        try {
+            messageService.update(message, 1).block();
+            fail("MessageConflictException was not signaled");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof MessageConflictException);
+        }
+
+        verify(pubSub).publish("messages:invalidations", "message_id");
+    }
+
+    @Test
+    public void deleteMissingMessage() {
+        when(messageDao.exists("message_id", "lalle")).thenReturn(Mono.just(false));
+
+        var result = messageService.delete("message_id", "lalle").block();
+
+        assertFalse(result);
+        verify(messageDao, never()).delete("message_id", "lalle");
+    }
+
+    @Test
+    public void delete() {
+        when(messageDao.exists("message_id", "lalle")).thenReturn(Mono.just(true));
+        when(messageDao.delete("message_id", "lalle")).thenReturn(Mono.just(true));
+
+        var result = messageService.delete("message_id", "lalle").block();
+
+        assertTrue(result);
+        verify(pubSub).publish("messages:invalidations", "message_id");
+    }
+}
@@ -17,30 +17,57 @@
 
 package com.fridaymastermix.message;
 
+import com.fridaymastermix.database.FanOut;
+import com.fridaymastermix.database.HashTags;
 import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.SequentialFanOut;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentMatcher;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -56,25 +83,70 @@ public class RedisMessageDaoTest {
 
     private RedisMessageDao messageDao;
     private Jedis redis;
+    private Pipeline pipeline;
     private RedisFactory factory;
 
     @Before
     public void setup() {
         messageDao = new RedisMessageDao();
         redis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
         factory = mock(RedisFactory.class);
 
         messageDao.redisFactory = factory;
+        messageDao.fanOut = new SequentialFanOut();
+        messageDao.ids = new SnowflakeIdGenerator();
         when(factory.redis()).thenReturn(redis);
+        when(factory.redis(anyString())).thenReturn(redis);
+        when(factory.redis(anyInt())).thenReturn(redis);
+        when(factory.lister(anyInt())).thenReturn(redis);
+        when(factory.read(anyString(), any())).thenAnswer(invocation -> {
+            Function<Jedis, ?> read = invocation.getArgument(1);
+            return read.apply(redis);
+        });
+        when(factory.shards()).thenReturn(1);
+        when(factory.scatter(any())).thenAnswer(invocation -> {
+            IntFunction<?> task = invocation.getArgument(0);
+            return List.of(task.apply(0));
+        });
+        when(redis.pipelined()).thenReturn(pipeline);
+        var none = binaryResponse(null);
+        when(pipeline.get(any(byte[].class))).thenReturn(none);
     }
 
     @After
     public void teardown() {
         messageDao = null;
         redis = null;
+        pipeline = null;
         factory = null;
     }
 
+    @SuppressWarnings("unchecked")
+    private static Response<Map<String, String>> response(Map<String, String> hash) {
+        Response<Map<String, String>> response = mock(Response.class);
+        when(response.get()).thenReturn(hash);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<byte[]> binaryResponse(byte[] value) {
+        Response<byte[]> response = mock(Response.class);
+        when(response.get()).thenReturn(value);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<Object> scriptResponse(Object result) {
+        Response<Object> response = mock(Response.class);
+        when(response.get()).thenReturn(result);
+        return response;
+    }
+
+    private static byte[] key(String id) {
+        return String.format("msg:%s", id).getBytes(StandardCharsets.UTF_8);
+    }
+
     @Test
     public void get() {
         when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
@@ -85,6 +157,26 @@ public class RedisMessageDaoTest {
         verify(redis).hgetAll("message:message_id");
     }
 
+    @Test
+    public void getBinaryEncoded() {
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 0));
+
+        var result = messageDao.get("message_id");
+
+        assertEquals(new Message("message_id", "this is a message", "lalle", 1, 1), result);
+    }
+
+    @Test
+    public void getBinaryEncodingFallsBackToHash() {
+        messageDao.encoding = "binary";
+        when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
+
+        var result = messageDao.get("message_id");
+
+        assertEquals(new Message("message_id", "this is a message", "lalle", 1, 1), result);
+        verify(redis).get(key("message_id"));
+    }
+
     @Test
     public void getMessageDoesNotExist() {
         when(redis.hgetAll("message:message_id")).thenReturn(Map.of());
@@ -155,9 +247,10 @@ public class RedisMessageDaoTest {
                 "message_id_2",
                 "message_id_3"));
 
-        when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
-        when(redis.hgetAll("message:message_id_2")).thenReturn(MESSAGE_HASH);
-        when(redis.hgetAll("message:message_id_3")).thenReturn(MESSAGE_HASH);
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_2")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_3")).thenReturn(hash);
 
         var message = new Message("message_id", "this is a message", "lalle", 1, 1);
 
@@ -165,7 +258,161 @@ public class RedisMessageDaoTest {
 
         var result = messageDao.messagesWrittenBy("lalle");
         assertThat(result, hasItems(expected));
-        verify(redis, times(3)).hgetAll(any(String.class));
+        verify(pipeline, times(3)).hgetAll(any(String.class));
+        verify(pipeline).sync();
+        verify(redis, never()).hgetAll(any(String.class));
+    }
+
+    @Test
+    public void messagesWrittenByIsFetchedInChunks() {
+        messageDao.chunkSize = 2;
+        when(redis.smembers("user:lalle:messages")).thenReturn(Set.of(
+                "message_id",
+                "message_id_2",
+                "message_id_3"));
+
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(any(String.class))).thenReturn(hash);
+
+        var result = messageDao.messagesWrittenBy("lalle");
+
+        assertEquals(3, result.size());
+        verify(redis).pipelined();
+        verify(pipeline, times(2)).sync();
+    }
+
+    @Test
+    public void messagesWrittenByFansOutChunks() {
+        messageDao.fanOut = new FanOut() {
+            @Override
+            public <T, R> List<R> map(List<T> items, Function<T, R> task) {
+                return items.stream().map(task).collect(Collectors.toList());
+            }
+
+            @Override
+            public boolean concurrent() {
+                return true;
+            }
+        };
+        messageDao.chunkSize = 2;
+        when(redis.smembers("user:lalle:messages")).thenReturn(Set.of(
+                "message_id",
+                "message_id_2",
+                "message_id_3"));
+
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(any(String.class))).thenReturn(hash);
+
+        var result = messageDao.messagesWrittenBy("lalle");
+
+        assertEquals(3, result.size());
+        verify(factory, times(3)).lister(0);
+        verify(redis, times(3)).close();
+        verify(pipeline, times(2)).sync();
+    }
+
+    @Test
+    public void concurrentListingsDoNotExhaustSmallPool() throws Exception {
+        var threads = Executors.newCachedThreadPool();
+        var pool = new Semaphore(2);
+        var indexesRead = new CountDownLatch(2);
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(any(String.class))).thenReturn(hash);
+        when(factory.lister(anyInt())).thenAnswer(invocation -> borrow(pool, indexesRead));
+        messageDao.chunkSize = 2;
+        messageDao.fanOut = new FanOut() {
+            @Override
+            public <T, R> List<R> map(List<T> items, Function<T, R> task) {
+                var futures = items.stream().map(item -> threads.submit(() -> task.apply(item))).collect(Collectors.toList());
+                var results = new ArrayList<R>();
+
+                for (var future: futures) {
+                    try {
+                        results.add(future.get());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                return results;
+            }
+
+            @Override
+            public boolean concurrent() {
+                return true;
+            }
+        };
+
+        try {
+            var listings = List.of(
+                    threads.submit(() -> messageDao.messagesWrittenBy("lalle")),
+                    threads.submit(() -> messageDao.messagesWrittenBy("kalle")));
+
+            for (var listing: listings) {
+                assertEquals(6, listing.get(10, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Borrows a client from a pool of the size of the semaphore that fails like a pool that is exhausted for a second.
+     * The first clients wait in their index read until the given number of indexes have been read.
+     */
+    private Jedis borrow(Semaphore pool, CountDownLatch indexesRead) throws InterruptedException {
+        if (!pool.tryAcquire(1, TimeUnit.SECONDS)) {
+            throw new JedisException("Could not get a resource from the pool");
+        }
+
+        var client = mock(Jedis.class);
+        when(client.pipelined()).thenReturn(pipeline);
+        when(client.smembers(anyString())).thenAnswer(invocation -> {
+            indexesRead.countDown();
+            indexesRead.await(1, TimeUnit.SECONDS);
+            return Set.of("message_id", "message_id_2", "message_id_3", "message_id_4", "message_id_5", "message_id_6");
+        });
+        doAnswer(invocation -> {
+            pool.release();
+            return null;
+        }).when(client).close();
+        return client;
+    }
+
+    @Test
+    public void messagesWrittenBySkipsMissingMessages() {
+        when(redis.smembers("user:lalle:messages")).thenReturn(Set.of("message_id", "message_id_2"));
+        var hash = response(MESSAGE_HASH);
+        var missing = response(Map.of());
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_2")).thenReturn(missing);
+
+        var result = messageDao.messagesWrittenBy("lalle");
+
+        assertEquals(List.of(new Message("message_id", "this is a message", "lalle", 1, 1)), result);
+    }
+
+    @Test
+    public void messagesWrittenByReadsBothEncodingsInOrder() {
+        messageDao.encoding = "binary";
+        when(redis.smembers("user:lalle:messages")).thenReturn(new LinkedHashSet<>(List.of("message_id", "message_id_2")));
+        var hash = response(Map.of(
+                "id", "message_id",
+                "message", "an old message",
+                "createdBy", "lalle",
+                "created", "1",
+                "updated", "1"));
+        var binary = binaryResponse(MessageCodec.encode("a new message", "lalle", 2, 2, 0));
+        when(pipeline.get(key("message_id_2"))).thenReturn(binary);
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+
+        var result = messageDao.messagesWrittenBy("lalle");
+
+        assertEquals(List.of(
+                new Message("message_id", "an old message", "lalle", 1, 1),
+                new Message("message_id_2", "a new message", "lalle", 2, 2)), result);
+        verify(pipeline, times(2)).sync();
+        verify(pipeline, never()).hgetAll("message:message_id_2");
     }
 
     @Test
@@ -183,15 +430,17 @@ public class RedisMessageDaoTest {
                 "message_id_2",
                 "message_id_3"));
 
-        when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
-        when(redis.hgetAll("message:message_id_2")).thenReturn(MESSAGE_HASH);
-        when(redis.hgetAll("message:message_id_3")).thenReturn(MESSAGE_HASH);
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_2")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_3")).thenReturn(hash);
 
         var message = new Message("message_id", "this is a message", "lalle", 1, 1);
         Message[] expected = {message, message, message};
 
         var result = messageDao.all();
         assertThat(result, hasItems(expected));
+        verify(pipeline).sync();
     }
 
     @Test
@@ -204,49 +453,547 @@ public class RedisMessageDaoTest {
         assertEquals(expected, result.size());
     }
 
+    @Test
+    public void pageFirstPage() throws InvalidCursorException {
+        when(redis.zrevrangeWithScores("messages:timeline", 0, 2)).thenReturn(timeline("message_id", "message_id_2", "message_id_3"));
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(any(String.class))).thenReturn(hash);
+
+        var result = messageDao.page(null, null, 2);
+
+        assertEquals(2, result.getMessages().size());
+        assertEquals(cursor(2, "message_id_2"), result.getNext());
+        verify(pipeline, never()).hgetAll("message:message_id_3");
+    }
+
+    @Test
+    public void pageLastPage() throws InvalidCursorException {
+        when(redis.zrevrank("user:lalle:timeline", "message_id_2")).thenReturn(1L);
+        when(redis.zrevrangeWithScores("user:lalle:timeline", 2, 4)).thenReturn(timeline("message_id_3"));
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll("message:message_id_3")).thenReturn(hash);
+
+        var result = messageDao.page("lalle", cursor(2, "message_id_2"), 2);
+
+        assertEquals(1, result.getMessages().size());
+        assertNull(result.getNext());
+    }
+
+    @Test
+    public void pageCursorPointsToDeletedMessage() throws InvalidCursorException {
+        when(redis.zrevrank("messages:timeline", "message_id_2")).thenReturn(null);
+        when(redis.zrevrangeByScoreWithScores("messages:timeline", "2", "-inf", 0, 3)).thenReturn(timeline("message_id_3"));
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll("message:message_id_3")).thenReturn(hash);
+
+        var result = messageDao.page(null, cursor(2, "message_id_2"), 2);
+
+        assertEquals(1, result.getMessages().size());
+    }
+
+    @Test
+    public void pageCursorSkipsMessagesWithSameScoreBeforeIt() throws InvalidCursorException {
+        var entries = new LinkedHashSet<Tuple>();
+        entries.add(new Tuple("message_id_4", 2.0));
+        entries.add(new Tuple("message_id_1", 2.0));
+        entries.add(new Tuple("message_id_0", 1.0));
+        when(redis.zrevrank("messages:timeline", "message_id_2")).thenReturn(null);
+        when(redis.zrevrangeByScoreWithScores("messages:timeline", "2", "-inf", 0, 3)).thenReturn(entries);
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(anyString())).thenReturn(hash);
+
+        messageDao.page(null, cursor(2, "message_id_2"), 2);
+
+        verify(pipeline).hgetAll("message:message_id_1");
+        verify(pipeline).hgetAll("message:message_id_0");
+        verify(pipeline, never()).hgetAll("message:message_id_4");
+    }
+
+    @Test
+    public void pageMergesShards() throws InvalidCursorException {
+        var other = secondShard();
+        var otherPipeline = mock(Pipeline.class);
+        when(other.pipelined()).thenReturn(otherPipeline);
+        when(factory.shard("b")).thenReturn(1);
+        when(factory.shard("d")).thenReturn(1);
+
+        var newest = new LinkedHashSet<Tuple>(List.of(new Tuple("a", 5.0), new Tuple("c", 3.0)));
+        var older = new LinkedHashSet<Tuple>(List.of(new Tuple("b", 4.0), new Tuple("d", 1.0)));
+        when(redis.zrevrangeWithScores("messages:timeline", 0, 2)).thenReturn(newest);
+        when(other.zrevrangeWithScores("messages:timeline", 0, 2)).thenReturn(older);
+        var a = response(hash("a"));
+        var b = response(hash("b"));
+        when(pipeline.hgetAll("message:a")).thenReturn(a);
+        when(otherPipeline.hgetAll("message:b")).thenReturn(b);
+
+        var result = messageDao.page(null, null, 2);
+
+        assertEquals(List.of("a", "b"), result.getMessages().stream().map(Message::getId).collect(Collectors.toList()));
+        assertEquals(cursor(4, "b"), result.getNext());
+        verify(pipeline, never()).hgetAll("message:c");
+    }
+
+    @Test
+    public void allGathersShards() {
+        var other = secondShard();
+        var otherPipeline = mock(Pipeline.class);
+        when(other.pipelined()).thenReturn(otherPipeline);
+        when(redis.smembers("messages:all")).thenReturn(Set.of("a"));
+        when(other.smembers("messages:all")).thenReturn(Set.of("b"));
+        var a = response(hash("a"));
+        var b = response(hash("b"));
+        when(pipeline.hgetAll("message:a")).thenReturn(a);
+        when(otherPipeline.hgetAll("message:b")).thenReturn(b);
+
+        var result = messageDao.all();
+
+        assertEquals(Set.of("a", "b"), result.stream().map(Message::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void versionOfAllMessagesSumsShards() {
+        var other = secondShard();
+        when(redis.mget("messages:epoch", "messages:version")).thenReturn(Arrays.asList("a", "3"));
+        when(other.mget("messages:epoch", "messages:version")).thenReturn(Arrays.asList("b", "4"));
+
+        assertEquals("a.b-7", messageDao.version(null));
+    }
+
+    /**
+     * Adds a second shard to the factory and returns its client.
+     */
+    private Jedis secondShard() {
+        var other = mock(Jedis.class);
+        when(factory.shards()).thenReturn(2);
+        when(factory.redis(0)).thenReturn(redis);
+        when(factory.redis(1)).thenReturn(other);
+        when(factory.lister(0)).thenReturn(redis);
+        when(factory.lister(1)).thenReturn(other);
+        when(factory.scatter(any())).thenAnswer(invocation -> {
+            IntFunction<?> task = invocation.getArgument(0);
+            return List.of(task.apply(0), task.apply(1));
+        });
+        return other;
+    }
+
+    private static Map<String, String> hash(String id) {
+        return Map.of("id", id, "message", "this is a message", "createdBy", "lalle", "created", "1", "updated", "1");
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void pageInvalidCursor() throws InvalidCursorException {
+        messageDao.page(null, "not a cursor", 2);
+        fail("InvalidCursorException was not thrown");
+    }
+
+    private static Set<Tuple> timeline(String... ids) {
+        var entries = new LinkedHashSet<Tuple>();
+        for (int i = 0; i < ids.length; i++) {
+            entries.add(new Tuple(ids[i], (double) (ids.length - i)));
+        }
+        return entries;
+    }
+
+    private static String cursor(long score, String id) {
+        var position = String.format("%d:%s", score, id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void scanWalksTimelineFromLastEntry() {
+        messageDao.chunkSize = 2;
+        when(redis.zrevrangeWithScores("messages:timeline", 0, 1)).thenReturn(timeline("message_id", "message_id_2"));
+        when(redis.zrevrank("messages:timeline", "message_id_2")).thenReturn(1L);
+        when(redis.zrevrangeWithScores("messages:timeline", 2, 3)).thenReturn(timeline("message_id_3"));
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll(any(String.class))).thenReturn(hash);
+
+        var batches = new ArrayList<List<Message>>();
+        messageDao.scan(null, batches::add);
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        verify(redis, never()).sscan(anyString(), anyString(), any(ScanParams.class));
+    }
+
+    @Test
+    public void scanUser() {
+        when(redis.zrevrangeWithScores(eq("user:lalle:timeline"), eq(0L), anyLong())).thenReturn(new LinkedHashSet<>());
+
+        var batches = new ArrayList<List<Message>>();
+        messageDao.scan("lalle", batches::add);
+
+        assertEquals(0, batches.size());
+    }
+
+    private static List<String> strings(List<byte[]> values) {
+        return values.stream().map(value -> new String(value, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    private static List<String> addKeys(String id, String user) {
+        return List.of(
+                "message:" + id,
+                "user:" + user + ":messages",
+                "messages:all",
+                "messages:timeline",
+                "user:" + user + ":timeline",
+                "messages:version",
+                "user:" + user + ":messages:version",
+                "user:" + user);
+    }
+
+    @Test
+    public void addTagsIdWithUser() {
+        var ids = mock(IdGenerator.class);
+        messageDao.ids = ids;
+        when(ids.next()).thenReturn("first");
+
+        var result = messageDao.add("this is a message", "lalle");
+
+        assertEquals("first-" + HashTags.user("lalle"), result);
+        assertEquals(HashTags.user("lalle"), HashTags.message(result));
+        verify(factory).redis(HashTags.user("lalle"));
+        verify(ids, times(1)).next();
+    }
+
+    @Test
+    public void addPinsReadsOfUserAndMessage() {
+        messageDao.add("this is a message", "lalle");
+
+        verify(factory).wrote(HashTags.user("lalle"));
+    }
+
+    @Test
+    public void getRoutesByTagOfAuthor() {
+        var id = HashTags.id("first", "lalle");
+
+        messageDao.get(id);
+
+        verify(factory).read(eq(HashTags.user("lalle")), any());
+    }
+
+    @Test
+    public void getReadsFromReplica() {
+        when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
+
+        messageDao.get("message_id");
+
+        verify(factory).read(eq("message_id"), any());
+        verify(factory, never()).redis("message_id");
+    }
+
     @Test
     public void add() {
         var result = messageDao.add( "this is a message", "lalle");
         assertNotNull(result);
 
-        verify(redis).hset(anyString(), anyMap());
-        verify(redis).sadd(eq("user:lalle:messages"), anyString());
-        verify(redis).sadd(eq("messages:all"), anyString());
+        verify(redis).evalsha(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).equals(addKeys(result, "lalle"))),
+                argThat((List<byte[]> args) -> {
+                    var values = strings(args);
+                    return values.get(0).equals(result) && values.get(2).equals("0") && values.get(3).equals("hash") &&
+                            values.contains("this is a message");
+                }));
+        verify(redis, never()).hset(anyString(), anyMap());
+        verify(redis, never()).sadd(anyString(), anyString());
+    }
+
+    @Test
+    public void addIfUserExists() {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(1L);
+
+        var result = messageDao.addIfUserExists("this is a message", "lalle", user -> true, user -> false);
+
+        assertNotNull(result);
+        verify(redis).evalsha(any(byte[].class), anyList(), argThat((List<byte[]> args) -> strings(args).get(2).equals("1")));
+    }
+
+    @Test
+    public void addIfUserExistsUnknownUser() {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(0L);
+
+        var result = messageDao.addIfUserExists("this is a message", "lalle", user -> true, user -> true);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void addIfUserExistsRejectsUserRuledOutWithoutIo() {
+        var result = messageDao.addIfUserExists("this is a message", "lalle", user -> false, user -> true);
+
+        assertNull(result);
+        verify(factory, never()).redis(anyString());
+        verify(redis, never()).evalsha(any(byte[].class), anyList(), anyList());
+    }
+
+    @Test
+    public void addAllIsPipelined() {
+        messageDao.chunkSize = 2;
+
+        var result = messageDao.addAll(List.of(
+                new Message(null, "first", "lalle", 0, 0),
+                new Message(null, "second", "kalle", 0, 0),
+                new Message(null, "third", "lalle", 0, 0)));
+
+        assertEquals(3, result.size());
+        assertEquals(3, Set.copyOf(result).size());
+        verify(pipeline).eval(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).equals(addKeys(result.get(0), "lalle"))), anyList());
+        verify(pipeline).evalsha(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).equals(addKeys(result.get(1), "kalle"))), anyList());
+        verify(pipeline).eval(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).equals(addKeys(result.get(2), "lalle"))), anyList());
+        verify(pipeline, times(2)).sync();
+        verify(redis, never()).evalsha(any(byte[].class), anyList(), anyList());
+    }
+
+    @Test
+    public void version() {
+        when(redis.mget("messages:epoch", "user:lalle:messages:version")).thenReturn(Arrays.asList("epoch", "3"));
+
+        assertEquals("epoch-3", messageDao.version("lalle"));
+    }
+
+    @Test
+    public void versionSetsMissingEpoch() {
+        when(redis.mget("messages:epoch", "messages:version")).thenReturn(Arrays.asList(null, null));
+        when(redis.setnx(eq("messages:epoch"), anyString())).thenReturn(1L);
+
+        var version = messageDao.version(null);
+
+        assertTrue(version.endsWith("-0"));
+        assertNotEquals("0", version);
+        verify(redis).setnx(eq("messages:epoch"), eq(version.substring(0, version.length() - 2)));
+    }
+
+    @Test
+    public void versionIsReadFromListerOfShard() {
+        var replica = mock(Jedis.class);
+        when(factory.shard(HashTags.user("lalle"))).thenReturn(0);
+        when(factory.lister(0)).thenReturn(replica);
+        when(replica.mget("messages:epoch", "user:lalle:messages:version")).thenReturn(Arrays.asList("epoch", "3"));
+
+        assertEquals("epoch-3", messageDao.version("lalle"));
+        verify(redis, never()).mget(anyString(), anyString());
+    }
+
+    @Test
+    public void versionSetsMissingEpochOnPrimary() {
+        var replica = mock(Jedis.class);
+        when(factory.lister(0)).thenReturn(replica);
+        when(replica.mget("messages:epoch", "messages:version")).thenReturn(Arrays.asList(null, "2"));
+        when(redis.setnx(eq("messages:epoch"), anyString())).thenReturn(0L);
+        when(redis.get("messages:epoch")).thenReturn("epoch");
+
+        assertEquals("epoch-2", messageDao.version(null));
+        verify(replica, never()).setnx(anyString(), anyString());
+    }
+
+    @Test
+    public void versionUsesEpochSetByOtherNode() {
+        when(redis.mget("messages:epoch", "messages:version")).thenReturn(Arrays.asList(null, "2"));
+        when(redis.setnx(eq("messages:epoch"), anyString())).thenReturn(0L);
+        when(redis.get("messages:epoch")).thenReturn("other");
+
+        assertEquals("other-2", messageDao.version(null));
+    }
+
+    @Test
+    public void addBinaryEncoded() {
+        messageDao.encoding = "binary";
+
+        var result = messageDao.add("this is a message", "lalle");
+
+        verify(redis).evalsha(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).get(0).equals("msg:" + result)),
+                argThat((List<byte[]> args) -> {
+                    var message = MessageCodec.decode(result, args.get(4));
+                    return strings(args).get(3).equals("binary") && message.getMessage().equals("this is a message");
+                }));
     }
 
     @Test
     public void update() throws MessageNotFoundException {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(List.of("lalle".getBytes(StandardCharsets.UTF_8), 2L));
+
+        messageDao.update("message_id", "lalle", "this is a new message");
+
+        verify(redis).evalsha(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).equals(List.of("message:message_id", "messages:version",
+                        "user:lalle:messages:version"))),
+                argThat((List<byte[]> args) -> {
+                    var values = strings(args);
+                    return values.get(0).equals("this is a new message") && values.get(2).equals("lalle") &&
+                            values.get(3).isEmpty();
+                }));
+        verify(redis, never()).multi();
+    }
+
+    @Test
+    public void updateIfRevision() throws MessageNotFoundException, MessageConflictException {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(List.of("lalle".getBytes(StandardCharsets.UTF_8), 4L));
+
+        var result = messageDao.update("message_id", "lalle", "this is a new message", 3);
+
+        assertEquals(4, result);
+        verify(redis).evalsha(any(byte[].class), anyList(), argThat((List<byte[]> args) -> strings(args).get(3).equals("3")));
+    }
+
+    @Test(expected = MessageConflictException.class)
+    public void updateIfRevisionConflict() throws MessageNotFoundException, MessageConflictException {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(-1L);
+
+        messageDao.update("message_id", "lalle", "this is a new message", 3);
+        fail("MessageConflictException was not thrown");
+    }
+
+    @Test
+    public void updateIfRevisionConflictWhenRewriting() throws MessageNotFoundException {
+        messageDao.encoding = "binary";
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 5));
+
+        try {
+            messageDao.update("message_id", "lalle", "this is a new message", 3);
+            fail("MessageConflictException was not thrown");
+        } catch (MessageConflictException e) {
+            verify(redis).unwatch();
+            verify(redis, never()).multi();
+        }
+    }
+
+    @Test(expected = MessageNotFoundException.class)
+    public void updateInvalidHash() throws MessageNotFoundException {
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(0L);
+
+        messageDao.update("message_id", "lalle", "this is a new message");
+        fail("MessageNotFoundException was not thrown");
+    }
+
+    @Test
+    public void updateBinaryEncodedConvertsHash() throws MessageNotFoundException {
+        messageDao.encoding = "binary";
+        var transaction = mock(Transaction.class);
+        when(redis.multi()).thenReturn(transaction);
+        when(transaction.exec()).thenReturn(List.<Object>of("OK"));
         when(redis.hgetAll("message:message_id")).thenReturn(MESSAGE_HASH);
 
-        messageDao.update("message_id", "this is a new message");
-        verify(redis).hmset("message:message_id", Map.of("message", "this is a new message"));
-        verify(redis).hmset(eq("message:message_id"), argThat(new UpdatedMapMatcher()));
+        messageDao.update("message_id", "lalle", "this is a new message");
+
+        verify(redis).watch("message:message_id");
+        verify(transaction).set(eq(key("message_id")), argThat(value -> {
+            var message = MessageCodec.decode("message_id", value);
+            return message.getMessage().equals("this is a new message") && message.getCreated() == 1 &&
+                    message.getRevision() == 1;
+        }));
+        verify(transaction).del("message:message_id");
+        verify(transaction).incr("user:lalle:messages:version");
+        verify(redis, never()).evalsha(any(byte[].class), anyList(), anyList());
+    }
+
+    @Test
+    public void updateConvertsBinaryEncodedMessage() throws MessageNotFoundException {
+        var transaction = mock(Transaction.class);
+        when(redis.multi()).thenReturn(transaction);
+        when(transaction.exec()).thenReturn(List.<Object>of("OK"));
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 0));
+
+        messageDao.update("message_id", "lalle", "this is a new message");
+
+        verify(transaction).hset(eq("message:message_id"), argThat(hash -> hash.get("message").equals("this is a new message")));
+        verify(transaction).del(key("message_id"));
+    }
+
+    @Test
+    public void updateIsAttemptedAgainWhenMessageChanges() throws MessageNotFoundException {
+        var transaction = mock(Transaction.class);
+        when(redis.multi()).thenReturn(transaction);
+        when(transaction.exec()).thenReturn(null).thenReturn(List.<Object>of("OK"));
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 0));
+
+        messageDao.update("message_id", "lalle", "this is a new message");
+
+        verify(redis, times(2)).multi();
+    }
+
+    @Test
+    public void updateAllIsPipelined() {
+        var messages = List.of(new Message("first", "first message", "lalle", 1, 1),
+                new Message("second", "second message", "lalle", 1, 1));
+        var updated = scriptResponse(List.of("lalle".getBytes(StandardCharsets.UTF_8), 2L));
+        var missing = scriptResponse(0L);
+        when(pipeline.eval(any(byte[].class), anyList(), anyList())).thenReturn(updated);
+        when(pipeline.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(missing);
+
+        var result = messageDao.updateAll(messages);
+
+        assertEquals(Map.of("first", 2L), result);
+        verify(pipeline).eval(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).get(0).equals("message:first")),
+                argThat((List<byte[]> args) -> strings(args).get(0).equals("first message")));
+        verify(pipeline).evalsha(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).get(0).equals("message:second")),
+                argThat((List<byte[]> args) -> strings(args).get(0).equals("second message")));
+        verify(pipeline).sync();
+        verify(redis, never()).multi();
+    }
+
+    @Test
+    public void updateAllRewritesBinaryEncoded() {
+        messageDao.encoding = "binary";
+        var transaction = mock(Transaction.class);
+        when(redis.multi()).thenReturn(transaction);
+        when(transaction.exec()).thenReturn(List.<Object>of("OK"));
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 1));
+        when(redis.hgetAll("message:missing_id")).thenReturn(Map.of());
+
+        var result = messageDao.updateAll(List.of(new Message("message_id", "this is a new message", "lalle", 1, 1),
+                new Message("missing_id", "lost", "lalle", 1, 1)));
+
+        assertEquals(Map.of("message_id", 2L), result);
+        verify(transaction).set(eq(key("message_id")), argThat(value -> {
+            var message = MessageCodec.decode("message_id", value);
+            return message.getMessage().equals("this is a new message") && message.getRevision() == 2;
+        }));
+        verify(pipeline, never()).eval(any(byte[].class), anyList(), anyList());
+    }
+
+    @Test(expected = MessageNotFoundException.class)
+    public void updateOfAnotherUser() throws MessageNotFoundException {
+        messageDao.encoding = "binary";
+        when(redis.get(key("message_id"))).thenReturn(MessageCodec.encode("this is a message", "lalle", 1, 1, 1));
+
+        messageDao.update("message_id", "other", "this is a new message");
+        fail("MessageNotFoundException was not thrown");
     }
 
     @Test(expected = MessageNotFoundException.class)
     public void updateItemNotFound() throws MessageNotFoundException {
-        when(redis.hgetAll("user:lalle:message_id")).thenReturn(Map.of());
+        when(redis.hgetAll("message:message_id")).thenReturn(Map.of());
 
-        messageDao.update("user:lalle:message_id", "this is a message");
+        messageDao.update("message_id", "lalle", "this is a message");
         fail("MessageNotFoundException was not thrown");
     }
 
     @Test
     public void delete() {
-        when(redis.del("message:message_id")).thenReturn(1L);
-        when(redis.lrem("user:lalle:messages", 1, "message_id")).thenReturn(1L);
-        when(redis.lrem("users:all", 1, "message_id")).thenReturn(1L);
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(3L);
 
         var result = messageDao.delete("message_id", "lalle");
 
         assertTrue(result);
+        verify(redis).evalsha(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).equals(List.of(
+                "message:message_id",
+                "msg:message_id",
+                "user:lalle:messages",
+                "messages:all",
+                "messages:timeline",
+                "user:lalle:timeline",
+                "messages:version",
+                "user:lalle:messages:version"))),
+                argThat((List<byte[]> args) -> strings(args).equals(List.of("message_id"))));
     }
 
     @Test
     public void deleteWithMissingEntry() {
-        when(redis.del("message:message_id")).thenReturn(1L);
-        when(redis.lrem("user:lalle:messages", 1, "message_id")).thenReturn(0L);
-        when(redis.lrem("users:all", 1, "message_id")).thenReturn(0L);
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(1L);
 
         var result = messageDao.delete("message_id", "lalle");
 
@@ -255,20 +1002,24 @@ public class RedisMessageDaoTest {
 
     @Test
     public void deleteWithMissingItem() {
-        when(redis.del("message:message_id")).thenReturn(0L);
-        when(redis.lrem("user:lalle:messages", 1, "message_id")).thenReturn(0L);
-        when(redis.lrem("users:all", 1, "message_id")).thenReturn(0L);
+        when(redis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(0L);
 
         var result = messageDao.delete("message_id", "lalle");
 
         assertFalse(result);
     }
 
-    private static class UpdatedMapMatcher implements ArgumentMatcher<Map<String, String>> {
+    @Test
+    public void getAll() {
+        var hash = response(MESSAGE_HASH);
+        when(pipeline.hgetAll("message:message_id")).thenReturn(hash);
+        when(pipeline.hgetAll("message:message_id_2")).thenReturn(hash);
+        when(pipeline.hgetAll("message:missing")).thenReturn(response(Map.of()));
 
-        @Override
-        public boolean matches(Map<String, String> argument) {
-            return argument.containsKey("updated");
-        }
+        var result = messageDao.getAll(List.of("message_id", "missing", "message_id_2"));
+
+        assertEquals(2, result.size());
+        verify(redis).pipelined();
+        verify(redis, never()).hgetAll(any(String.class));
     }
-}
\ No newline at end of file
+}
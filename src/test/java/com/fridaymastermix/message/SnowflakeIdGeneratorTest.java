@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeIdGeneratorTest {
+
+    private SnowflakeIdGenerator generator;
+    private AtomicLong time;
+
+    @Before
+    public void setup() {
+        time = new AtomicLong(SnowflakeIdGenerator.EPOCH + 1000);
+        generator = new SnowflakeIdGenerator();
+        generator.node = 5;
+        generator.clock = time::get;
+        generator.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        generator = null;
+        time = null;
+    }
+
+    @Test
+    public void idsHaveFixedLength() {
+        assertEquals(SnowflakeIdGenerator.LENGTH, generator.next().length());
+    }
+
+    @Test
+    public void idsInTheSameMillisecondAreOrdered() {
+        var first = generator.next();
+        var second = generator.next();
+
+        assertTrue(first.compareTo(second) < 0);
+    }
+
+    @Test
+    public void idsAreOrderedByTime() {
+        var first = generator.next();
+        time.addAndGet(1);
+        var second = generator.next();
+
+        assertTrue(first.compareTo(second) < 0);
+    }
+
+    @Test
+    public void clockGoingBackwards() {
+        var first = generator.next();
+        time.addAndGet(-500);
+        var second = generator.next();
+
+        assertTrue(first.compareTo(second) < 0);
+    }
+
+    @Test
+    public void laterIdsFromOtherNodesSortLater() {
+        var other = new SnowflakeIdGenerator();
+        other.node = 1;
+        other.clock = time::get;
+        other.afterPropertiesSet();
+
+        var first = generator.next();
+        time.addAndGet(1);
+        var second = other.next();
+
+        assertTrue(first.compareTo(second) < 0);
+    }
+
+    @Test
+    public void nodeIsEncoded() {
+        assertEquals(SnowflakeIdGenerator.encode(((1000L << 12) << 10) | 5), generator.next());
+    }
+
+    @Test
+    public void randomNode() {
+        var environment = new StandardEnvironment();
+        environment.setActiveProfiles("memory");
+        var other = new SnowflakeIdGenerator();
+        other.environment = environment;
+        other.afterPropertiesSet();
+
+        assertTrue(other.node >= 0 && other.node <= SnowflakeIdGenerator.MAX_NODE);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nodeIsRequiredWithRedis() {
+        var other = new SnowflakeIdGenerator();
+        other.environment = new StandardEnvironment();
+        other.afterPropertiesSet();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nodeOutOfRange() {
+        var other = new SnowflakeIdGenerator();
+        other.node = SnowflakeIdGenerator.MAX_NODE + 1;
+        other.afterPropertiesSet();
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws InterruptedException {
+        var ids = ConcurrentHashMap.<String>newKeySet();
+        var threads = new ArrayList<Thread>();
+
+        for (var i = 0; i < 4; i++) {
+            var thread = new Thread(() -> {
+                for (var j = 0; j < 10000; j++) {
+                    ids.add(generator.next());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (var thread: threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, ids.size());
+    }
+}
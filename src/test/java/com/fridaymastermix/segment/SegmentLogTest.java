@@ -0,0 +1,197 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.segment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private SegmentLog log;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.getRoot().toPath();
+        log = new SegmentLog(directory, SEGMENT_SIZE, false);
+        log.open();
+    }
+
+    @After
+    public void teardown() {
+        log.close();
+        log = null;
+        directory = null;
+    }
+
+    private static String string(ByteBuffer value) {
+        if (value == null) {
+            return null;
+        }
+
+        var bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void reopenLog() throws IOException {
+        log.close();
+        log = new SegmentLog(directory, SEGMENT_SIZE, false);
+        log.open();
+    }
+
+    @Test
+    public void getLatest() {
+        log.put("key", SegmentLog.PUT, bytes("first"));
+        log.put("key", SegmentLog.UPDATE, bytes("second"));
+
+        assertEquals("second", string(log.get("key")));
+        assertNull(log.get("missing"));
+    }
+
+    @Test
+    public void getIsReadOnly() {
+        log.put("key", SegmentLog.PUT, bytes("value"));
+
+        assertTrue(log.get("key").isReadOnly());
+    }
+
+    @Test
+    public void delete() {
+        log.put("key", SegmentLog.PUT, bytes("value"));
+
+        assertTrue(log.delete("key"));
+        assertFalse(log.delete("key"));
+        assertNull(log.get("key"));
+        assertFalse(log.contains("key"));
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        log.put("key", SegmentLog.PUT, bytes("value"));
+        log.put("deleted", SegmentLog.PUT, bytes("value"));
+        log.delete("deleted");
+
+        reopenLog();
+
+        assertEquals("value", string(log.get("key")));
+        assertNull(log.get("deleted"));
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void rollsSegments() {
+        for (var i = 0; i < 200; i++) {
+            log.put(String.format("key%d", i), SegmentLog.PUT, bytes("a value of some length"));
+        }
+
+        assertTrue(log.segments() > 1);
+        assertEquals(200, log.size());
+    }
+
+    @Test
+    public void sequenceChangesOnEveryWrite() {
+        log.put("key", SegmentLog.PUT, bytes("first"));
+        var first = log.sequence("key");
+        log.put("other", SegmentLog.PUT, bytes("other"));
+        log.put("key", SegmentLog.UPDATE, bytes("second"));
+
+        assertTrue(log.sequence("key") > first);
+        assertEquals(-1, log.sequence("missing"));
+    }
+
+    @Test
+    public void sequenceIsKeptByCompaction() throws IOException {
+        for (var i = 0; i < 200; i++) {
+            log.put(String.format("key%d", i % 20), SegmentLog.PUT, bytes(String.format("value%d", i)));
+        }
+        var sequence = log.sequence("key5");
+
+        log.compact(0.5);
+
+        assertEquals(sequence, log.sequence("key5"));
+    }
+
+    @Test
+    public void compact() throws IOException {
+        for (var i = 0; i < 200; i++) {
+            log.put(String.format("key%d", i % 20), SegmentLog.PUT, bytes(String.format("value%d", i)));
+        }
+        log.delete("key3");
+        var segments = log.segments();
+
+        var compacted = log.compact(0.5);
+
+        assertTrue(compacted > 0);
+        assertTrue(log.segments() < segments);
+        assertEquals("value185", string(log.get("key5")));
+        assertNull(log.get("key3"));
+
+        reopenLog();
+
+        assertEquals("value185", string(log.get("key5")));
+        assertNull(log.get("key3"));
+        assertEquals(19, log.size());
+    }
+
+    @Test
+    public void reopenAfterCorruptRecord() throws IOException {
+        log.put("key", SegmentLog.PUT, bytes("value"));
+        log.put("corrupt", SegmentLog.PUT, bytes("value"));
+        log.close();
+
+        var segment = directory.resolve("segment-0000000000.log");
+        var content = Files.readAllBytes(segment);
+        var position = new String(content, StandardCharsets.ISO_8859_1).lastIndexOf("value");
+        try (var file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(position);
+            file.write('V');
+        }
+
+        reopenLog();
+
+        assertEquals("value", string(log.get("key")));
+        assertNull(log.get("corrupt"));
+
+        log.put("next", SegmentLog.PUT, bytes("value"));
+        assertEquals("value", string(log.get("next")));
+    }
+}
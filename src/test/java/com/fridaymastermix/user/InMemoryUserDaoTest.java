@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryUserDaoTest {
+
+    private InMemoryUserDao userDao;
+
+    @Before
+    public void setup() {
+        userDao = new InMemoryUserDao();
+    }
+
+    @After
+    public void teardown() {
+        userDao = null;
+    }
+
+    @Test
+    public void addAndGet() throws UserAlreadyExistsException {
+        userDao.add(new User("lalle", "password"));
+
+        assertEquals(new User("lalle", "password"), userDao.get("lalle"));
+        assertTrue(userDao.exists("lalle"));
+    }
+
+    @Test(expected = UserAlreadyExistsException.class)
+    public void addExisting() throws UserAlreadyExistsException {
+        userDao.add(new User("lalle", "password"));
+        userDao.add(new User("lalle", "other"));
+    }
+
+    @Test
+    public void getUserDoesNotExist() {
+        assertEquals(User.NONEXISTING, userDao.get("lalle"));
+        assertFalse(userDao.exists("lalle"));
+    }
+
+    @Test
+    public void allNewestFirst() throws UserAlreadyExistsException {
+        userDao.add(new User("lalle", "password"));
+        userDao.add(new User("kalle", "password"));
+
+        assertEquals(List.of(new User("kalle", "password"), new User("lalle", "password")), userDao.all());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.RedisPubSub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KnownUsersTest {
+
+    private KnownUsers knownUsers;
+    private UserDao userDao;
+    private RedisPubSub pubSub;
+
+    @Before
+    public void setup() {
+        userDao = mock(UserDao.class);
+        pubSub = mock(RedisPubSub.class);
+
+        knownUsers = new KnownUsers();
+        knownUsers.users = userDao;
+        knownUsers.pubSub = pubSub;
+        knownUsers.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        knownUsers = null;
+        userDao = null;
+        pubSub = null;
+    }
+
+    @Test
+    public void existingUserIsCached() {
+        when(userDao.exists("lalle")).thenReturn(true);
+
+        assertTrue(knownUsers.exists("lalle"));
+        assertTrue(knownUsers.exists("lalle"));
+        verify(userDao, times(1)).exists("lalle");
+    }
+
+    @Test
+    public void mightExistAsksOnlyCachesAndChecksWithoutIo() {
+        when(userDao.exists("lalle")).thenReturn(false);
+        when(userDao.mightExist("kalle")).thenReturn(false);
+        when(userDao.mightExist("falle")).thenReturn(true);
+        knownUsers.exists("lalle");
+
+        assertFalse(knownUsers.mightExist("lalle"));
+        assertFalse(knownUsers.mightExist("kalle"));
+        assertTrue(knownUsers.mightExist("falle"));
+        verify(userDao, never()).exists("kalle");
+        verify(userDao, never()).exists("falle");
+    }
+
+    @Test
+    public void unknownUserIsCached() {
+        when(userDao.exists("lalle")).thenReturn(false);
+
+        assertFalse(knownUsers.exists("lalle"));
+        assertFalse(knownUsers.exists("lalle"));
+        verify(userDao, times(1)).exists("lalle");
+    }
+
+    @Test
+    public void created() {
+        when(userDao.exists("lalle")).thenReturn(false);
+        assertFalse(knownUsers.exists("lalle"));
+
+        knownUsers.created("lalle");
+
+        assertTrue(knownUsers.exists("lalle"));
+        verify(userDao, times(1)).exists("lalle");
+        verify(pubSub).publish("users:created", "lalle");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void createdOnOtherNode() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(pubSub).subscribe(eq("users:created"), listener.capture());
+        when(userDao.exists("lalle")).thenReturn(false);
+        assertFalse(knownUsers.exists("lalle"));
+
+        listener.getValue().accept("lalle");
+
+        assertTrue(knownUsers.exists("lalle"));
+        verify(userDao, times(1)).exists("lalle");
+    }
+
+    @Test
+    public void createdUserIsNeverLookedUp() {
+        knownUsers.created("lalle");
+
+        assertTrue(knownUsers.exists("lalle"));
+        verify(userDao, never()).exists("lalle");
+    }
+
+    @Test
+    public void existingChecksUncachedUsersAtOnce() {
+        when(userDao.exists("lalle")).thenReturn(true);
+        knownUsers.exists("lalle");
+        when(userDao.existing(Set.of("kalle", "falle"))).thenReturn(Set.of("kalle"));
+
+        var result = knownUsers.existing(List.of("lalle", "kalle", "falle", "kalle"));
+
+        assertEquals(Set.of("lalle", "kalle"), result);
+        assertTrue(knownUsers.exists("kalle"));
+        assertFalse(knownUsers.exists("falle"));
+        verify(userDao, never()).exists("kalle");
+        verify(userDao, never()).exists("falle");
+    }
+}
@@ -17,21 +17,37 @@
 
 package com.fridaymastermix.user;
 
+import com.fridaymastermix.database.HashTags;
 import com.fridaymastermix.database.RedisFactory;
 import org.hamcrest.CoreMatchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -40,6 +56,7 @@ public class RedisUserDaoTest {
     private RedisUserDao redisUserDao;
     private Jedis jedis;
     private RedisFactory factory;
+    private UserBloomFilter bloomFilter;
     private static final List<String> users = List.of("lalle", "kalle", "falle");
 
     @Before
@@ -47,9 +64,24 @@ public class RedisUserDaoTest {
         redisUserDao = new RedisUserDao();
         jedis = mock(Jedis.class);
         factory = mock(RedisFactory.class);
+        bloomFilter = mock(UserBloomFilter.class);
         redisUserDao.redisFactory = factory;
+        redisUserDao.bloomFilter = bloomFilter;
 
         when(factory.redis()).thenReturn(jedis);
+        when(factory.redis(anyString())).thenReturn(jedis);
+        when(factory.redis(anyInt())).thenReturn(jedis);
+        when(factory.lister(anyInt())).thenReturn(jedis);
+        when(factory.read(anyString(), any())).thenAnswer(invocation -> {
+            Function<Jedis, ?> read = invocation.getArgument(1);
+            return read.apply(jedis);
+        });
+        when(factory.shards()).thenReturn(1);
+        when(factory.scatter(any())).thenAnswer(invocation -> {
+            IntFunction<?> task = invocation.getArgument(0);
+            return List.of(task.apply(0));
+        });
+        when(bloomFilter.mightContain(anyString())).thenReturn(true);
     }
 
     @After
@@ -58,19 +90,26 @@ public class RedisUserDaoTest {
         jedis = null;
     }
 
+    private static List<String> strings(List<byte[]> values) {
+        return values.stream().map(value -> new String(value, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
     @Test
     public void create() throws UserAlreadyExistsException {
-        when(jedis.exists("user:lalle")).thenReturn(false);
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(1L);
 
         redisUserDao.add(new User("lalle", "password"));
 
-        verify(jedis).hmset("user:lalle", Map.of("nick", "lalle", "password", "password"));
-        verify(jedis).lpush("users:all", "lalle");
+        verify(jedis).evalsha(any(byte[].class),
+                argThat((List<byte[]> keys) -> strings(keys).equals(List.of("user:lalle", "users:all"))),
+                argThat((List<byte[]> args) -> strings(args).equals(List.of("nick", "lalle", "password", "password"))));
+        verify(bloomFilter).add("lalle");
+        verify(factory).wrote(HashTags.user("lalle"));
     }
 
     @Test(expected = UserAlreadyExistsException.class)
     public void createWithExistingUser() throws UserAlreadyExistsException {
-        when(jedis.exists("user:lalle")).thenReturn(true);
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(0L);
 
         redisUserDao.add(new User("lalle", "password"));
         fail();
@@ -78,17 +117,45 @@ public class RedisUserDaoTest {
 
     @Test
     public void all() {
+        var pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
         when(jedis.lrange("users:all", 0, -1)).thenReturn(users);
 
-        when(jedis.hgetAll("user:lalle")).thenReturn(Map.of("nick", "lalle", "password", "password"));
-        when(jedis.hgetAll("user:kalle")).thenReturn(Map.of("nick", "kalle", "password", "password"));
-        when(jedis.hgetAll("user:falle")).thenReturn(Map.of("nick", "falle", "password", "password"));
+        for (var user: users) {
+            var hash = hash(Map.of("nick", user, "password", "password"));
+            when(pipeline.hgetAll("user:" + user)).thenReturn(hash);
+        }
 
         var expected = users.stream().map(name -> new User(name, "password")).toArray(User[]::new);
 
         var result = redisUserDao.all();
 
         assertThat(result, CoreMatchers.hasItems(expected));
+        verify(pipeline).sync();
+        verify(jedis, never()).hgetAll(anyString());
+        verify(factory, never()).read(anyString(), any());
+    }
+
+    @Test
+    public void allSkipsMissingUsers() {
+        var pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(jedis.lrange("users:all", 0, -1)).thenReturn(List.of("lalle", "kalle"));
+        var lalle = hash(Map.of("nick", "lalle", "password", "password"));
+        when(pipeline.hgetAll("user:lalle")).thenReturn(lalle);
+        var kalle = hash(Map.of());
+        when(pipeline.hgetAll("user:kalle")).thenReturn(kalle);
+
+        var result = redisUserDao.all();
+
+        assertEquals(List.of(new User("lalle", "password")), result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<Map<String, String>> hash(Map<String, String> hash) {
+        Response<Map<String, String>> response = mock(Response.class);
+        when(response.get()).thenReturn(hash);
+        return response;
     }
 
     @Test
@@ -96,7 +163,7 @@ public class RedisUserDaoTest {
         when(jedis.lrange("users:all", 0, -1)).thenReturn(List.of());
         var result = redisUserDao.all();
         assertEquals(0, result.size());
-        verify(jedis, never()).hgetAll("lalle");
+        verify(jedis, never()).pipelined();
     }
 
     @Test
@@ -118,4 +185,110 @@ public class RedisUserDaoTest {
 
         assertEquals(expected, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void mightExistAsksBloomFilter() {
+        when(bloomFilter.mightContain("lalle")).thenReturn(false);
+
+        assertFalse(redisUserDao.mightExist("lalle"));
+        assertTrue(redisUserDao.mightExist("kalle"));
+        verify(factory, never()).read(anyString(), any());
+    }
+
+    @Test
+    public void exists() {
+        when(jedis.exists("user:lalle")).thenReturn(true);
+
+        assertTrue(redisUserDao.exists("lalle"));
+        verify(jedis, never()).hgetAll("user:lalle");
+    }
+
+    @Test
+    public void existsNoUser() {
+        when(jedis.exists("user:lalle")).thenReturn(false);
+
+        assertFalse(redisUserDao.exists("lalle"));
+    }
+
+    @Test
+    public void getUnknownUserIsNotLookedUp() {
+        when(bloomFilter.mightContain("lalle")).thenReturn(false);
+
+        var result = redisUserDao.get("lalle");
+
+        assertEquals(User.NONEXISTING, result);
+        verify(factory, never()).redis(anyString());
+    }
+
+    @Test
+    public void existsUnknownUserIsNotLookedUp() {
+        when(bloomFilter.mightContain("lalle")).thenReturn(false);
+
+        assertFalse(redisUserDao.exists("lalle"));
+        verify(factory, never()).redis(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void addAll() {
+        var pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        Response<Object> claimed = mock(Response.class);
+        when(claimed.get()).thenReturn(1L);
+        Response<Object> taken = mock(Response.class);
+        when(taken.get()).thenReturn(0L);
+        when(pipeline.eval(any(byte[].class), anyList(), anyList())).thenReturn(claimed);
+        when(pipeline.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(taken);
+
+        var result = redisUserDao.addAll(List.of(new User("lalle", "password"), new User("kalle", "password")));
+
+        assertEquals(List.of(true, false), result);
+        verify(pipeline).eval(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).get(0).equals("user:lalle")), anyList());
+        verify(pipeline).evalsha(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).get(0).equals("user:kalle")), anyList());
+        verify(pipeline, times(1)).sync();
+        verify(bloomFilter).add("lalle");
+        verify(bloomFilter, never()).add("kalle");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void addAllPipelinesEachShard() {
+        var other = mock(Jedis.class);
+        var pipeline = mock(Pipeline.class);
+        var otherPipeline = mock(Pipeline.class);
+        when(factory.shard(HashTags.user("kalle"))).thenReturn(1);
+        when(factory.redis(1)).thenReturn(other);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(other.pipelined()).thenReturn(otherPipeline);
+        Response<Object> claimed = mock(Response.class);
+        when(claimed.get()).thenReturn(1L);
+        when(pipeline.eval(any(byte[].class), anyList(), anyList())).thenReturn(claimed);
+        when(otherPipeline.eval(any(byte[].class), anyList(), anyList())).thenReturn(claimed);
+
+        var result = redisUserDao.addAll(List.of(new User("lalle", "password"), new User("kalle", "password")));
+
+        assertEquals(List.of(true, true), result);
+        verify(pipeline).eval(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).get(0).equals("user:lalle")), anyList());
+        verify(otherPipeline).eval(any(byte[].class), argThat((List<byte[]> keys) -> strings(keys).get(0).equals("user:kalle")), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void existing() {
+        var pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(bloomFilter.mightContain("falle")).thenReturn(false);
+        Response<Boolean> exists = mock(Response.class);
+        when(exists.get()).thenReturn(true);
+        Response<Boolean> missing = mock(Response.class);
+        when(missing.get()).thenReturn(false);
+        when(pipeline.exists("user:lalle")).thenReturn(exists);
+        when(pipeline.exists("user:kalle")).thenReturn(missing);
+
+        var result = redisUserDao.existing(users);
+
+        assertEquals(Set.of("lalle"), result);
+        verify(pipeline, never()).exists("user:falle");
+        verify(pipeline).sync();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2019 Love Löfdahl
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.fridaymastermix.user;
+
+import com.fridaymastermix.database.RedisFactory;
+import com.fridaymastermix.database.RedisPubSub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.annotation.Order;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserBloomFilterTest {
+
+    private UserBloomFilter filter;
+    private Pipeline pipeline;
+
+    @Before
+    public void setup() {
+        var factory = mock(RedisFactory.class);
+        var redis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
+        when(factory.redis()).thenReturn(redis);
+        when(factory.redis(anyInt())).thenReturn(redis);
+        when(factory.shards()).thenReturn(1);
+        when(redis.pipelined()).thenReturn(pipeline);
+
+        filter = new UserBloomFilter();
+        filter.redisFactory = factory;
+        filter.pubSub = mock(RedisPubSub.class);
+        filter.expectedUsers = 1000;
+        filter.falsePositiveRate = 0.01;
+        filter.afterPropertiesSet();
+    }
+
+    @After
+    public void teardown() {
+        filter = null;
+        pipeline = null;
+    }
+
+    @Test
+    public void everyUserMightExistBeforeTheFilterIsLoaded() {
+        assertTrue(filter.mightContain("lalle"));
+    }
+
+    @Test
+    public void addedUserMightExist() {
+        filter.ready();
+        filter.add("lalle");
+
+        assertTrue(filter.mightContain("lalle"));
+        assertFalse(filter.mightContain("kalle"));
+    }
+
+    @Test
+    public void addIsPersisted() {
+        filter.add("lalle");
+
+        var hashFunctions = filter.indexes("lalle").length;
+        verify(pipeline, times(hashFunctions)).setbit(eq("users:bloom"), anyLong(), eq(true));
+        verify(pipeline).sync();
+    }
+
+    @Test
+    public void indexesAreStable() {
+        assertArrayEquals(filter.indexes("lalle"), filter.indexes("lalle"));
+        assertEquals(7, filter.indexes("lalle").length);
+    }
+
+    @Test
+    public void redisLayout() {
+        var bits = new UserBloomFilter.Bits(64);
+        bits.set(0);
+        bits.set(9);
+
+        var bytes = bits.toRedis();
+        assertEquals((byte) 0x80, bytes[0]);
+        assertEquals((byte) 0x40, bytes[1]);
+
+        var loaded = UserBloomFilter.Bits.fromRedis(bytes, 64);
+        assertTrue(loaded.get(0));
+        assertTrue(loaded.get(9));
+        assertFalse(loaded.get(1));
+        assertEquals(2, loaded.cardinality());
+    }
+
+    @Test
+    public void loadsAfterSubscriptionIsConfirmed() throws NoSuchMethodException {
+        var start = RedisPubSub.class.getMethod("start").getAnnotation(Order.class);
+        var load = UserBloomFilter.class.getMethod("load").getAnnotation(Order.class);
+
+        assertTrue(load.value() > start.value());
+    }
+}
@@ -17,16 +17,24 @@
 
 package com.fridaymastermix.user;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fridaymastermix.ResponseCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,6 +50,12 @@ public class UserControllerTest {
         userService = mock(UserService.class);
         request = mock(HttpServletRequest.class);
         userController.users = userService;
+
+        userController.responses = mock(ResponseCache.class);
+        when(userController.responses.respond(eq("users"), eq(""), any(), any())).thenAnswer(invocation -> {
+            var loader = (Supplier<?>) invocation.getArgument(3);
+            return ResponseEntity.ok(new ObjectMapper().writeValueAsBytes(loader.get()));
+        });
     }
 
     @After
@@ -51,8 +65,13 @@ public class UserControllerTest {
     }
 
     @Test
-    public void listUsers() {
-        userController.listUsers();
+    public void listUsers() throws IOException {
+        when(userService.all()).thenReturn(List.of(new User("lalle", "password")));
+
+        var response = userController.listUsers(null);
+
+        var json = new ObjectMapper().readTree(response.getBody());
+        assertEquals("lalle", json.get("users").get(0).get("user").asText());
         verify(userService).all();
     }
 
@@ -62,7 +81,33 @@ public class UserControllerTest {
         verify(userService).describe("lalle");
     }
 
+    @Test
+    public void postUserBatch() {
+        when(request.getRequestURI()).thenReturn("/users/batch");
+        var lalle = new User("lalle", "password");
+        var kalle = new User("kalle", "password");
+        when(userService.createAll(List.of(lalle, kalle))).thenReturn(List.of(true, false));
+
+        var response = userController.postUserBatch(List.of(lalle, new User("falle", ""), kalle), request);
 
+        var results = response.getBody().getResults();
+        assertEquals(HttpStatus.MULTI_STATUS, response.getStatusCode());
+        assertEquals(201, results.get(0).getStatus());
+        assertEquals("/users/lalle", results.get(0).getLocation());
+        assertEquals(400, results.get(1).getStatus());
+        assertEquals(303, results.get(2).getStatus());
+    }
+
+    @Test
+    public void postUserBatchAllCreated() {
+        when(request.getRequestURI()).thenReturn("/users/batch");
+        var lalle = new User("lalle", "password");
+        when(userService.createAll(List.of(lalle))).thenReturn(List.of(true));
+
+        var response = userController.postUserBatch(List.of(lalle), request);
+
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+    }
 
     @Test
     public void postMessageNonUniqueUser() throws UserAlreadyExistsException {
@@ -17,6 +17,7 @@
 
 package com.fridaymastermix.user;
 
+import com.fridaymastermix.ResponseCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,18 +29,36 @@ public class UserServiceTest {
 
     private UserService userService;
     private UserDao userDao;
+    private KnownUsers knownUsers;
+    private ResponseCache responses;
 
     @Before
     public void setup() {
         userService = new UserService();
         userDao = mock(UserDao.class);
+        knownUsers = mock(KnownUsers.class);
         userService.users = userDao;
+        userService.knownUsers = knownUsers;
+
+        responses = mock(ResponseCache.class);
+        userService.responses = responses;
     }
 
     @After
     public void teardown() {
         userService = null;
         userDao = null;
+        knownUsers = null;
+        responses = null;
+    }
+
+    @Test
+    public void create() throws UserAlreadyExistsException {
+        var user = new User("lalle", "password");
+        userService.create(user);
+        verify(userDao).add(user);
+        verify(knownUsers).created("lalle");
+        verify(responses).invalidate("users");
     }
 
     @Test